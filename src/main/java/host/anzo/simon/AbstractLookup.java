@@ -19,14 +19,19 @@
 package host.anzo.simon;
 
 import host.anzo.simon.codec.SimonProxyFilter;
+import host.anzo.simon.codec.WriteCoalescingFilter;
+import host.anzo.simon.codec.base.RemoteTargetTable;
 import host.anzo.simon.codec.base.SimonProtocolCodecFactory;
+import host.anzo.simon.codec.messages.MsgNameLookupReturn;
 import host.anzo.simon.exceptions.EstablishConnectionFailed;
+import host.anzo.simon.exceptions.LookupFailedException;
+import host.anzo.simon.compression.FrameCompression;
+import host.anzo.simon.serialization.SimonSerializer;
 import host.anzo.simon.ssl.SslContextFactory;
 import host.anzo.simon.utils.FilterEntry;
 import host.anzo.simon.utils.Utils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
-import org.apache.mina.core.future.CloseFuture;
 import org.apache.mina.core.future.ConnectFuture;
 import org.apache.mina.core.future.IoFuture;
 import org.apache.mina.core.future.IoFutureListener;
@@ -47,6 +52,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author ACHR
@@ -66,10 +74,21 @@ abstract class AbstractLookup implements Lookup {
 
 	protected InetAddress sourceAddress;
 
+	protected WaitStrategy waitStrategy;
+
+	protected SimonSerializer serializer;
+
+	protected FrameCompression frameCompression;
+
+	protected int sessionPoolSize = 1;
+
+	protected ReconnectPolicy reconnectPolicy;
+
 	/**
-	 * A simple container class that relates the dispatcher to a session
+	 * A simple container class that relates the dispatcher to a session and
+	 * the connection the session belongs to
 	 */
-	record SessionDispatcherContainer(IoSession session, Dispatcher dispatcher) {
+	record SessionDispatcherContainer(IoSession session, Dispatcher dispatcher, ClientToServerConnection connection) {
 	}
 
 	@Override
@@ -77,6 +96,59 @@ abstract class AbstractLookup implements Lookup {
 		this.sourceAddress = sourceAddress;
 	}
 
+	@Override
+	public void setWaitStrategy(WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+	}
+
+	@Override
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	@Override
+	public void setSerializer(SimonSerializer serializer) {
+		this.serializer = serializer;
+	}
+
+	@Override
+	public SimonSerializer getSerializer() {
+		return serializer;
+	}
+
+	@Override
+	public void setFrameCompression(FrameCompression frameCompression) {
+		this.frameCompression = frameCompression;
+	}
+
+	@Override
+	public FrameCompression getFrameCompression() {
+		return frameCompression;
+	}
+
+	@Override
+	public void setSessionPoolSize(int sessionPoolSize) {
+		if (sessionPoolSize < 1) {
+			throw new IllegalArgumentException("sessionPoolSize must be greater than 0: " + sessionPoolSize);
+		}
+		this.sessionPoolSize = sessionPoolSize;
+	}
+
+	@Override
+	public int getSessionPoolSize() {
+		return sessionPoolSize;
+	}
+
+	@Override
+	public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+		this.reconnectPolicy = reconnectPolicy;
+	}
+
+	@Override
+	public ReconnectPolicy getReconnectPolicy() {
+		return reconnectPolicy;
+	}
+
 	@Override
 	public boolean release(Object remoteObject) {
 		log.debug("begin");
@@ -168,6 +240,7 @@ abstract class AbstractLookup implements Lookup {
 
 		Dispatcher dispatcher = null;
 		IoSession session = null;
+		ClientToServerConnection connection;
 
 		String serverString = createServerString(serverAddress, serverPort);
 
@@ -183,12 +256,17 @@ abstract class AbstractLookup implements Lookup {
 				serverDispatcherRelation.put(serverString, ctsc);
 				dispatcher = ctsc.getDispatcher();
 				session = ctsc.getSession();
+				connection = ctsc;
 				log.debug("Got ClientToServerConnection from list");
 			} else {
 
 				log.debug("No ClientToServerConnection in list. Creating new one.");
 
 				dispatcher = new Dispatcher(serverString, getClassLoader(), Simon.getThreadPool());
+				if (serializer != null) {
+					dispatcher.setSerializer(serializer);
+				}
+				dispatcher.setFrameCompression(frameCompression);
 
 				// an executor service for handling the message reading in a threadpool
 				ExecutorService filterchainWorkerPool = null;
@@ -241,6 +319,13 @@ abstract class AbstractLookup implements Lookup {
 					throw new IllegalArgumentException(e);
 				}
 
+				// frames are combined below the codec, so the codec hands over complete frames
+				WriteCoalescingFilter writeCoalescingFilter = Simon.createWriteCoalescingFilter();
+				if (writeCoalescingFilter != null) {
+					filters.add(new FilterEntry(WriteCoalescingFilter.FILTER_NAME, writeCoalescingFilter));
+					log.debug("write coalescing ON");
+				}
+
 				protocolFactory.setup(false);
 				filters.add(new FilterEntry(protocolFactory.getClass().getName(), new ProtocolCodecFilter(protocolFactory)));
 
@@ -263,72 +348,263 @@ abstract class AbstractLookup implements Lookup {
 				}
 				log.debug("Using: {}", connectionTarget);
 
-				// now we can try to connect ...
-				ConnectFuture future = null;
-				try {
-
-					InetSocketAddress remote;
+				InetSocketAddress remote;
 
-					// decide whether the connection goes via proxy or not
-					if (proxyConfig == null) {
-						remote = new InetSocketAddress(serverAddress, serverPort);
-					} else {
-						remote = new InetSocketAddress(proxyConfig.getProxyHost(), proxyConfig.getProxyPort());
-					}
+				// decide whether the connection goes via proxy or not
+				if (proxyConfig == null) {
+					remote = new InetSocketAddress(serverAddress, serverPort);
+				} else {
+					remote = new InetSocketAddress(proxyConfig.getProxyHost(), proxyConfig.getProxyPort());
+				}
 
-					if (sourceAddress != null) {
-						future = connector.connect(remote, new InetSocketAddress(sourceAddress, 0 /* let oS decide on source port */));
-					} else {
-						future = connector.connect(remote); // let OS choose the source address
-					}
+				InetSocketAddress local = sourceAddress != null ? new InetSocketAddress(sourceAddress, 0 /* let oS decide on source port */) : null;
 
-					boolean finished = future.awaitUninterruptibly(Statics.DEFAULT_CONNECT_TIMEOUT);
-					if (!finished) {
-						log.debug("Connect timed out after {} ms", Statics.DEFAULT_CONNECT_TIMEOUT);
+				// the proxy filter keeps the state of one proxy handshake
+				int poolSize = proxyConfig == null ? sessionPoolSize : 1;
+				List<IoSession> sessions = new ArrayList<>(poolSize);
+				try {
+					for (int i = 0; i < poolSize; i++) {
+						session = connect(connector, remote, local, connectionTarget);
+						sessions.add(session);
+						log.trace("connected with {}. remoteObjectName={}, session {} of {}", connectionTarget, remoteObjectName, i + 1, poolSize);
+						configureSession(dispatcher, session);
 					}
-				} catch (Exception e) {
-
-					if (session != null) {
-						log.trace("session != null. closing it...");
-						session.closeNow();
+				} catch (EstablishConnectionFailed | RuntimeException e) {
+					for (IoSession connected : sessions) {
+						log.trace("closing already connected session {}", connected);
+						connected.closeNow();
 					}
 					connector.dispose();
 					dispatcher.shutdown();
 					if (filterchainWorkerPool != null) {
 						filterchainWorkerPool.shutdown();
 					}
+					throw e;
+				}
+				session = sessions.get(0);
 
-					throw new EstablishConnectionFailed(
-							"Exception occured while connection/getting session for " + connectionTarget + ".", e);
+				// store this connection for later re-use
+				ClientToServerConnection ctsc = new ClientToServerConnection(serverString, dispatcher, sessions, connector, filterchainWorkerPool);
+				if (reconnectPolicy != null) {
+					ctsc.setReconnect(reconnectPolicy, remote, local, connectionTarget, poolSize);
 				}
+				ctsc.addRef();
+				serverDispatcherRelation.put(serverString, ctsc);
+				monitorCompleteShutdown.reset();
+				connection = ctsc;
+			}
+		}
 
-				if (future.isConnected()) { // check if the connection succeeded
+		return new SessionDispatcherContainer(session, dispatcher, connection);
+	}
 
-					session = future.getSession(); // this cannot return null, because we waited uninterruptibly for the connect-process
-					log.trace("connected with {}. remoteObjectName={}", connectionTarget, remoteObjectName);
-				} else {
-					connector.dispose();
-					dispatcher.shutdown();
-					if (filterchainWorkerPool != null) {
-						filterchainWorkerPool.shutdown();
-					}
-					throw new EstablishConnectionFailed("Could not establish connection to " + connectionTarget +
-							". Maybe host or network is down?");
+	/**
+	 * Opens one session to the server
+	 *
+	 * @param connector        the connector with the prepared filter chain
+	 * @param remote           the address to connect to
+	 * @param local            the local address to bind to, null to let the OS decide
+	 * @param connectionTarget the description of the target for the log and exceptions
+	 * @return the connected session
+	 * @throws EstablishConnectionFailed if the connection can't be established
+	 */
+	private static IoSession connect(IoConnector connector, InetSocketAddress remote, InetSocketAddress local, String connectionTarget) throws EstablishConnectionFailed {
+		ConnectFuture future;
+		try {
+			if (local != null) {
+				future = connector.connect(remote, local);
+			} else {
+				future = connector.connect(remote); // let OS choose the source address
+			}
+
+			boolean finished = future.awaitUninterruptibly(Statics.DEFAULT_CONNECT_TIMEOUT);
+			if (!finished) {
+				log.debug("Connect timed out after {} ms", Statics.DEFAULT_CONNECT_TIMEOUT);
+			}
+		} catch (Exception e) {
+			throw new EstablishConnectionFailed(
+					"Exception occured while connection/getting session for " + connectionTarget + ".", e);
+		}
+
+		if (!future.isConnected()) { // check if the connection succeeded
+			throw new EstablishConnectionFailed("Could not establish connection to " + connectionTarget +
+					". Maybe host or network is down?");
+		}
+		return future.getSession(); // this cannot return null, because we waited uninterruptibly for the connect-process
+	}
+
+	/**
+	 * Configures a new session and negotiates the protocol version
+	 *
+	 * @param dispatcher the dispatcher of the connection
+	 * @param session    the new session
+	 */
+	private static void configureSession(Dispatcher dispatcher, IoSession session) {
+		session.getConfig().setIdleTime(IdleStatus.BOTH_IDLE, Statics.DEFAULT_IDLE_TIME);
+		session.getConfig().setWriteTimeout(Statics.DEFAULT_WRITE_TIMEOUT);
+
+		// negotiate the protocol version before the first request is sent
+		dispatcher.handshake(session);
+	}
+
+	/**
+	 * Registers a looked up remote object on all sessions of the connection,
+	 * to invoke it by object id if the server assigned one. The id is the same
+	 * on all sessions.
+	 *
+	 * @param connection       the connection the remote object has been looked up on
+	 * @param remoteObjectName the name of the remote object
+	 * @param objectId         the id assigned by the server
+	 * @param methodHashes     the hashes of the methods, in the order of their ids
+	 */
+	static void registerRemoteObject(@NotNull ClientToServerConnection connection, String remoteObjectName, int objectId, long[] methodHashes) {
+		connection.addRemoteObjectName(remoteObjectName);
+		for (IoSession session : connection.getSessions()) {
+			RemoteTargetTable.register(session, remoteObjectName, objectId, methodHashes);
+		}
+	}
+
+	/**
+	 * Handles the close of a session of a connection which is not released.
+	 * Other pooled sessions take over. With a reconnect policy, the lost
+	 * session is replaced.
+	 *
+	 * @param dispatcher the dispatcher of the connection
+	 * @param session    the closed session
+	 * @return true, if the connection stays usable or is being reconnected
+	 */
+	static boolean sessionLost(@NotNull Dispatcher dispatcher, IoSession session) {
+		synchronized (serverDispatcherRelation) {
+			ClientToServerConnection ctsc = serverDispatcherRelation.get(dispatcher.getServerString());
+			if (ctsc == null || ctsc.getDispatcher() != dispatcher) {
+				return false;
+			}
+			boolean sessionsLeft = ctsc.removeSession(session);
+			if (sessionsLeft) {
+				log.info("pooled session {} to {} closed, {} session(s) left", Utils.longToHexString(session.getId()), dispatcher.getServerString(), ctsc.getSessions().size());
+			}
+			if (ctsc.getReconnectPolicy() == null) {
+				return sessionsLeft;
+			}
+			if (ctsc.startReconnect()) {
+				log.info("session {} to {} lost, reconnecting with {}", Utils.longToHexString(session.getId()), dispatcher.getServerString(), ctsc.getReconnectPolicy());
+				scheduleReconnect(ctsc, 0);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Schedules a reconnect attempt after the delay of the policy. The attempt
+	 * runs on the dispatcher's thread pool, as connecting blocks.
+	 *
+	 * @param ctsc    the connection to reconnect
+	 * @param attempt the number of the attempt, starting at 0
+	 */
+	private static void scheduleReconnect(ClientToServerConnection ctsc, int attempt) {
+		Dispatcher dispatcher = ctsc.getDispatcher();
+		long delay = ctsc.getReconnectPolicy().getDelay(attempt);
+		try {
+			dispatcher.getTimer().schedule(() -> {
+				try {
+					dispatcher.getMessageProcessorPool().execute(() -> reconnect(ctsc, attempt));
+				} catch (RejectedExecutionException e) {
+					log.debug("dispatcher for {} is shut down, reconnect cancelled", ctsc.getServerString());
+					ctsc.finishReconnect();
 				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (IllegalStateException e) {
+			log.debug("dispatcher for {} is shut down, reconnect cancelled", ctsc.getServerString());
+			ctsc.finishReconnect();
+		}
+	}
 
-				// configure the session
-				session.getConfig().setIdleTime(IdleStatus.BOTH_IDLE, Statics.DEFAULT_IDLE_TIME);
-				session.getConfig().setWriteTimeout(Statics.DEFAULT_WRITE_TIMEOUT);
+	/**
+	 * Connects the missing sessions of a connection and resolves the looked
+	 * up remote objects on them again
+	 *
+	 * @param ctsc    the connection to reconnect
+	 * @param attempt the number of the attempt, starting at 0
+	 */
+	private static void reconnect(ClientToServerConnection ctsc, int attempt) {
+		Dispatcher dispatcher = ctsc.getDispatcher();
+		if (dispatcher.isReleased()) {
+			ctsc.finishReconnect();
+			return;
+		}
 
-				// store this connection for later re-use
-				ClientToServerConnection ctsc = new ClientToServerConnection(serverString, dispatcher, session, connector, filterchainWorkerPool);
-				ctsc.addRef();
-				serverDispatcherRelation.put(serverString, ctsc);
-				monitorCompleteShutdown.reset();
+		int missing = ctsc.getPoolSize() - ctsc.getConnectedSessionCount();
+		List<IoSession> sessions = new ArrayList<>(missing);
+		try {
+			for (int i = 0; i < missing; i++) {
+				IoSession session = connect(ctsc.getConnector(), ctsc.getRemoteAddress(), ctsc.getLocalAddress(), ctsc.getConnectionTarget());
+				sessions.add(session);
+				configureSession(dispatcher, session);
+
+				for (String remoteObjectName : ctsc.getRemoteObjectNames()) {
+					MsgNameLookupReturn msg = dispatcher.invokeNameLookup(session, remoteObjectName);
+					if (msg.hasError()) {
+						log.warn("remote object '{}' is no longer available on {}: {}", remoteObjectName, ctsc.getServerString(), msg.getErrorMsg());
+					} else {
+						RemoteTargetTable.register(session, remoteObjectName, msg.getObjectId(), msg.getMethodHashes());
+					}
+				}
 			}
+		} catch (EstablishConnectionFailed | LookupFailedException | RuntimeException e) {
+			for (IoSession session : sessions) {
+				session.closeNow();
+			}
+			log.info("reconnect attempt {} to {} failed: {}", attempt + 1, ctsc.getServerString(), e.getMessage());
+			retryReconnect(ctsc, attempt + 1);
+			return;
 		}
 
-		return new SessionDispatcherContainer(session, dispatcher);
+		boolean restored;
+		synchronized (serverDispatcherRelation) {
+			if (dispatcher.isReleased()) {
+				for (IoSession session : sessions) {
+					session.closeNow();
+				}
+				ctsc.finishReconnect();
+				return;
+			}
+			restored = ctsc.getConnectedSessionCount() == 0;
+			ctsc.addSessions(sessions);
+		}
+		log.info("reconnected {} session(s) to {} after {} attempt(s)", sessions.size(), ctsc.getServerString(), attempt + 1);
+		if (restored) {
+			dispatcher.connectionRestored();
+		}
+
+		// sessions lost while reconnecting are replaced right away
+		if (ctsc.getConnectedSessionCount() < ctsc.getPoolSize()) {
+			retryReconnect(ctsc, attempt + 1);
+		} else {
+			ctsc.finishReconnect();
+		}
+	}
+
+	/**
+	 * Schedules the next reconnect attempt, or gives up if the policy allows
+	 * no further attempts. Giving up on a connection without any session left
+	 * closes it.
+	 *
+	 * @param ctsc    the connection to reconnect
+	 * @param attempt the number of the next attempt
+	 */
+	private static void retryReconnect(ClientToServerConnection ctsc, int attempt) {
+		Dispatcher dispatcher = ctsc.getDispatcher();
+		if (dispatcher.isReleased()) {
+			ctsc.finishReconnect();
+		} else if (ctsc.getReconnectPolicy().isAttemptAllowed(attempt)) {
+			scheduleReconnect(ctsc, attempt);
+		} else {
+			log.warn("giving up reconnecting to {} after {} attempt(s)", ctsc.getServerString(), attempt);
+			ctsc.finishReconnect();
+			if (ctsc.getConnectedSessionCount() == 0) {
+				dispatcher.connectionClosed();
+			}
+		}
 	}
 
 	/**
@@ -374,12 +650,15 @@ abstract class AbstractLookup implements Lookup {
 					ctsc.getDispatcher().shutdown();
 					ctsc.getDispatcher().setReleased();
 
-					CloseFuture closeFuture = ctsc.getSession().closeOnFlush();
-
-					closeFuture.addListener(new IoFutureListener<IoFuture>() {
+					List<IoSession> sessions = ctsc.getSessions();
+					final AtomicInteger openSessions = new AtomicInteger(sessions.size());
+					IoFutureListener<IoFuture> closeListener = new IoFutureListener<IoFuture>() {
 
 						@Override
 						public void operationComplete(IoFuture future) {
+							if (openSessions.decrementAndGet() > 0) {
+								return;
+							}
 
 							// shutdown threads/executors in filterchain once the session has been closed
 							if (ctsc.getFilterchainWorkerPool() != null) {
@@ -393,7 +672,12 @@ abstract class AbstractLookup implements Lookup {
 								monitorCompleteShutdown.signal();
 							}
 						}
-					});
+					};
+					for (IoSession session : sessions) {
+						// collected frames have to be written before the close request
+						WriteCoalescingFilter.flush(session);
+						session.closeOnFlush().addListener(closeListener);
+					}
 					result = true;
 				} else {
 					log.debug("refCount={}. put back the ClientToServerConnection.", refCount);
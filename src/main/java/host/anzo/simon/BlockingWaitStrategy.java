@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The default {@link WaitStrategy}: the calling thread is parked until the
+ * result arrives. Uses no CPU while waiting, but adds the wake-up latency of
+ * the thread to each call.
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+
+	@Override
+	public void waitFor(SequenceMonitor monitor, long deadlineNanos) {
+		while (!monitor.isCompleted()) {
+			long remaining = deadlineNanos - System.nanoTime();
+			if (remaining <= 0) {
+				return;
+			}
+			monitor.waitForSignal(TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon;
+
+/**
+ * A {@link WaitStrategy} which busy-spins the calling thread until the result
+ * arrives. Gives the lowest latency, but occupies a whole CPU for the
+ * duration of each call. Only use it for threads which are pinned to a
+ * dedicated core.
+ */
+public class BusySpinWaitStrategy implements WaitStrategy {
+
+	@Override
+	public void waitFor(SequenceMonitor monitor, long deadlineNanos) {
+		while (!monitor.isCompleted()) {
+			if (System.nanoTime() - deadlineNanos >= 0) {
+				return;
+			}
+			Thread.onSpinWait();
+		}
+	}
+}
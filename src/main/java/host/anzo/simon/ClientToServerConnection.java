@@ -22,14 +22,22 @@ import org.apache.mina.core.service.IoConnector;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.transport.socket.nio.NioSocketConnector;
 
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class is used to store the relation between:
  *
  * <ul>
  * <li>{@link Dispatcher}</li>
- * <li>{@link IoSession}</li>
+ * <li>the {@link IoSession}s to the server</li>
  * <li>{@link IoConnector}</li>
  * <li>a String of format "HOST:PORT" that identifies the server</li>
  * <li>and the {@link ExecutorService} used on the filter chain</li>
@@ -38,17 +46,46 @@ import java.util.concurrent.ExecutorService;
  * This information is used by {@link Simon} to establish only one connection to a server for
  * several {@link Lookup#lookup(String)} calls. Each lookup on the same connection increases a reference count.
  * The connection will be dropped by SIMON if the reference count reaches 0.
+ * <p>
+ * A connection may consist of a pool of sessions, see {@link Lookup#setSessionPoolSize(int)}.
+ * All sessions share the dispatcher, each call picks the session with the fewest outstanding
+ * requests. A pooled session which is closed is removed from the pool, the connection stays
+ * usable as long as one session is left.
+ * <p>
+ * With a {@link ReconnectPolicy}, lost sessions are replaced by new ones and the remote objects
+ * looked up on the connection are resolved again on them.
  *
  * @author ACHR
  */
 public class ClientToServerConnection {
 	private Dispatcher dispatcher;
-	private IoSession session;
+	/**
+	 * the pooled sessions, replaced as a whole when a session is removed
+	 */
+	private volatile IoSession[] sessions;
+	/**
+	 * the session a selection starts with, rotates so that idle sessions are used in turn
+	 */
+	private final AtomicInteger nextSession = new AtomicInteger();
 	private String ServerString;
 	private int referenceCount = 0;
 	private IoConnector connector;
 	private ExecutorService filterchainWorkerPool;
 
+	/**
+	 * the policy for replacing lost sessions, null if they are not replaced
+	 */
+	private ReconnectPolicy reconnectPolicy;
+	private InetSocketAddress remoteAddress;
+	private InetSocketAddress localAddress;
+	private String connectionTarget;
+	private int poolSize;
+	/**
+	 * the names of the remote objects looked up on this connection
+	 */
+	private final Set<String> remoteObjectNames = ConcurrentHashMap.newKeySet();
+	private final AtomicBoolean reconnecting = new AtomicBoolean();
+
 	/**
 	 * Returns the {@link IoConnector} related to the connection
 	 *
@@ -72,15 +109,15 @@ public class ClientToServerConnection {
 	 *
 	 * @param serverString          the used server string
 	 * @param dispatcher            the used dispatcher
-	 * @param session               the underlying session
+	 * @param sessions              the underlying sessions
 	 * @param connector             the used ioconnector
 	 * @param filterchainWorkerPool the executorservice for the filter chain
 	 */
-	protected ClientToServerConnection(String serverString, Dispatcher dispatcher, IoSession session, IoConnector connector, ExecutorService filterchainWorkerPool) {
+	protected ClientToServerConnection(String serverString, Dispatcher dispatcher, List<IoSession> sessions, IoConnector connector, ExecutorService filterchainWorkerPool) {
 
 		this.ServerString = serverString;
 		this.dispatcher = dispatcher;
-		this.session = session;
+		this.sessions = sessions.toArray(new IoSession[0]);
 		this.connector = connector;
 		this.filterchainWorkerPool = filterchainWorkerPool;
 	}
@@ -139,21 +176,166 @@ public class ClientToServerConnection {
 	}
 
 	/**
-	 * Gets the session which is used by the client to communicate with the server via {@link Dispatcher}
+	 * Gets the session a call should be sent on: the connected session with
+	 * the fewest requests waiting for their result. Sessions with the same
+	 * count are used in turn.
 	 *
-	 * @return the stored session
+	 * @return the selected session, the first session if none is connected
 	 */
 	protected IoSession getSession() {
-		return session;
+		IoSession[] pool = sessions;
+		if (pool.length == 0) {
+			return null;
+		}
+		IoSession selected = null;
+		int fewest = Integer.MAX_VALUE;
+		int start = pool.length > 1 ? Math.floorMod(nextSession.getAndIncrement(), pool.length) : 0;
+		for (int i = 0; i < pool.length; i++) {
+			IoSession candidate = pool[(start + i) % pool.length];
+			if (!candidate.isConnected() || candidate.isClosing()) {
+				continue;
+			}
+			int outstanding = dispatcher.getOutstandingRequestCount(candidate);
+			if (outstanding < fewest) {
+				selected = candidate;
+				fewest = outstanding;
+				if (outstanding == 0) {
+					break;
+				}
+			}
+		}
+		return selected != null ? selected : pool[0];
 	}
 
 	/**
-	 * Sets the session which is used by the client to communicate with the server via {@link Dispatcher}
+	 * Gets all sessions of the connection
 	 *
-	 * @param session the session to store
+	 * @return the sessions
+	 */
+	protected List<IoSession> getSessions() {
+		return Arrays.asList(sessions);
+	}
+
+	/**
+	 * Removes a closed session from the pool. The last session is kept, its
+	 * close ends the connection.
+	 *
+	 * @param session the session to remove
+	 * @return true, if the session has been removed and other sessions are left
+	 */
+	protected synchronized boolean removeSession(IoSession session) {
+		IoSession[] pool = sessions;
+		if (pool.length < 2) {
+			return false;
+		}
+		for (int i = 0; i < pool.length; i++) {
+			if (pool[i] == session) {
+				IoSession[] remaining = new IoSession[pool.length - 1];
+				System.arraycopy(pool, 0, remaining, 0, i);
+				System.arraycopy(pool, i + 1, remaining, i, remaining.length - i);
+				sessions = remaining;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Adds new sessions to the pool, replacing the closed ones
+	 *
+	 * @param added the new sessions
+	 */
+	protected synchronized void addSessions(List<IoSession> added) {
+		List<IoSession> pool = new ArrayList<>(sessions.length + added.size());
+		for (IoSession session : sessions) {
+			if (session.isConnected() && !session.isClosing()) {
+				pool.add(session);
+			}
+		}
+		pool.addAll(added);
+		sessions = pool.toArray(new IoSession[0]);
+	}
+
+	/**
+	 * Returns the number of sessions which are still connected
+	 *
+	 * @return the number of connected sessions
+	 */
+	protected int getConnectedSessionCount() {
+		int connected = 0;
+		for (IoSession session : sessions) {
+			if (session.isConnected() && !session.isClosing()) {
+				connected++;
+			}
+		}
+		return connected;
+	}
+
+	/**
+	 * Enables replacing lost sessions
+	 *
+	 * @param reconnectPolicy  the policy for the reconnect attempts
+	 * @param remoteAddress    the address to connect to
+	 * @param localAddress     the local address to bind to, null to let the OS decide
+	 * @param connectionTarget the description of the target for the log and exceptions
+	 * @param poolSize         the number of sessions to keep connected
+	 */
+	protected void setReconnect(ReconnectPolicy reconnectPolicy, InetSocketAddress remoteAddress, InetSocketAddress localAddress, String connectionTarget, int poolSize) {
+		this.reconnectPolicy = reconnectPolicy;
+		this.remoteAddress = remoteAddress;
+		this.localAddress = localAddress;
+		this.connectionTarget = connectionTarget;
+		this.poolSize = poolSize;
+	}
+
+	protected ReconnectPolicy getReconnectPolicy() {
+		return reconnectPolicy;
+	}
+
+	protected InetSocketAddress getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	protected InetSocketAddress getLocalAddress() {
+		return localAddress;
+	}
+
+	protected String getConnectionTarget() {
+		return connectionTarget;
+	}
+
+	protected int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * Remembers a remote object looked up on this connection, to resolve it
+	 * again on reconnected sessions
+	 *
+	 * @param remoteObjectName the name of the remote object
+	 */
+	protected void addRemoteObjectName(String remoteObjectName) {
+		remoteObjectNames.add(remoteObjectName);
+	}
+
+	protected Set<String> getRemoteObjectNames() {
+		return remoteObjectNames;
+	}
+
+	/**
+	 * Marks the connection as reconnecting
+	 *
+	 * @return true, if no reconnect was in progress
+	 */
+	protected boolean startReconnect() {
+		return reconnecting.compareAndSet(false, true);
+	}
+
+	/**
+	 * Marks the reconnect as finished
 	 */
-	protected void setSession(IoSession session) {
-		this.session = session;
+	protected void finishReconnect() {
+		reconnecting.set(false);
 	}
 
 	/**
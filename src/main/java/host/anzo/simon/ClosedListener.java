@@ -28,7 +28,18 @@ public interface ClosedListener {
 
 	/**
 	 * Called whenever a server remote object is not useable anymore. This might
-	 * be due to a release-call, or due to a connection error.
+	 * be due to a release-call, or due to a connection error. With a
+	 * {@link ReconnectPolicy}, a connection error is only reported once the
+	 * policy gave up.
 	 */
 	public void closed();
+
+	/**
+	 * Called when the lookup's {@link ReconnectPolicy} restored the lost
+	 * connection to the server remote object. The proxy is usable again.
+	 * Callbacks passed to the server before are gone with the old
+	 * connection, so this is the place to pass them again.
+	 */
+	default void reconnected() {
+	}
 }
@@ -24,8 +24,15 @@
  */
 package host.anzo.simon;
 
+import host.anzo.simon.cache.ResultCache;
+import host.anzo.simon.codec.WriteCoalescingFilter;
+import host.anzo.simon.codec.base.ProtocolCapabilities;
+import host.anzo.simon.codec.base.RawChannelFileRegion;
 import host.anzo.simon.codec.messages.*;
+import host.anzo.simon.compression.FrameCompression;
 import host.anzo.simon.exceptions.*;
+import host.anzo.simon.serialization.JavaSerializer;
+import host.anzo.simon.serialization.SimonSerializer;
 import host.anzo.simon.utils.Utils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.mina.core.service.IoHandler;
@@ -37,8 +44,13 @@ import org.jetbrains.annotations.NotNull;
 import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -60,21 +72,44 @@ public class Dispatcher implements IoHandler {
 	 */
 	private final AtomicInteger sequenceIdCounter = new AtomicInteger(0);
 	/**
-	 * The map that holds the relation between the sequenceID and the received
-	 * result. If a request is placed, the map contains the sequenceID and the
-	 * corresponding monitor object. If the result is present, the monitor
-	 * object is replaced with the result
+	 * Each session gets its own {@link PendingRequestTable} attached as
+	 * session attribute. It holds the requests which wait for their result,
+	 * see {@link #getPendingRequestTable(IoSession)}.
 	 */
-	private final Map<Integer, Object> requestMonitorAndResultMap = Collections.synchronizedMap(new HashMap<>());
+	private static final String SESSION_ATTRIBUTE_PENDING_REQUESTS = PendingRequestTable.class.getName();
+	private static final String SESSION_ATTRIBUTE_HANDSHAKE_SEQUENCE = Dispatcher.class.getName() + ".handshakeSequence";
 	/**
-	 * This map contains pairs of sessions and list of open requests This is
-	 * needed to do a clean shutdown of a session
+	 * the strategy used for waiting for results if no other strategy is set
 	 */
-	private final Map<IoSession, List<Integer>> sessionHasRequestPlaced = Collections.synchronizedMap(new HashMap<IoSession, List<Integer>>());
+	private static final WaitStrategy DEFAULT_WAIT_STRATEGY = new BlockingWaitStrategy();
+	/**
+	 * the timer which fails requests whose invoke timeout has elapsed
+	 */
+	private final HashedWheelTimer timeoutTimer;
 	/**
 	 * the thread-pool where the worker-threads live in
 	 */
 	private ExecutorService messageProcessorPool = null;
+	/**
+	 * runs ordered requests on the messageProcessorPool, see {@link #setMessageOrdering(MessageOrdering)}
+	 */
+	private final OrderedExecutor orderedMessageProcessor;
+	/**
+	 * the order in which received requests are processed
+	 */
+	private volatile MessageOrdering messageOrdering = MessageOrdering.NONE;
+	/**
+	 * the serializer for values of remote calls, attached to each new session
+	 */
+	private volatile SimonSerializer serializer = JavaSerializer.INSTANCE;
+	/**
+	 * the compression for frames sent on new sessions, null for none
+	 */
+	private volatile FrameCompression frameCompression;
+	/**
+	 * the cache for results of cacheable methods, created on first use
+	 */
+	private volatile ResultCache resultCache;
 	/**
 	 * Shutdown flag. If set to true, the dispatcher is going to shutdown itself
 	 * and all related stuff
@@ -225,6 +260,10 @@ public class Dispatcher implements IoHandler {
 		this.lookupTable = new LookupTable(this);
 
 		this.messageProcessorPool = threadPool;
+		this.orderedMessageProcessor = new OrderedExecutor(threadPool);
+		this.messageOrdering = Simon.getMessageOrdering();
+
+		this.timeoutTimer = new HashedWheelTimer(Statics.DISPATCHER_TIMER_NAME, Statics.TIMER_TICK_DURATION, TimeUnit.MILLISECONDS, 512);
 
 		this.pingWatchdog = new PingWatchdog(this);
 
@@ -260,7 +299,7 @@ public class Dispatcher implements IoHandler {
 		log.debug("data send. waiting for answer for sequenceId={}", sequenceId);
 
 		waitForResult(session, monitor);
-		MsgNameLookupReturn result = (MsgNameLookupReturn) getRequestResult(sequenceId);
+		MsgNameLookupReturn result = (MsgNameLookupReturn) getRequestResult(monitor);
 
 		log.debug("got answer for sequenceId={}", sequenceId);
 		log.trace("end sequenceId={}", sequenceId);
@@ -295,7 +334,7 @@ public class Dispatcher implements IoHandler {
 		log.debug("data send. waiting for answer for sequenceId={}", sequenceId);
 
 		waitForResult(session, monitor);
-		MsgInterfaceLookupReturn result = (MsgInterfaceLookupReturn) getRequestResult(sequenceId);
+		MsgInterfaceLookupReturn result = (MsgInterfaceLookupReturn) getRequestResult(monitor);
 
 		log.debug("got answer for sequenceId={}", sequenceId);
 		log.trace("end sequenceId={}", sequenceId);
@@ -361,10 +400,12 @@ public class Dispatcher implements IoHandler {
 	 * @param remoteObjectName the remote object
 	 * @param method the method ti invoke on the remote
 	 * @param args the arguments for the method
+	 * @param waitStrategy the strategy used for waiting for the result, null for the default strategy.
+	 *        A strategy set for the method via Simon#setWaitStrategy takes precedence.
 	 * @return the result of the invoked method
 	 * @throws SimonRemoteException
 	 */
-	protected Object invokeMethod(IoSession session, String remoteObjectName, Method method, Object[] args) throws SimonRemoteException {
+	protected Object invokeMethod(IoSession session, String remoteObjectName, Method method, Object[] args, WaitStrategy waitStrategy) throws SimonRemoteException {
 
 		checkForInvalidState(session, method.toString());
 
@@ -388,18 +429,160 @@ public class Dispatcher implements IoHandler {
 		log.debug("data send. waiting for answer for sequenceId={}", sequenceId);
 		int customWaitTimeout = Simon.getCustomInvokeTimeout(method);
 
-		if (customWaitTimeout > 0) {
-			waitForResult(session, monitor, customWaitTimeout);
-		} else {
-			waitForResult(session, monitor);
+		// a strategy set for the method wins over the one of the lookup
+		WaitStrategy methodWaitStrategy = Simon.getWaitStrategy(method);
+		if (methodWaitStrategy != null) {
+			waitStrategy = methodWaitStrategy;
+		} else if (waitStrategy == null) {
+			waitStrategy = DEFAULT_WAIT_STRATEGY;
 		}
 
-		MsgInvokeReturn result = (MsgInvokeReturn) getRequestResult(sequenceId);
+		waitForResult(session, monitor, (customWaitTimeout > 0 ? customWaitTimeout : Statics.DEFAULT_INVOKE_TIMEOUT), waitStrategy);
+
+		MsgInvokeReturn result = (MsgInvokeReturn) getRequestResult(monitor);
 
 		log.debug("end sequenceId={}", sequenceId);
 		return result.getReturnValue();
 	}
 
+	/**
+	 * Sends a method invocation request to the remote host without blocking
+	 * the calling thread. The returned future is completed by the worker
+	 * thread that processes the related {@link MsgInvokeReturn}, or
+	 * exceptionally with a {@link SimonRemoteException} if the session is
+	 * closed or the invoke timeout elapses.
+	 *
+	 * @param session          the related session over which the invoke request comes
+	 * @param remoteObjectName the remote object
+	 * @param method           the method to invoke on the remote
+	 * @param args             the arguments for the method
+	 * @return a future that receives the result of the invoked method
+	 * @throws SimonRemoteException if the request cannot be placed
+	 */
+	protected CompletableFuture<Object> invokeMethodAsync(final IoSession session, String remoteObjectName, Method method, Object[] args) throws SimonRemoteException {
+
+		checkForInvalidState(session, method.toString() + " (future)");
+
+		final int sequenceId = generateSequenceId();
+
+		log.debug("begin sequenceId={} session={}", sequenceId, session);
+
+		// create a monitor that hands the request-result over to a future
+		final FutureSequenceMonitor monitor = new FutureSequenceMonitor(sequenceId);
+		registerMonitor(session, monitor);
+		final CompletableFuture<Object> future = monitor.getFuture();
+
+		Object[] preparedArgs = prepareArgumentsForSend(args, session);
+
+		MsgInvoke msgInvoke = new MsgInvoke();
+		msgInvoke.setSequence(sequenceId);
+		msgInvoke.setRemoteObjectName(remoteObjectName);
+		msgInvoke.setMethod(method);
+		msgInvoke.setArguments(preparedArgs);
+
+		int customWaitTimeout = Simon.getCustomInvokeTimeout(method);
+		scheduleTimeout(session, monitor, (customWaitTimeout > 0 ? customWaitTimeout : Statics.DEFAULT_INVOKE_TIMEOUT));
+
+		session.write(msgInvoke);
+
+		log.debug("end sequenceId={}. data send, result is delivered to future.", sequenceId);
+		return future.thenApply(result -> ((MsgInvokeReturn) result).getReturnValue());
+	}
+
+	/**
+	 * Sends several method invocations on the same remote object in one
+	 * {@link MsgInvokeBatch} and waits for the {@link MsgInvokeBatchReturn}
+	 * holding all results. The batch waits for the largest invoke timeout of
+	 * its methods.
+	 * <p>
+	 * If the remote side doesn't support batches, the invocations are sent
+	 * one by one without waiting for each other, and their results are
+	 * collected afterwards.
+	 *
+	 * @param session          the related session over which the invoke request comes
+	 * @param remoteObjectName the remote object
+	 * @param methods          the methods to invoke on the remote
+	 * @param args             the arguments for each method
+	 * @param parallel         true, if the remote may run the invocations in parallel,
+	 *                         otherwise they run one after another in the given order
+	 * @param waitStrategy     the strategy used for waiting for the result, null for the default strategy
+	 * @return the raw results, in the order of the methods. A call which threw
+	 * an exception has the exception as its result.
+	 * @throws SimonRemoteException if the batch could not be sent or answered
+	 */
+	protected Object[] invokeBatch(IoSession session, String remoteObjectName, Method[] methods, Object[][] args, boolean parallel, WaitStrategy waitStrategy) throws SimonRemoteException {
+
+		checkForInvalidState(session, "batch of " + methods.length + " calls on " + remoteObjectName);
+
+		if (!ProtocolCapabilities.has(session, SimonMessageConstants.CAPABILITY_INVOKE_BATCH)) {
+			return invokePipelined(session, remoteObjectName, methods, args);
+		}
+
+		final int sequenceId = generateSequenceId();
+
+		log.debug("begin sequenceId={} session={} calls={}", sequenceId, session, methods.length);
+
+		// create a monitor that waits for the request-result
+		final SequenceMonitor monitor = createMonitor(session, sequenceId);
+
+		int timeout = 0;
+		Object[][] preparedArgs = new Object[methods.length][];
+		for (int i = 0; i < methods.length; i++) {
+			preparedArgs[i] = prepareArgumentsForSend(args[i], session);
+			int customWaitTimeout = Simon.getCustomInvokeTimeout(methods[i]);
+			timeout = Math.max(timeout, customWaitTimeout > 0 ? customWaitTimeout : Statics.DEFAULT_INVOKE_TIMEOUT);
+		}
+
+		MsgInvokeBatch msgInvokeBatch = new MsgInvokeBatch();
+		msgInvokeBatch.setSequence(sequenceId);
+		msgInvokeBatch.setRemoteObjectName(remoteObjectName);
+		msgInvokeBatch.setMethods(methods);
+		msgInvokeBatch.setArguments(preparedArgs);
+		msgInvokeBatch.setParallel(parallel);
+
+		session.write(msgInvokeBatch);
+
+		log.debug("data send. waiting for answer for sequenceId={}", sequenceId);
+		waitForResult(session, monitor, timeout, waitStrategy != null ? waitStrategy : DEFAULT_WAIT_STRATEGY);
+
+		MsgInvokeBatchReturn result = (MsgInvokeBatchReturn) getRequestResult(monitor);
+
+		log.debug("end sequenceId={}", sequenceId);
+		return result.getReturnValues();
+	}
+
+	/**
+	 * Invokes the methods of a batch with one request per method, for peers
+	 * which don't support {@link MsgInvokeBatch}. All requests are sent
+	 * before waiting for the first result. Methods with <code>void</code>
+	 * return type don't get an answer and have the result null.
+	 */
+	private Object[] invokePipelined(IoSession session, String remoteObjectName, Method[] methods, Object[][] args) throws SimonRemoteException {
+		log.debug("remote doesn't support batches, sending {} calls one by one", methods.length);
+		List<CompletableFuture<Object>> futures = new ArrayList<>(methods.length);
+		for (int i = 0; i < methods.length; i++) {
+			if (methods[i].getReturnType() == void.class) {
+				sendAsyncInvoke(session, remoteObjectName, methods[i], args[i]);
+				futures.add(CompletableFuture.completedFuture(null));
+			} else {
+				futures.add(invokeMethodAsync(session, remoteObjectName, methods[i], args[i]));
+			}
+		}
+
+		Object[] results = new Object[methods.length];
+		for (int i = 0; i < results.length; i++) {
+			try {
+				results[i] = futures.get(i).join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof SimonRemoteException sre) {
+					throw sre;
+				}
+				throw new SimonRemoteException("Batch call #" + i + " failed", e.getCause());
+			}
+		}
+		return results;
+	}
+
 	/**
 	 * Sends a "toString()" request to the remote host.
 	 *
@@ -427,7 +610,7 @@ public class Dispatcher implements IoHandler {
 		log.debug("data send. waiting for answer for sequenceId={}", sequenceId);
 
 		waitForResult(session, monitor);
-		MsgToStringReturn result = (MsgToStringReturn) getRequestResult(sequenceId);
+		MsgToStringReturn result = (MsgToStringReturn) getRequestResult(monitor);
 
 		if (result.hasError()) {
 			throw new SimonRemoteException(result.getErrorMsg());
@@ -467,7 +650,7 @@ public class Dispatcher implements IoHandler {
 		log.debug("data send. waiting for answer for sequenceId={}", sequenceId);
 
 		waitForResult(session, monitor);
-		MsgHashCodeReturn result = (MsgHashCodeReturn) getRequestResult(sequenceId);
+		MsgHashCodeReturn result = (MsgHashCodeReturn) getRequestResult(monitor);
 
 		if (result.hasError()) {
 			throw new SimonRemoteException(result.getErrorMsg());
@@ -510,7 +693,7 @@ public class Dispatcher implements IoHandler {
 		log.debug("data send. waiting for answer for sequenceId={}", sequenceId);
 
 		waitForResult(session, monitor);
-		MsgEqualsReturn result = (MsgEqualsReturn) getRequestResult(sequenceId);
+		MsgEqualsReturn result = (MsgEqualsReturn) getRequestResult(monitor);
 
 		if (result.hasError()) {
 			throw new SimonRemoteException(result.getErrorMsg());
@@ -533,7 +716,7 @@ public class Dispatcher implements IoHandler {
 	 */
 	private void waitForResult(IoSession session, final SequenceMonitor monitor) {
 		// wait at most 10 sec
-		waitForResult(session, monitor, 10000);
+		waitForResult(session, monitor, Statics.DEFAULT_INVOKE_TIMEOUT);
 	}
 
 	/**
@@ -547,37 +730,103 @@ public class Dispatcher implements IoHandler {
 	 * @param timeout timeout for waiting for result
 	 */
 	private void waitForResult(IoSession session, final SequenceMonitor monitor, int timeout) {
+		waitForResult(session, monitor, timeout, DEFAULT_WAIT_STRATEGY);
+	}
+
+	/**
+	 * Waits at most <code>timeout</code> ms for the result of request described by the
+	 * monitor, using the given wait strategy. If result is not present within
+	 * this time, a SimonRemoteException will be placed as the result. This is
+	 * to ensure that the client cannot wait forever for a result.
+	 * <p>
+	 * The deadline is registered with the dispatcher's timer, which fails the
+	 * request when it expires. Until then, the caller waits as defined by the
+	 * wait strategy and is woken up by the arriving result or the timeout.
+	 *
+	 * @param session      the session on which the request was placed
+	 * @param monitor      the monitor related to the request
+	 * @param timeout      timeout for waiting for result
+	 * @param waitStrategy the strategy used for waiting
+	 */
+	private void waitForResult(IoSession session, final SequenceMonitor monitor, int timeout, WaitStrategy waitStrategy) {
 		int sequenceId = monitor.getSequenceId();
-		int counter = 0;
 
 		// wait for result
-		long startWaiting = System.currentTimeMillis();
+		long startWaiting = System.nanoTime();
 
-		// just make sure that the while-loop cannot wait forever for the result
-		long waitLoopCount = timeout / Statics.MONITOR_WAIT_TIMEOUT;
+		HashedWheelTimer.Timeout timeoutHandle = scheduleTimeout(session, monitor, timeout);
 
-		while (!isRequestResultPresent(sequenceId)) {
+		// just make sure that the caller cannot wait forever for the result, even if the timer fails
+		long waitDeadline = startWaiting + TimeUnit.MILLISECONDS.toNanos(timeout + Statics.MONITOR_WAIT_TIMEOUT);
 
-			if (counter++ == waitLoopCount) {
-				putResultToQueue(session, sequenceId, new InvokeTimeoutException("Waited too long for invocation result."));
-			}
+		waitStrategy.waitFor(monitor, waitDeadline);
 
-			if (monitor.waitForSignal(Statics.MONITOR_WAIT_TIMEOUT)) {
-				return;
-			}
+		if (!monitor.isCompleted()) {
+			putResultToQueue(session, sequenceId, new InvokeTimeoutException("Waited too long for invocation result."));
+		}
+
+		if (timeoutHandle != null) {
+			timeoutHandle.cancel();
+		}
 
-			if (log.isTraceEnabled()) { // used IF to avoid calculating if no trace enabled
-				log.trace("still waiting for result for sequenceId={}. Waiting since {}ms.", sequenceId, (
-						System.currentTimeMillis() - startWaiting));
+		if (log.isTraceEnabled()) { // used IF to avoid calculating if no trace enabled
+			log.trace("waited {}ms for result for sequenceId={}", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startWaiting), sequenceId);
+		}
+	}
+
+	/**
+	 * Registers the deadline of the request with the dispatcher's timer. When
+	 * the deadline expires before the result is present, the request is failed
+	 * with an {@link InvokeTimeoutException}.
+	 *
+	 * @param session the session on which the request was placed
+	 * @param monitor the monitor related to the request
+	 * @param timeout timeout in milliseconds
+	 * @return the timeout handle, or <code>null</code> if the timer is already stopped
+	 */
+	private HashedWheelTimer.Timeout scheduleTimeout(final IoSession session, final SequenceMonitor monitor, long timeout) {
+		final int sequenceId = monitor.getSequenceId();
+		final Runnable failRequest = () -> {
+			if (!monitor.isCompleted()) {
+				putResultToQueue(session, sequenceId, new InvokeTimeoutException("Waited too long for invocation result."));
 			}
+		};
+		try {
+			return timeoutTimer.schedule(() -> {
+				if (monitor instanceof FutureSequenceMonitor) {
+					// dependent stages of the future must not run on the timer thread
+					try {
+						messageProcessorPool.execute(failRequest);
+					} catch (RejectedExecutionException e) {
+						failRequest.run();
+					}
+				} else {
+					failRequest.run();
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+		} catch (IllegalStateException e) {
+			log.debug("cannot schedule timeout for sequenceId={}: {}", sequenceId, e.getMessage());
+			return null;
 		}
 	}
 
+	/**
+	 * Returns the dispatcher's timer. The timer can be shared by all
+	 * components of the dispatcher which need to run short tasks after a
+	 * delay, like the {@link PingWatchdog}.
+	 *
+	 * @return the timer
+	 */
+	protected HashedWheelTimer getTimer() {
+		return timeoutTimer;
+	}
+
 	/**
 	 * This method is called from worker-threads which processed an invocation
-	 * and have data ready that has to be returned to the "caller". after adding
-	 * the result to the map (means: replacing the monitor with the result), the
-	 * waiting request-method is waked.
+	 * and have data ready that has to be returned to the "caller". after
+	 * removing the request from the session's table of pending requests, the
+	 * result is passed to the request's monitor, which wakes the waiting
+	 * request-method.
 	 *
 	 * @param session    the underlying session
 	 * @param sequenceId the sequence id that is waiting for the result
@@ -588,52 +837,27 @@ public class Dispatcher implements IoHandler {
 
 		log.debug("sequenceId={} msg={}", sequenceId, o);
 
-		boolean isResultForOutstandingRequest = false;
-
-		// remove the sequenceId from the map/list of open requests
-		synchronized (sessionHasRequestPlaced) {
-
-			assert sessionHasRequestPlaced.containsKey(session);
-
-			// check if there is already a list with requests for this session
-			List<Integer> requestListForSession = sessionHasRequestPlaced.get(session);
-
-			if (requestListForSession != null) {
+		SequenceMonitor monitor = getPendingRequestTable(session).remove(sequenceId);
 
-				synchronized (requestListForSession) {
-
-					if (requestListForSession.contains(sequenceId)) {
-						requestListForSession.remove((Integer) sequenceId);
-
-						// if there is no more request open, remove the session from the list
-						if (requestListForSession.isEmpty()) {
-							sessionHasRequestPlaced.remove(session);
-						}
-						isResultForOutstandingRequest = true;
-					} else {
-						log.debug("Session {} and sequenceId {} do currently not wait for a result.", Utils.longToHexString(session.getId()), sequenceId);
-					}
-				}
-			} else {
-				log.warn("Session {} has no outstanding requests. Result no longer awaited?", Utils.longToHexString(session.getId()));
-			}
-		}
-		if (isResultForOutstandingRequest) {
-			// retrieve monitor
-			SequenceMonitor monitor = (SequenceMonitor) requestMonitorAndResultMap.get(sequenceId);
-			// replace monitor with result
-			requestMonitorAndResultMap.put(sequenceId, o);
-			monitor.signal();
+		if (monitor != null && monitor.complete(o)) {
+			log.debug("result for sequenceId={} passed to waiting request", sequenceId);
 		} else {
-			log.warn("Result '{}' for session {} and sequenceId {} dropped.", new Object[]{
-					o,
-					Utils.longToHexString(session.getId()),
-					sequenceId
-			});
+			log.warn("Result '{}' for session {} and sequenceId {} dropped. Result no longer awaited?", o, Utils.longToHexString(session.getId()), sequenceId);
 		}
 		log.debug("end");
 	}
 
+	/**
+	 * Returns the number of requests on the given session which still wait
+	 * for their result
+	 *
+	 * @param session the session
+	 * @return the number of outstanding requests
+	 */
+	protected int getOutstandingRequestCount(IoSession session) {
+		return getPendingRequestTable(session).size();
+	}
+
 	/**
 	 * for internal use only
 	 *
@@ -643,6 +867,15 @@ public class Dispatcher implements IoHandler {
 		return lookupTable;
 	}
 
+	/**
+	 * for internal use only
+	 *
+	 * @return the thread pool received messages are processed on
+	 */
+	protected ExecutorService getMessageProcessorPool() {
+		return messageProcessorPool;
+	}
+
 	/**
 	 * Initiates a shutdown at the dispatcher and all related things
 	 */
@@ -654,6 +887,7 @@ public class Dispatcher implements IoHandler {
 
 		shutdownInProgress = true;
 		messageProcessorPool.shutdown();
+		timeoutTimer.stop();
 
 		while (!messageProcessorPool.isShutdown()) {
 			log.debug("waiting for messageProcessorPool to shutdown...");
@@ -734,21 +968,7 @@ public class Dispatcher implements IoHandler {
 		log.debug("begin");
 
 		final SequenceMonitor monitor = new SequenceMonitor(sequenceId);
-
-		synchronized (sessionHasRequestPlaced) {
-			// check if there is already a list with requests for this session
-			if (!sessionHasRequestPlaced.containsKey(session)) {
-				List<Integer> requestListForSession = new ArrayList<>();
-				requestListForSession.add(sequenceId);
-				sessionHasRequestPlaced.put(session, requestListForSession);
-			} else {
-				// .. otherwise, get the list and add the sequenceId
-				sessionHasRequestPlaced.get(session).add(sequenceId);
-			}
-		}
-
-		// put the monitor in the result-map
-		requestMonitorAndResultMap.put(sequenceId, monitor);
+		registerMonitor(session, monitor);
 
 		log.debug("created monitor for sequenceId={}", sequenceId);
 
@@ -756,20 +976,55 @@ public class Dispatcher implements IoHandler {
 		return monitor;
 	}
 
+	/**
+	 * Places the monitor of a request in the session's table of pending
+	 * requests. If the session has been closed in the meantime, the request is
+	 * failed right away.
+	 *
+	 * @param session the session on which the request is placed
+	 * @param monitor the monitor of the request
+	 */
+	private void registerMonitor(final IoSession session, final SequenceMonitor monitor) {
+		if (!getPendingRequestTable(session).register(monitor)) {
+			monitor.complete(new SimonRemoteException(
+					"session was closed. sessionId=" + Utils.longToHexString(session.getId()) + " sequenceId=" +
+							monitor.getSequenceId()));
+		}
+	}
+
+	/**
+	 * Returns the table of pending requests of the given session. The table is
+	 * created on first use.
+	 *
+	 * @param session the session
+	 * @return the session's table of pending requests
+	 */
+	private PendingRequestTable getPendingRequestTable(IoSession session) {
+		PendingRequestTable table = (PendingRequestTable) session.getAttribute(SESSION_ATTRIBUTE_PENDING_REQUESTS);
+		if (table == null) {
+			table = new PendingRequestTable();
+			PendingRequestTable existingTable = (PendingRequestTable) session.setAttributeIfAbsent(SESSION_ATTRIBUTE_PENDING_REQUESTS, table);
+			if (existingTable != null) {
+				table = existingTable;
+			}
+		}
+		return table;
+	}
+
 	/**
 	 * Returns the result of the already placed request. Make sure that you
 	 * where notified about the received result. Checks if the request result is
 	 * an {@link SimonRemoteException}. If yes, the exception is thrown, if not,
 	 * the result is returned
 	 *
-	 * @param sequenceId the sequence-id related to the result
+	 * @param monitor the monitor related to the request
 	 * @return the result of the request. May be null if there is no result yet.
 	 * @throws SimonRemoteException
 	 */
-	private Object getRequestResult(final int sequenceId) throws SimonRemoteException {
-		log.debug("getting result for sequenceId={}", sequenceId);
+	private Object getRequestResult(final SequenceMonitor monitor) throws SimonRemoteException {
+		log.debug("getting result for sequenceId={}", monitor.getSequenceId());
 
-		Object o = requestMonitorAndResultMap.remove(sequenceId);
+		Object o = monitor.getResult();
 
 		if (o instanceof SimonRemoteException) {
 			log.debug("result is an exception, throwing it ...");
@@ -778,23 +1033,6 @@ public class Dispatcher implements IoHandler {
 		return o;
 	}
 
-	/**
-	 * Returns whether the given sequenceId already has a result present or not
-	 *
-	 * @param sequenceId the sequence-id related to the result
-	 * @return true, if the result is present, false if not
-	 */
-	private boolean isRequestResultPresent(final int sequenceId) {
-		boolean present = false;
-		// if the contained object is NOT an instance of Monitor, present=true
-		log.trace("result={}", requestMonitorAndResultMap.get(sequenceId));
-		if (!(requestMonitorAndResultMap.get(sequenceId) instanceof SequenceMonitor)) {
-			present = true;
-		}
-		log.debug("Result for sequenceId={} present: {}", sequenceId, present);
-		return present;
-	}
-
 	/**
 	 * Generates a sequence ID<br> IDs have a unique value from
 	 * 0..Integer.MAX_VALUE<br> The range should be big enough so that there
@@ -802,10 +1040,9 @@ public class Dispatcher implements IoHandler {
 	 *
 	 * @return a request ID
 	 */
-	private synchronized Integer generateSequenceId() {
-		// if maximum reached, get maximum and set back to zero. otherwise just return the incremented value
-		return (sequenceIdCounter.incrementAndGet() ==
-				Integer.MAX_VALUE ? sequenceIdCounter.getAndSet(0) : sequenceIdCounter.intValue());
+	private int generateSequenceId() {
+		// if maximum reached, start again at zero. otherwise just return the incremented value
+		return sequenceIdCounter.updateAndGet(id -> (id == Integer.MAX_VALUE ? 0 : id + 1));
 	}
 
 	/**
@@ -815,15 +1052,10 @@ public class Dispatcher implements IoHandler {
 	 * @param session the session which requests to be interrupted
 	 */
 	private void interruptWaitingRequests(IoSession session) {
-		List<Integer> remove = sessionHasRequestPlaced.get(session);
-		// if there is a list with objects to remove
-		if (remove != null) {
-			List<Integer> removeCopy = new ArrayList<Integer>(remove);
-			for (Integer sequenceId : removeCopy) {
-				putResultToQueue(session, sequenceId, new SimonRemoteException(
-						"session was closed. sessionId=" + Utils.longToHexString(session.getId()) + " sequenceId=" +
-								sequenceId));
-			}
+		for (SequenceMonitor monitor : getPendingRequestTable(session).close()) {
+			monitor.complete(new SimonRemoteException(
+					"session was closed. sessionId=" + Utils.longToHexString(session.getId()) + " sequenceId=" +
+							monitor.getSequenceId()));
 		}
 	}
 
@@ -848,7 +1080,211 @@ public class Dispatcher implements IoHandler {
 	public void messageReceived(IoSession session, Object message) throws Exception {
 		log.debug("Received message from session {}", Utils.longToHexString(session.getId()));
 		AbstractMessage abstractMessage = (AbstractMessage) message;
-		messageProcessorPool.execute(new ProcessMessageRunnable(this, session, abstractMessage));
+		ProcessMessageRunnable runnable = new ProcessMessageRunnable(this, session, abstractMessage);
+		Object orderingKey = getOrderingKey(session, abstractMessage);
+		if (orderingKey == null) {
+			messageProcessorPool.execute(runnable);
+		} else {
+			orderedMessageProcessor.execute(orderingKey, runnable);
+		}
+	}
+
+	/**
+	 * Returns the key the given message is ordered by, according to the
+	 * current {@link MessageOrdering}. Only requests are ordered: returns of
+	 * own requests, pings and errors must never queue up behind a request,
+	 * otherwise a request which waits for such a message would wait forever.
+	 * <p>
+	 * Note: an ordered request which does a nested remote call back to its
+	 * caller blocks its queue until the call returns. If the caller handles
+	 * the nested call with an ordered request of the same key on its own side,
+	 * both sides wait for each other. So callbacks should not be combined
+	 * with ordering on both sides of a connection.
+	 *
+	 * @param session the session the message was received on
+	 * @param message the received message
+	 * @return the ordering key, or null if the message is processed unordered
+	 */
+	private Object getOrderingKey(IoSession session, AbstractMessage message) {
+		MessageOrdering ordering = messageOrdering;
+		if (ordering == MessageOrdering.NONE) {
+			// the data of a raw channel is always written in the order it was sent, see CAPABILITY_RAW_CHANNEL_WINDOW
+			switch (message.getMsgType()) {
+				case SimonMessageConstants.MSG_RAW_CHANNEL_DATA:
+					return new RawChannelOrderingKey(session.getId(), ((MsgRawChannelData) message).getChannelToken());
+				case SimonMessageConstants.MSG_CLOSE_RAW_CHANNEL:
+					return new RawChannelOrderingKey(session.getId(), ((MsgCloseRawChannel) message).getChannelToken());
+				default:
+					return null;
+			}
+		}
+		switch (message.getMsgType()) {
+			case SimonMessageConstants.MSG_INVOKE:
+				if (ordering == MessageOrdering.REMOTE_OBJECT) {
+					return new OrderingKey(session.getId(), ((MsgInvoke) message).getRemoteObjectName());
+				}
+				return new OrderingKey(session.getId(), null);
+			case SimonMessageConstants.MSG_INVOKE_BATCH:
+				if (ordering == MessageOrdering.REMOTE_OBJECT) {
+					return new OrderingKey(session.getId(), ((MsgInvokeBatch) message).getRemoteObjectName());
+				}
+				return new OrderingKey(session.getId(), null);
+			case SimonMessageConstants.MSG_NAME_LOOKUP:
+			case SimonMessageConstants.MSG_INTERFACE_LOOKUP:
+			case SimonMessageConstants.MSG_TOSTRING:
+			case SimonMessageConstants.MSG_EQUALS:
+			case SimonMessageConstants.MSG_HASHCODE:
+			case SimonMessageConstants.MSG_OPEN_RAW_CHANNEL:
+			case SimonMessageConstants.MSG_CLOSE_RAW_CHANNEL:
+			case SimonMessageConstants.MSG_RAW_CHANNEL_DATA:
+			case SimonMessageConstants.MSG_RELEASE_REF:
+				return new OrderingKey(session.getId(), null);
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Removes the queue of a raw channel. Called by the close of the channel,
+	 * which is the last message of the channel, before its token is released
+	 * and may be used by a new channel.
+	 *
+	 * @param session      the session the channel belongs to
+	 * @param channelToken the token of the channel
+	 */
+	protected void removeRawChannelOrderingKey(IoSession session, int channelToken) {
+		orderedMessageProcessor.remove(new RawChannelOrderingKey(session.getId(), channelToken));
+	}
+
+	/**
+	 * The key of an ordered request queue. <code>remoteObjectName</code> is
+	 * null for requests which are ordered per session.
+	 */
+	private record OrderingKey(long sessionId, String remoteObjectName) implements SessionKey {
+	}
+
+	/**
+	 * The key of the queue of a raw channel, used if requests are not ordered
+	 */
+	private record RawChannelOrderingKey(long sessionId, int channelToken) implements SessionKey {
+	}
+
+	private interface SessionKey {
+		long sessionId();
+	}
+
+	/**
+	 * Sets the order in which received requests are processed. Takes effect
+	 * for requests received after this call.
+	 *
+	 * @param messageOrdering the ordering
+	 */
+	public void setMessageOrdering(@NotNull MessageOrdering messageOrdering) {
+		this.messageOrdering = messageOrdering;
+	}
+
+	/**
+	 * Returns the order in which received requests are processed
+	 *
+	 * @return the ordering
+	 */
+	public MessageOrdering getMessageOrdering() {
+		return messageOrdering;
+	}
+
+	/**
+	 * Sets the serializer for arguments, return values and errors of remote
+	 * calls. Takes effect for sessions created after this call. The remote
+	 * side has to use the same serializer.
+	 *
+	 * @param serializer the serializer
+	 */
+	public void setSerializer(@NotNull SimonSerializer serializer) {
+		this.serializer = serializer;
+	}
+
+	/**
+	 * Returns the serializer attached to new sessions
+	 *
+	 * @return the serializer
+	 */
+	public SimonSerializer getSerializer() {
+		return serializer;
+	}
+
+	/**
+	 * Sets the compression for the frames sent on sessions created after this
+	 * call. Frames are only compressed for peers which are able to decode them.
+	 *
+	 * @param frameCompression the compression, null for none
+	 */
+	public void setFrameCompression(FrameCompression frameCompression) {
+		this.frameCompression = frameCompression;
+	}
+
+	/**
+	 * Returns the compression for the frames sent on new sessions
+	 *
+	 * @return the compression, null for none
+	 */
+	public FrameCompression getFrameCompression() {
+		return frameCompression;
+	}
+
+	/**
+	 * Returns the cache for the results of cacheable methods invoked through
+	 * this dispatcher. Created with the limits set by
+	 * {@link Simon#setResultCacheLimits(int, long)} on first use.
+	 *
+	 * @return the cache
+	 */
+	public ResultCache getResultCache() {
+		ResultCache cache = resultCache;
+		if (cache == null) {
+			synchronized (this) {
+				cache = resultCache;
+				if (cache == null) {
+					cache = new ResultCache(Simon.getResultCacheMaxEntries(), Simon.getResultCacheMaxBytes());
+					resultCache = cache;
+				}
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * Removes cached results, if results have been cached at all
+	 *
+	 * @param remoteObjectName the name of the remote object
+	 * @param methodName       the method whose results are removed, null for all methods
+	 */
+	void invalidateCachedResults(String remoteObjectName, String methodName) {
+		ResultCache cache = resultCache;
+		if (cache != null) {
+			cache.invalidate(remoteObjectName, methodName);
+		}
+	}
+
+	/**
+	 * Sends an invalidation of cached results to the client of the given
+	 * session, if it supports it
+	 *
+	 * @param session          the session to the client
+	 * @param remoteObjectName the name of the remote object
+	 * @param methodName       the method whose results are invalidated, null for all methods
+	 * @return true, if the invalidation has been sent
+	 */
+	boolean sendCacheInvalidate(IoSession session, String remoteObjectName, String methodName) {
+		if (!session.isConnected() || session.isClosing() || !ProtocolCapabilities.has(session, SimonMessageConstants.CAPABILITY_CACHE_INVALIDATE)) {
+			return false;
+		}
+		MsgCacheInvalidate msgCacheInvalidate = new MsgCacheInvalidate();
+		msgCacheInvalidate.setRemoteObjectName(remoteObjectName);
+		msgCacheInvalidate.setMethodName(methodName);
+		// not answered, but the protocol needs a sequence
+		msgCacheInvalidate.setSequence(generateSequenceId());
+		session.write(msgCacheInvalidate);
+		return true;
 	}
 
 	/*
@@ -858,6 +1294,14 @@ public class Dispatcher implements IoHandler {
 	@Override
 	public void messageSent(IoSession session, Object msg) throws Exception {
 		log.debug("Message sent to session session={} msg='{}'", Utils.longToHexString(session.getId()), msg);
+
+		// the message could not be encoded, an error has been sent in its place
+		if (session.removeAttribute(Statics.SESSION_ATTRIBUTE_CLOSE_AFTER_SENT, msg)) {
+			log.debug("Closing session {} after encoding error of msg='{}'", Utils.longToHexString(session.getId()), msg);
+			// collected frames have to be written before the close request
+			WriteCoalescingFilter.flush(session);
+			session.closeOnFlush();
+		}
 	}
 
 	/*
@@ -885,6 +1329,16 @@ public class Dispatcher implements IoHandler {
 
 		lookupTable.unreference(session.getId());
 		interruptWaitingRequests(session);
+		pingWatchdog.sessionClosed(session);
+
+		// invalidations sent on the lost session are lost as well
+		ResultCache cache = resultCache;
+		if (cache != null) {
+			cache.clear();
+		}
+
+		final long sessionId = session.getId();
+		orderedMessageProcessor.removeIf(key -> ((SessionKey) key).sessionId() == sessionId);
 
 		// remove attached references
 		log.debug("{} ######## Removing session attributes ...", id);
@@ -893,7 +1347,25 @@ public class Dispatcher implements IoHandler {
 		log.debug("{} ########  -> {}", id, Statics.SESSION_ATTRIBUTE_LOOKUPTABLE);
 		session.removeAttribute(Statics.SESSION_ATTRIBUTE_LOOKUPTABLE);
 
-		log.debug("{} ######## notify closed listeners", id);
+		// a lost session of a client connection is replaced by the remaining pooled sessions or by a reconnect
+		if (!isReleased() && serverString != null && AbstractLookup.sessionLost(this, session)) {
+			log.debug("{} ######## Connection stays open", id);
+			log.debug("{} ################################################", id);
+			return;
+		}
+
+		connectionClosed();
+
+		log.debug("{} ######## Session close *DONE*", id);
+		log.debug("{} ################################################", id);
+	}
+
+	/**
+	 * Notifies all closed listeners that the connection to the server is
+	 * closed and releases the dispatcher, if not done yet
+	 */
+	void connectionClosed() {
+		log.debug("######## notify closed listeners");
 		// notify all still attached closed listeners that the one and only session to the server is closed.
 		for (String ron : remoteObjectClosedListenersList.keySet()) {
 			List<ClosedListener> list = remoteObjectClosedListenersList.remove(ron);
@@ -905,14 +1377,31 @@ public class Dispatcher implements IoHandler {
 
 		// see issue #130
 		if (!isReleased()) {
-			log.debug("{} ######## Releasing dispatcher {}", id, this);
+			log.debug("######## Releasing dispatcher {}", this);
 			AbstractLookup.releaseDispatcher(this);
 		} else {
-			log.debug("{} ######## Dispatcher {} already released. Nothing to do.", id, this);
+			log.debug("######## Dispatcher {} already released. Nothing to do.", this);
 		}
+	}
 
-		log.debug("{} ######## Session close *DONE*", id);
-		log.debug("{} ################################################", id);
+	/**
+	 * Notifies all closed listeners that the lost connection to the server
+	 * has been restored
+	 */
+	void connectionRestored() {
+		List<ClosedListener> listeners = new ArrayList<>();
+		synchronized (remoteObjectClosedListenersList) {
+			for (List<ClosedListener> list : remoteObjectClosedListenersList.values()) {
+				listeners.addAll(list);
+			}
+		}
+		for (ClosedListener closedListener : listeners) {
+			try {
+				closedListener.reconnected();
+			} catch (Exception e) {
+				log.error("Error in ClosedListener {} while notifying about the reconnect", closedListener, e);
+			}
+		}
 	}
 
 	/**
@@ -949,6 +1438,8 @@ public class Dispatcher implements IoHandler {
 		log.debug("session created. session={}", session);
 		session.setAttribute(Statics.SESSION_ATTRIBUTE_LOOKUPTABLE, lookupTable); // attach the lookup table to the session
 		session.setAttribute(Statics.SESSION_ATTRIBUTE_DISPATCHER, this); // attach a reference to the dispatcher.
+		session.setAttribute(Statics.SESSION_ATTRIBUTE_SERIALIZER, serializer); // attach the serializer for call values
+		FrameCompression.set(session, frameCompression); // attach the compression for sent frames
 
 		final SimonSessionListener listener = sessionListenerRef.get();
 		if (listener != null) {
@@ -1003,6 +1494,85 @@ public class Dispatcher implements IoHandler {
 		log.debug("end. data send.");
 	}
 
+	/**
+	 * Negotiates the protocol capabilities of the session with the server.
+	 * Sends a ping announcing the local capabilities and waits for the pong.
+	 * A server with handshake support answers with a pong carrying the same
+	 * sequence and its capabilities, older servers answer with a plain pong,
+	 * in which case the session keeps using the v1 protocol.
+	 *
+	 * @param session the freshly connected session
+	 * @return the negotiated capabilities
+	 * @throws SessionException if the session is already closed
+	 */
+	protected byte handshake(IoSession session) throws SessionException {
+		checkForInvalidState(session, "handshake()");
+
+		final int sequenceId = generateSequenceId();
+
+		log.debug("begin sequenceId={} session={}", sequenceId, session);
+
+		final SequenceMonitor monitor = createMonitor(session, sequenceId);
+		session.setAttribute(SESSION_ATTRIBUTE_HANDSHAKE_SEQUENCE, sequenceId);
+
+		MsgPing msgPing = new MsgPing();
+		msgPing.setSequence(sequenceId);
+		msgPing.setCapabilities(ProtocolCapabilities.LOCAL);
+
+		session.write(msgPing);
+
+		waitForResult(session, monitor, Statics.DEFAULT_HANDSHAKE_TIMEOUT);
+		session.removeAttribute(SESSION_ATTRIBUTE_HANDSHAKE_SEQUENCE);
+
+		Object result = monitor.getResult();
+		byte capabilities = ProtocolCapabilities.negotiate(session,
+				result instanceof MsgPong ? ((MsgPong) result).getCapabilities() : SimonMessageConstants.PING_NO_HANDSHAKE);
+
+		log.debug("end. negotiated capabilities={} result={}", capabilities, result);
+		return capabilities;
+	}
+
+	/**
+	 * Passes a received pong to a pending handshake of the session
+	 *
+	 * @param session the session the pong was received on
+	 * @param msgPong the pong
+	 * @return true, if the pong completed a handshake, false if it is a keep alive pong
+	 */
+	protected boolean completeHandshake(IoSession session, MsgPong msgPong) {
+		Integer sequenceId = (Integer) session.removeAttribute(SESSION_ATTRIBUTE_HANDSHAKE_SEQUENCE);
+		if (sequenceId == null) {
+			return false;
+		}
+		// older servers reply with a pong with a new sequence, so the pending handshake is completed by sequence of the ping
+		putResultToQueue(session, sequenceId, msgPong);
+		return true;
+	}
+
+	/**
+	 * Replies to a handshake ping with the local capabilities and stores the
+	 * capabilities both sides support
+	 *
+	 * @param session the session the ping was received on
+	 * @param msgPing the handshake ping
+	 * @throws SessionException if the session is already closed
+	 */
+	protected void sendHandshakePong(IoSession session, MsgPing msgPing) throws SessionException {
+		checkForInvalidState(session, "sendHandshakePong()");
+
+		log.debug("begin sequenceId={} session={}", msgPing.getSequence(), session);
+
+		MsgPong msgPong = new MsgPong();
+		msgPong.setSequence(msgPing.getSequence());
+		msgPong.setCapabilities(ProtocolCapabilities.LOCAL);
+
+		// the pong is encoded while writing, so it is still sent with the v1 protocol the client expects
+		session.write(msgPong);
+		byte capabilities = ProtocolCapabilities.negotiate(session, msgPing.getCapabilities());
+
+		log.debug("end. negotiated capabilities={}", capabilities);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see org.apache.mina.core.service.IoHandler#sessionOpened(org.apache.mina.core.session.IoSession)
@@ -1046,7 +1616,7 @@ public class Dispatcher implements IoHandler {
 		log.debug("data send. waiting for answer for sequenceId={}", sequenceId);
 
 		waitForResult(session, monitor);
-		MsgOpenRawChannelReturn result = (MsgOpenRawChannelReturn) getRequestResult(sequenceId);
+		MsgOpenRawChannelReturn result = (MsgOpenRawChannelReturn) getRequestResult(monitor);
 
 		log.debug("got answer for sequenceId={}", sequenceId);
 		log.debug("end sequenceId={}", sequenceId);
@@ -1172,7 +1742,7 @@ public class Dispatcher implements IoHandler {
 		waitForResult(session, monitor);
 
 		//retrieve the return msg to remove the monitor etc.
-		MsgRawChannelDataReturn requestResult = (MsgRawChannelDataReturn) getRequestResult(sequenceId);
+		MsgRawChannelDataReturn requestResult = (MsgRawChannelDataReturn) getRequestResult(monitor);
 
 		if (requestResult.hasError()) {
 			throw new RawChannelException(requestResult.getErrorMsg());
@@ -1181,6 +1751,91 @@ public class Dispatcher implements IoHandler {
 		log.debug("end. got ack for data send for sequenceId={} and channelToken={}", sequenceId, channelToken);
 	}
 
+	/**
+	 * Sends data of a raw channel without waiting for the acknowledgement of
+	 * the receiver. Only for peers with
+	 * {@link SimonMessageConstants#CAPABILITY_RAW_CHANNEL_WINDOW}, which
+	 * write the data of a channel in the order it was sent.
+	 *
+	 * @param session      the related IoSession
+	 * @param channelToken the related channel token
+	 * @param byteBuffer   the data, it is copied before this method returns
+	 * @return a future which completes when the receiver acknowledged the data,
+	 * or exceptionally with a {@link RawChannelException} if the receiver failed to write it
+	 * @throws SimonRemoteException if the session is already closed
+	 */
+	protected CompletableFuture<Void> writeRawDataAsync(IoSession session, int channelToken, ByteBuffer byteBuffer) throws SimonRemoteException {
+		checkForInvalidState(session, "writeRawDataAsync()");
+
+		final int sequenceId = generateSequenceId();
+
+		log.debug("begin sequenceId={} session={}", sequenceId, session);
+
+		MsgRawChannelData msgRawChannelData = new MsgRawChannelData();
+		msgRawChannelData.setSequence(sequenceId);
+		msgRawChannelData.setChannelToken(channelToken);
+		msgRawChannelData.setData(byteBuffer);
+
+		return writeUnacknowledgedRawData(session, sequenceId, msgRawChannelData);
+	}
+
+	/**
+	 * Sends a region of a file as data of a raw channel without copying it
+	 * into the heap, see {@link RawChannelFileRegion}. Only for sessions for
+	 * which {@link RawChannelFileRegion#isSupported(IoSession)} is true. Unlike
+	 * {@link #writeRawDataAsync(IoSession, int, ByteBuffer)}, the data is read
+	 * from the file when the socket is ready for it, so the file has to stay
+	 * open until the returned future completed.
+	 *
+	 * @param session      the related IoSession
+	 * @param channelToken the related channel token
+	 * @param file         the file to send data from
+	 * @param position     the position of the data in the file
+	 * @param count        the number of bytes to send
+	 * @return a future which completes when the receiver acknowledged the data,
+	 * or exceptionally with a {@link RawChannelException} if the receiver failed to write it
+	 * @throws SimonRemoteException if the session is already closed
+	 */
+	protected CompletableFuture<Void> writeRawFileRegionAsync(IoSession session, int channelToken, FileChannel file, long position, int count) throws SimonRemoteException {
+		checkForInvalidState(session, "writeRawFileRegionAsync()");
+
+		final int sequenceId = generateSequenceId();
+
+		log.debug("begin sequenceId={} session={} count={}", sequenceId, session, count);
+
+		return writeUnacknowledgedRawData(session, sequenceId, new RawChannelFileRegion(session, sequenceId, channelToken, file, position, count));
+	}
+
+	/**
+	 * Writes a raw channel data frame and returns a future for its acknowledgement
+	 *
+	 * @param session    the related IoSession
+	 * @param sequenceId the sequence of the frame
+	 * @param frame      the {@link MsgRawChannelData} or {@link RawChannelFileRegion}
+	 * @return a future which completes when the receiver acknowledged the data
+	 */
+	private CompletableFuture<Void> writeUnacknowledgedRawData(IoSession session, int sequenceId, Object frame) {
+		final FutureSequenceMonitor monitor = new FutureSequenceMonitor(sequenceId);
+		registerMonitor(session, monitor);
+		final CompletableFuture<Void> acknowledged = new CompletableFuture<>();
+		monitor.getFuture().whenComplete((result, error) -> {
+			if (error != null) {
+				acknowledged.completeExceptionally(error);
+			} else if (((MsgRawChannelDataReturn) result).hasError()) {
+				acknowledged.completeExceptionally(new RawChannelException(((MsgRawChannelDataReturn) result).getErrorMsg()));
+			} else {
+				acknowledged.complete(null);
+			}
+		});
+
+		scheduleTimeout(session, monitor, Statics.DEFAULT_INVOKE_TIMEOUT);
+
+		session.write(frame);
+
+		log.debug("end sequenceId={}. data send, acknowledgement is delivered to future.", sequenceId);
+		return acknowledged;
+	}
+
 	/**
 	 * Triggers a close of a raw channel
 	 *
@@ -1210,7 +1865,7 @@ public class Dispatcher implements IoHandler {
 		log.debug("data send. waiting for answer for sequenceId={}", sequenceId);
 
 		waitForResult(session, monitor);
-		MsgCloseRawChannelReturn result = (MsgCloseRawChannelReturn) getRequestResult(sequenceId);
+		MsgCloseRawChannelReturn result = (MsgCloseRawChannelReturn) getRequestResult(monitor);
 
 		log.debug("got answer for sequenceId={}", sequenceId);
 		log.debug("end sequenceId={}", sequenceId);
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon;
+
+import host.anzo.simon.exceptions.SimonRemoteException;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link SequenceMonitor} for asynchronous requests. Nobody waits on the
+ * monitor, instead the result is handed over to a {@link CompletableFuture}.
+ */
+class FutureSequenceMonitor extends SequenceMonitor {
+
+	private final CompletableFuture<Object> future = new CompletableFuture<>();
+
+	/**
+	 * Creates a monitor object
+	 *
+	 * @param sequenceId the associated sequence id
+	 */
+	FutureSequenceMonitor(int sequenceId) {
+		super(sequenceId);
+	}
+
+	@Override
+	protected boolean complete(Object result) {
+		if (!super.complete(result)) {
+			return false;
+		}
+		if (result instanceof SimonRemoteException) {
+			future.completeExceptionally((SimonRemoteException) result);
+		} else {
+			future.complete(result);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the future which receives the result of the request
+	 *
+	 * @return the future
+	 */
+	CompletableFuture<Object> getFuture() {
+		return future;
+	}
+}
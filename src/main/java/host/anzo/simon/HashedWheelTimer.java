@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel for a large number of short-lived timeouts, like the
+ * deadlines of pending requests and ping/pong checks. Scheduling and
+ * cancelling are O(1), all timeouts are served by one worker thread which
+ * advances the wheel every tick. Expired tasks run on the worker thread and
+ * therefore must be short and must not block.
+ * <p>
+ * The worker thread is started with the first scheduled timeout and
+ * terminated by {@link #stop()}.
+ */
+@Slf4j
+public class HashedWheelTimer {
+
+	/**
+	 * A handle to a scheduled task
+	 */
+	public interface Timeout {
+		/**
+		 * Cancels the task if it has not been run yet
+		 *
+		 * @return true, if the task has been cancelled by this call
+		 */
+		boolean cancel();
+
+		/**
+		 * Returns whether the task has already been run
+		 *
+		 * @return true, if expired
+		 */
+		boolean isExpired();
+	}
+
+	private static final int STATE_INIT = 0;
+	private static final int STATE_STARTED = 1;
+	private static final int STATE_STOPPED = 2;
+
+	private final AtomicInteger state = new AtomicInteger(STATE_INIT);
+
+	private final String threadName;
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+
+	/**
+	 * timeouts scheduled since the last tick, moved into the wheel by the worker
+	 */
+	private final Queue<WheelTimeout> newTimeouts = new ConcurrentLinkedQueue<>();
+	/**
+	 * cancelled timeouts, removed from the wheel by the worker
+	 */
+	private final Queue<WheelTimeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * the {@link System#nanoTime()} at which the worker started, 0 until then
+	 */
+	private volatile long startTime;
+	private final CountDownLatch startTimeInitialized = new CountDownLatch(1);
+	private volatile Thread workerThread;
+
+	/**
+	 * Creates a timer
+	 *
+	 * @param threadName    the name of the worker thread
+	 * @param tickDuration  the duration of one tick, which is the precision of the timer
+	 * @param unit          the unit of <code>tickDuration</code>
+	 * @param ticksPerWheel the number of buckets of the wheel, rounded up to a power of two
+	 */
+	public HashedWheelTimer(String threadName, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+		}
+		if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+			throw new IllegalArgumentException("ticksPerWheel must be in range 1..2^30: " + ticksPerWheel);
+		}
+		int size = 1;
+		while (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		this.threadName = threadName;
+		this.tickNanos = unit.toNanos(tickDuration);
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Bucket();
+		}
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Schedules the task for execution after the given delay
+	 *
+	 * @param task  the task to run
+	 * @param delay the delay
+	 * @param unit  the unit of <code>delay</code>
+	 * @return a handle for cancelling the task
+	 * @throws IllegalStateException if the timer has already been stopped
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		start();
+		long deadline = System.nanoTime() + unit.toNanos(delay) - startTime;
+		WheelTimeout timeout = new WheelTimeout(task, deadline);
+		newTimeouts.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Stops the worker thread. Tasks that have not been run yet are dropped.
+	 */
+	public void stop() {
+		if (state.getAndSet(STATE_STOPPED) == STATE_STARTED) {
+			Thread worker = workerThread;
+			if (worker != null) {
+				worker.interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Starts the worker thread if it is not running yet, and waits until it
+	 * has set the start time the deadlines are relative to
+	 */
+	private void start() {
+		switch (state.get()) {
+			case STATE_INIT:
+				if (state.compareAndSet(STATE_INIT, STATE_STARTED)) {
+					Thread worker = new Thread(this::runWorker, threadName);
+					worker.setDaemon(true);
+					workerThread = worker;
+					worker.start();
+				}
+				break;
+			case STATE_STARTED:
+				break;
+			default:
+				throw new IllegalStateException("timer " + threadName + " has already been stopped");
+		}
+		boolean interrupted = false;
+		while (startTime == 0) {
+			try {
+				startTimeInitialized.await();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (state.get() == STATE_STOPPED) {
+			throw new IllegalStateException("timer " + threadName + " has already been stopped");
+		}
+	}
+
+	private void runWorker() {
+		long now = System.nanoTime();
+		// 0 means "not started yet"
+		startTime = now == 0 ? 1 : now;
+		startTimeInitialized.countDown();
+
+		log.debug("timer {} started", threadName);
+		long tick = 0;
+		while (state.get() == STATE_STARTED) {
+			long deadline = waitForNextTick(tick);
+			if (deadline < 0) {
+				continue; // interrupted, re-check state
+			}
+			removeCancelledTimeouts();
+			transferNewTimeouts(tick);
+			wheel[(int) (tick & mask)].expireTimeouts(deadline);
+			tick++;
+		}
+		log.debug("timer {} stopped", threadName);
+	}
+
+	/**
+	 * Sleeps until the given tick is reached
+	 *
+	 * @return the current time relative to the start time, or -1 if the wait
+	 * was interrupted
+	 */
+	private long waitForNextTick(long tick) {
+		long deadline = tickNanos * (tick + 1);
+		while (true) {
+			long currentTime = System.nanoTime() - startTime;
+			long sleepNanos = deadline - currentTime;
+			if (sleepNanos <= 0) {
+				return currentTime;
+			}
+			LockSupport.parkNanos(this, sleepNanos);
+			if (Thread.interrupted()) {
+				return -1;
+			}
+		}
+	}
+
+	private void transferNewTimeouts(long tick) {
+		// limit the transfer per tick, so that a burst of new timeouts cannot starve the wheel
+		for (int i = 0; i < 100000; i++) {
+			WheelTimeout timeout = newTimeouts.poll();
+			if (timeout == null) {
+				break;
+			}
+			if (timeout.state == WheelTimeout.ST_CANCELLED) {
+				continue;
+			}
+			long calculated = timeout.deadline / tickNanos;
+			timeout.remainingRounds = (calculated - tick) / wheel.length;
+			// timeouts whose deadline already passed are expired with the current tick
+			long ticks = Math.max(calculated, tick);
+			wheel[(int) (ticks & mask)].add(timeout);
+		}
+	}
+
+	private void removeCancelledTimeouts() {
+		WheelTimeout timeout;
+		while ((timeout = cancelledTimeouts.poll()) != null) {
+			if (timeout.bucket != null) {
+				timeout.bucket.remove(timeout);
+			}
+		}
+	}
+
+	private final class WheelTimeout implements Timeout {
+		private static final int ST_INIT = 0;
+		private static final int ST_CANCELLED = 1;
+		private static final int ST_EXPIRED = 2;
+		private static final AtomicIntegerFieldUpdater<WheelTimeout> STATE_UPDATER = AtomicIntegerFieldUpdater.newUpdater(WheelTimeout.class, "state");
+
+		private final Runnable task;
+		private final long deadline;
+		private volatile int state = ST_INIT;
+
+		// only accessed by the worker thread
+		private long remainingRounds;
+		private Bucket bucket;
+		private WheelTimeout next;
+		private WheelTimeout prev;
+
+		private WheelTimeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public boolean cancel() {
+			if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+				return false;
+			}
+			cancelledTimeouts.add(this);
+			return true;
+		}
+
+		@Override
+		public boolean isExpired() {
+			return state == ST_EXPIRED;
+		}
+
+		private void expire() {
+			if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+				return;
+			}
+			try {
+				task.run();
+			} catch (Throwable t) {
+				log.warn("timer task {} of timer {} failed", task, threadName, t);
+			}
+		}
+	}
+
+	/**
+	 * A doubly linked list of timeouts, only accessed by the worker thread
+	 */
+	private static final class Bucket {
+		private WheelTimeout head;
+		private WheelTimeout tail;
+
+		private void add(WheelTimeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		private void expireTimeouts(long deadline) {
+			WheelTimeout timeout = head;
+			while (timeout != null) {
+				WheelTimeout next = timeout.next;
+				if (timeout.state == WheelTimeout.ST_CANCELLED) {
+					remove(timeout);
+				} else if (timeout.remainingRounds <= 0) {
+					// the timeout was placed in the bucket of its deadline tick, so it is due now
+					if (timeout.deadline <= deadline) {
+						remove(timeout);
+						timeout.expire();
+					}
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+		}
+
+		private void remove(WheelTimeout timeout) {
+			if (timeout.bucket != this) {
+				return;
+			}
+			WheelTimeout next = timeout.next;
+			if (timeout.prev != null) {
+				timeout.prev.next = next;
+			}
+			if (next != null) {
+				next.prev = timeout.prev;
+			}
+			if (timeout == head) {
+				head = next;
+			}
+			if (timeout == tail) {
+				tail = timeout.prev;
+			}
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+		}
+	}
+}
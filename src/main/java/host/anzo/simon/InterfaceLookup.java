@@ -136,10 +136,16 @@ public class InterfaceLookup extends AbstractLookup {
 				log.trace("iface: {}", class1.getName());
 			}
 
+			// invoke by object id, if the server assigned one
+			ClientToServerConnection connection = sessionDispatcherContainer.connection();
+			registerRemoteObject(connection, msg.getRemoteObjectName(), msg.getObjectId(), msg.getMethodHashes());
+
 			/*
 			 * Creates proxy for method-call-forwarding to server
 			 */
 			SimonProxy handler = new SimonProxy(dispatcher, session, msg.getRemoteObjectName(), listenerInterfaces, true);
+			handler.setWaitStrategy(waitStrategy);
+			handler.setConnection(connection);
 			log.trace("proxy created");
 
 			/*
@@ -12,6 +12,8 @@ package host.anzo.simon;
 
 import host.anzo.simon.exceptions.EstablishConnectionFailed;
 import host.anzo.simon.exceptions.LookupFailedException;
+import host.anzo.simon.compression.FrameCompression;
+import host.anzo.simon.serialization.SimonSerializer;
 import host.anzo.simon.ssl.SslContextFactory;
 
 import java.net.InetAddress;
@@ -67,6 +69,87 @@ public interface Lookup {
 	 */
 	void setSourceAddress(InetAddress sourceAddress);
 
+	/**
+	 * Sets the strategy which is used by calling threads to wait for the
+	 * results of remote calls on objects looked up with this lookup. A
+	 * strategy set for a single method via
+	 * {@link Simon#setWaitStrategy(java.lang.reflect.Method, WaitStrategy)}
+	 * takes precedence. Affects only objects looked up afterwards.
+	 *
+	 * @param waitStrategy the strategy, null for the default {@link BlockingWaitStrategy}
+	 */
+	void setWaitStrategy(WaitStrategy waitStrategy);
+
+	/**
+	 * Returns the strategy set with {@link #setWaitStrategy(WaitStrategy)}
+	 *
+	 * @return the strategy, null if none was set and the default {@link BlockingWaitStrategy} is used
+	 */
+	WaitStrategy getWaitStrategy();
+
+	/**
+	 * Sets the serializer for arguments, return values and errors of remote
+	 * calls. The server has to use the same serializer, see
+	 * {@link Registry#setSerializer(SimonSerializer)}. Affects only
+	 * connections established afterwards: lookups to a server which is
+	 * already connected share the existing connection and its serializer.
+	 *
+	 * @param serializer the serializer, null for the default {@link host.anzo.simon.serialization.JavaSerializer}
+	 */
+	void setSerializer(SimonSerializer serializer);
+
+	SimonSerializer getSerializer();
+
+	/**
+	 * Sets the compression for frames sent to the server, f.i. large
+	 * arguments. Frames are only compressed if the server is able to decode
+	 * them. Affects only connections established afterwards: lookups to a
+	 * server which is already connected share the existing connection and its
+	 * compression.
+	 *
+	 * @param frameCompression the compression, null for none (default)
+	 */
+	void setFrameCompression(FrameCompression frameCompression);
+
+	FrameCompression getFrameCompression();
+
+	/**
+	 * Sets the number of sessions opened to the server. Each call is sent on
+	 * the session with the fewest outstanding requests, so a slow call or a
+	 * large transfer doesn't hold up the calls behind it on the same socket.
+	 * A lookup proxy keeps working as long as one of the sessions is open.
+	 * <p>
+	 * Ordering per {@link MessageOrdering} is kept
+	 * per session only, calls which rely on their order should use a pool
+	 * size of 1. Connections via a proxy server always use one session.
+	 * Affects only connections established afterwards: lookups to a server
+	 * which is already connected share the existing sessions.
+	 *
+	 * @param sessionPoolSize the number of sessions, 1 (default) or more
+	 */
+	void setSessionPoolSize(int sessionPoolSize);
+
+	int getSessionPoolSize();
+
+	/**
+	 * Enables reconnecting to the server when the connection is lost. The
+	 * lookup then reconnects in the background with the backoff of the
+	 * policy, resolves the looked up remote objects again and keeps the
+	 * existing proxies working on the new connection. Calls made while the
+	 * connection is down fail with a
+	 * {@link host.anzo.simon.exceptions.SessionException}, as do calls which
+	 * were waiting for their result when it was lost, but the proxies stay
+	 * usable. Callbacks passed to the server are lost with the connection,
+	 * {@link ClosedListener#reconnected()} is the place to pass them again.
+	 * Closed listeners are only notified once the policy gives up.
+	 * Affects only connections established afterwards.
+	 *
+	 * @param reconnectPolicy the policy, null for no reconnects (default)
+	 */
+	void setReconnectPolicy(ReconnectPolicy reconnectPolicy);
+
+	ReconnectPolicy getReconnectPolicy();
+
 	InetAddress getServerAddress();
 
 	int getServerPort();
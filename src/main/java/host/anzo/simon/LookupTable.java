@@ -77,6 +77,13 @@ public class LookupTable implements LookupTableMBean {
 	 */
 	private final Map<Long, Map<String, RemoteRefContainer>> sessionRefCount = new HashMap<>();
 
+	/**
+	 * Remote objects by the object id assigned on their first lookup, used to
+	 * resolve invokes of v2 frames without a name lookup. Ids are not reused,
+	 * the slot of a released remote object stays empty.
+	 */
+	private volatile RemoteObjectContainer[] containersById = new RemoteObjectContainer[16];
+	private int nextObjectId = 0;
 
 	private Dispatcher dispatcher;
 	private boolean cleanupDone = false;
@@ -298,6 +305,53 @@ public class LookupTable implements LookupTableMBean {
 		}
 	}
 
+	/**
+	 * Returns the object id of the given bound remote object. The id is
+	 * assigned on the first call.
+	 *
+	 * @param container the container of the remote object, as returned by a lookup
+	 * @return the object id, or -1 if the remote object is no longer bound
+	 */
+	synchronized int getObjectId(@NotNull RemoteObjectContainer container) {
+		if (container.getObjectId() < 0) {
+			Map<Long, Method> methods = remoteObject_to_hashToMethod_Map.get(container.getRemoteObject());
+			if (methods == null || bindings.get(container.getRemoteObjectName()) != container) {
+				return -1;
+			}
+			int objectId = nextObjectId++;
+			RemoteObjectContainer[] containers = containersById;
+			if (objectId >= containers.length) {
+				containers = Arrays.copyOf(containers, containers.length * 2);
+			}
+			container.assignObjectId(objectId, methods);
+			containers[objectId] = container;
+			containersById = containers;
+			log.debug("assigned objectId={} to {}", objectId, container.getRemoteObjectName());
+		}
+		return container.getObjectId();
+	}
+
+	/**
+	 * Returns the remote object with the given object id
+	 *
+	 * @param objectId the object id
+	 * @return the container of the remote object, or null if there is no bound remote object with this id
+	 */
+	public RemoteObjectContainer getRemoteObjectContainer(int objectId) {
+		RemoteObjectContainer[] containers = containersById;
+		return objectId >= 0 && objectId < containers.length ? containers[objectId] : null;
+	}
+
+	/**
+	 * Empties the object id slot of a released remote object
+	 */
+	private void releaseObjectId(@NotNull RemoteObjectContainer container) {
+		int objectId = container.getObjectId();
+		if (objectId >= 0) {
+			containersById[objectId] = null;
+		}
+	}
+
 	/**
 	 * Frees a saved remote object. After a remote object is freed, it cannot be
 	 * looked up again until it's bound again.
@@ -315,6 +369,7 @@ public class LookupTable implements LookupTableMBean {
 			// remoteObject may be null in case of multithreaded access
 			// to Simon#unbind() and thus releaseRemoteBinding()
 			if (remoteObjectContainer != null) {
+				releaseObjectId(remoteObjectContainer);
 				Object remoteObject = remoteObjectContainer.getRemoteObject();
 				log.debug("cleaning up [{}]", remoteObject);
 				removeRemoteObjectFromSet(remoteObject);
@@ -431,6 +486,7 @@ public class LookupTable implements LookupTableMBean {
 
 		bindings.clear();
 		remoteObject_to_hashToMethod_Map.clear();
+		containersById = new RemoteObjectContainer[16];
 		sessionRefCount.clear();
 		cleanupDone = true;
 		log.debug("end");
@@ -473,6 +529,7 @@ public class LookupTable implements LookupTableMBean {
 					log.debug("sessionId={} RemoteObjectContainer to unreference: {}", id, container);
 
 					if (container != null) {
+						releaseObjectId(container);
 						Object remoteInstanceBindingToRemove = container.getRemoteObject();
 						log.debug("sessionId={} simon remote to unreference: {}", id, remoteInstanceBindingToRemove);
 
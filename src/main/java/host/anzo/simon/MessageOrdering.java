@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon;
+
+/**
+ * Defines in which order received requests are processed by a
+ * {@link Dispatcher}. Returns of own requests, pings and errors are never
+ * ordered, they are always processed as soon as they arrive.
+ *
+ * @see Simon#setMessageOrdering(MessageOrdering)
+ * @see Registry#setMessageOrdering(MessageOrdering)
+ */
+public enum MessageOrdering {
+	/**
+	 * Requests are processed concurrently, in no particular order. This is
+	 * the default.
+	 */
+	NONE,
+	/**
+	 * Requests of one session are processed one after another, in the order
+	 * they were received. Requests of different sessions are processed in
+	 * parallel.
+	 */
+	SESSION,
+	/**
+	 * Invokes are processed one after another per session and remote object,
+	 * in the order they were received. Invokes on different remote objects
+	 * and of different sessions are processed in parallel. All other
+	 * requests are ordered per session.
+	 */
+	REMOTE_OBJECT
+}
@@ -79,10 +79,16 @@ public class NameLookup extends AbstractLookup {
 				log.debug("iface: {}", class1.getName());
 			}
 
+			// invoke by object id, if the server assigned one
+			ClientToServerConnection connection = sessionDispatcherContainer.connection();
+			registerRemoteObject(connection, remoteObjectName, msg.getObjectId(), msg.getMethodHashes());
+
 			/*
 			 * Creates proxy for method-call-forwarding to server
 			 */
 			SimonProxy handler = new SimonProxy(dispatcher, session, remoteObjectName, listenerInterfaces, true);
+			handler.setWaitStrategy(waitStrategy);
+			handler.setConnection(connection);
 			log.trace("proxy created");
 
 			/*
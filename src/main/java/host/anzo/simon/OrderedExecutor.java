@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Runs tasks on an underlying executor while keeping the order of tasks
+ * which share the same key: tasks of one key run one after another, tasks of
+ * different keys run in parallel. Each key has its own queue, which is
+ * drained by at most one task of the underlying executor at a time.
+ * <p>
+ * A drain task runs a limited batch of tasks and then resubmits itself, so
+ * that one busy key cannot occupy a pool thread forever.
+ */
+@Slf4j
+class OrderedExecutor {
+
+	/**
+	 * the number of tasks a drain task runs before it yields the pool thread
+	 */
+	private static final int BATCH_SIZE = 64;
+
+	private final Executor executor;
+
+	/**
+	 * key -> queue of the tasks of that key
+	 */
+	private final ConcurrentHashMap<Object, SerialQueue> queues = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates an ordered executor
+	 *
+	 * @param executor the executor which runs the tasks
+	 */
+	OrderedExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Runs the task after all previously submitted tasks with the same key
+	 *
+	 * @param key  the key, defining the order
+	 * @param task the task to run
+	 * @throws RejectedExecutionException if the underlying executor rejects the task
+	 */
+	void execute(Object key, Runnable task) {
+		SerialQueue queue = queues.computeIfAbsent(key, SerialQueue::new);
+		queue.tasks.add(task);
+		queue.schedule();
+	}
+
+	/**
+	 * Removes the queue of the given key. Tasks which have already been
+	 * submitted are still run. Submitting further tasks for the key creates a
+	 * new queue, so this must only be called once no more tasks will follow.
+	 *
+	 * @param key the key to remove
+	 */
+	void remove(Object key) {
+		queues.remove(key);
+	}
+
+	/**
+	 * Removes the queues of all keys which match the given filter
+	 *
+	 * @param filter the filter
+	 */
+	void removeIf(Predicate<Object> filter) {
+		queues.keySet().removeIf(filter);
+	}
+
+	/**
+	 * Returns the number of keys which currently have a queue
+	 *
+	 * @return the number of queues
+	 */
+	int getQueueCount() {
+		return queues.size();
+	}
+
+	private final class SerialQueue implements Runnable {
+		private final Object key;
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+		private final AtomicBoolean running = new AtomicBoolean(false);
+
+		private SerialQueue(Object key) {
+			this.key = key;
+		}
+
+		private void schedule() {
+			if (!tasks.isEmpty() && running.compareAndSet(false, true)) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					running.set(false);
+					throw e;
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (int i = 0; i < BATCH_SIZE; i++) {
+					Runnable task = tasks.poll();
+					if (task == null) {
+						break;
+					}
+					try {
+						task.run();
+					} catch (Throwable t) {
+						log.error("ordered task for key {} failed", key, t);
+					}
+				}
+			} finally {
+				running.set(false);
+			}
+			// tasks may have been added after the last poll, or the batch was exhausted
+			try {
+				schedule();
+			} catch (RejectedExecutionException e) {
+				log.debug("executor rejected remaining tasks for key {}, executor is shutting down", key);
+			}
+		}
+	}
+}
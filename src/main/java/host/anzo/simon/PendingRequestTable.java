@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The per-session table of requests which wait for their result. There is one
+ * table for each {@link org.apache.mina.core.session.IoSession}, so placing,
+ * completing and failing requests never contends with other sessions.
+ */
+class PendingRequestTable {
+
+	/**
+	 * sequence id -> pending slot
+	 */
+	private final ConcurrentHashMap<Integer, SequenceMonitor> slots = new ConcurrentHashMap<>();
+
+	/**
+	 * set as soon as the session is closed. Requests registered afterwards are
+	 * failed immediately.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Registers a pending request
+	 *
+	 * @param monitor the slot of the request
+	 * @return false, if the table is already closed and the request has to be
+	 * failed by the caller
+	 */
+	boolean register(SequenceMonitor monitor) {
+		slots.put(monitor.getSequenceId(), monitor);
+		// re-check after the put: close() either sees the slot or we see the flag
+		if (closed) {
+			slots.remove(monitor.getSequenceId());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the request with the given sequence id
+	 *
+	 * @param sequenceId the sequence id of the request
+	 * @return the slot of the request, or <code>null</code> if there is no such
+	 * pending request
+	 */
+	SequenceMonitor remove(int sequenceId) {
+		return slots.remove(sequenceId);
+	}
+
+	/**
+	 * Returns the number of pending requests
+	 *
+	 * @return the number of requests that wait for a result
+	 */
+	int size() {
+		return slots.size();
+	}
+
+	/**
+	 * Closes the table and removes all pending requests
+	 *
+	 * @return the removed slots
+	 */
+	List<SequenceMonitor> close() {
+		closed = true;
+		List<SequenceMonitor> pending = new ArrayList<>(slots.size());
+		for (Integer sequenceId : slots.keySet()) {
+			SequenceMonitor monitor = slots.remove(sequenceId);
+			if (monitor != null) {
+				pending.add(monitor);
+			}
+		}
+		return pending;
+	}
+}
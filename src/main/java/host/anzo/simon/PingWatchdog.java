@@ -22,131 +22,102 @@ import host.anzo.simon.utils.Utils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.mina.core.session.IoSession;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A class that observes all ping-requests and closes session if ping echo isn't returned within a specified timeframe
+ * <p>
+ * Each outstanding ping has one deadline on the dispatcher's timer, see
+ * {@link Dispatcher#getTimer()}, so waiting for pongs needs no thread. A pong
+ * removes the ping from the map of outstanding pings and cancels its deadline,
+ * and its round trip time is recorded in the {@link RttHistogram} of the session.
  *
  * @author Alexander Christian
  * @version 200901141316
  */
 @Slf4j
 public class PingWatchdog {
+
 	/**
-	 * Time ins ms that notifyPongReceived waits for the waitRunnable to be present
+	 * A ping which has been sent and whose pong has not been received yet
 	 */
-	private static final int WAIT_FOR_WAITRUNNABLE_TIMEOUT = 10000;
-
-	class WaitRunnable implements Runnable {
-		private IoSession session;
-		private int timeout;
-		private final Object monitor = new Object();
-		private boolean pongReceived = false;
-
-		public WaitRunnable(IoSession session) {
-			this.session = session;
-			this.timeout = dispatcher.getPingTimeout() * 1000;
-		}
-
-		public void run() {
-			log.debug("begin. sleeping {} ms before timout will occur. monitor={}", timeout, monitor);
-
-			long start = System.currentTimeMillis();
-			// only sleep if pong is not already received
-			if (!pongReceived) {
-				synchronized (monitor) {
-					try {
-						monitor.wait(timeout);
-					} catch (InterruptedException e) {
-					}
-				}
-			}
-			long end = System.currentTimeMillis();
-
-			boolean withinTime = end - start < timeout;
-			long remaining = timeout - (end - start);
-			long sleepTime = end - start;
-
-			if (pongReceived) {
-
-				if (withinTime) {
-					log.trace("Pong for session {} and monitor {} received within time! remaining={} rtt={}", Utils.longToHexString(session.getId()), monitor, remaining, sleepTime);
-				} else {
-					log.warn("Pong for session {} and monitor {} received, but NOT WITHIN TIME! remaining={} rtt={}", Utils.longToHexString(session.getId()), monitor, remaining, sleepTime);
-					closeSession();
-				}
-			} else {
-				log.trace("Pong for session {} and monitor {} not received", Utils.longToHexString(session.getId()), monitor);
-				closeSession();
-			}
-
-			log.debug("end.");
-		}
-
-		private void closeSession() {
-			log.debug("PingPong failure for session session {} and monitor {}. Closing it immediately.", Utils.longToHexString(session.getId()), monitor);
-			session.closeNow();
-		}
-
-		public void pongReceived() {
-			log.debug("Pong received for session {}. Notify monitor {}", Utils.longToHexString(session.getId()), monitor);
-			pongReceived = true;
-			synchronized (monitor) {
-				monitor.notifyAll();
-			}
-		}
-	} // end of WaitRunnable class
+	private static final class PendingPing {
+		private final long sentAt = System.nanoTime();
+		/**
+		 * the deadline on the timer, set before the ping is published in the map
+		 */
+		private HashedWheelTimer.Timeout deadline;
+	}
 
-	Map<IoSession, WaitRunnable> sessionWaitrunnableMap = Collections.synchronizedMap(new HashMap<IoSession, WaitRunnable>());
-	ExecutorService pingWatchdogPool = Executors.newCachedThreadPool(new NamedThreadPoolFactory(Statics.PINGWATCHDOG_WORKERPOOL_NAME));
-	private Dispatcher dispatcher;
+	/**
+	 * the outstanding pings, at most one per session
+	 */
+	private final ConcurrentHashMap<IoSession, PendingPing> pendingPings = new ConcurrentHashMap<>();
+	private final Dispatcher dispatcher;
 
 	protected PingWatchdog(Dispatcher dispatcher) {
 		this.dispatcher = dispatcher;
 	}
 
+	/**
+	 * Starts waiting for the pong of a ping which is about to be sent. If a
+	 * ping of the session is still outstanding, its deadline is kept and
+	 * the pong of either ping completes it.
+	 *
+	 * @param session the session the ping is sent on
+	 */
 	protected void waitForPong(IoSession session) {
 		log.debug("Waiting for pong for session: {}", Utils.longToHexString(session.getId()));
-		WaitRunnable runnable = new WaitRunnable(session);
-		sessionWaitrunnableMap.put(session, runnable);
-		pingWatchdogPool.execute(runnable);
+		if (pendingPings.containsKey(session)) {
+			log.debug("Ping for session {} still outstanding", Utils.longToHexString(session.getId()));
+			return;
+		}
+		final PendingPing ping = new PendingPing();
+		long timeout = dispatcher.getPingTimeout() * 1000L;
+		try {
+			ping.deadline = dispatcher.getTimer().schedule(() -> {
+				if (pendingPings.remove(session, ping)) {
+					log.debug("PingPong failure for session {}: pong not received within {} ms. Closing it immediately.", Utils.longToHexString(session.getId()), timeout);
+					session.closeNow();
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+		} catch (IllegalStateException e) {
+			log.debug("cannot watch ping for session {}: {}", Utils.longToHexString(session.getId()), e.getMessage());
+			return;
+		}
+		if (pendingPings.putIfAbsent(session, ping) != null) {
+			ping.deadline.cancel();
+		}
 	}
 
+	/**
+	 * Completes the outstanding ping of a session
+	 *
+	 * @param session the session the pong was received on
+	 */
 	protected void notifyPongReceived(IoSession session) {
-		log.debug("Pong received for session: {}", Utils.longToHexString(session.getId()));
-		WaitRunnable waitRunnable = sessionWaitrunnableMap.remove(session);
-
-		if (waitRunnable != null) {
-
-			waitRunnable.pongReceived();
-		} else {
-
-			// wait for WaitRunnable ..
-			log.warn("waitRunnable for session {} not present. Waiting for it ...", Utils.longToHexString(session.getId()));
-			long totallyWaited = 0;
-			while (!sessionWaitrunnableMap.containsKey(session) || (totallyWaited) < WAIT_FOR_WAITRUNNABLE_TIMEOUT) {
-
-				try {
-					long start = System.currentTimeMillis();
-					Thread.sleep(Statics.MONITOR_WAIT_TIMEOUT);
-					totallyWaited += System.currentTimeMillis() - start;
-				} catch (InterruptedException e) {
-					log.debug("sleeping interrupted! exiting wait loop.");
-					totallyWaited = WAIT_FOR_WAITRUNNABLE_TIMEOUT;
-				}
-			}
+		PendingPing ping = pendingPings.remove(session);
+		if (ping == null) {
+			// the ping has already timed out, or the peer sent a pong on its own
+			log.debug("Pong received for session {} without outstanding ping", Utils.longToHexString(session.getId()));
+			return;
+		}
+		ping.deadline.cancel();
+		long rtt = System.nanoTime() - ping.sentAt;
+		RttHistogram.getOrCreate(session).record(rtt);
+		log.trace("Pong for session {} received within time. rtt={}us", Utils.longToHexString(session.getId()), rtt / 1000);
+	}
 
-			// check again if WaitRunnable is there
-			if (sessionWaitrunnableMap.containsKey(session)) {
-				log.debug("now WaitRunnable for session {} is present. notify pong received again.", session);
-				notifyPongReceived(session);
-			} else {
-				log.error("waitRunnable for session {} after {} ms still not present. aborting pong notify.", Utils.longToHexString(session.getId()), WAIT_FOR_WAITRUNNABLE_TIMEOUT);
-			}
+	/**
+	 * Stops watching the outstanding ping of a closed session
+	 *
+	 * @param session the closed session
+	 */
+	protected void sessionClosed(IoSession session) {
+		PendingPing ping = pendingPings.remove(session);
+		if (ping != null) {
+			ping.deadline.cancel();
 		}
 	}
 }
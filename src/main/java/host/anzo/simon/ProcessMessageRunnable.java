@@ -18,6 +18,8 @@
  */
 package host.anzo.simon;
 
+import host.anzo.simon.codec.base.ProtocolCapabilities;
+import host.anzo.simon.codec.base.ValueCodec;
 import host.anzo.simon.codec.messages.*;
 import host.anzo.simon.exceptions.*;
 import host.anzo.simon.utils.SimonClassLoaderHelper;
@@ -26,14 +28,17 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.mina.core.future.CloseFuture;
 import org.apache.mina.core.session.IoSession;
 
-import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * This class is feed with all kind of messages (requests/invokes and returns)
@@ -48,6 +53,12 @@ import java.util.List;
  */
 @Slf4j
 public class ProcessMessageRunnable implements Runnable {
+	/**
+	 * the session whose message is processed by the current thread. Works for
+	 * pooled platform threads as well as for virtual threads.
+	 */
+	private static final ThreadLocal<IoSession> CURRENT_SESSION = new ThreadLocal<>();
+
 	private final AbstractMessage abstractMessage;
 	private final IoSession session;
 	private final Dispatcher dispatcher;
@@ -63,9 +74,29 @@ public class ProcessMessageRunnable implements Runnable {
 
 		log.debug("ProcessMessageRunnable: {} on sessionId {}", abstractMessage, Utils.longToHexString(session.getId()));
 
-		ProcessMessageThread currentThread = (ProcessMessageThread) Thread.currentThread();
-		currentThread.setSessionId(session.getId());
+		if (Thread.currentThread() instanceof ProcessMessageThread currentThread) {
+			currentThread.setSessionId(session.getId());
+		}
+
+		CURRENT_SESSION.set(session);
+		try {
+			processMessage();
+		} finally {
+			CURRENT_SESSION.remove();
+		}
+	}
+
+	/**
+	 * Returns the session whose message is processed by the current thread
+	 *
+	 * @return the session, or <code>null</code> if the current thread does not
+	 * process a message
+	 */
+	static IoSession getCurrentSession() {
+		return CURRENT_SESSION.get();
+	}
 
+	private void processMessage() {
 		int msgType = abstractMessage.getMsgType();
 
 		switch (msgType) {
@@ -94,6 +125,14 @@ public class ProcessMessageRunnable implements Runnable {
 				processInvokeReturn();
 				break;
 
+			case SimonMessageConstants.MSG_INVOKE_BATCH:
+				processInvokeBatch();
+				break;
+
+			case SimonMessageConstants.MSG_INVOKE_BATCH_RETURN:
+				processInvokeBatchReturn();
+				break;
+
 			case SimonMessageConstants.MSG_TOSTRING:
 				processToString();
 				break;
@@ -158,6 +197,10 @@ public class ProcessMessageRunnable implements Runnable {
 				processReleaseRef();
 				break;
 
+			case SimonMessageConstants.MSG_CACHE_INVALIDATE:
+				processCacheInvalidate();
+				break;
+
 			default:
 				// FIXME what to do here ?!
 				log.error("ProcessMessageRunnable: msgType={} not supported! terminating...", msgType);
@@ -182,9 +225,14 @@ public class ProcessMessageRunnable implements Runnable {
 		log.debug("begin");
 		log.debug("processing MsgPing...");
 
+		MsgPing msg = (MsgPing) abstractMessage;
 		log.debug("replying pong");
 		try {
-			dispatcher.sendPong(session);
+			if (msg.isHandshake()) {
+				dispatcher.sendHandshakePong(session, msg);
+			} else {
+				dispatcher.sendPong(session);
+			}
 		} catch (SessionException e) {
 			log.warn("could not reply pong for seqId {}. Error was: {}", abstractMessage.getSequence(), e.getMessage());
 		}
@@ -196,7 +244,9 @@ public class ProcessMessageRunnable implements Runnable {
 		log.debug("begin");
 		log.debug("processing MsgPong...");
 
-		dispatcher.getPingWatchdog().notifyPongReceived(session);
+		if (!dispatcher.completeHandshake(session, (MsgPong) abstractMessage)) {
+			dispatcher.getPingWatchdog().notifyPongReceived(session);
+		}
 		log.debug("end");
 	}
 
@@ -231,6 +281,8 @@ public class ProcessMessageRunnable implements Runnable {
 			log.debug("processing MsgCloseRawChannel...");
 			MsgCloseRawChannel msg = (MsgCloseRawChannel) abstractMessage;
 
+			// no more data follows the close, the queue has to be gone before the token can be used again
+			dispatcher.removeRawChannelOrderingKey(session, msg.getChannelToken());
 			dispatcher.unprepareRawChannel(msg.getChannelToken());
 
 			returnMsg.setSequence(msg.getSequence());
@@ -260,6 +312,8 @@ public class ProcessMessageRunnable implements Runnable {
 
 			log.debug("processing MsgRawChannelData...");
 			MsgRawChannelData msg = (MsgRawChannelData) abstractMessage;
+			// the sender waits for the sequence, also if writing fails
+			returnMsg.setSequence(msg.getSequence());
 
 			RawChannelDataListener rawChannelDataListener = dispatcher.getRawChannelDataListener(msg.getChannelToken());
 			if (rawChannelDataListener != null) {
@@ -268,9 +322,9 @@ public class ProcessMessageRunnable implements Runnable {
 				data.flip();
 				rawChannelDataListener.write(data);
 				log.debug("data forwarded to listener for token {}", msg.getChannelToken());
-				returnMsg.setSequence(msg.getSequence());
 			} else {
 				log.error("trying to forward data to a not registered or already closed listener: token={} data={}", msg.getChannelToken(), msg.getData());
+				returnMsg.setErrorMsg("no listener registered for token " + msg.getChannelToken());
 			}
 		} catch (RawChannelException ex) {
 			log.warn("Error occured during RawChannelDataListener#write()", ex);
@@ -321,6 +375,11 @@ public class ProcessMessageRunnable implements Runnable {
 				}
 			}
 			ret.setInterfaces(interfaceNames);
+			if (ProtocolCapabilities.has(session, SimonMessageConstants.CAPABILITY_V2_FRAMES)) {
+				RemoteObjectContainer container = dispatcher.getLookupTable().getRemoteObjectContainer(remoteObjectName);
+				ret.setObjectId(dispatcher.getLookupTable().getObjectId(container));
+				ret.setMethodHashes(container.getMethodHashes());
+			}
 		} catch (LookupFailedException e) {
 			log.debug("Lookup for remote object '{}' failed: {}", remoteObjectName, e.getMessage());
 			ret.setErrorMsg("Error: " + e.getClass() + "->" + e.getMessage() + "\n" + Utils.getStackTraceAsString(e));
@@ -356,6 +415,10 @@ public class ProcessMessageRunnable implements Runnable {
 
 			ret.setInterfaces(interfaceNames);
 			ret.setRemoteObjectName(container.getRemoteObjectName());
+			if (ProtocolCapabilities.has(session, SimonMessageConstants.CAPABILITY_V2_FRAMES)) {
+				ret.setObjectId(dispatcher.getLookupTable().getObjectId(container));
+				ret.setMethodHashes(container.getMethodHashes());
+			}
 		} catch (LookupFailedException e) {
 			log.debug("Lookup for remote object '{}' failed: {}", canonicalInterfaceName, e.getMessage());
 			ret.setErrorMsg("Error: " + e.getClass() + "->" + e.getMessage() + "\n" + Utils.getStackTraceAsString(e));
@@ -406,68 +469,14 @@ public class ProcessMessageRunnable implements Runnable {
 			result = new SimonRemoteException("Received MsgInvoke had errors. Cannot process invocation. error msg: " + msg.getErrorMsg());
 		} else {
 			Method method = msg.getMethod();
-			Object[] arguments = msg.getArguments();
-			String remoteObjectName = msg.getRemoteObjectName();
-
 			if (method == null) {
-				result = new SimonRemoteException("Method could not be resolved on the server for invoke request. RemoteObject: '" + remoteObjectName + "', Request: " + msg);
 				log.error("processInvoke: Method is null for message {}", msg);
-			} else {
-				log.debug("Processing invoke for: ron={} method={} args={}", remoteObjectName, method.getName(), Arrays.toString(arguments));
-
-				try {
-					if (arguments != null) {
-						try {
-							for (int i = 0; i < arguments.length; i++) {
-								if (arguments[i] instanceof SimonRemoteInstance simonCallback) {
-									List<String> interfaceNames = simonCallback.getInterfaceNames();
-									Class<?>[] listenerInterfaces = new Class<?>[interfaceNames.size()];
-									for (int j = 0; j < interfaceNames.size(); j++) {
-										listenerInterfaces[j] = Class.forName(interfaceNames.get(j), true, dispatcher.getClassLoader());
-									}
-									SimonProxy simonProxy = new SimonProxy(dispatcher, session, simonCallback.getId(), listenerInterfaces, false);
-									arguments[i] = Proxy.newProxyInstance(SimonClassLoaderHelper.getClassLoader(this.getClass()), listenerInterfaces, simonProxy);
-									log.debug("Proxy reconstructed for arg {}: {}", i, arguments[i]);
-								} else if (arguments[i] instanceof SimonEndpointReference ser) {
-									log.debug("Argument {} is SimonEndpointReference: {}", i, ser);
-									arguments[i] = dispatcher.getLookupTable().getRemoteObjectContainer(ser.getRemoteObjectName()).getRemoteObject();
-									log.debug("Original object injected for SimonEndpointReference: {}", arguments[i]);
-								}
-							}
-						} catch (Exception e) {
-							throw new SimonRemoteException("Error processing arguments for remote invocation", e);
-						}
-					}
-
-					Object remoteObject = dispatcher.getLookupTable().getRemoteObjectContainer(remoteObjectName).getRemoteObject();
-					result = method.invoke(remoteObject, arguments);
+			}
+			result = invoke(msg.getRemoteObjectName(), method, msg.getArguments());
 
-					if (method.getReturnType() == void.class) {
-						log.trace("Method {} returned void. No response will be sent.", method.getName());
-						shouldSendResponse = false;
-						result = null;
-					}
-					else {
-						if (Utils.isSimonProxy(result)) {
-							log.debug("Result of method {} is SimonProxy/Local Endpoint. Sending SimonEndpointReference.", method.getName());
-							result = new SimonEndpointReference(Simon.getSimonProxy(result));
-						} else if (Utils.isValidRemote(result)) {
-							log.debug("Result of method {} is SimonRemote. Sending SimonRemoteInstance.", method.getName());
-							SimonRemoteInstance sri = new SimonRemoteInstance(session, result);
-							dispatcher.getLookupTable().putRemoteInstance(session.getId(), sri, result);
-							result = sri;
-						} else if (result != null && !(result instanceof Serializable)) {
-							log.warn("Result '{}' of method {} is not Serializable", result, method.getName());
-							result = new SimonRemoteException("Result of method '" + method.getName() + "' must be Serializable or SimonRemote.");
-						}
-					}
-				} catch (InvocationTargetException e) {
-					result = (e.getCause() != null) ? e.getCause() : e;
-					log.warn("Exception thrown by invoked method {}: {}", method.getName(), ((Throwable) result).getMessage());
-				} catch (Exception e) {
-					result = new SimonRemoteException("Error during remote invocation of '" + remoteObjectName + "#" + method.getName() + "'", e);
-					log.error("Internal error during processInvoke for {}", msg, e);
-				}
+			if (method != null && method.getReturnType() == void.class && result == null) {
+				log.trace("Method {} returned void. No response will be sent.", method.getName());
+				shouldSendResponse = false;
 			}
 		}
 
@@ -475,6 +484,7 @@ public class ProcessMessageRunnable implements Runnable {
 			MsgInvokeReturn returnMsg = new MsgInvokeReturn();
 			returnMsg.setSequence(msg.getSequence());
 			returnMsg.setReturnValue(result);
+			returnMsg.setRemoteInterface(msg.getRemoteInterface());
 			log.debug("Sending response for sequenceId {}: {}", msg.getSequence(), returnMsg);
 			session.write(returnMsg);
 		} else {
@@ -484,6 +494,154 @@ public class ProcessMessageRunnable implements Runnable {
 		log.debug("end processInvoke");
 	}
 
+	/**
+	 * Processes the invocations of a batch, one after another or in parallel
+	 * as requested by the caller, and returns all results in one message.
+	 * Parallel invocations run on the message processor pool. The current
+	 * thread runs each invocation no pool thread has started yet itself, so
+	 * the batch doesn't wait for a pool which is busy with other requests.
+	 */
+	private void processInvokeBatch() {
+		log.debug("begin processInvokeBatch");
+
+		final MsgInvokeBatch msg = (MsgInvokeBatch) abstractMessage;
+		final Method[] methods = msg.getMethods();
+		final Object[][] arguments = msg.getArguments();
+		int callCount = msg.getCallCount();
+
+		Object[] results = new Object[callCount];
+		if (msg.hasError()) {
+			Arrays.fill(results, new SimonRemoteException("Received MsgInvokeBatch had errors. Cannot process invocation. error msg: " + msg.getErrorMsg()));
+		} else if (msg.isParallel() && callCount > 1) {
+			List<FutureTask<Object>> tasks = new ArrayList<>(callCount);
+			for (int i = 0; i < callCount; i++) {
+				final int call = i;
+				tasks.add(new FutureTask<>(() -> invokeInSession(msg.getRemoteObjectName(), methods[call], arguments[call])));
+			}
+			for (int i = 1; i < callCount; i++) {
+				try {
+					dispatcher.getMessageProcessorPool().execute(tasks.get(i));
+				} catch (RejectedExecutionException e) {
+					log.debug("pool rejected call #{} of batch {}, running it on the current thread", i, msg.getSequence());
+				}
+			}
+			for (int i = 0; i < callCount; i++) {
+				FutureTask<Object> task = tasks.get(i);
+				// does nothing if a pool thread has already started the task
+				task.run();
+				try {
+					results[i] = task.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					results[i] = new SimonRemoteException("Interrupted while waiting for call #" + i + " of the batch", e);
+				} catch (ExecutionException e) {
+					results[i] = new SimonRemoteException("Error during call #" + i + " of the batch", e.getCause());
+				}
+			}
+		} else {
+			for (int i = 0; i < callCount; i++) {
+				results[i] = invoke(msg.getRemoteObjectName(), methods[i], arguments[i]);
+			}
+		}
+
+		MsgInvokeBatchReturn returnMsg = new MsgInvokeBatchReturn();
+		returnMsg.setSequence(msg.getSequence());
+		returnMsg.setReturnValues(results);
+		returnMsg.setRemoteInterface(msg.getRemoteInterface());
+		log.debug("Sending response for sequenceId {}: {}", msg.getSequence(), returnMsg);
+		session.write(returnMsg);
+
+		log.debug("end processInvokeBatch");
+	}
+
+	/**
+	 * Runs {@link #invoke(String, Method, Object[])} with the session of this
+	 * message as current session, on whatever thread runs the batch call
+	 */
+	private Object invokeInSession(String remoteObjectName, Method method, Object[] arguments) {
+		IoSession previousSession = CURRENT_SESSION.get();
+		CURRENT_SESSION.set(session);
+		try {
+			return invoke(remoteObjectName, method, arguments);
+		} finally {
+			if (previousSession == null) {
+				CURRENT_SESSION.remove();
+			} else {
+				CURRENT_SESSION.set(previousSession);
+			}
+		}
+	}
+
+	/**
+	 * Invokes a method of a local remote object on behalf of the remote
+	 * caller and converts the result for sending it back
+	 *
+	 * @param remoteObjectName the name of the remote object
+	 * @param method           the method, null if it couldn't be resolved
+	 * @param arguments        the received arguments
+	 * @return the result to send, null for void methods, or the exception
+	 * thrown by the method or by processing the call
+	 */
+	private Object invoke(String remoteObjectName, Method method, Object[] arguments) {
+		if (method == null) {
+			return new SimonRemoteException("Method could not be resolved on the server for invoke request. RemoteObject: '" + remoteObjectName + "'");
+		}
+		log.debug("Processing invoke for: ron={} method={} args={}", remoteObjectName, method.getName(), Arrays.toString(arguments));
+
+		Object result;
+		try {
+			if (arguments != null) {
+				try {
+					for (int i = 0; i < arguments.length; i++) {
+						if (arguments[i] instanceof SimonRemoteInstance simonCallback) {
+							List<String> interfaceNames = simonCallback.getInterfaceNames();
+							Class<?>[] listenerInterfaces = new Class<?>[interfaceNames.size()];
+							for (int j = 0; j < interfaceNames.size(); j++) {
+								listenerInterfaces[j] = Class.forName(interfaceNames.get(j), true, dispatcher.getClassLoader());
+							}
+							SimonProxy simonProxy = new SimonProxy(dispatcher, session, simonCallback.getId(), listenerInterfaces, false);
+							arguments[i] = Proxy.newProxyInstance(SimonClassLoaderHelper.getClassLoader(this.getClass()), listenerInterfaces, simonProxy);
+							log.debug("Proxy reconstructed for arg {}: {}", i, arguments[i]);
+						} else if (arguments[i] instanceof SimonEndpointReference ser) {
+							log.debug("Argument {} is SimonEndpointReference: {}", i, ser);
+							arguments[i] = dispatcher.getLookupTable().getRemoteObjectContainer(ser.getRemoteObjectName()).getRemoteObject();
+							log.debug("Original object injected for SimonEndpointReference: {}", arguments[i]);
+						}
+					}
+				} catch (Exception e) {
+					throw new SimonRemoteException("Error processing arguments for remote invocation", e);
+				}
+			}
+
+			Object remoteObject = dispatcher.getLookupTable().getRemoteObjectContainer(remoteObjectName).getRemoteObject();
+			result = method.invoke(remoteObject, arguments);
+
+			if (method.getReturnType() == void.class) {
+				result = null;
+			} else {
+				if (Utils.isSimonProxy(result)) {
+					log.debug("Result of method {} is SimonProxy/Local Endpoint. Sending SimonEndpointReference.", method.getName());
+					result = new SimonEndpointReference(Simon.getSimonProxy(result));
+				} else if (Utils.isValidRemote(result)) {
+					log.debug("Result of method {} is SimonRemote. Sending SimonRemoteInstance.", method.getName());
+					SimonRemoteInstance sri = new SimonRemoteInstance(session, result);
+					dispatcher.getLookupTable().putRemoteInstance(session.getId(), sri, result);
+					result = sri;
+				} else if (result != null && !ValueCodec.isTransferable(session, result)) {
+					log.warn("Result '{}' of method {} is not Serializable", result, method.getName());
+					result = new SimonRemoteException("Result of method '" + method.getName() + "' must be Serializable or SimonRemote.");
+				}
+			}
+		} catch (InvocationTargetException e) {
+			result = (e.getCause() != null) ? e.getCause() : e;
+			log.warn("Exception thrown by invoked method {}: {}", method.getName(), ((Throwable) result).getMessage());
+		} catch (Exception e) {
+			result = new SimonRemoteException("Error during remote invocation of '" + remoteObjectName + "#" + method.getName() + "'", e);
+			log.error("Internal error during invoke of {}#{}", remoteObjectName, method.getName(), e);
+		}
+		return result;
+	}
+
 	/**
 	 * This method is triggered on caller end to retrieve the invocation result,
 	 * pass it to the result map and wake the caller thread
@@ -499,6 +657,20 @@ public class ProcessMessageRunnable implements Runnable {
 		log.debug("end");
 	}
 
+	/**
+	 * This method is triggered on caller end to retrieve the results of an
+	 * invocation batch, pass them to the result map and wake the caller thread
+	 */
+	private void processInvokeBatchReturn() {
+		log.debug("begin");
+
+		MsgInvokeBatchReturn msg = (MsgInvokeBatchReturn) abstractMessage;
+		log.debug("put result to queue={}", msg);
+		dispatcher.putResultToQueue(session, msg.getSequence(), msg);
+
+		log.debug("end");
+	}
+
 	private void processToString() {
 		log.debug("begin");
 
@@ -666,4 +838,14 @@ public class ProcessMessageRunnable implements Runnable {
 
 		log.debug("end");
 	}
+
+	private void processCacheInvalidate() {
+		log.debug("begin");
+
+		MsgCacheInvalidate msg = (MsgCacheInvalidate) abstractMessage;
+		log.debug("invalidating cached results of {}#{} on session {}", msg.getRemoteObjectName(), msg.getMethodName(), session.getId());
+		dispatcher.invalidateCachedResults(msg.getRemoteObjectName(), msg.getMethodName());
+
+		log.debug("end");
+	}
 }
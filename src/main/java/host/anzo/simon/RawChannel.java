@@ -24,12 +24,19 @@
  */
 package host.anzo.simon;
 
+import host.anzo.simon.codec.base.ProtocolCapabilities;
+import host.anzo.simon.codec.base.RawChannelFileRegion;
+import host.anzo.simon.codec.messages.SimonMessageConstants;
 import host.anzo.simon.exceptions.RawChannelException;
 import host.anzo.simon.exceptions.SimonRemoteException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.mina.core.session.IoSession;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This class enables one to send raw data from one station to a remote station.<br>
@@ -71,15 +78,50 @@ import java.nio.ByteBuffer;
  * the data is transfered directly, without method lookups and so on. So the
  * performance should be better, at least with an increasing amount of data that
  * needs to be transferred.
+ * <p>
+ * If the remote station supports it, <code>write()</code> doesn't wait for
+ * the remote station to receive each buffer. Instead, up to the window size
+ * of unacknowledged bytes are sent, see {@link #setWindowSize(int)}, and the
+ * receiver grants them back with each acknowledgement. An error of the remote
+ * listener is thrown by the next <code>write()</code> or by <code>close()</code>.
  *
  * @author achr
  */
 @Slf4j
 public class RawChannel {
+
+	/**
+	 * the default number of bytes which may be sent before the receiver acknowledged them
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 256 * 1024;
+	/**
+	 * the bounds of the blocks {@link #transferFrom(FileChannel, long, long)} sends as one frame,
+	 * within them a quarter of the window
+	 */
+	private static final int MIN_TRANSFER_BLOCK_SIZE = 8 * 1024;
+	private static final int MAX_TRANSFER_BLOCK_SIZE = 1024 * 1024;
+	/**
+	 * the largest part of a file which is mapped into memory at once
+	 */
+	private static final long MAX_MAPPED_SIZE = 64L * 1024 * 1024;
+
 	private final Dispatcher dispatcher;
 	private final IoSession session;
 	private final int channelToken;
 	private boolean channelOpen = true;
+	/**
+	 * true, if the remote station writes the data in the order it was sent, so writes don't wait for acknowledgements
+	 */
+	private final boolean windowed;
+	private volatile int windowSize = Simon.getRawChannelWindowSize();
+	/**
+	 * the number of sent bytes which are not acknowledged yet, guarded by this
+	 */
+	private long unacknowledgedBytes;
+	/**
+	 * the first error reported for sent data, guarded by this
+	 */
+	private Throwable failure;
 
 	/**
 	 * Instantiates a new raw channel. This is done by calling {@link Simon#openRawChannel(int, Object)}.
@@ -93,6 +135,7 @@ public class RawChannel {
 		this.dispatcher = dispatcher;
 		this.session = session;
 		this.channelToken = channelToken;
+		this.windowed = ProtocolCapabilities.has(session, SimonMessageConstants.CAPABILITY_RAW_CHANNEL_WINDOW);
 	}
 
 	/**
@@ -101,23 +144,181 @@ public class RawChannel {
 	 * sent. <i><b>Note:</b> Each buffer has to be wrapped by the SIMON protocol. The
 	 * overhead is about 9 byte per write() call. So you should not send too
 	 * small packets, otherwise you have some bandwidth loss!</i><br>
-	 * <b>Note:</b> Calling this method will block until the server received the data!
+	 * <b>Note:</b> Calling this method blocks while the window of unacknowledged
+	 * bytes is full. If the remote station doesn't support a window, it blocks
+	 * until the server received the data. The buffer may be reused as soon as
+	 * this method returns.
 	 *
 	 * @param byteBuffer the buffer who's content is written to the server
 	 * @throws IllegalStateException if the channel is already closed.
 	 * @throws SimonRemoteException
-	 * @throws RawChannelException   if the remote {@link RawChannelDataListener#write(ByteBuffer)} has problems writing.
+	 * @throws RawChannelException   if the remote {@link RawChannelDataListener#write(ByteBuffer)} has problems writing
+	 *                               this or previously sent data.
 	 */
 	public void write(ByteBuffer byteBuffer) throws IllegalStateException, SimonRemoteException, RawChannelException {
 		if (channelOpen) {
 			log.trace("token={}. channel open. forwarding to dispatcher ...", channelToken);
-			dispatcher.writeRawData(session, channelToken, byteBuffer);
+			if (windowed) {
+				// see the flip in MsgRawChannelDataEncoder
+				int size = byteBuffer.position() > 0 ? byteBuffer.position() : byteBuffer.limit();
+				send(size, () -> dispatcher.writeRawDataAsync(session, channelToken, byteBuffer));
+			} else {
+				dispatcher.writeRawData(session, channelToken, byteBuffer);
+			}
 			log.trace("token={}. data forwarded", channelToken);
 		} else {
 			throw new IllegalStateException("Instance of RawChannel already closed!");
 		}
 	}
 
+	/**
+	 * Writes a region of a file to the remote station, like several calls of
+	 * {@link #write(ByteBuffer)}. If the connection isn't encrypted, the data
+	 * is transferred from the file to the socket by the operating system,
+	 * without copying it into the heap. Otherwise the file is mapped into
+	 * memory, and the data is copied only once, into the frames to encrypt.
+	 * <p>
+	 * Returns when the remote station received the data, so the file may be
+	 * closed afterwards.
+	 *
+	 * @param file     the file to read from
+	 * @param position the position of the data in the file
+	 * @param count    the number of bytes to write
+	 * @return the number of bytes written, less than <code>count</code> if the file ends before
+	 * @throws IllegalStateException if the channel is already closed.
+	 * @throws IOException           if reading the file fails
+	 * @throws SimonRemoteException
+	 * @throws RawChannelException   if the remote {@link RawChannelDataListener#write(ByteBuffer)} has problems writing
+	 *                               this or previously sent data.
+	 */
+	public long transferFrom(FileChannel file, long position, long count) throws IllegalStateException, IOException, SimonRemoteException, RawChannelException {
+		if (!channelOpen) {
+			throw new IllegalStateException("Instance of RawChannel already closed!");
+		}
+		final long end = Math.min(position + count, file.size());
+		if (end <= position) {
+			return 0;
+		}
+		final int blockSize = Math.max(MIN_TRANSFER_BLOCK_SIZE, Math.min(MAX_TRANSFER_BLOCK_SIZE, windowSize / 4));
+		if (RawChannelFileRegion.isSupported(session)) {
+			for (long blockPosition = position; blockPosition < end; blockPosition += blockSize) {
+				final long from = blockPosition;
+				final int size = (int) Math.min(blockSize, end - blockPosition);
+				send(size, () -> dispatcher.writeRawFileRegionAsync(session, channelToken, file, from, size));
+				if (!windowed) {
+					awaitAllAcknowledged();
+				}
+			}
+			// the file regions are read until they are written
+			awaitAllAcknowledged();
+			throwFailure();
+		} else {
+			for (long mapPosition = position; mapPosition < end; mapPosition += MAX_MAPPED_SIZE) {
+				MappedByteBuffer mapped = file.map(FileChannel.MapMode.READ_ONLY, mapPosition, Math.min(MAX_MAPPED_SIZE, end - mapPosition));
+				while (mapped.hasRemaining()) {
+					write(mapped.slice().limit(Math.min(blockSize, mapped.remaining())));
+					mapped.position(mapped.position() + Math.min(blockSize, mapped.remaining()));
+				}
+			}
+		}
+		log.trace("token={}. {} bytes of file transferred", channelToken, end - position);
+		return end - position;
+	}
+
+	/**
+	 * Sends data without waiting for its acknowledgement, as soon as the
+	 * window has room for it
+	 *
+	 * @param size  the number of bytes to send
+	 * @param write sends the data and returns the future of its acknowledgement
+	 */
+	private void send(int size, RawWrite write) throws SimonRemoteException, RawChannelException {
+		awaitWindow(size);
+		try {
+			write.send().whenComplete((result, error) -> acknowledged(size, error));
+		} catch (SimonRemoteException e) {
+			acknowledged(size, null);
+			throw e;
+		}
+	}
+
+	private interface RawWrite {
+		CompletableFuture<Void> send() throws SimonRemoteException;
+	}
+
+	/**
+	 * Waits until the window has room for the given number of bytes and
+	 * reserves them. A buffer larger than the window is sent when all
+	 * previous data has been acknowledged.
+	 */
+	private synchronized void awaitWindow(int size) throws SimonRemoteException, RawChannelException {
+		while (failure == null && unacknowledgedBytes > 0 && unacknowledgedBytes + size > windowSize) {
+			awaitAcknowledgement();
+		}
+		throwFailure();
+		unacknowledgedBytes += size;
+	}
+
+	/**
+	 * Waits until all sent data has been acknowledged
+	 */
+	private synchronized void awaitAllAcknowledged() throws SimonRemoteException {
+		while (unacknowledgedBytes > 0) {
+			awaitAcknowledgement();
+		}
+	}
+
+	private void awaitAcknowledgement() throws SimonRemoteException {
+		try {
+			// each write completes, at the latest by its timeout or when the session closes
+			wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SimonRemoteException("interrupted while waiting for the acknowledgement of raw channel data, token=" + channelToken);
+		}
+	}
+
+	private synchronized void acknowledged(int size, Throwable error) {
+		unacknowledgedBytes -= size;
+		if (error != null && failure == null) {
+			failure = error;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Throws the first error reported for sent data, if any
+	 */
+	private synchronized void throwFailure() throws SimonRemoteException, RawChannelException {
+		if (failure instanceof RawChannelException e) {
+			throw new RawChannelException(e.getMessage());
+		}
+		if (failure != null) {
+			throw new SimonRemoteException("sending raw channel data failed, token=" + channelToken + ": " + failure.getMessage());
+		}
+	}
+
+	/**
+	 * Sets the number of bytes which may be sent before the receiver
+	 * acknowledged them. Has no effect if the remote station doesn't support
+	 * a window, then each write waits for its acknowledgement.
+	 *
+	 * @param windowSize the window in bytes, default is {@link Simon#setRawChannelWindowSize(int)}
+	 */
+	public void setWindowSize(int windowSize) {
+		if (windowSize < 1) {
+			throw new IllegalArgumentException("windowSize must be greater than 0: " + windowSize);
+		}
+		synchronized (this) {
+			this.windowSize = windowSize;
+			notifyAll();
+		}
+	}
+
+	public int getWindowSize() {
+		return windowSize;
+	}
+
 	/**
 	 * Return <code>true</code>, is channel is already closed and <code>false</code> is still open and <i>useable</i>.
 	 *
@@ -130,16 +331,22 @@ public class RawChannel {
 	/**
 	 * Signals on the remote station that the transmission has finished. This
 	 * also closes the raw channel. So after calling this method, each write()
-	 * call fails!
+	 * call fails! Waits until all written data has been acknowledged.
 	 *
 	 * @throws IllegalStateException if the channel is already closed.
 	 * @throws SimonRemoteException
-	 * @throws RawChannelException   if the remote {@link RawChannelDataListener#close()} has problems closing.
+	 * @throws RawChannelException   if the remote {@link RawChannelDataListener#close()} has problems closing,
+	 *                               or the remote {@link RawChannelDataListener#write(ByteBuffer)} had problems
+	 *                               writing data which was not acknowledged before.
 	 */
 	public void close() throws IllegalStateException, SimonRemoteException, RawChannelException {
 		if (channelOpen) {
+			if (windowed) {
+				awaitAllAcknowledged();
+			}
 			dispatcher.closeRawChannel(session, channelToken);
 			channelOpen = false;
+			throwFailure();
 		} else {
 			throw new IllegalStateException("Instance of RawChannel already closed!");
 		}
@@ -32,6 +32,9 @@ public interface RawChannelDataListener {
 	/**
 	 * Called by SIMON when data is received through a RawChannel.
 	 * Implementation is responsible for processing/storing/... received data.
+	 * The calls for one channel don't overlap and receive the data in the
+	 * order it was sent. The buffer is not used by SIMON afterwards, so it may
+	 * be kept without copying. Blocking in this method slows down the sender.
 	 *
 	 * @param data ByteBuffer with received data
 	 * @throws RawChannelException if an error occurs while writing data
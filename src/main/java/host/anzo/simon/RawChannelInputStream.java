@@ -24,49 +24,77 @@
  */
 package host.anzo.simon;
 
+import host.anzo.simon.exceptions.RawChannelException;
+
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Objects;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * InputStream wrapper for SIMON RawChannel
+ * <p>
+ * The received chunks are handed over to the reader through a bounded ring
+ * without copying. SIMON delivers the chunks of a channel one after another,
+ * so the ring has a single producer, and the stream is meant to be read by a
+ * single thread. If the ring is full, the delivery of further chunks waits
+ * for the reader, which in turn slows down the sender. The stream also is a
+ * {@link ReadableByteChannel} for bulk reads into a {@link ByteBuffer}.
  *
  * @author achristian
  * @since 1.2.0
  */
-public class RawChannelInputStream extends InputStream {
+public class RawChannelInputStream extends InputStream implements ReadableByteChannel {
+
+	/**
+	 * Default block size of 8k
+	 *
+	 * @deprecated received chunks are no longer copied into blocks, see {@link #DEFAULT_CAPACITY}
+	 */
+	@Deprecated
+	public static final int DEFAULT_BLOCKSIZE = 8 * 1024;
+	/**
+	 * Default number of received chunks which are buffered before the sender is slowed down
+	 */
+	public static final int DEFAULT_CAPACITY = 64;
 
-	private RawChannelDataListener dataListener = new RawChannelDataListener() {
+	private final RawChannelDataListener dataListener = new RawChannelDataListener() {
 		@Override
-		public void write(ByteBuffer data) {
-			int len = data.limit();
-			data.get(buf, 0, len);
-			try {
-				pos.write(buf, 0, len);
-			} catch (IOException ex) {
-				exception = ex;
+		public void write(ByteBuffer data) throws RawChannelException {
+			if (data.hasRemaining()) {
+				offer(data);
 			}
 		}
 
 		@Override
 		public void close() {
-			try {
-				pos.close();
-			} catch (IOException ex) {
-				exception = ex;
-			}
+			endOfStream = true;
+			wakeUp(waitingReader);
 		}
 	};
-	private IOException exception;
-	private PipedInputStream pis;
-	private PipedOutputStream pos;
-	private final byte[] buf;
+
+	private final ByteBuffer[] ring;
+	private final int mask;
 	/**
-	 * Default block size of 8k
+	 * the number of chunks added to the ring, only written by the listener
 	 */
-	public static final int DEFAULT_BLOCKSIZE = 8 * 1024;
+	private volatile long tail;
+	/**
+	 * the number of chunks taken from the ring, only written by the reader
+	 */
+	private volatile long head;
+	/**
+	 * the chunk being read, only accessed by the reader
+	 */
+	private ByteBuffer current;
+	private volatile boolean endOfStream;
+	private volatile boolean closed;
+	private volatile Thread waitingReader;
+	private volatile Thread waitingWriter;
 
 	/**
 	 * Creates a new input stream. You need to connect it to SIMON via
@@ -78,85 +106,230 @@ public class RawChannelInputStream extends InputStream {
 	 * @throws IOException
 	 */
 	public RawChannelInputStream() throws IOException {
-		this(DEFAULT_BLOCKSIZE);
+		this(DEFAULT_CAPACITY);
 	}
 
 	/**
-	 * @param blockSize the block-size for reading from rawchannel and wriuting to the inputstream pipe
+	 * @param capacity the number of received chunks which are buffered before the sender is slowed down,
+	 *                 rounded up to a power of two
 	 * @throws IOException
 	 * @see RawChannelInputStream#RawChannelInputStream()
 	 */
-	public RawChannelInputStream(int blockSize) throws IOException {
-		buf = new byte[blockSize];
-		pos = new PipedOutputStream();
-		pis = new PipedInputStream(pos, blockSize);
+	public RawChannelInputStream(int capacity) throws IOException {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("capacity must be between 1 and 2^30: " + capacity);
+		}
+		ring = new ByteBuffer[capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1];
+		mask = ring.length - 1;
 	}
 
-	@Override
-	public int read() throws IOException {
-		if (exception != null) {
-			throw new IOException("Error occured while forwarding data from RawChannelDataListener to InputStream", exception);
+	/**
+	 * Adds a received chunk to the ring, waits while the ring is full
+	 */
+	private void offer(ByteBuffer data) throws RawChannelException {
+		final long t = tail;
+		while (t - head == ring.length && !closed) {
+			waitingWriter = Thread.currentThread();
+			if (t - head == ring.length && !closed) {
+				LockSupport.park(this);
+			}
+			waitingWriter = null;
+			if (Thread.interrupted()) {
+				Thread.currentThread().interrupt();
+				throw new RawChannelException("interrupted while waiting for the reader of the RawChannelInputStream");
+			}
+		}
+		if (closed) {
+			throw new RawChannelException("RawChannelInputStream already closed");
 		}
-		return pis.read();
+		ring[(int) t & mask] = data;
+		tail = t + 1;
+		wakeUp(waitingReader);
 	}
 
-	@Override
-	public int read(byte[] b) throws IOException {
-		if (exception != null) {
-			throw new IOException("Error occured while forwarding data from RawChannelDataListener to InputStream", exception);
+	private static void wakeUp(Thread thread) {
+		if (thread != null) {
+			LockSupport.unpark(thread);
 		}
-		return pis.read(b);
+	}
+
+	/**
+	 * Returns the chunk to read from
+	 *
+	 * @param wait true, to wait until a chunk is received
+	 * @return the chunk with remaining data, or null at the end of the stream
+	 * or if no chunk is available without waiting
+	 */
+	private ByteBuffer nextChunk(boolean wait) throws IOException {
+		if (closed) {
+			throw new IOException("RawChannelInputStream already closed");
+		}
+		if (current != null && current.hasRemaining()) {
+			return current;
+		}
+		current = null;
+		final long h = head;
+		while (h == tail) {
+			if (endOfStream) {
+				// the last chunk is added before the end is signaled
+				if (h == tail) {
+					return null;
+				}
+				break;
+			}
+			if (!wait) {
+				return null;
+			}
+			waitingReader = Thread.currentThread();
+			if (h == tail && !endOfStream) {
+				LockSupport.park(this);
+			}
+			waitingReader = null;
+			if (Thread.interrupted()) {
+				throw new InterruptedIOException("interrupted while waiting for raw channel data");
+			}
+			if (closed) {
+				throw new IOException("RawChannelInputStream already closed");
+			}
+		}
+		final int slot = (int) h & mask;
+		current = ring[slot];
+		ring[slot] = null;
+		head = h + 1;
+		wakeUp(waitingWriter);
+		return current;
+	}
+
+	@Override
+	public int read() throws IOException {
+		ByteBuffer chunk = nextChunk(true);
+		return chunk == null ? -1 : chunk.get() & 0xff;
 	}
 
 	@Override
 	public int read(byte[] b, int off, int len) throws IOException {
-		if (exception != null) {
-			throw new IOException("Error occured while forwarding data from RawChannelDataListener to InputStream", exception);
+		Objects.checkFromIndexSize(off, len, b.length);
+		if (len == 0) {
+			return 0;
+		}
+		ByteBuffer chunk = nextChunk(true);
+		if (chunk == null) {
+			return -1;
 		}
-		return pis.read(b, off, len);
+		int n = 0;
+		// continue with the chunks which are already received
+		while (chunk != null && n < len) {
+			int count = Math.min(len - n, chunk.remaining());
+			chunk.get(b, off + n, count);
+			n += count;
+			if (n < len) {
+				chunk = nextChunk(false);
+			}
+		}
+		return n;
 	}
 
+	/**
+	 * Reads received data into the given buffer. Waits until data is
+	 * received, then transfers as much as is received and fits into the
+	 * buffer.
+	 *
+	 * @param dst the buffer to read into
+	 * @return the number of bytes read, or -1 at the end of the stream
+	 * @throws IOException if the stream is closed or the thread is interrupted while waiting
+	 */
 	@Override
-	public synchronized void reset() throws IOException {
-		if (exception != null) {
-			throw new IOException("Error occured while forwarding data from RawChannelDataListener to InputStream", exception);
+	public int read(ByteBuffer dst) throws IOException {
+		if (!dst.hasRemaining()) {
+			return 0;
+		}
+		ByteBuffer chunk = nextChunk(true);
+		if (chunk == null) {
+			return -1;
+		}
+		int n = 0;
+		while (chunk != null && dst.hasRemaining()) {
+			int count = Math.min(dst.remaining(), chunk.remaining());
+			dst.put(dst.position(), chunk, chunk.position(), count);
+			dst.position(dst.position() + count);
+			chunk.position(chunk.position() + count);
+			n += count;
+			if (dst.hasRemaining()) {
+				chunk = nextChunk(false);
+			}
 		}
-		pis.reset();
+		return n;
 	}
 
+	/**
+	 * Writes all received data to the given stream, directly from the
+	 * received chunks, until the end of the stream
+	 */
 	@Override
-	public int available() throws IOException {
-		if (exception != null) {
-			throw new IOException("Error occured while forwarding data from RawChannelDataListener to InputStream", exception);
+	public long transferTo(OutputStream out) throws IOException {
+		Objects.requireNonNull(out, "out");
+		long transferred = 0;
+		ByteBuffer chunk;
+		while ((chunk = nextChunk(true)) != null) {
+			int count = chunk.remaining();
+			if (chunk.hasArray()) {
+				out.write(chunk.array(), chunk.arrayOffset() + chunk.position(), count);
+				chunk.position(chunk.limit());
+			} else {
+				byte[] b = new byte[count];
+				chunk.get(b);
+				out.write(b);
+			}
+			transferred += count;
 		}
-		return pis.available();
+		return transferred;
 	}
 
 	@Override
-	public void close() throws IOException {
-		if (exception != null) {
-			throw new IOException("Error occured while forwarding data from RawChannelDataListener to InputStream", exception);
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		ByteBuffer chunk;
+		while (skipped < n && (chunk = nextChunk(skipped == 0)) != null) {
+			int count = (int) Math.min(n - skipped, chunk.remaining());
+			chunk.position(chunk.position() + count);
+			skipped += count;
 		}
-		pos.close();
-		pis.close();
+		return skipped;
 	}
 
+	/**
+	 * Returns the number of received bytes which are not read yet
+	 */
 	@Override
-	public synchronized void mark(int readlimit) {
-		pis.mark(readlimit);
+	public int available() throws IOException {
+		if (closed) {
+			throw new IOException("RawChannelInputStream already closed");
+		}
+		long available = current == null ? 0 : current.remaining();
+		for (long i = head, t = tail; i < t; i++) {
+			available += ring[(int) i & mask].remaining();
+		}
+		return (int) Math.min(available, Integer.MAX_VALUE);
 	}
 
+	/**
+	 * Closes the stream. Data which is received afterwards is rejected with
+	 * a {@link RawChannelException} to the sender.
+	 */
 	@Override
-	public boolean markSupported() {
-		return pis.markSupported();
+	public void close() throws IOException {
+		closed = true;
+		current = null;
+		for (long i = head, t = tail; i < t; i++) {
+			ring[(int) i & mask] = null;
+		}
+		wakeUp(waitingWriter);
+		wakeUp(waitingReader);
 	}
 
 	@Override
-	public long skip(long n) throws IOException {
-		if (exception != null) {
-			throw new IOException("Error occured while forwarding data from RawChannelDataListener to InputStream", exception);
-		}
-		return pis.skip(n);
+	public boolean isOpen() {
+		return !closed;
 	}
 
 	/**
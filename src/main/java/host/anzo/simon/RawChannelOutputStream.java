@@ -24,16 +24,35 @@ import host.anzo.simon.exceptions.SimonRemoteException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.Objects;
 
 /**
  * OutputStream wrapper for SIMON RawChannel
+ * <p>
+ * Written data is collected in a buffer of the chunk size, and each full
+ * chunk is written to the raw channel. The raw channel doesn't wait for the
+ * remote station to receive a chunk as long as its window has room, see
+ * {@link RawChannel#setWindowSize(int)}, so the caller keeps writing while
+ * the chunks are transferred. An error of the remote station is thrown by a
+ * later write, by {@link #flush()} or by {@link #close()}. The stream is
+ * meant to be written by a single thread.
  *
  * @author achristian
  * @since 1.2.0
  */
 public class RawChannelOutputStream extends OutputStream {
 
+	/**
+	 * Default chunk size of 32k
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 32 * 1024;
+
 	private final RawChannel rawChannel;
+	private final byte[] buf;
+	/**
+	 * the number of bytes in the buffer
+	 */
+	private int count;
 
 	/**
 	 * To create an outputstream for a rawchannel, you actually need an raw channel
@@ -41,35 +60,69 @@ public class RawChannelOutputStream extends OutputStream {
 	 * @param rawChannel the raw channel to write to
 	 */
 	public RawChannelOutputStream(RawChannel rawChannel) {
+		this(rawChannel, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param rawChannel the raw channel to write to
+	 * @param chunkSize  the number of bytes which are collected before they are written to the raw channel
+	 * @see RawChannelOutputStream#RawChannelOutputStream(RawChannel)
+	 */
+	public RawChannelOutputStream(RawChannel rawChannel, int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must be greater than 0: " + chunkSize);
+		}
 		this.rawChannel = rawChannel;
+		this.buf = new byte[chunkSize];
 	}
 
 	@Override
 	public void write(int b) throws IOException {
-		try {
-			rawChannel.write(ByteBuffer.wrap(new byte[]{(byte) b}));
-		} catch (SimonRemoteException ex) {
-			throw new IOException(ex);
-		} catch (RawChannelException ex) {
-			throw new IOException(ex);
+		if (count == buf.length) {
+			writeChunk();
 		}
+		buf[count++] = (byte) b;
 	}
 
 	@Override
-	public void write(byte[] b) throws IOException {
-		try {
-			rawChannel.write(ByteBuffer.wrap(b));
-		} catch (SimonRemoteException ex) {
-			throw new IOException(ex);
-		} catch (RawChannelException ex) {
-			throw new IOException(ex);
+	public void write(byte[] b, int off, int len) throws IOException {
+		Objects.checkFromIndexSize(off, len, b.length);
+		if (len >= buf.length) {
+			// large data is written directly, after the data collected before
+			writeChunk();
+			writeToChannel(ByteBuffer.wrap(b, off, len).slice());
+			return;
 		}
+		if (len > buf.length - count) {
+			writeChunk();
+		}
+		System.arraycopy(b, off, buf, count, len);
+		count += len;
 	}
 
+	/**
+	 * Writes the collected data to the raw channel. Doesn't wait for the
+	 * remote station to receive it.
+	 */
 	@Override
-	public void write(byte[] b, int off, int len) throws IOException {
+	public void flush() throws IOException {
+		writeChunk();
+	}
+
+	private void writeChunk() throws IOException {
+		if (count > 0) {
+			// the raw channel has copied the data when write() returns
+			writeToChannel(ByteBuffer.wrap(buf, 0, count));
+			count = 0;
+		}
+	}
+
+	private void writeToChannel(ByteBuffer data) throws IOException {
+		if (rawChannel.isClosed()) {
+			throw new IOException("RawChannelOutputStream already closed");
+		}
 		try {
-			rawChannel.write(ByteBuffer.wrap(b, off, len));
+			rawChannel.write(data);
 		} catch (SimonRemoteException ex) {
 			throw new IOException(ex);
 		} catch (RawChannelException ex) {
@@ -77,19 +130,26 @@ public class RawChannelOutputStream extends OutputStream {
 		}
 	}
 
-	@Override
-	public void flush() throws IOException {
-		// there is no flush for RawChannel
-	}
-
+	/**
+	 * Writes the collected data and closes the raw channel. Waits until the
+	 * remote station received all data.
+	 */
 	@Override
 	public void close() throws IOException {
+		if (rawChannel.isClosed()) {
+			return;
+		}
 		try {
-			rawChannel.close();
-		} catch (SimonRemoteException ex) {
-			throw new IOException(ex);
-		} catch (RawChannelException ex) {
-			throw new IOException(ex);
+			writeChunk();
+		} finally {
+			count = 0;
+			try {
+				rawChannel.close();
+			} catch (SimonRemoteException ex) {
+				throw new IOException(ex);
+			} catch (RawChannelException ex) {
+				throw new IOException(ex);
+			}
 		}
 	}
 
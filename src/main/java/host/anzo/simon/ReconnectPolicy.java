@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Defines how a lookup restores a lost connection to the server, see
+ * {@link Lookup#setReconnectPolicy(ReconnectPolicy)}. The attempts are
+ * spaced by an exponential backoff: the first attempt waits the initial
+ * delay, each further attempt twice as long as the previous one, up to the
+ * maximum delay. Each delay is randomized between its half and its full
+ * length, so that clients which lost their connections at the same time
+ * don't reconnect at the same time.
+ */
+public class ReconnectPolicy {
+
+	public static final long DEFAULT_INITIAL_DELAY = 100;
+	public static final long DEFAULT_MAX_DELAY = 30000;
+
+	/**
+	 * the delay before the first attempt in milliseconds
+	 */
+	private final long initialDelay;
+	/**
+	 * the longest delay between two attempts in milliseconds
+	 */
+	private final long maxDelay;
+	/**
+	 * the number of attempts before giving up, 0 for unlimited attempts
+	 */
+	private final int maxAttempts;
+
+	/**
+	 * Creates a policy with the default delays which never gives up
+	 */
+	public ReconnectPolicy() {
+		this(DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY, 0);
+	}
+
+	/**
+	 * Creates a policy
+	 *
+	 * @param initialDelay the delay before the first attempt in milliseconds
+	 * @param maxDelay     the longest delay between two attempts in milliseconds
+	 * @param maxAttempts  the number of attempts before giving up, 0 for unlimited attempts
+	 */
+	public ReconnectPolicy(long initialDelay, long maxDelay, int maxAttempts) {
+		if (initialDelay < 1 || maxDelay < initialDelay) {
+			throw new IllegalArgumentException("delays must satisfy 0 < initialDelay <= maxDelay: " + initialDelay + ", " + maxDelay);
+		}
+		if (maxAttempts < 0) {
+			throw new IllegalArgumentException("maxAttempts must not be negative: " + maxAttempts);
+		}
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * Returns the randomized delay before an attempt
+	 *
+	 * @param attempt the number of the attempt, starting at 0
+	 * @return the delay in milliseconds
+	 */
+	long getDelay(int attempt) {
+		long delay = initialDelay;
+		for (int i = 0; i < attempt && delay < maxDelay; i++) {
+			delay = delay < maxDelay / 2 ? delay << 1 : maxDelay;
+		}
+		return delay - ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+	/**
+	 * Checks whether another attempt is allowed
+	 *
+	 * @param attempt the number of the attempt, starting at 0
+	 * @return true, if the attempt may be made
+	 */
+	boolean isAttemptAllowed(int attempt) {
+		return maxAttempts == 0 || attempt < maxAttempts;
+	}
+
+	public long getInitialDelay() {
+		return initialDelay;
+	}
+
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	@Override
+	public String toString() {
+		return "ReconnectPolicy{initialDelay=" + initialDelay + ", maxDelay=" + maxDelay + ", maxAttempts=" + maxAttempts + "}";
+	}
+}
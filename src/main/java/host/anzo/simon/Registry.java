@@ -18,14 +18,19 @@
  */
 package host.anzo.simon;
 
+import host.anzo.simon.codec.WriteCoalescingFilter;
 import host.anzo.simon.codec.base.SimonProtocolCodecFactory;
 import host.anzo.simon.exceptions.LookupFailedException;
 import host.anzo.simon.exceptions.NameBindingException;
+import host.anzo.simon.compression.FrameCompression;
+import host.anzo.simon.serialization.JavaSerializer;
+import host.anzo.simon.serialization.SimonSerializer;
 import host.anzo.simon.ssl.SslContextFactory;
 import host.anzo.simon.utils.Utils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.mina.core.service.IoAcceptor;
 import org.apache.mina.core.session.IdleStatus;
+import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
 import org.apache.mina.filter.logging.LoggingFilter;
 import org.apache.mina.filter.ssl.SslFilter;
@@ -86,6 +91,21 @@ public final class Registry {
 	// See: http://dev.root1.de/issues/127
 	private ClassLoader classLoader = getClass().getClassLoader();
 
+	/**
+	 * the order in which received requests are processed
+	 */
+	private MessageOrdering messageOrdering = Simon.getMessageOrdering();
+
+	/**
+	 * the serializer for values of remote calls
+	 */
+	private SimonSerializer serializer = JavaSerializer.INSTANCE;
+
+	/**
+	 * the compression for frames sent to clients, null for none
+	 */
+	private FrameCompression frameCompression;
+
 	/**
 	 * started flag
 	 *
@@ -157,6 +177,9 @@ public final class Registry {
 			log.debug("dispatcher created");
 
 			dispatcher.setSessionListener(sessionListener);
+			dispatcher.setMessageOrdering(messageOrdering);
+			dispatcher.setSerializer(serializer);
+			dispatcher.setFrameCompression(frameCompression);
 
 			acceptor = new NioSocketAcceptor();
 
@@ -230,6 +253,13 @@ public final class Registry {
 				throw new IllegalArgumentException(e);
 			}
 
+			// frames are combined below the codec, so the codec hands over complete frames
+			WriteCoalescingFilter writeCoalescingFilter = Simon.createWriteCoalescingFilter();
+			if (writeCoalescingFilter != null) {
+				acceptor.getFilterChain().addLast(WriteCoalescingFilter.FILTER_NAME, writeCoalescingFilter);
+				log.debug("write coalescing ON");
+			}
+
 			protocolFactory.setup(true);
 			acceptor.getFilterChain().addLast("codec", new ProtocolCodecFilter(protocolFactory));
 
@@ -458,6 +488,124 @@ public final class Registry {
 		return dispatcher;
 	}
 
+	/**
+	 * Sets the order in which this registry processes received requests. If
+	 * the registry is already started, this takes effect for requests
+	 * received after this call.
+	 *
+	 * @param messageOrdering the ordering
+	 * @see Simon#setMessageOrdering(MessageOrdering)
+	 */
+	public void setMessageOrdering(MessageOrdering messageOrdering) {
+		if (messageOrdering == null) {
+			throw new IllegalArgumentException("messageOrdering must not be null");
+		}
+		this.messageOrdering = messageOrdering;
+		if (dispatcher != null) {
+			dispatcher.setMessageOrdering(messageOrdering);
+		}
+	}
+
+	/**
+	 * Returns the order in which this registry processes received requests
+	 *
+	 * @return the ordering
+	 */
+	public MessageOrdering getMessageOrdering() {
+		return messageOrdering;
+	}
+
+	/**
+	 * Sets the serializer for arguments, return values and errors of remote
+	 * calls. Clients have to use the same serializer, see
+	 * {@link Lookup#setSerializer(SimonSerializer)}. Should be set before the
+	 * registry is started; if the registry is already started, only clients
+	 * connecting afterwards are affected.
+	 *
+	 * @param serializer the serializer, default is {@link JavaSerializer}
+	 */
+	public void setSerializer(SimonSerializer serializer) {
+		if (serializer == null) {
+			throw new IllegalArgumentException("serializer must not be null");
+		}
+		this.serializer = serializer;
+		if (dispatcher != null) {
+			dispatcher.setSerializer(serializer);
+		}
+	}
+
+	/**
+	 * Returns the serializer for values of remote calls
+	 *
+	 * @return the serializer
+	 */
+	public SimonSerializer getSerializer() {
+		return serializer;
+	}
+
+	/**
+	 * Sets the compression for frames sent to clients, f.i. large return
+	 * values. Frames are only compressed for clients which are able to
+	 * decode them. Should be set before the registry is started; if the
+	 * registry is already started, only clients connecting afterwards are
+	 * affected.
+	 *
+	 * @param frameCompression the compression, null for none (default)
+	 */
+	public void setFrameCompression(FrameCompression frameCompression) {
+		this.frameCompression = frameCompression;
+		if (dispatcher != null) {
+			dispatcher.setFrameCompression(frameCompression);
+		}
+	}
+
+	/**
+	 * Returns the compression for frames sent to clients
+	 *
+	 * @return the compression, null for none
+	 */
+	public FrameCompression getFrameCompression() {
+		return frameCompression;
+	}
+
+	/**
+	 * Removes the cached results of all methods of a remote object from the
+	 * caches of all connected clients, see {@link host.anzo.simon.annotation.Cacheable}
+	 *
+	 * @param name the name the remote object is bound with
+	 * @return the number of clients the invalidation has been sent to
+	 * @see #invalidateCache(String, String)
+	 */
+	public int invalidateCache(String name) {
+		return invalidateCache(name, null);
+	}
+
+	/**
+	 * Removes cached results of a remote object from the caches of all
+	 * connected clients, see {@link host.anzo.simon.annotation.Cacheable}.
+	 * Call it after the state the results depend on has changed. The
+	 * invalidation is sent without waiting for the clients, a client may
+	 * still answer a call from its cache until the invalidation arrived.
+	 * Clients of older SIMON versions don't receive it.
+	 *
+	 * @param name       the name the remote object is bound with
+	 * @param methodName the name of the method whose results are removed, null for all methods
+	 * @return the number of clients the invalidation has been sent to
+	 */
+	public int invalidateCache(String name, String methodName) {
+		if (acceptor == null || dispatcher == null) {
+			return 0;
+		}
+		int sent = 0;
+		for (IoSession session : acceptor.getManagedSessions().values()) {
+			if (dispatcher.sendCacheInvalidate(session, name, methodName)) {
+				sent++;
+			}
+		}
+		log.debug("cache invalidation of {}#{} sent to {} client(s)", name, methodName, sent);
+		return sent;
+	}
+
 	/**
 	 * The classloader which is used to load remote interface classes (used in remote callbacks f.i.).
 	 *
@@ -18,7 +18,9 @@
  */
 package host.anzo.simon;
 
+import java.lang.reflect.Method;
 import java.util.Arrays;
+import java.util.Map;
 
 /**
  * A simple class that builds a 3-tupel of
@@ -34,6 +36,15 @@ public class RemoteObjectContainer {
 	private Object remoteObject;
 	private String remoteObjectName;
 	private Class<?>[] remoteObjectInterfaces;
+	/**
+	 * the id assigned on the first lookup, -1 if not yet assigned
+	 */
+	private volatile int objectId = -1;
+	/**
+	 * the hashes of the remote methods, sorted, and the methods at the same index
+	 */
+	private long[] methodHashes;
+	private Method[] methodTable;
 
 	public RemoteObjectContainer(Object remoteObject, String remoteObjectName, Class<?>[] remoteObjectInterfaces) {
 		this.remoteObject = remoteObject;
@@ -83,6 +94,56 @@ public class RemoteObjectContainer {
 		this.remoteObjectInterfaces = remoteObjectInterfaces;
 	}
 
+	/**
+	 * @return the object id, or -1 if no id has been assigned yet
+	 */
+	public int getObjectId() {
+		return objectId;
+	}
+
+	/**
+	 * Assigns the object id and builds the method table, which is indexed by
+	 * the position of the method hash in the sorted array of all hashes
+	 *
+	 * @param objectId the object id
+	 * @param methods  the remote methods by hash
+	 */
+	void assignObjectId(int objectId, Map<Long, Method> methods) {
+		long[] hashes = new long[methods.size()];
+		int i = 0;
+		for (Long hash : methods.keySet()) {
+			hashes[i++] = hash;
+		}
+		Arrays.sort(hashes);
+		Method[] table = new Method[hashes.length];
+		for (i = 0; i < hashes.length; i++) {
+			table[i] = methods.get(hashes[i]);
+		}
+		this.methodHashes = hashes;
+		this.methodTable = table;
+		this.objectId = objectId; // volatile write publishes the tables
+	}
+
+	/**
+	 * @return the sorted method hashes, or null if no object id has been assigned yet
+	 */
+	public long[] getMethodHashes() {
+		return objectId < 0 ? null : methodHashes;
+	}
+
+	/**
+	 * Returns the method at the given index of the method table
+	 *
+	 * @param methodIndex the index of the method's hash in {@link #getMethodHashes()}
+	 * @return the method, or null if the index is out of range or no object id has been assigned yet
+	 */
+	public Method getMethod(int methodIndex) {
+		if (objectId < 0 || methodIndex < 0 || methodIndex >= methodTable.length) {
+			return null;
+		}
+		return methodTable[methodIndex];
+	}
+
 	@Override
 	public int hashCode() {
 		int hash = 7;
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon;
+
+import org.apache.mina.core.session.IoSession;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of the round trip times of the pings of a session, measured
+ * by the {@link PingWatchdog} from sending a ping to receiving its pong. The
+ * times are counted in buckets whose bounds are powers of two microseconds,
+ * so a percentile is precise to a factor of two. Recording is lock-free.
+ */
+public class RttHistogram {
+
+	/**
+	 * the number of buckets, the last one counts all times from 2^31 microseconds on
+	 */
+	public static final int BUCKET_COUNT = 32;
+
+	private static final String SESSION_ATTRIBUTE_RTT_HISTOGRAM = RttHistogram.class.getName();
+
+	/**
+	 * bucket i counts the times from 2^i up to 2^(i+1) microseconds, bucket 0 also counts shorter times
+	 */
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong();
+	private volatile long last;
+
+	/**
+	 * Returns the histogram of the given session
+	 *
+	 * @param session the session
+	 * @return the histogram, null if no pong has been received on the session yet
+	 */
+	public static RttHistogram get(IoSession session) {
+		return (RttHistogram) session.getAttribute(SESSION_ATTRIBUTE_RTT_HISTOGRAM);
+	}
+
+	/**
+	 * Returns the histogram of the given session, it is created on first use
+	 *
+	 * @param session the session
+	 * @return the histogram
+	 */
+	static RttHistogram getOrCreate(IoSession session) {
+		RttHistogram histogram = get(session);
+		if (histogram == null) {
+			RttHistogram created = new RttHistogram();
+			histogram = (RttHistogram) session.setAttributeIfAbsent(SESSION_ATTRIBUTE_RTT_HISTOGRAM, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Records a round trip time
+	 *
+	 * @param rttNanos the round trip time in nanoseconds
+	 */
+	public void record(long rttNanos) {
+		long micros = Math.max(0, rttNanos / 1000);
+		int bucket = Math.min(BUCKET_COUNT - 1, 63 - Long.numberOfLeadingZeros(micros | 1));
+		buckets.incrementAndGet(bucket);
+		count.increment();
+		sum.add(micros);
+		last = micros;
+		min.accumulateAndGet(micros, Math::min);
+		max.accumulateAndGet(micros, Math::max);
+	}
+
+	/**
+	 * @return the number of recorded round trips
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return the shortest round trip time in microseconds, 0 if none was recorded
+	 */
+	public long getMin() {
+		long value = min.get();
+		return value == Long.MAX_VALUE ? 0 : value;
+	}
+
+	/**
+	 * @return the longest round trip time in microseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the latest round trip time in microseconds
+	 */
+	public long getLast() {
+		return last;
+	}
+
+	/**
+	 * @return the mean round trip time in microseconds, 0.0 if none was recorded
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0.0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * Returns an upper bound of the round trip time below which the given
+	 * share of the round trips completed
+	 *
+	 * @param percentile the share in percent, e.g. 99.0
+	 * @return the upper bound of the bucket holding the percentile in microseconds, at most {@link #getMax()}, 0 if none was recorded
+	 */
+	public long getPercentile(double percentile) {
+		if (percentile < 0.0 || percentile > 100.0) {
+			throw new IllegalArgumentException("percentile must be in range 0..100: " + percentile);
+		}
+		long[] counts = getBucketCounts();
+		long total = 0;
+		for (long c : counts) {
+			total += c;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min((1L << (i + 1)) - 1, getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * @return a copy of the counts of the buckets, see {@link #BUCKET_COUNT}
+	 */
+	public long[] getBucketCounts() {
+		long[] counts = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets.get(i);
+		}
+		return counts;
+	}
+
+	@Override
+	public String toString() {
+		return "RttHistogram{count=" + getCount() + ", min=" + getMin() + "us, mean=" + (long) getMean() + "us, p99=" + getPercentile(99.0) + "us, max=" + getMax() + "us}";
+	}
+}
@@ -18,18 +18,29 @@
  */
 package host.anzo.simon;
 
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 /**
- * A simple monitor class whose instance can have a sequence id.
+ * A simple monitor class whose instance can have a sequence id. It is the
+ * pending slot of a request: the result is set exactly once by
+ * {@link #complete(Object)}, which then signals the waiting caller.
  *
  * @author achr
  */
 public class SequenceMonitor extends Monitor {
 
+	private static final AtomicReferenceFieldUpdater<SequenceMonitor, Object> RESULT_UPDATER = AtomicReferenceFieldUpdater.newUpdater(SequenceMonitor.class, Object.class, "result");
+
 	/**
 	 * the associated sequence id
 	 */
 	private final int sequenceId;
 
+	/**
+	 * the result of the request, <code>null</code> as long as the request is pending
+	 */
+	private volatile Object result;
+
 	/**
 	 * Creates a monitor object
 	 *
@@ -48,4 +59,38 @@ public class SequenceMonitor extends Monitor {
 	protected int getSequenceId() {
 		return sequenceId;
 	}
+
+	/**
+	 * Sets the result of the request and signals the waiting caller. Only the
+	 * first call has an effect.
+	 *
+	 * @param result the result, must not be <code>null</code>
+	 * @return true, if the result has been set by this call, false if the
+	 * request was already completed
+	 */
+	protected boolean complete(Object result) {
+		if (RESULT_UPDATER.compareAndSet(this, null, result)) {
+			signal();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether the result of the request is present or not
+	 *
+	 * @return true, if the result is present
+	 */
+	public boolean isCompleted() {
+		return result != null;
+	}
+
+	/**
+	 * Returns the result of the request
+	 *
+	 * @return the result, or <code>null</code> if the request is still pending
+	 */
+	protected Object getResult() {
+		return result;
+	}
 }
@@ -24,14 +24,19 @@
  */
 package host.anzo.simon;
 
+import host.anzo.simon.cache.ResultCache;
+import host.anzo.simon.codec.WriteCoalescingFilter;
 import host.anzo.simon.codec.base.SimonProtocolCodecFactory;
 import host.anzo.simon.exceptions.*;
 import host.anzo.simon.io.AcceptAllBufferAllocator;
+import host.anzo.simon.io.PooledBufferAllocator;
 import host.anzo.simon.ssl.SslContextFactory;
 import host.anzo.simon.utils.Utils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.buffer.IoBufferAllocator;
 import org.apache.mina.core.session.IdleStatus;
+import org.apache.mina.core.session.IoSession;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -47,8 +52,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 
@@ -71,6 +78,11 @@ public class Simon {
 	 */
 	private static final Map<Method, Integer> customInvokeTimeoutMap = new HashMap<>();
 
+	/**
+	 * Map holding custom wait strategies for specific remote methods (including callbacks).
+	 */
+	private static final Map<Method, WaitStrategy> waitStrategyMap = new ConcurrentHashMap<>();
+
 	static {
 		IoBuffer.setAllocator(new AcceptAllBufferAllocator());
 		String property = System.getProperty("host.anzo.simon.debug", "false");
@@ -115,6 +127,38 @@ public class Simon {
 	 * The size of the used thread pool. -1 indicates a cached thread pool.
 	 */
 	private static int poolSize = -1;
+	/**
+	 * Indicates whether messages are processed on virtual threads instead of a pool
+	 */
+	private static boolean virtualWorkerThreads = false;
+	/**
+	 * The order in which new dispatchers process received requests
+	 */
+	private static MessageOrdering messageOrdering = MessageOrdering.NONE;
+	/**
+	 * Indicates whether new sessions combine small frames into one write
+	 */
+	private static boolean writeCoalescing = false;
+	/**
+	 * The byte limit of the write coalescing of new sessions
+	 */
+	private static int writeCoalescingMaxBytes = WriteCoalescingFilter.DEFAULT_MAX_BYTES;
+	/**
+	 * The message limit of the write coalescing of new sessions
+	 */
+	private static int writeCoalescingMaxMessages = WriteCoalescingFilter.DEFAULT_MAX_MESSAGES;
+	/**
+	 * The entry limit of the result caches of new connections
+	 */
+	private static int resultCacheMaxEntries = ResultCache.DEFAULT_MAX_ENTRIES;
+	/**
+	 * The memory limit of the result caches of new connections
+	 */
+	private static long resultCacheMaxBytes = ResultCache.DEFAULT_MAX_BYTES;
+	/**
+	 * The number of bytes a raw channel may send before the receiver acknowledged them
+	 */
+	private static int rawChannelWindowSize = RawChannel.DEFAULT_WINDOW_SIZE;
 	/**
 	 * A list of publishments. This is used by the publish service server.
 	 */
@@ -422,6 +466,13 @@ public class Simon {
 	 * @return the threadPool
 	 */
 	protected static ExecutorService getThreadPool() {
+		if (virtualWorkerThreads) {
+			ExecutorService virtualThreadExecutor = newVirtualThreadPerTaskExecutor(Statics.DISPATCHER_WORKERPOOL_NAME);
+			if (virtualThreadExecutor != null) {
+				return virtualThreadExecutor;
+			}
+			log.warn("Virtual threads are not supported by this JVM ({}). Falling back to worker thread pool.", System.getProperty("java.version"));
+		}
 		if (poolSize == -1) {
 			return Executors.newCachedThreadPool(new NamedThreadPoolFactory(Statics.DISPATCHER_WORKERPOOL_NAME));
 		} else if (poolSize == 1) {
@@ -448,6 +499,230 @@ public class Simon {
 		poolSize = size;
 	}
 
+	/**
+	 * Enables or disables the processing of received messages on virtual
+	 * threads. If enabled, each message is processed on its own virtual thread
+	 * and the worker thread pool size is ignored. Remote method
+	 * implementations that block (I/O, nested remote calls) then don't occupy
+	 * a platform thread while blocked. Virtual threads require a Java 21+
+	 * runtime. On older runtimes the worker thread pool is used.<br>
+	 * This will setting only affect new pools that have to be created in
+	 * future.
+	 *
+	 * @param enabled true, to process messages on virtual threads
+	 */
+	public static void setVirtualWorkerThreads(boolean enabled) {
+		virtualWorkerThreads = enabled;
+	}
+
+	/**
+	 * Returns whether received messages are processed on virtual threads
+	 *
+	 * @return true, if virtual worker threads are enabled
+	 * @see #setVirtualWorkerThreads(boolean)
+	 */
+	public static boolean isVirtualWorkerThreads() {
+		return virtualWorkerThreads;
+	}
+
+	/**
+	 * Sets the order in which received requests are processed by dispatchers
+	 * created in future, on server side as well as on client side (f.i. for
+	 * callbacks). With {@link MessageOrdering#SESSION} the requests of one
+	 * client are processed in the order they were sent, also async void calls,
+	 * while requests of different clients are still processed in parallel on
+	 * the worker thread pool. This replaces the need for a worker thread pool
+	 * of size 1 if ordering is required.<br>
+	 * A registry's ordering can also be set by
+	 * {@link Registry#setMessageOrdering(MessageOrdering)}.
+	 *
+	 * @param ordering the ordering, default is {@link MessageOrdering#NONE}
+	 */
+	public static void setMessageOrdering(MessageOrdering ordering) {
+		if (ordering == null) {
+			throw new IllegalArgumentException("ordering must not be null");
+		}
+		messageOrdering = ordering;
+	}
+
+	/**
+	 * Returns the order in which new dispatchers process received requests
+	 *
+	 * @return the ordering
+	 * @see #setMessageOrdering(MessageOrdering)
+	 */
+	public static MessageOrdering getMessageOrdering() {
+		return messageOrdering;
+	}
+
+	/**
+	 * Enables or disables the combining of small outgoing frames into one
+	 * write for sessions created in future, on server side as well as on
+	 * client side. A frame is sent immediately if no write of its session is
+	 * in progress, frames sent meanwhile are combined into the next write.
+	 * This reduces the number of system calls and TCP segments of sessions
+	 * with many small requests and returns, without delaying single ones.
+	 *
+	 * @param enabled true to enable with the current limits, default is false
+	 * @see #setWriteCoalescing(int, int)
+	 */
+	public static void setWriteCoalescing(boolean enabled) {
+		writeCoalescing = enabled;
+	}
+
+	/**
+	 * Enables the combining of small outgoing frames into one write for
+	 * sessions created in future, with the given limits.
+	 *
+	 * @param maxBytes    the number of combined bytes at which they are written without waiting for the write in progress,
+	 *                    default is {@link WriteCoalescingFilter#DEFAULT_MAX_BYTES}
+	 * @param maxMessages the number of combined frames at which they are written without waiting for the write in progress,
+	 *                    default is {@link WriteCoalescingFilter#DEFAULT_MAX_MESSAGES}
+	 * @see #setWriteCoalescing(boolean)
+	 */
+	public static void setWriteCoalescing(int maxBytes, int maxMessages) {
+		// validates the limits
+		new WriteCoalescingFilter(maxBytes, maxMessages);
+		writeCoalescingMaxBytes = maxBytes;
+		writeCoalescingMaxMessages = maxMessages;
+		writeCoalescing = true;
+	}
+
+	/**
+	 * Returns whether new sessions combine small frames into one write
+	 *
+	 * @return true, if enabled
+	 * @see #setWriteCoalescing(boolean)
+	 */
+	public static boolean isWriteCoalescing() {
+		return writeCoalescing;
+	}
+
+	/**
+	 * Creates the filter for a new filter chain
+	 *
+	 * @return the filter, or null if write coalescing is disabled
+	 */
+	protected static WriteCoalescingFilter createWriteCoalescingFilter() {
+		return writeCoalescing ? new WriteCoalescingFilter(writeCoalescingMaxBytes, writeCoalescingMaxMessages) : null;
+	}
+
+	/**
+	 * Sets the limits of the caches for results of methods annotated with
+	 * {@link host.anzo.simon.annotation.Cacheable}. Each connection to a
+	 * server has its own cache. Affects connections established afterwards.
+	 *
+	 * @param maxEntries the largest number of cached results, default is {@link ResultCache#DEFAULT_MAX_ENTRIES}
+	 * @param maxBytes   the largest estimated memory used by the cached results in bytes,
+	 *                   default is {@link ResultCache#DEFAULT_MAX_BYTES}
+	 */
+	public static void setResultCacheLimits(int maxEntries, long maxBytes) {
+		if (maxEntries < 1 || maxBytes < 1) {
+			throw new IllegalArgumentException("limits must be greater than 0: maxEntries=" + maxEntries + ", maxBytes=" + maxBytes);
+		}
+		resultCacheMaxEntries = maxEntries;
+		resultCacheMaxBytes = maxBytes;
+	}
+
+	protected static int getResultCacheMaxEntries() {
+		return resultCacheMaxEntries;
+	}
+
+	protected static long getResultCacheMaxBytes() {
+		return resultCacheMaxBytes;
+	}
+
+	/**
+	 * Sets the number of bytes a {@link RawChannel} may send before the
+	 * receiver acknowledged them. A larger window keeps the connection busy
+	 * on links with a high latency, at the cost of memory on the receiving
+	 * side. Affects raw channels opened afterwards, see also
+	 * {@link RawChannel#setWindowSize(int)}.
+	 *
+	 * @param windowSize the window in bytes, default is {@link RawChannel#DEFAULT_WINDOW_SIZE}
+	 */
+	public static void setRawChannelWindowSize(int windowSize) {
+		if (windowSize < 1) {
+			throw new IllegalArgumentException("windowSize must be greater than 0: " + windowSize);
+		}
+		rawChannelWindowSize = windowSize;
+	}
+
+	protected static int getRawChannelWindowSize() {
+		return rawChannelWindowSize;
+	}
+
+	/**
+	 * Returns the cache for results of methods annotated with
+	 * {@link host.anzo.simon.annotation.Cacheable} of the connection the
+	 * given remote object has been looked up on, f.i. to read its hit and
+	 * miss counters
+	 *
+	 * @param remoteObject the remote object (an instance of {@link SimonProxy})
+	 * @return the cache of the connection
+	 * @throws IllegalArgumentException if the given object is not a remote object
+	 */
+	public static ResultCache getResultCache(Object remoteObject) throws IllegalArgumentException {
+		Dispatcher dispatcher = getSimonProxy(remoteObject).getDispatcher();
+		if (dispatcher == null) {
+			throw new IllegalArgumentException("the connection of the given remote object is already closed");
+		}
+		return dispatcher.getResultCache();
+	}
+
+	/**
+	 * Sets the allocator for all buffers MINA and SIMON allocate. Use a
+	 * {@link PooledBufferAllocator} to recycle buffers instead of allocating
+	 * a new one for each message. The default is an
+	 * {@link AcceptAllBufferAllocator}. Should be called before the first
+	 * registry or lookup is created, as buffers of the previous allocator
+	 * which are still in use are not returned to the new one.<br>
+	 * Note: the allocator is global to MINA. Buffers used for deserializing
+	 * call values need to accept all class names, as both allocators of
+	 * SIMON do.
+	 *
+	 * @param allocator the allocator
+	 */
+	public static void setBufferAllocator(IoBufferAllocator allocator) {
+		if (allocator == null) {
+			throw new IllegalArgumentException("allocator must not be null");
+		}
+		IoBufferAllocator previous = IoBuffer.getAllocator();
+		IoBuffer.setAllocator(allocator);
+		log.debug("buffer allocator changed from {} to {}", previous, allocator);
+	}
+
+	/**
+	 * Returns the allocator for all buffers MINA and SIMON allocate
+	 *
+	 * @return the allocator
+	 * @see #setBufferAllocator(IoBufferAllocator)
+	 */
+	public static IoBufferAllocator getBufferAllocator() {
+		return IoBuffer.getAllocator();
+	}
+
+	/**
+	 * Creates an executor that starts a new named virtual thread for each
+	 * task. The virtual thread API is looked up reflectively, as SIMON is
+	 * built for Java 17.
+	 *
+	 * @param baseName the basename for the created threads
+	 * @return the executor, or null if the runtime does not support virtual threads
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor(String baseName) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, baseName + ".#", 0L);
+			ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threadFactory);
+		} catch (ReflectiveOperationException e) {
+			log.debug("virtual threads not available: {}", e.toString());
+			return null;
+		}
+	}
+
 	/**
 	 * Sets the DGC's interval time in milliseconds
 	 *
@@ -714,6 +989,72 @@ public class Simon {
 		Simon.protocolFactoryClassName = protocolFactoryClassName;
 	}
 
+	/**
+	 * Creates an asynchronous view of the given remote object. The view
+	 * implements <code>asyncInterface</code>, whose methods mirror the remote
+	 * methods by name and parameter types, but return a
+	 * {@link java.util.concurrent.CompletableFuture} of the original return type:
+	 * <pre>
+	 * interface CharacterServiceAsync {
+	 *     CompletableFuture&lt;Integer&gt; getLevel(long charId);
+	 * }
+	 *
+	 * CharacterServiceAsync async = Simon.async(characterService, CharacterServiceAsync.class);
+	 * async.getLevel(charId).thenAccept(level -&gt; ...);
+	 * </pre>
+	 * No thread is blocked while the call is in flight. The future is
+	 * completed by the worker thread which receives the result, so dependent
+	 * stages that block should be moved to another executor. The invoke
+	 * timeout (see {@link #setCustomInvokeTimeout(Method, int)}) applies as for
+	 * blocking calls and fails the future with an
+	 * {@link InvokeTimeoutException}.
+	 *
+	 * @param remoteObject   the remote object (an instance of {@link SimonProxy})
+	 * @param asyncInterface the interface with future-returning methods
+	 * @param <T>            type of the async interface
+	 * @return the asynchronous view
+	 * @throws IllegalArgumentException if the given object is not a remote
+	 *                                  object or the async interface does not match
+	 *                                  the remote interfaces
+	 */
+	public static <T> T async(Object remoteObject, Class<T> asyncInterface) throws IllegalArgumentException {
+		SimonProxy simonProxy = getSimonProxy(remoteObject);
+		if (!asyncInterface.isInterface()) {
+			throw new IllegalArgumentException("Given class " + asyncInterface.getName() + " is not an interface");
+		}
+		SimonAsyncProxy handler = new SimonAsyncProxy(simonProxy, asyncInterface, remoteObject.getClass().getInterfaces());
+		return asyncInterface.cast(Proxy.newProxyInstance(asyncInterface.getClassLoader(), new Class<?>[]{asyncInterface}, handler));
+	}
+
+	/**
+	 * Creates a batch of calls on the given remote object. The calls are
+	 * recorded on {@link SimonBatch#calls()} and sent with one request by
+	 * {@link SimonBatch#execute()}, so that N calls take one round trip
+	 * instead of N:
+	 * <pre>
+	 * SimonBatch&lt;CharacterService&gt; batch = Simon.batch(characterService);
+	 * for (long charId : charIds) {
+	 *     batch.calls().getLevel(charId);
+	 * }
+	 * batch.execute();
+	 * int firstLevel = batch.get(0);
+	 * </pre>
+	 * The remote side runs the calls one after another in the recorded order,
+	 * or in parallel if set with {@link SimonBatch#setParallel(boolean)}. The
+	 * batch waits for the largest invoke timeout of its methods. If the remote
+	 * side runs an older SIMON version without batch support, the calls are
+	 * sent one by one without waiting for each other.
+	 *
+	 * @param remoteObject the remote object (an instance of {@link SimonProxy})
+	 * @param <T>          type of the remote interface
+	 * @return a new, empty batch
+	 * @throws IllegalArgumentException if the given object is not a remote object
+	 */
+	public static <T> SimonBatch<T> batch(T remoteObject) throws IllegalArgumentException {
+		SimonProxy simonProxy = getSimonProxy(remoteObject);
+		return new SimonBatch<>(simonProxy, remoteObject.getClass());
+	}
+
 	/**
 	 * Returns the current set class name for the protocol codec factory
 	 *
@@ -894,10 +1235,9 @@ public class Simon {
 	 * @throws IllegalStateException if called from outside a remote call
 	 */
 	public static long getSessionId() {
-		Thread currentThread = Thread.currentThread();
-		if (currentThread instanceof ProcessMessageThread) {
-			ProcessMessageThread thread = (ProcessMessageThread) currentThread;
-			return thread.getSessionId();
+		IoSession session = ProcessMessageRunnable.getCurrentSession();
+		if (session != null) {
+			return session.getId();
 		}
 		throw new IllegalStateException("Method must be invoked within a remote-call-implementation!");
 	}
@@ -929,4 +1269,31 @@ public class Simon {
 
 		return customTimeout.intValue();
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Sets a custom {@link WaitStrategy} for a remote method. The strategy is
+	 * used by the calling thread while waiting for the result and takes
+	 * precedence over the strategy set on the lookup via
+	 * {@link Lookup#setWaitStrategy(WaitStrategy)}.
+	 *
+	 * @param method       Method for which the wait strategy should be set
+	 * @param waitStrategy the strategy. A value of null resets to the lookup's or default strategy.
+	 */
+	public static void setWaitStrategy(Method method, WaitStrategy waitStrategy) {
+		if (waitStrategy != null) {
+			waitStrategyMap.put(method, waitStrategy);
+		} else {
+			waitStrategyMap.remove(method);
+		}
+	}
+
+	/**
+	 * Returns the custom wait strategy for specific remote method.
+	 *
+	 * @param method remote method
+	 * @return the custom wait strategy, or null if none is set
+	 */
+	static WaitStrategy getWaitStrategy(Method method) {
+		return waitStrategyMap.get(method);
+	}
+}
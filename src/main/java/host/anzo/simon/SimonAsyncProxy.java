@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The InvocationHandler behind an asynchronous view of a remote object, see
+ * {@link Simon#async(Object, Class)}. Each method of the async interface is
+ * mapped to the remote method with the same name and parameter types and
+ * returns a {@link CompletableFuture} instead of blocking the caller until the
+ * result arrives.
+ */
+@Slf4j
+class SimonAsyncProxy implements InvocationHandler {
+
+	/**
+	 * the handler of the remote object this view belongs to
+	 */
+	private final SimonProxy simonProxy;
+
+	/**
+	 * async interface method -> remote method
+	 */
+	private final Map<Method, Method> remoteMethods = new HashMap<>();
+
+	/**
+	 * Creates the handler and resolves every method of the async interface
+	 * against the interfaces exported by the remote object
+	 *
+	 * @param simonProxy       the handler of the remote object
+	 * @param asyncInterface   the interface with future-returning methods
+	 * @param remoteInterfaces the interfaces implemented by the remote object's proxy
+	 * @throws IllegalArgumentException if a method cannot be mapped to a remote method
+	 */
+	SimonAsyncProxy(SimonProxy simonProxy, Class<?> asyncInterface, Class<?>[] remoteInterfaces) {
+		this.simonProxy = simonProxy;
+
+		for (Method asyncMethod : asyncInterface.getMethods()) {
+			if (asyncMethod.isDefault() || Modifier.isStatic(asyncMethod.getModifiers())) {
+				continue;
+			}
+			if (!asyncMethod.getReturnType().isAssignableFrom(CompletableFuture.class)) {
+				throw new IllegalArgumentException("Method " + asyncMethod + " of async interface must return CompletableFuture, CompletionStage or Future");
+			}
+			Method remoteMethod = findRemoteMethod(asyncMethod, remoteInterfaces);
+			if (remoteMethod == null) {
+				throw new IllegalArgumentException("Method " + asyncMethod + " has no counterpart in remote interfaces of " + simonProxy.getDetailString());
+			}
+			remoteMethods.put(asyncMethod, remoteMethod);
+		}
+	}
+
+	private static Method findRemoteMethod(Method asyncMethod, Class<?>[] remoteInterfaces) {
+		for (Class<?> remoteInterface : remoteInterfaces) {
+			try {
+				return remoteInterface.getMethod(asyncMethod.getName(), asyncMethod.getParameterTypes());
+			} catch (NoSuchMethodException e) {
+				// try next interface
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		Method remoteMethod = remoteMethods.get(method);
+		if (remoteMethod == null) {
+			// equals(), hashCode() and toString() of the view itself are handled locally
+			if (method.toString().equalsIgnoreCase(Statics.EQUALS_METHOD_SIGNATURE)) {
+				return proxy == args[0];
+			} else if (method.toString().equalsIgnoreCase(Statics.HASHCODE_METHOD_SIGNATURE)) {
+				return System.identityHashCode(proxy);
+			} else if (method.toString().equalsIgnoreCase(Statics.TOSTRING_METHOD_SIGNATURE)) {
+				return "[AsyncView=" + simonProxy.getDetailString() + "]";
+			}
+			throw new UnsupportedOperationException("Method " + method + " is not mapped to a remote method");
+		}
+
+		log.debug("async invoke of {} mapped to remote method {}", method.getName(), remoteMethod);
+		return simonProxy.invokeAsync(remoteMethod, args);
+	}
+}
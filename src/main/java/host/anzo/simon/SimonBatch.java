@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon;
+
+import host.anzo.simon.exceptions.SimonRemoteException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Collects calls on a remote object and sends them with one request, see
+ * {@link Simon#batch(Object)}. Calls are recorded on the object returned by
+ * {@link #calls()}, which returns <code>null</code>, <code>0</code> or
+ * <code>false</code> for each call. {@link #execute()} sends the recorded
+ * calls and waits for all of their results, which are then available via
+ * {@link #get(int)} by the index of the call.
+ * <p>
+ * A batch is executed once and is not thread safe.
+ *
+ * @param <T> the remote interface type
+ */
+@Slf4j
+public final class SimonBatch<T> {
+
+	/**
+	 * the handler of the remote object the calls are made on
+	 */
+	private final SimonProxy simonProxy;
+
+	/**
+	 * records each call made on it
+	 */
+	private final T recorder;
+
+	private final List<Method> methods = new ArrayList<>();
+	private final List<Object[]> arguments = new ArrayList<>();
+
+	private boolean parallel;
+
+	/**
+	 * the results of the calls, null until the batch has been executed
+	 */
+	private List<CompletableFuture<Object>> results;
+
+	/**
+	 * Creates a batch
+	 *
+	 * @param simonProxy the handler of the remote object
+	 * @param proxyClass the class of the remote object's proxy
+	 */
+	@SuppressWarnings("unchecked")
+	SimonBatch(SimonProxy simonProxy, Class<?> proxyClass) {
+		this.simonProxy = simonProxy;
+		this.recorder = (T) Proxy.newProxyInstance(proxyClass.getClassLoader(), proxyClass.getInterfaces(), new Recorder());
+	}
+
+	/**
+	 * Returns the object to record calls on. It implements the same
+	 * interfaces as the remote object.
+	 *
+	 * @return the recording object
+	 */
+	public T calls() {
+		return recorder;
+	}
+
+	/**
+	 * Sets whether the remote side may run the calls of this batch in
+	 * parallel. By default, the calls run one after another in the order they
+	 * have been recorded.
+	 *
+	 * @param parallel true, if the calls may run in parallel
+	 * @return this batch
+	 */
+	public SimonBatch<T> setParallel(boolean parallel) {
+		this.parallel = parallel;
+		return this;
+	}
+
+	/**
+	 * @return the number of recorded calls
+	 */
+	public int size() {
+		return methods.size();
+	}
+
+	/**
+	 * Sends all recorded calls with one request and waits until the results
+	 * of all calls have arrived. An exception thrown by a single call doesn't
+	 * fail the batch, it's thrown by {@link #get(int)} for this call.
+	 *
+	 * @throws SimonRemoteException  if the batch could not be sent or answered
+	 * @throws IllegalStateException if the batch has already been executed
+	 */
+	public void execute() throws SimonRemoteException {
+		if (results != null) {
+			throw new IllegalStateException("Batch has already been executed");
+		}
+		if (methods.isEmpty()) {
+			results = List.of();
+			return;
+		}
+		log.debug("executing batch of {} calls on {}", methods.size(), simonProxy.getDetailString());
+		results = simonProxy.invokeBatch(methods.toArray(new Method[0]), arguments.toArray(new Object[0][]), parallel);
+	}
+
+	/**
+	 * Returns the result of a call of the executed batch
+	 *
+	 * @param index the index of the call, in the order the calls have been recorded
+	 * @param <R>   the type of the result
+	 * @return the result, null for methods with <code>void</code> return type
+	 * @throws ExecutionException        if the call threw an exception, which is the cause
+	 * @throws IllegalStateException     if the batch has not been executed yet
+	 * @throws IndexOutOfBoundsException if there is no call with this index
+	 */
+	@SuppressWarnings("unchecked")
+	public <R> R get(int index) throws ExecutionException {
+		if (results == null) {
+			throw new IllegalStateException("Batch has not been executed yet");
+		}
+		try {
+			return (R) results.get(index).get();
+		} catch (InterruptedException e) {
+			// unreachable, the future is completed
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Records the calls made on {@link #calls()}
+	 */
+	private final class Recorder implements InvocationHandler {
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			// equals(), hashCode() and toString() of the recorder itself are handled locally
+			if (method.toString().equalsIgnoreCase(Statics.EQUALS_METHOD_SIGNATURE)) {
+				return proxy == args[0];
+			} else if (method.toString().equalsIgnoreCase(Statics.HASHCODE_METHOD_SIGNATURE)) {
+				return System.identityHashCode(proxy);
+			} else if (method.toString().equalsIgnoreCase(Statics.TOSTRING_METHOD_SIGNATURE)) {
+				return "[Batch=" + simonProxy.getDetailString() + "|calls=" + methods.size() + "]";
+			}
+			if (results != null) {
+				throw new IllegalStateException("Batch has already been executed");
+			}
+
+			methods.add(method);
+			arguments.add(args);
+			return defaultValue(method.getReturnType());
+		}
+
+		private static Object defaultValue(Class<?> type) {
+			if (!type.isPrimitive() || type == void.class) {
+				return null;
+			} else if (type == boolean.class) {
+				return false;
+			} else if (type == char.class) {
+				return (char) 0;
+			} else if (type == byte.class) {
+				return (byte) 0;
+			} else if (type == short.class) {
+				return (short) 0;
+			} else if (type == int.class) {
+				return 0;
+			} else if (type == long.class) {
+				return 0L;
+			} else if (type == float.class) {
+				return 0f;
+			}
+			return 0d;
+		}
+	}
+}
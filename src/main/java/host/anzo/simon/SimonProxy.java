@@ -24,6 +24,8 @@
  */
 package host.anzo.simon;
 
+import host.anzo.simon.annotation.Cacheable;
+import host.anzo.simon.cache.ResultCache;
 import host.anzo.simon.exceptions.SessionException;
 import host.anzo.simon.exceptions.SimonRemoteException;
 import host.anzo.simon.utils.SimonClassLoaderHelper;
@@ -37,8 +39,10 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.SocketAddress;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The InvocationHandler which redirects each method call over the network to
@@ -64,6 +68,12 @@ public class SimonProxy implements InvocationHandler {
 	 */
 	private final IoSession session;
 
+	/**
+	 * the connection of a regular lookup, whose pooled sessions the calls are
+	 * spread over. Null for callbacks, they are bound to their session.
+	 */
+	private ClientToServerConnection connection;
+
 	/**
 	 * the interfaces that the remote object has exported
 	 */
@@ -75,6 +85,11 @@ public class SimonProxy implements InvocationHandler {
 	 */
 	private final boolean regularLookup;
 
+	/**
+	 * the strategy used for waiting for the results of remote calls, null for the default strategy
+	 */
+	private WaitStrategy waitStrategy;
+
 	/**
 	 * Constructor which sets the reference to the dispatcher and the remote
 	 * object name
@@ -139,7 +154,7 @@ public class SimonProxy implements InvocationHandler {
 					log.debug("It's a SimonProxy instance");
 					// if one tries to compare this proxy with another proxy: Do it locally here by comparing the string representation
 					//                    return o.toString().equals(this.toString());
-					o = new SimonRemoteInstance(session, args[0]);
+					o = new SimonRemoteInstance(session(), args[0]);
 					log.debug("Given argument is a SimonProxy, created SimonRemoteInstance: {}", (SimonRemoteInstance) o);
 				} else { // else, it's a standard object -> check for serializeable and do a remote-equals ...
 					log.debug("It's a standard object");
@@ -164,10 +179,11 @@ public class SimonProxy implements InvocationHandler {
 					"Could not process invocation of method '" + method.getName() + "'. Underlying exception: " + e);
 		}
 
+		IoSession target = session();
 		if (method.getReturnType() == void.class) {
 			log.debug("Detected void return type for method: {}. Sending async.", method.getName());
 			try {
-				dispatcher.sendAsyncInvoke(session, remoteObjectName, method, args);
+				dispatcher.sendAsyncInvoke(target, remoteObjectName, method, args);
 				log.debug("Sent async void method call: {}", method.getName());
 			} catch (Exception e) {
 				log.error("Failed to send async void method call {} for {}", method.getName(), remoteObjectName, e);
@@ -186,12 +202,126 @@ public class SimonProxy implements InvocationHandler {
 		 * server gets according to the method name and parameter types the method
 		 * and invokes the method. the result is communicated back to the client
 		 */
-		Object result = dispatcher.invokeMethod(session, remoteObjectName, method, args);
+		Cacheable cacheable = method.getAnnotation(Cacheable.class);
+		if (cacheable != null) {
+			Object cached = dispatcher.getResultCache().get(remoteObjectName, method, args);
+			if (cached != ResultCache.MISS) {
+				log.debug("end (cached)");
+				return cached;
+			}
+		}
+		long cacheGeneration = cacheable != null ? dispatcher.getResultCache().getGeneration() : 0;
+
+		Object result = dispatcher.invokeMethod(target, remoteObjectName, method, args, waitStrategy);
+
+		result = processResult(method, result, target);
+		if (cacheable != null) {
+			cacheResult(method, args, result, cacheable, cacheGeneration);
+		}
+
+		log.debug("end");
+
+
+		return result;
+	}
+
+	/**
+	 * Invokes the given remote method without blocking the calling thread. The
+	 * returned future is completed with the processed result as soon as the
+	 * invocation return arrives, or exceptionally with the thrown exception.
+	 * Methods with <code>void</code> return type are sent asynchronously and the
+	 * future is completed as soon as the invocation has been sent.
+	 *
+	 * @param method the remote method to invoke
+	 * @param args   the arguments for the method
+	 * @return a future which receives the result of the remote call
+	 */
+	protected CompletableFuture<Object> invokeAsync(final Method method, Object[] args) {
+		if (dispatcher == null) {
+			return CompletableFuture.failedFuture(new SimonRemoteException(
+					"Cannot invoke method " + method.getName() + ". Connection to server is already closed."));
+		}
 
+		IoSession target = session();
+		try {
+			if (method.getReturnType() == void.class) {
+				dispatcher.sendAsyncInvoke(target, remoteObjectName, method, args);
+				return CompletableFuture.completedFuture(null);
+			}
+
+			Cacheable cacheable = method.getAnnotation(Cacheable.class);
+			if (cacheable != null) {
+				Object cached = dispatcher.getResultCache().get(remoteObjectName, method, args);
+				if (cached != ResultCache.MISS) {
+					return CompletableFuture.completedFuture(cached);
+				}
+			}
+			long cacheGeneration = cacheable != null ? dispatcher.getResultCache().getGeneration() : 0;
+
+			return dispatcher.invokeMethodAsync(target, remoteObjectName, method, args).thenCompose(result -> {
+				try {
+					Object processed = processResult(method, result, target);
+					if (cacheable != null) {
+						cacheResult(method, args, processed, cacheable, cacheGeneration);
+					}
+					return CompletableFuture.completedFuture(processed);
+				} catch (Throwable t) {
+					return CompletableFuture.failedFuture(t);
+				}
+			});
+		} catch (SimonRemoteException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/**
+	 * Invokes several remote methods with one request and one response, see
+	 * {@link Simon#batch(Object)}. Blocks until all results have arrived.
+	 *
+	 * @param methods  the remote methods to invoke
+	 * @param args     the arguments for each method
+	 * @param parallel true, if the remote may run the invocations in parallel
+	 * @return a completed future per call, holding the processed result or
+	 * the exception thrown by the remote method
+	 * @throws SimonRemoteException if the batch could not be sent or answered
+	 */
+	protected List<CompletableFuture<Object>> invokeBatch(Method[] methods, Object[][] args, boolean parallel) throws SimonRemoteException {
+		if (dispatcher == null) {
+			throw new SimonRemoteException("Cannot invoke batch of " + methods.length + " calls. Connection to server is already closed.");
+		}
+
+		IoSession target = session();
+		Object[] results = dispatcher.invokeBatch(target, remoteObjectName, methods, args, parallel, waitStrategy);
+
+		List<CompletableFuture<Object>> futures = new ArrayList<>(results.length);
+		for (int i = 0; i < results.length; i++) {
+			try {
+				futures.add(CompletableFuture.completedFuture(processResult(methods[i], results[i], target)));
+			} catch (Throwable t) {
+				futures.add(CompletableFuture.failedFuture(t));
+			}
+		}
+		return futures;
+	}
+
+	/**
+	 * Processes the raw result of a remote method call: exceptions are thrown,
+	 * endpoint references are resolved and remote instances are wrapped into
+	 * callback proxies.
+	 *
+	 * @param method  the invoked method
+	 * @param result  the raw result as received from the remote
+	 * @param session the session the call has been sent on
+	 * @return the result that is passed to the application
+	 * @throws Throwable the exception that was thrown by the remote method
+	 */
+	private Object processResult(Method method, Object result, IoSession session) throws Throwable {
 		// Check for exceptions ...
 		if (result instanceof Throwable) {
 			log.debug("return value: {}", result);
-			if (result instanceof SimonRemoteException) {
+			if (result instanceof SimonRemoteException && isRecoverable(session)) {
+				log.debug("session {} failed, the connection has other sessions left or is being reconnected", Utils.longToHexString(session.getId()));
+			} else if (result instanceof SimonRemoteException) {
 				shutdownServerConnection(method);
 			} else {
 				log.debug("Forwarding exception to application: {}", ((Throwable) result).getMessage());
@@ -224,13 +354,26 @@ public class SimonProxy implements InvocationHandler {
 			// reimplant the proxy object
 			result = Proxy.newProxyInstance(SimonClassLoaderHelper.getClassLoader(this.getClass()), listenerInterfaces, handler);
 		}
-
-		log.debug("end");
-
-
 		return result;
 	}
 
+	/**
+	 * Caches the result of a call of a cacheable method. Callback proxies are
+	 * not cached, they belong to the session they have been received on.
+	 *
+	 * @param method          the invoked method
+	 * @param args            the arguments of the call
+	 * @param result          the processed result
+	 * @param cacheable       the annotation of the method
+	 * @param cacheGeneration the generation of the cache before the call has been sent
+	 */
+	private void cacheResult(Method method, Object[] args, Object result, Cacheable cacheable, long cacheGeneration) {
+		Dispatcher currentDispatcher = dispatcher;
+		if (currentDispatcher != null && !(result instanceof Proxy)) {
+			currentDispatcher.getResultCache().put(remoteObjectName, method, args, result, cacheable.ttl(), cacheGeneration);
+		}
+	}
+
 	private void shutdownServerConnection(Method method) {
 		log.error("Problematic error while invoking '{}#{}'. Shutting down server connection.", remoteObjectName, method);
 		AbstractLookup.releaseDispatcher(dispatcher);
@@ -244,7 +387,7 @@ public class SimonProxy implements InvocationHandler {
 	 * @return the {@link SocketAddress} of the remote host
 	 */
 	protected SocketAddress getRemoteSocketAddress() {
-		return session.getRemoteAddress();
+		return session().getRemoteAddress();
 	}
 
 	/**
@@ -254,7 +397,7 @@ public class SimonProxy implements InvocationHandler {
 	 * @return the {@link SocketAddress} of the local host
 	 */
 	protected SocketAddress getLocalSocketAddress() {
-		return session.getLocalAddress();
+		return session().getLocalAddress();
 	}
 
 	/**
@@ -269,9 +412,10 @@ public class SimonProxy implements InvocationHandler {
 	 * @throws SimonRemoteException
 	 */
 	private String remoteToString() throws SimonRemoteException {
+		IoSession target = session();
 		return "[Proxy=" + remoteObjectName + "|invocationHandler=" + super.toString() + "|remote=" +
-				dispatcher.invokeToString(session, remoteObjectName) + "|interfaces=" +
-				Arrays.toString(remoteInterfaces) + "|sessionId=" + Utils.longToHexString(session.getId()) + "]";
+				dispatcher.invokeToString(target, remoteObjectName) + "|interfaces=" +
+				Arrays.toString(remoteInterfaces) + "|sessionId=" + Utils.longToHexString(target.getId()) + "]";
 	}
 
 	/**
@@ -282,7 +426,7 @@ public class SimonProxy implements InvocationHandler {
 	 * @throws IOException
 	 */
 	private int remoteHashCode() throws SimonRemoteException {
-		return dispatcher.invokeHashCode(session, remoteObjectName);
+		return dispatcher.invokeHashCode(session(), remoteObjectName);
 	}
 
 	/**
@@ -294,7 +438,7 @@ public class SimonProxy implements InvocationHandler {
 	 * @throws IOException
 	 */
 	private boolean remoteEquals(Object object) throws IOException {
-		return dispatcher.invokeEquals(session, remoteObjectName, object);
+		return dispatcher.invokeEquals(session(), remoteObjectName, object);
 	}
 
 	/**
@@ -336,19 +480,66 @@ public class SimonProxy implements InvocationHandler {
 	}
 
 	/**
-	 * Returns the {@link IoSession} related to this proxy
+	 * Returns the {@link IoSession} related to this proxy. For a pooled
+	 * connection, this is the session the next call would be sent on.
 	 *
 	 * @return an instance of {@link IoSession}
 	 */
 	protected IoSession getIoSession() {
-		return session;
+		return session();
 	}
 
 	/**
 	 * @return {@link IoSession} session ID
 	 */
 	public long getSessionId() {
-		return session.getId();
+		return session().getId();
+	}
+
+	/**
+	 * Spreads the calls of a regular lookup over the pooled sessions of its
+	 * connection
+	 *
+	 * @param connection the connection the proxy has been looked up on
+	 */
+	protected void setConnection(ClientToServerConnection connection) {
+		this.connection = connection;
+	}
+
+	/**
+	 * Returns the session the next call is sent on: the least loaded session
+	 * of the connection pool, or the session the proxy has been created with
+	 *
+	 * @return the session
+	 */
+	private IoSession session() {
+		ClientToServerConnection pool = connection;
+		if (pool != null) {
+			IoSession selected = pool.getSession();
+			if (selected != null) {
+				return selected;
+			}
+		}
+		return session;
+	}
+
+	/**
+	 * Checks whether the connection survives the loss of a failed session:
+	 * other pooled sessions are left or the lost ones are reconnected
+	 *
+	 * @param failed the session a call failed on
+	 * @return true, if the connection stays usable
+	 */
+	private boolean isRecoverable(IoSession failed) {
+		ClientToServerConnection pool = connection;
+		if (pool == null || failed.isConnected()) {
+			return false;
+		}
+		if (pool.getReconnectPolicy() != null) {
+			return true;
+		}
+		IoSession selected = pool.getSession();
+		return selected != null && selected != failed && selected.isConnected();
 	}
 
 	/**
@@ -361,6 +552,15 @@ public class SimonProxy implements InvocationHandler {
 		return dispatcher;
 	}
 
+	/**
+	 * Sets the strategy used for waiting for the results of remote calls
+	 *
+	 * @param waitStrategy the strategy, null for the default strategy
+	 */
+	protected void setWaitStrategy(WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+	}
+
 	/**
 	 * Returns true if this proxy has been cerated in context of a lookup-call.
 	 * False in case of callback object
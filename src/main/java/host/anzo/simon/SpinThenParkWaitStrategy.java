@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon;
+
+/**
+ * A hybrid {@link WaitStrategy}: the calling thread busy-spins for a number of
+ * iterations, then yields the CPU for a number of iterations and finally
+ * parks like {@link BlockingWaitStrategy}. Fast answers are seen without
+ * wake-up latency, while slow calls don't burn a CPU for their whole
+ * duration.
+ */
+public class SpinThenParkWaitStrategy implements WaitStrategy {
+
+	private static final int DEFAULT_SPIN_TRIES = 10000;
+	private static final int DEFAULT_YIELD_TRIES = 100;
+
+	private final int spinTries;
+	private final int yieldTries;
+	private final BlockingWaitStrategy fallbackStrategy = new BlockingWaitStrategy();
+
+	/**
+	 * Creates the strategy with 10000 spin and 100 yield iterations
+	 */
+	public SpinThenParkWaitStrategy() {
+		this(DEFAULT_SPIN_TRIES, DEFAULT_YIELD_TRIES);
+	}
+
+	/**
+	 * Creates the strategy
+	 *
+	 * @param spinTries  the number of busy-spin iterations
+	 * @param yieldTries the number of iterations which yield the CPU
+	 */
+	public SpinThenParkWaitStrategy(int spinTries, int yieldTries) {
+		if (spinTries < 0 || yieldTries < 0) {
+			throw new IllegalArgumentException("spinTries and yieldTries must not be negative");
+		}
+		this.spinTries = spinTries;
+		this.yieldTries = yieldTries;
+	}
+
+	@Override
+	public void waitFor(SequenceMonitor monitor, long deadlineNanos) {
+		for (int i = 0; i < spinTries; i++) {
+			if (monitor.isCompleted()) {
+				return;
+			}
+			Thread.onSpinWait();
+		}
+		for (int i = 0; i < yieldTries; i++) {
+			if (monitor.isCompleted() || System.nanoTime() - deadlineNanos >= 0) {
+				return;
+			}
+			Thread.yield();
+		}
+		fallbackStrategy.waitFor(monitor, deadlineNanos);
+	}
+}
@@ -18,6 +18,8 @@
  */
 package host.anzo.simon;
 
+import host.anzo.simon.serialization.SimonSerializer;
+
 /**
  * Holds some static variables defining timeouts, thread and method names, ...
  *
@@ -30,12 +32,20 @@ public class Statics {
 
 	public static final String SESSION_ATTRIBUTE_DISPATCHER = Dispatcher.class.getName();
 	public static final String SESSION_ATTRIBUTE_LOOKUPTABLE = LookupTable.class.getName();
+	public static final String SESSION_ATTRIBUTE_SERIALIZER = SimonSerializer.class.getName();
+	/**
+	 * the message after whose sending the session is closed, set when a message could not be encoded
+	 */
+	public static final String SESSION_ATTRIBUTE_CLOSE_AFTER_SENT = "host.anzo.simon.closeAfterSent";
 
 	// values in milliseconds
 	protected static final int DEFAULT_SOCKET_TIMEOUT = 100;
 	protected static final long MONITOR_WAIT_TIMEOUT = 200;
+	protected static final long TIMER_TICK_DURATION = 10;
 	protected static final int WAIT_FOR_SHUTDOWN_SLEEPTIME = 50;
 	protected static int DEFAULT_CONNECT_TIMEOUT = 20000;
+	protected static final int DEFAULT_INVOKE_TIMEOUT = 10000;
+	protected static final int DEFAULT_HANDSHAKE_TIMEOUT = 5000;
 
 	// values in seconds
 	protected static int DEFAULT_IDLE_TIME = 30;
@@ -48,7 +58,7 @@ public class Statics {
 
 	// some names for the used threads/pools
 	protected static final String DISPATCHER_WORKERPOOL_NAME = "Simon.Dispatcher.WorkerPool";
-	protected static final String PINGWATCHDOG_WORKERPOOL_NAME = "Simon.Dispatcher.PingWatchdogPool";
+	protected static final String DISPATCHER_TIMER_NAME = "Simon.Dispatcher.Timer";
 	protected static final String PUBLISH_SERVICE_THREAD_NAME = "Simon.PublishService";
 	protected static final String PUBLISH_CLIENT_THREAD_NAME = "Simon.PublishClient";
 
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon;
+
+/**
+ * Strategy which is used by a calling thread to wait for the result of a
+ * remote call. The strategy trades CPU usage for wake-up latency: blocking
+ * strategies give the CPU away while waiting, spinning strategies keep the
+ * thread running to see the result as early as possible.
+ * <p>
+ * A strategy can be set per lookup via {@link Lookup#setWaitStrategy(WaitStrategy)}
+ * and per method via {@link Simon#setWaitStrategy(java.lang.reflect.Method, WaitStrategy)}.
+ * Implementations have to be thread safe, as one instance is shared by all
+ * callers.
+ *
+ * @see BlockingWaitStrategy
+ * @see SpinThenParkWaitStrategy
+ * @see BusySpinWaitStrategy
+ */
+public interface WaitStrategy {
+
+	/**
+	 * Waits until the request described by the monitor is completed or the
+	 * deadline is reached, whatever comes first. The monitor is signalled
+	 * when the result is set, so blocking strategies can wait via
+	 * {@link Monitor#waitForSignal(long)}.
+	 *
+	 * @param monitor       the monitor of the pending request
+	 * @param deadlineNanos the deadline in terms of {@link System#nanoTime()}
+	 */
+	void waitFor(SequenceMonitor monitor, long deadlineNanos);
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method of a remote interface whose results may be cached on the
+ * client. A repeated call with equal arguments is answered from the
+ * {@link host.anzo.simon.cache.ResultCache} of the connection without
+ * contacting the server, until the entry expires, is evicted or the server
+ * invalidates it with {@link host.anzo.simon.Registry#invalidateCache(String, String)}.
+ * <p>
+ * Cached results are shared by all callers and must not be modified. Only
+ * use it on methods whose result depends on nothing but the arguments and
+ * state the server invalidates on change. Exceptions are never cached.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Cacheable {
+
+	/**
+	 * The time a result stays valid
+	 *
+	 * @return the time to live in milliseconds, 0 for no expiry
+	 */
+	long ttl() default 60000;
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.cache;
+
+import host.anzo.simon.utils.Utils;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the results of remote methods annotated with
+ * {@link host.anzo.simon.annotation.Cacheable} on the client. Each client
+ * connection has one cache, shared by all proxies of the connection. An
+ * entry is identified by the remote object, the method and the arguments,
+ * compared with {@link Arrays#deepEquals(Object[], Object[])}.
+ * <p>
+ * The cache is bounded by a number of entries and by the estimated memory
+ * of the results, the least recently used entries are evicted first. The
+ * memory of a result is estimated from its structure: strings, boxed
+ * primitives, arrays, collections and maps are measured, other objects are
+ * counted with {@link #DEFAULT_OBJECT_SIZE}.
+ * <p>
+ * The server removes entries with invalidate messages, see
+ * {@link host.anzo.simon.Registry#invalidateCache(String, String)}. A result
+ * which arrives after an invalidation that was received while its call was
+ * running is not cached, as it may predate the invalidation.
+ */
+public class ResultCache implements ResultCacheMBean {
+
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+	public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+	/**
+	 * the estimated size of an object whose structure is not measured
+	 */
+	public static final int DEFAULT_OBJECT_SIZE = 256;
+
+	/**
+	 * returned by {@link #get(String, Method, Object[])} if there is no valid entry
+	 */
+	public static final Object MISS = new Object();
+
+	/**
+	 * the size of an entry without its result: key, argument array and map node
+	 */
+	private static final int ENTRY_OVERHEAD = 128;
+	/**
+	 * the depth up to which nested arrays, collections and maps are measured
+	 */
+	private static final int MAX_ESTIMATE_DEPTH = 3;
+	/**
+	 * the number of elements of an array, collection or map which are measured, the others are extrapolated
+	 */
+	private static final int MAX_ESTIMATE_ELEMENTS = 32;
+
+	private final int maxEntries;
+	private final long maxBytes;
+
+	/**
+	 * entries in access order, guarded by this
+	 */
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+	/**
+	 * guarded by this
+	 */
+	private long estimatedBytes;
+	/**
+	 * incremented by each invalidation, guarded by this
+	 */
+	private long generation;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	/**
+	 * Creates a cache with the default limits
+	 */
+	public ResultCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Creates a cache
+	 *
+	 * @param maxEntries the largest number of cached results
+	 * @param maxBytes   the largest estimated memory used by the cached results in bytes
+	 */
+	public ResultCache(int maxEntries, long maxBytes) {
+		if (maxEntries < 1 || maxBytes < 1) {
+			throw new IllegalArgumentException("limits must be greater than 0: maxEntries=" + maxEntries + ", maxBytes=" + maxBytes);
+		}
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+
+		Utils.registerMBean(this, "host.anzo.simon:type=" + MBEAN_TYPE + ",instance=" + MBEAN_TYPE + "@" + hashCode());
+	}
+
+	/**
+	 * Returns the cached result of a call
+	 *
+	 * @param remoteObjectName the name of the remote object
+	 * @param method           the invoked method
+	 * @param args             the arguments of the call
+	 * @return the result, which may be null, or {@link #MISS} if there is no valid entry
+	 */
+	public Object get(String remoteObjectName, Method method, Object[] args) {
+		Key key = new Key(remoteObjectName, method, args);
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				if (entry.expiresAt == 0 || entry.expiresAt - System.nanoTime() > 0) {
+					hits.increment();
+					return entry.value;
+				}
+				remove(key);
+				expirations.increment();
+			}
+		}
+		misses.increment();
+		return MISS;
+	}
+
+	/**
+	 * Returns the generation to pass to {@link #put(String, Method, Object[], Object, long, long)}.
+	 * Has to be retrieved before the call is sent.
+	 *
+	 * @return the current generation
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Caches the result of a call, unless an invalidation has been received
+	 * since the given generation
+	 *
+	 * @param remoteObjectName the name of the remote object
+	 * @param method           the invoked method
+	 * @param args             the arguments of the call
+	 * @param value            the result
+	 * @param ttl              the time to live in milliseconds, 0 for no expiry
+	 * @param generation       the generation retrieved before the call was sent
+	 */
+	public void put(String remoteObjectName, Method method, Object[] args, Object value, long ttl, long generation) {
+		Key key = new Key(remoteObjectName, method, args == null ? null : args.clone());
+		long size = ENTRY_OVERHEAD + estimateSize(args, 0) + estimateSize(value, 0);
+		if (size > maxBytes) {
+			return;
+		}
+		Entry entry = new Entry(value, size, ttl > 0 ? Math.max(1, System.nanoTime() + ttl * 1000000L) : 0);
+		synchronized (this) {
+			if (generation != this.generation) {
+				return;
+			}
+			Entry previous = entries.put(key, entry);
+			if (previous != null) {
+				estimatedBytes -= previous.size;
+			}
+			estimatedBytes += size;
+
+			Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+			while (entries.size() > maxEntries || estimatedBytes > maxBytes) {
+				estimatedBytes -= eldest.next().getValue().size;
+				eldest.remove();
+				evictions.increment();
+			}
+		}
+	}
+
+	/**
+	 * Removes the cached results of a remote object
+	 *
+	 * @param remoteObjectName the name of the remote object
+	 * @param methodName       the name of the method whose results are removed, null for all methods
+	 */
+	public synchronized void invalidate(String remoteObjectName, String methodName) {
+		generation++;
+		Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Key, Entry> mapEntry = iterator.next();
+			Key key = mapEntry.getKey();
+			if (key.remoteObjectName.equals(remoteObjectName) && (methodName == null || key.method.getName().equals(methodName))) {
+				estimatedBytes -= mapEntry.getValue().size;
+				iterator.remove();
+				invalidations.increment();
+			}
+		}
+	}
+
+	@Override
+	public synchronized void clear() {
+		generation++;
+		invalidations.add(entries.size());
+		entries.clear();
+		estimatedBytes = 0;
+	}
+
+	private void remove(Key key) {
+		Entry entry = entries.remove(key);
+		if (entry != null) {
+			estimatedBytes -= entry.size;
+		}
+	}
+
+	/**
+	 * Estimates the memory used by an object and the objects it refers to
+	 *
+	 * @param value the object
+	 * @param depth the nesting depth of the object
+	 * @return the estimated size in bytes
+	 */
+	static long estimateSize(Object value, int depth) {
+		if (value == null) {
+			return 8;
+		}
+		if (value instanceof String s) {
+			return 40 + s.length();
+		}
+		if (value instanceof Number || value instanceof Boolean || value instanceof Character || value instanceof Enum) {
+			return 16;
+		}
+		if (value instanceof byte[] b) {
+			return 16 + b.length;
+		}
+		Class<?> type = value.getClass();
+		if (type.isArray() && type.getComponentType().isPrimitive()) {
+			int elementSize = type == long[].class || type == double[].class ? 8 : type == int[].class || type == float[].class ? 4 : type == boolean[].class ? 1 : 2;
+			return 16 + (long) Array.getLength(value) * elementSize;
+		}
+		if (depth >= MAX_ESTIMATE_DEPTH) {
+			return DEFAULT_OBJECT_SIZE;
+		}
+		if (value instanceof Object[] array) {
+			return 16 + 4L * array.length + estimateElements(Arrays.asList(array), array.length, depth);
+		}
+		if (value instanceof Collection<?> collection) {
+			return 48 + 16L * collection.size() + estimateElements(collection, collection.size(), depth);
+		}
+		if (value instanceof Map<?, ?> map) {
+			return 48 + 48L * map.size() + estimateElements(map.keySet(), map.size(), depth) + estimateElements(map.values(), map.size(), depth);
+		}
+		return DEFAULT_OBJECT_SIZE;
+	}
+
+	/**
+	 * Estimates the memory of the elements of an array, collection or map
+	 * from the first elements
+	 */
+	private static long estimateElements(Iterable<?> elements, int count, int depth) {
+		long sum = 0;
+		int measured = 0;
+		for (Object element : elements) {
+			if (measured == MAX_ESTIMATE_ELEMENTS) {
+				return sum * count / measured;
+			}
+			sum += estimateSize(element, depth + 1);
+			measured++;
+		}
+		return sum;
+	}
+
+	@Override
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	@Override
+	public double getHitRatio() {
+		long hitCount = hits.sum();
+		long total = hitCount + misses.sum();
+		return total == 0 ? 0.0 : (double) hitCount / total;
+	}
+
+	@Override
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	@Override
+	public long getExpiredCount() {
+		return expirations.sum();
+	}
+
+	@Override
+	public long getInvalidatedCount() {
+		return invalidations.sum();
+	}
+
+	@Override
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	@Override
+	public synchronized long getEstimatedBytes() {
+		return estimatedBytes;
+	}
+
+	@Override
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	@Override
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	@Override
+	public String toString() {
+		return "ResultCache{entries=" + getEntryCount() + ", bytes=" + getEstimatedBytes() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + "}";
+	}
+
+	/**
+	 * Identifies a call: remote object, method and arguments
+	 */
+	private static final class Key {
+		private final String remoteObjectName;
+		private final Method method;
+		private final Object[] args;
+		private final int hash;
+
+		private Key(String remoteObjectName, Method method, Object[] args) {
+			this.remoteObjectName = remoteObjectName;
+			this.method = method;
+			this.args = args;
+			this.hash = 31 * (31 * remoteObjectName.hashCode() + method.hashCode()) + Arrays.deepHashCode(args);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key other)) {
+				return false;
+			}
+			return hash == other.hash && remoteObjectName.equals(other.remoteObjectName) && method.equals(other.method) && Arrays.deepEquals(args, other.args);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	/**
+	 * A cached result
+	 *
+	 * @param value     the result
+	 * @param size      the estimated size of the entry in bytes
+	 * @param expiresAt the {@link System#nanoTime()} at which the entry expires, 0 for no expiry
+	 */
+	private record Entry(Object value, long size, long expiresAt) {
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.cache;
+
+/**
+ * JMX Interface for {@link ResultCache}
+ */
+public interface ResultCacheMBean {
+	String MBEAN_TYPE = "ResultCache";
+
+	/**
+	 * @return the number of calls answered from the cache
+	 */
+	long getHitCount();
+
+	/**
+	 * @return the number of cacheable calls sent to the server, including those for expired entries
+	 */
+	long getMissCount();
+
+	/**
+	 * @return hits divided by all cacheable calls, 0.0 if there was no call yet
+	 */
+	double getHitRatio();
+
+	/**
+	 * @return the number of entries removed to stay within the limits
+	 */
+	long getEvictionCount();
+
+	/**
+	 * @return the number of entries removed because their time to live elapsed
+	 */
+	long getExpiredCount();
+
+	/**
+	 * @return the number of entries removed by invalidations
+	 */
+	long getInvalidatedCount();
+
+	/**
+	 * @return the number of cached results
+	 */
+	int getEntryCount();
+
+	/**
+	 * @return the estimated memory used by the cached results in bytes
+	 */
+	long getEstimatedBytes();
+
+	/**
+	 * @return the largest number of cached results
+	 */
+	int getMaxEntries();
+
+	/**
+	 * @return the largest estimated memory used by the cached results in bytes
+	 */
+	long getMaxBytes();
+
+	/**
+	 * Removes all cached results
+	 */
+	void clear();
+}
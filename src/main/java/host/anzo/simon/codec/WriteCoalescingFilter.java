@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.codec;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.future.DefaultWriteFuture;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.DefaultWriteRequest;
+import org.apache.mina.core.write.WriteRequest;
+import org.apache.mina.core.write.WriteToClosedSessionException;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Combines small encoded frames of a session into one write, so that they
+ * are sent with one system call and, with TcpNoDelay, in one TCP segment.
+ * Has to be added below the protocol codec filter.
+ * <p>
+ * As long as no write of the session is in progress, a frame is passed on
+ * immediately, so a single request isn't delayed. Frames written while a
+ * write is in progress are collected and passed on as one write once it has
+ * been completed, or as soon as the collected frames reach the byte or
+ * message limit. The order of the frames is kept, and each original write
+ * request is completed and reported as sent when the combined write is.
+ *
+ * @see host.anzo.simon.Simon#setWriteCoalescing(int, int)
+ */
+@Slf4j
+public class WriteCoalescingFilter extends IoFilterAdapter {
+	public static final String FILTER_NAME = WriteCoalescingFilter.class.getName();
+
+	public static final int DEFAULT_MAX_BYTES = 16 * 1024;
+	public static final int DEFAULT_MAX_MESSAGES = 64;
+
+	private static final AttributeKey SESSION_WRITER = new AttributeKey(WriteCoalescingFilter.class, "writer");
+
+	/**
+	 * replaces the message of a write request whose frame has been copied into a combined write
+	 */
+	private static final IoBuffer EMPTY_BUFFER = IoBuffer.wrap(new byte[0]);
+
+	private final int maxBytes;
+	private final int maxMessages;
+
+	/**
+	 * Creates a filter with the default limits
+	 */
+	public WriteCoalescingFilter() {
+		this(DEFAULT_MAX_BYTES, DEFAULT_MAX_MESSAGES);
+	}
+
+	/**
+	 * Creates a filter
+	 *
+	 * @param maxBytes    the number of collected bytes at which the frames are written without waiting for the write in progress.
+	 *                    Frames of this size or larger are never combined.
+	 * @param maxMessages the number of collected frames at which they are written without waiting for the write in progress
+	 */
+	public WriteCoalescingFilter(int maxBytes, int maxMessages) {
+		if (maxBytes < 1) {
+			throw new IllegalArgumentException("maxBytes must be greater than 0: " + maxBytes);
+		}
+		if (maxMessages < 1) {
+			throw new IllegalArgumentException("maxMessages must be greater than 0: " + maxMessages);
+		}
+		this.maxBytes = maxBytes;
+		this.maxMessages = maxMessages;
+	}
+
+	/**
+	 * Writes the frames collected for the session without waiting for the
+	 * write in progress. Has to be called before
+	 * {@link IoSession#closeOnFlush()}, as the close request would
+	 * otherwise overtake the collected frames.
+	 *
+	 * @param session the session
+	 */
+	public static void flush(IoSession session) {
+		SessionWriter writer = (SessionWriter) session.getAttribute(SESSION_WRITER);
+		if (writer != null) {
+			writer.flush();
+		}
+	}
+
+	@Override
+	public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest) throws Exception {
+		SessionWriter writer = (SessionWriter) session.getAttribute(SESSION_WRITER);
+		if (writer == null) {
+			writer = new SessionWriter(session, nextFilter);
+			SessionWriter existingWriter = (SessionWriter) session.setAttributeIfAbsent(SESSION_WRITER, writer);
+			if (existingWriter != null) {
+				writer = existingWriter;
+			}
+		}
+		writer.write(writeRequest);
+	}
+
+	@Override
+	public void messageSent(NextFilter nextFilter, IoSession session, WriteRequest writeRequest) throws Exception {
+		if (writeRequest instanceof CoalescedWriteRequest coalescedWriteRequest) {
+			for (WriteRequest request : coalescedWriteRequest.requests) {
+				if (!request.isEncoded()) {
+					nextFilter.messageSent(session, request);
+				}
+			}
+		} else {
+			nextFilter.messageSent(session, writeRequest);
+		}
+	}
+
+	@Override
+	public void sessionClosed(NextFilter nextFilter, IoSession session) throws Exception {
+		SessionWriter writer = (SessionWriter) session.removeAttribute(SESSION_WRITER);
+		if (writer != null) {
+			writer.discard();
+		}
+		nextFilter.sessionClosed(session);
+	}
+
+	/**
+	 * A write passed on by this filter, standing for one or more original
+	 * write requests. Unlike {@link DefaultWriteRequest}, it passes the
+	 * buffer itself on instead of a duplicate, so that the buffer can be
+	 * recycled once MINA frees it after writing.
+	 */
+	private static final class CoalescedWriteRequest implements WriteRequest {
+		private Object message;
+		private final WriteFuture future;
+		private final List<WriteRequest> requests;
+
+		private CoalescedWriteRequest(Object message, WriteFuture future, List<WriteRequest> requests) {
+			this.message = message;
+			this.future = future;
+			this.requests = requests;
+		}
+
+		@Override
+		public WriteRequest getOriginalRequest() {
+			return this;
+		}
+
+		@Override
+		public WriteFuture getFuture() {
+			return future;
+		}
+
+		@Override
+		public Object getMessage() {
+			return message;
+		}
+
+		@Override
+		public void setMessage(Object message) {
+			this.message = message;
+		}
+
+		@Override
+		public SocketAddress getDestination() {
+			return null;
+		}
+
+		@Override
+		public boolean isEncoded() {
+			// messageSent is passed to this filter, which reports the original requests
+			return false;
+		}
+
+		@Override
+		public Object getOriginalMessage() {
+			return message;
+		}
+
+		@Override
+		public String toString() {
+			return "CoalescedWriteRequest{requests=" + requests.size() + ", message=" + message + "}";
+		}
+	}
+
+	/**
+	 * Collects the frames of one session
+	 */
+	private final class SessionWriter {
+		private final IoSession session;
+		private final NextFilter nextFilter;
+
+		private final List<WriteRequest> pendingRequests = new ArrayList<>();
+		private IoBuffer pendingBuffer;
+		/**
+		 * the number of writes passed on and not yet completed
+		 */
+		private int writesInProgress;
+
+		private SessionWriter(IoSession session, NextFilter nextFilter) {
+			this.session = session;
+			this.nextFilter = nextFilter;
+		}
+
+		private synchronized void write(WriteRequest writeRequest) {
+			Object message = writeRequest.getMessage();
+			if (writesInProgress == 0 && pendingRequests.isEmpty()) {
+				pass(message, List.of(writeRequest));
+				return;
+			}
+			if (!(message instanceof IoBuffer buf) || buf.remaining() >= maxBytes) {
+				// keep the order: the collected frames go first
+				flush();
+				pass(message, List.of(writeRequest));
+				return;
+			}
+
+			if (pendingBuffer == null) {
+				pendingBuffer = IoBuffer.allocate(Math.min(maxBytes, buf.remaining() * 4)).setAutoExpand(true);
+			}
+			pendingBuffer.put(buf);
+			buf.free();
+			writeRequest.setMessage(EMPTY_BUFFER);
+			pendingRequests.add(writeRequest);
+
+			if (pendingBuffer.position() >= maxBytes || pendingRequests.size() >= maxMessages) {
+				flush();
+			}
+		}
+
+		/**
+		 * Passes the collected frames on as one write
+		 */
+		private synchronized void flush() {
+			if (pendingRequests.isEmpty()) {
+				return;
+			}
+			log.trace("combining {} frames with {} bytes on session {}", pendingRequests.size(), pendingBuffer.position(), session.getId());
+			IoBuffer buf = pendingBuffer.flip();
+			List<WriteRequest> requests = new ArrayList<>(pendingRequests);
+			pendingBuffer = null;
+			pendingRequests.clear();
+			pass(buf, requests);
+		}
+
+		private void pass(Object message, List<WriteRequest> requests) {
+			WriteFuture future = new DefaultWriteFuture(session);
+			CoalescedWriteRequest coalescedWriteRequest = new CoalescedWriteRequest(message, future, requests);
+			writesInProgress++;
+			future.addListener(f -> completed((WriteFuture) f, requests));
+			nextFilter.filterWrite(session, coalescedWriteRequest);
+		}
+
+		/**
+		 * Completes the original write requests of a finished write and
+		 * passes the frames collected meanwhile on
+		 */
+		private void completed(WriteFuture future, List<WriteRequest> requests) {
+			for (WriteRequest request : requests) {
+				if (future.isWritten()) {
+					request.getFuture().setWritten();
+				} else {
+					request.getFuture().setException(future.getException());
+				}
+			}
+			synchronized (this) {
+				writesInProgress--;
+				if (writesInProgress == 0) {
+					flush();
+				}
+			}
+		}
+
+		/**
+		 * Fails the collected frames of a closed session
+		 */
+		private synchronized void discard() {
+			for (WriteRequest request : pendingRequests) {
+				request.getFuture().setException(new WriteToClosedSessionException(request));
+			}
+			pendingRequests.clear();
+			if (pendingBuffer != null) {
+				pendingBuffer.free();
+				pendingBuffer = null;
+			}
+		}
+	}
+}
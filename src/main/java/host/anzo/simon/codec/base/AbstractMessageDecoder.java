@@ -21,6 +21,7 @@ package host.anzo.simon.codec.base;
 import host.anzo.simon.codec.messages.AbstractMessage;
 import host.anzo.simon.codec.messages.MsgError;
 import host.anzo.simon.codec.messages.SimonMessageConstants;
+import host.anzo.simon.utils.Utils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -41,6 +42,7 @@ public abstract class AbstractMessageDecoder implements MessageDecoder {
 	private int bodysize;
 
 	private boolean readHeader;
+	private boolean v2Frame;
 
 	/**
 	 * Creates a new message decoder
@@ -54,28 +56,57 @@ public abstract class AbstractMessageDecoder implements MessageDecoder {
 	@Override
 	public MessageDecoderResult decodable(IoSession session, IoBuffer in) {
 
+		if (!in.hasRemaining()) {
+			return MessageDecoderResult.NEED_DATA;
+		}
+		// Return NOT_OK if THIS decoder isn't able to decode THIS message
+		byte type = in.get();
+		if (msgType != (byte) (type & ~SimonMessageConstants.FLAG_V2_FRAME)) {
+			return MessageDecoderResult.NOT_OK;
+		}
+
 		// Return NEED_DATA if the whole header is not yet available
-		if (in.remaining() < SimonMessageConstants.HEADER_LEN) {
-			log.trace("Header not received completely. Right now we have {} of {} bytes", in.remaining(), SimonMessageConstants.HEADER_LEN);
+		if ((type & SimonMessageConstants.FLAG_V2_FRAME) != 0) {
+			if (!skipVarInt(in) || !skipVarInt(in)) {
+				log.trace("v2 header not received completely. Right now we have {} bytes", in.limit() - in.position());
+				return MessageDecoderResult.NEED_DATA;
+			}
+		} else if (in.remaining() < SimonMessageConstants.HEADER_LEN - SimonMessageConstants.TYPE_LEN) {
+			log.trace("Header not received completely. Right now we have {} of {} bytes", in.remaining() + SimonMessageConstants.TYPE_LEN, SimonMessageConstants.HEADER_LEN);
 			return MessageDecoderResult.NEED_DATA;
 		}
+
 		// Return OK if THIS decoder is correct type to decode the message
-		int type = in.get();
-		if (msgType == type) {
-			return MessageDecoderResult.OK;
-		}
+		return MessageDecoderResult.OK;
+	}
 
-		// Return NOT_OK if THIS decoder isn't able to decode THIS message
-		return MessageDecoderResult.NOT_OK;
+	/**
+	 * Skips a complete varint
+	 *
+	 * @return false, if the varint is not yet received completely
+	 */
+	private static boolean skipVarInt(IoBuffer in) {
+		while (in.hasRemaining()) {
+			if (in.get() >= 0) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	@Override
 	public MessageDecoderResult decode(IoSession session, IoBuffer in, ProtocolDecoderOutput out) throws Exception {
 		// Try to skip header if not read.
 		if (!readHeader) {
-			in.get(); // Skip 'msgType'.
-			sequence = in.getInt(); // Get 'sequence'.
-			bodysize = in.getInt(); // Get the body's size
+			byte type = in.get(); // Skip 'msgType'.
+			v2Frame = (type & SimonMessageConstants.FLAG_V2_FRAME) != 0;
+			if (v2Frame) {
+				sequence = Utils.getVarInt(in); // Get 'sequence'.
+				bodysize = Utils.getVarInt(in); // Get the body's size
+			} else {
+				sequence = in.getInt(); // Get 'sequence'.
+				bodysize = in.getInt(); // Get the body's size
+			}
 			readHeader = true;
 		}
 
@@ -113,23 +144,70 @@ public abstract class AbstractMessageDecoder implements MessageDecoder {
 		} catch (Throwable t) {
 			log.trace("Error while decoding message. Forwarding/returning error.", t);
 			// gather all available information an inform the remote side about the problem
-			MsgError m = new MsgError();
-			m.setErrorMessage(
-					"Error while decoding message. sequence=" + sequence + " bodySize=" + bodysize + " type=" +
-							(msgType == -1 ? "{unknown}" : msgType));
-			m.setRemoteObjectName(null);
-			m.setThrowable(t);
 			//            try {
 			//                session.write(m);
 			//            } catch (Throwable tt) {
 			//                log.warn("Not able to send error message to remote: "+m);
 			//            }
-			out.write(m);
+			out.write(createDecodingError(t));
 		}
 
 		return MessageDecoderResult.NOT_OK;
 	}
 
+	/**
+	 * Decodes the body of a frame whose header has already been read by
+	 * {@link SimonProtocolDecoder}. The body is available completely, the
+	 * limit of <code>in</code> is set to its end.
+	 *
+	 * @param session  the associated session
+	 * @param in       the buffer, positioned at the start of the body
+	 * @param sequence the sequence from the frame header
+	 * @param bodysize the body size from the frame header
+	 * @param v2Frame  true, if the header was a v2 header
+	 * @return the decoded message, or a {@link MsgError} if the body could not be decoded
+	 */
+	AbstractMessage decodeFrame(IoSession session, IoBuffer in, int sequence, int bodysize, boolean v2Frame) {
+		this.sequence = sequence;
+		this.bodysize = bodysize;
+		this.v2Frame = v2Frame;
+		try {
+			AbstractMessage m = decodeBody(session, in);
+			if (m == null) {
+				// the body is complete, there is nothing more to wait for
+				throw new IllegalStateException("message body could not be decoded");
+			}
+			m.setSequence(sequence);
+			log.trace("finished decoding complete message: {}. Forwarding to next layer ...", m);
+			return m;
+		} catch (Throwable t) {
+			log.trace("Error while decoding message. Forwarding/returning error.", t);
+			return createDecodingError(t);
+		}
+	}
+
+	/**
+	 * gather all available information to inform the remote side about a decoding problem
+	 */
+	private MsgError createDecodingError(Throwable t) {
+		MsgError m = new MsgError();
+		m.setErrorMessage(
+				"Error while decoding message. sequence=" + sequence + " bodySize=" + bodysize + " type=" +
+						(msgType == -1 ? "{unknown}" : msgType));
+		m.setRemoteObjectName(null);
+		m.setThrowable(t);
+		return m;
+	}
+
+	/**
+	 * Returns the type of the messages this decoder decodes
+	 *
+	 * @return the message type
+	 */
+	byte getMsgType() {
+		return msgType;
+	}
+
 	/**
 	 * @param session
 	 * @param in
@@ -144,4 +222,13 @@ public abstract class AbstractMessageDecoder implements MessageDecoder {
 	protected int getBodySize() {
 		return bodysize;
 	}
+
+	/**
+	 * Returns whether the message currently decoded has been received in a v2 frame
+	 *
+	 * @return true, if v2 frame
+	 */
+	protected boolean isV2Frame() {
+		return v2Frame;
+	}
 }
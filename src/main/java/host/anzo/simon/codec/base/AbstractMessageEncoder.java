@@ -18,10 +18,13 @@
  */
 package host.anzo.simon.codec.base;
 
+import host.anzo.simon.Statics;
 import host.anzo.simon.codec.messages.AbstractMessage;
+import host.anzo.simon.compression.FrameCompression;
 import host.anzo.simon.codec.messages.MsgError;
 import host.anzo.simon.codec.messages.SimonMessageConstants;
 import host.anzo.simon.exceptions.SimonException;
+import host.anzo.simon.utils.Utils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -72,7 +75,9 @@ public abstract class AbstractMessageEncoder<T extends AbstractMessage> implemen
 		out.write(buf);
 
 		if (msgError != null) {
-			session.closeOnFlush();
+			// the frame is still in the codec and frames may be collected by the WriteCoalescingFilter,
+			// a close request now would overtake them: the session is closed once the frame is sent
+			session.setAttribute(Statics.SESSION_ATTRIBUTE_CLOSE_AFTER_SENT, message);
 			String exceptionMessage;
 			String remoteObjectName = msgError.getRemoteObjectName();
 			String errorMessage = msgError.getErrorMessage();
@@ -92,35 +97,120 @@ public abstract class AbstractMessageEncoder<T extends AbstractMessage> implemen
 	}
 
 	/**
-	 * put message + message header into a single enclosed buffer
+	 * put message + message header into a single enclosed buffer. The body is
+	 * encoded once, behind space reserved for the header, and the header is
+	 * written in front of it afterwards. The returned buffer starts at the
+	 * header, so neither the header nor the body is copied.
 	 *
 	 * @param session
 	 * @param message
 	 * @return complete message in a buffer
 	 */
 	private @NotNull IoBuffer putMessageToBuffer(IoSession session, T message) {
-		// Encode the message body
-		IoBuffer msgBuffer = IoBuffer.allocate(16);
-		msgBuffer.setAutoExpand(true);
-		encodeBody(session, message, msgBuffer);
-
-		IoBuffer buf = IoBuffer.allocate(SimonMessageConstants.HEADER_LEN +
-				msgBuffer.position() /* position = length of message in this case */);
+		// decided once, so that header and body use the same format
+		boolean v2Frame = ProtocolCapabilities.has(session, SimonMessageConstants.CAPABILITY_V2_FRAMES);
+		int headerLen = v2Frame ? SimonMessageConstants.V2_MAX_HEADER_LEN : SimonMessageConstants.HEADER_LEN;
+		byte msgType = message.getMsgType();
+
+		int bodySizeHint = getBodySizeHint(message);
+		IoBuffer buf = IoBuffer.allocate(headerLen + (bodySizeHint >= 0 ? bodySizeHint : MessageSizePredictor.predict(msgType)));
+		buf.setAutoExpand(true);
+
+		// Encode the message body behind the reserved header
+		buf.position(headerLen);
+		buf.mark(); // where sendEncodingError() restarts the body
+		encodeBody(session, message, buf, v2Frame);
+
+		int end = buf.position();
+		int bodySize = end - headerLen;
+		if (bodySizeHint < 0) {
+			MessageSizePredictor.record(msgType, bodySize);
+		}
 
-		// Encode the header
-		buf.put(message.getMsgType()); // header contains message type
-		buf.putInt(message.getSequence()); // header contains sequence
-		buf.putInt(msgBuffer.position()); // and header contains length of message
-		log.trace("Sending msg type [{}] with sequence [{}] and bodysize [{}] to next layer ...", message.getMsgType(), message.getSequence(), msgBuffer.position());
+		// Replace a large body by its compressed form, if the peer is able to decode it
+		FrameCompression compression = FrameCompression.get(session);
+		if (compression != null && ProtocolCapabilities.has(session, SimonMessageConstants.CAPABILITY_COMPRESSED_FRAMES)) {
+			IoBuffer compressed = compression.compress(buf, headerLen, bodySize, headerLen, message.getRemoteInterface());
+			if (compressed != null) {
+				buf.free();
+				buf = compressed;
+				end = buf.position();
+				bodySize = end - headerLen;
+				msgType |= FrameCompression.FLAG_COMPRESSED;
+			}
+		}
 
-		msgBuffer.flip();
-		buf.put(msgBuffer); // after the header, the message is sent
+		// Encode the header, a v2 header ends right in front of the body
+		int start = v2Frame ? headerLen - getHeaderLength(message.getSequence(), bodySize, true) : 0;
+		buf.position(start);
+		putHeader(buf, msgType, message.getSequence(), bodySize, v2Frame);
+		log.trace("Sending msg type [{}] with sequence [{}] and bodysize [{}] to next layer ...", msgType, message.getSequence(), bodySize);
 
-		buf.flip();
+		buf.limit(end);
+		buf.position(start);
 
 		return buf;
 	}
 
+	/**
+	 * Returns the length of a frame header
+	 *
+	 * @param sequence the sequence of the message
+	 * @param bodySize the size of the body
+	 * @param v2Frame  true, for a v2 frame header
+	 * @return the length in bytes
+	 */
+	static int getHeaderLength(int sequence, int bodySize, boolean v2Frame) {
+		return v2Frame ? SimonMessageConstants.TYPE_LEN + Utils.varIntSize(sequence) + Utils.varIntSize(bodySize) : SimonMessageConstants.HEADER_LEN;
+	}
+
+	/**
+	 * Writes a frame header
+	 *
+	 * @param buf      the buffer to write to
+	 * @param msgType  the message type, including the compression flag
+	 * @param sequence the sequence of the message
+	 * @param bodySize the size of the body
+	 * @param v2Frame  true, for a v2 frame header
+	 */
+	static void putHeader(IoBuffer buf, byte msgType, int sequence, int bodySize, boolean v2Frame) {
+		if (v2Frame) {
+			buf.put((byte) (msgType | SimonMessageConstants.FLAG_V2_FRAME)); // header contains message type and v2 flag
+			Utils.putVarInt(buf, sequence); // header contains sequence
+			Utils.putVarInt(buf, bodySize); // and header contains length of message
+		} else {
+			buf.put(msgType); // header contains message type
+			buf.putInt(sequence); // header contains sequence
+			buf.putInt(bodySize); // and header contains length of message
+		}
+	}
+
+	/**
+	 * Returns the size of the body of the given message, if an encoder knows
+	 * it before encoding. Otherwise, the buffer is sized by a prediction based
+	 * on the previous messages of the same type.
+	 *
+	 * @param message the message to encode
+	 * @return the exact body size, or -1 if unknown
+	 */
+	protected int getBodySizeHint(T message) {
+		return -1;
+	}
+
+	/**
+	 * Encodes the body of the message in the format of the given frame
+	 * version. Messages whose body differs between v1 and v2 frames override
+	 * this method, all others implement {@link #encodeBody(IoSession, AbstractMessage, IoBuffer)}.
+	 *
+	 * @param session the associated session
+	 * @param message the message to encode
+	 * @param out     the buffer for the body
+	 * @param v2Frame true, if the body is sent in a v2 frame
+	 */
+	protected void encodeBody(IoSession session, T message, IoBuffer out, boolean v2Frame) {
+		encodeBody(session, message, out);
+	}
+
 	/**
 	 * Encodes the body of the message.
 	 * This method has to be implemented by the message encoder class that extends this class
@@ -135,14 +225,14 @@ public abstract class AbstractMessageEncoder<T extends AbstractMessage> implemen
 	 * This method is called by an Encoder class in case of an exception:
 	 * The encoder class gathers all available error information, put them into an
 	 * {@link MsgError} message and calls this method.
-	 * This method clean the buffer and replaces the content with the error message
+	 * This method discards the body written so far and replaces it with the error message
 	 *
 	 * @param out     the "out" buffer used by the encoder class to store data to be sent
 	 * @param session the assiciated session
 	 * @param error   the error message
 	 */
 	void sendEncodingError(@NotNull IoBuffer out, IoSession session, MsgError error) {
-		out.clear();
+		out.reset();
 		MsgErrorEncoder mee = new MsgErrorEncoder();
 		mee.encodeBody(session, error, out);
 		msgError = error;
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.codec.base;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Predicts the body size of the next message of a type from the sizes of the
+ * previous ones, so that the encoder can allocate the frame buffer in the
+ * right size up front instead of growing it while encoding.
+ * <p>
+ * The prediction follows a larger body immediately and decays slowly after
+ * smaller ones, so a type with occasional large messages doesn't cause a
+ * reallocation for each of them. It is shared by all sessions.
+ */
+final class MessageSizePredictor {
+
+	/**
+	 * the smallest prediction, enough for most requests and returns with primitive values
+	 */
+	static final int MIN_SIZE = 64;
+	/**
+	 * the largest prediction; larger bodies still grow the buffer, but a single huge message doesn't make all following buffers huge
+	 */
+	static final int MAX_SIZE = 1024 * 1024;
+
+	/**
+	 * shift of the decay towards smaller bodies: the prediction moves 1/16 of the difference per message
+	 */
+	private static final int DECAY_SHIFT = 4;
+
+	/**
+	 * predictions indexed by message type
+	 */
+	private static final AtomicIntegerArray PREDICTIONS = new AtomicIntegerArray(128);
+
+	static {
+		for (int i = 0; i < PREDICTIONS.length(); i++) {
+			PREDICTIONS.set(i, MIN_SIZE);
+		}
+	}
+
+	private MessageSizePredictor() {
+	}
+
+	/**
+	 * Returns the predicted body size for the next message of the given type
+	 *
+	 * @param msgType the message type
+	 * @return the predicted size in bytes
+	 */
+	static int predict(byte msgType) {
+		return PREDICTIONS.get(msgType & 0x7F);
+	}
+
+	/**
+	 * Records the body size of an encoded message
+	 *
+	 * @param msgType  the message type
+	 * @param bodySize the size of the encoded body
+	 */
+	static void record(byte msgType, int bodySize) {
+		int index = msgType & 0x7F;
+		int size = Math.max(MIN_SIZE, Math.min(MAX_SIZE, bodySize));
+		int prediction = PREDICTIONS.get(index);
+		if (size > prediction) {
+			PREDICTIONS.set(index, size);
+		} else if (size < prediction) {
+			// lost updates of concurrent encoders only delay the decay
+			PREDICTIONS.set(index, prediction - ((prediction - size) >>> DECAY_SHIFT));
+		}
+	}
+}
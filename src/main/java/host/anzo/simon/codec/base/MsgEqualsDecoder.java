@@ -50,7 +50,7 @@ public class MsgEqualsDecoder extends AbstractMessageDecoder {
 		try {
 
 			remoteObjectName = in.getPrefixedString(Charset.forName("UTF-8").newDecoder());
-			Object objectToCompareWith = in.getObject();
+			Object objectToCompareWith = ValueCodec.readValue(session, in, null);
 			message.setRemoteObjectName(remoteObjectName);
 			message.setObjectToCompareWith(objectToCompareWith);
 		} catch (CharacterCodingException e) {
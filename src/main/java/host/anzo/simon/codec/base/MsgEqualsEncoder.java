@@ -41,7 +41,7 @@ public class MsgEqualsEncoder<T extends MsgEquals> extends AbstractMessageEncode
 		log.trace("begin. message={}", message);
 		try {
 			out.putPrefixedString(message.getRemoteObjectName(), Charset.forName("UTF-8").newEncoder());
-			out.putObject(message.getObjectToCompareWith());
+			ValueCodec.writeValue(session, out, message.getObjectToCompareWith());
 		} catch (CharacterCodingException e) {
 			MsgError error = new MsgError();
 			error.setEncodeError();
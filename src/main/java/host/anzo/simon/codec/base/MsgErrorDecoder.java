@@ -56,7 +56,7 @@ public class MsgErrorDecoder extends AbstractMessageDecoder {
 
 			remoteObjectName = in.getPrefixedString(Charset.forName("UTF-8").newDecoder());
 			errorMsg = in.getPrefixedString(Charset.forName("UTF-8").newDecoder());
-			throwable = (Throwable) in.getObject();
+			throwable = (Throwable) ValueCodec.readValue(session, in, null);
 			initSequenceId = in.getInt();
 			isDecoderError = Utils.byteToBoolean(in.get());
 		} catch (CharacterCodingException e) {
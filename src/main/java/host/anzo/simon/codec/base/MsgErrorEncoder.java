@@ -61,7 +61,7 @@ public class MsgErrorEncoder<T extends MsgError> extends AbstractMessageEncoder<
 		} catch (CharacterCodingException e) {
 			// TODO what to do here?
 		}
-		out.putObject(throwable);
+		ValueCodec.writeValue(session, out, throwable);
 		out.putInt(initSequenceId);
 		out.put(Utils.booleanToByte(isDecodeError));
 
@@ -57,6 +57,13 @@ public class MsgInterfaceLookupReturnDecoder extends AbstractMessageDecoder {
 			}
 			m.setErrorMsg(in.getPrefixedString(Charset.forName("UTF-8").newDecoder()));
 			m.setInterfaces(interfaces);
+			if (isV2Frame()) {
+				int objectId = RemoteTargetTable.getObjectId(in);
+				if (objectId >= 0) {
+					m.setObjectId(objectId);
+					m.setMethodHashes(RemoteTargetTable.getMethodHashes(in));
+				}
+			}
 			m.setRemoteObjectName(remoteObjectName);
 		} catch (CharacterCodingException e) {
 			MsgError error = new MsgError();
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.codec.base;
+
+import host.anzo.simon.LookupTable;
+import host.anzo.simon.Simon;
+import host.anzo.simon.Statics;
+import host.anzo.simon.codec.messages.AbstractMessage;
+import host.anzo.simon.codec.messages.MsgError;
+import host.anzo.simon.codec.messages.MsgInvokeBatch;
+import host.anzo.simon.codec.messages.SimonMessageConstants;
+import host.anzo.simon.utils.SimonClassLoaderHelper;
+import host.anzo.simon.utils.Utils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+import org.apache.mina.filter.codec.demux.MessageDecoder;
+
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+
+/**
+ * A {@link MessageDecoder} that decodes {@link MsgInvokeBatch}. A call whose
+ * method can't be resolved gets a null method, so that only this call fails
+ * and not the whole batch.
+ */
+@Slf4j
+public class MsgInvokeBatchDecoder extends AbstractMessageDecoder {
+	public MsgInvokeBatchDecoder() {
+		super(SimonMessageConstants.MSG_INVOKE_BATCH);
+	}
+
+	@Override
+	protected AbstractMessage decodeBody(IoSession session, IoBuffer in) {
+
+		MsgInvokeBatch msgInvokeBatch = new MsgInvokeBatch();
+		String remoteObjectName = null;
+		try {
+			LookupTable lookupTable = (LookupTable) session.getAttribute(Statics.SESSION_ATTRIBUTE_LOOKUPTABLE);
+
+			remoteObjectName = in.getPrefixedString(Charset.forName("UTF-8").newDecoder());
+			byte flags = in.get();
+			int callCount = getCount(in);
+			log.trace("remoteObjectName={} flags={} callCount={}", remoteObjectName, flags, callCount);
+
+			Method[] methods = new Method[callCount];
+			Object[][] args = new Object[callCount][];
+			for (int i = 0; i < callCount; i++) {
+				long methodHash = in.getLong();
+				methods[i] = lookupTable.getMethod(remoteObjectName, methodHash);
+				if (methods[i] == null) {
+					log.warn("No method with hash {} in remote object '{}', call #{} of the batch fails", methodHash, remoteObjectName, i);
+				}
+
+				int argsLength = getCount(in);
+				args[i] = new Object[argsLength];
+				for (int j = 0; j < argsLength; j++) {
+					try {
+						args[i][j] = ValueCodec.readValue(session, in, SimonClassLoaderHelper.getClassLoader(Simon.class));
+					} catch (Exception ex) {
+						Exception ex1 = new Exception("Problem reading method argument of call #" + i + ". Maybe argument isn't serializable?!");
+						ex1.initCause(ex.getCause());
+						ex1.setStackTrace(ex.getStackTrace());
+						log.error("Exception while reading arguments.", ex);
+						throw ex1;
+					}
+				}
+			}
+
+			msgInvokeBatch.setRemoteObjectName(remoteObjectName);
+			msgInvokeBatch.setParallel((flags & MsgInvokeBatchEncoder.FLAG_PARALLEL) != 0);
+			msgInvokeBatch.setMethods(methods);
+			msgInvokeBatch.setArguments(args);
+		} catch (Exception e) {
+			MsgError error = new MsgError();
+			error.setErrorMessage("Error while decoding invoke batch request");
+			error.setRemoteObjectName(remoteObjectName);
+			error.setThrowable(e);
+			return error;
+		}
+
+		log.trace("message={}", msgInvokeBatch);
+		return msgInvokeBatch;
+	}
+
+	/**
+	 * Reads a count written by {@link MsgInvokeBatchEncoder}. Each counted
+	 * item takes at least one byte, which bounds the arrays allocated for a
+	 * corrupt count.
+	 */
+	private int getCount(IoBuffer in) {
+		int count = isV2Frame() ? Utils.getVarInt(in) : in.getInt();
+		if (count < 0 || count > in.remaining()) {
+			throw new BufferDataException("invalid count " + count);
+		}
+		return count;
+	}
+
+	@Override
+	public void finishDecode(IoSession session, ProtocolDecoderOutput out) throws Exception {
+	}
+}
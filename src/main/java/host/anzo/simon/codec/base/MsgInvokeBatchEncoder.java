@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.codec.base;
+
+import host.anzo.simon.Dispatcher;
+import host.anzo.simon.Statics;
+import host.anzo.simon.codec.messages.MsgInvokeBatch;
+import host.anzo.simon.codec.messages.MsgInvokeBatchReturn;
+import host.anzo.simon.exceptions.SimonRemoteException;
+import host.anzo.simon.utils.Utils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.demux.MessageEncoder;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A {@link MessageEncoder} that encodes {@link MsgInvokeBatch}.
+ * <p>
+ * The body holds the remote object name, a flags byte, the number of calls
+ * and for each call the method hash, the number of arguments and the
+ * arguments. Counts are varints in v2 frames and ints in v1 frames.
+ */
+@Slf4j
+public class MsgInvokeBatchEncoder<T extends MsgInvokeBatch> extends AbstractMessageEncoder<T> {
+
+	/**
+	 * set in the flags byte if the calls may be processed in parallel
+	 */
+	static final byte FLAG_PARALLEL = 0x01;
+
+	@Override
+	protected void encodeBody(IoSession session, T message, IoBuffer out) {
+		encodeBody(session, message, out, false);
+	}
+
+	@Override
+	protected void encodeBody(IoSession session, T message, IoBuffer out, boolean v2Frame) {
+
+		log.trace("begin. message={}", message);
+		try {
+			out.putPrefixedString(message.getRemoteObjectName(), Charset.forName("UTF-8").newEncoder());
+			out.put(message.isParallel() ? FLAG_PARALLEL : 0);
+
+			int callCount = message.getCallCount();
+			putCount(out, callCount, v2Frame);
+
+			for (int i = 0; i < callCount; i++) {
+				out.putLong(Utils.computeMethodHash(message.getMethods()[i]));
+
+				Object[] args = message.getArguments()[i];
+				int argsLen = args == null ? 0 : args.length;
+				putCount(out, argsLen, v2Frame);
+				for (int j = 0; j < argsLen; j++) {
+					log.trace("call #{} args[{}]={}", i, j, args[j]);
+					ValueCodec.writeValue(session, out, args[j]);
+				}
+			}
+		} catch (Exception e) {
+
+			String errorMsg = "Failed to transfer invoke batch to the server. error=" + e.getMessage();
+			log.warn(errorMsg);
+			Dispatcher dispatcher = (Dispatcher) session.getAttribute(Statics.SESSION_ATTRIBUTE_DISPATCHER);
+
+			Object[] returnValues = new Object[message.getCallCount()];
+			Arrays.fill(returnValues, new SimonRemoteException(errorMsg, e));
+			MsgInvokeBatchReturn mibr = new MsgInvokeBatchReturn();
+			mibr.setSequence(message.getSequence());
+			mibr.setReturnValues(returnValues);
+
+			try {
+				dispatcher.messageReceived(session, mibr);
+			} catch (Exception e1) {
+				log.error("Got exception when calling 'dispatcher.messageReceived()'", e1);
+			}
+		}
+		log.trace("end");
+	}
+
+	private static void putCount(IoBuffer out, int count, boolean v2Frame) {
+		if (v2Frame) {
+			Utils.putVarInt(out, count);
+		} else {
+			out.putInt(count);
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.codec.base;
+
+import host.anzo.simon.Simon;
+import host.anzo.simon.codec.messages.AbstractMessage;
+import host.anzo.simon.codec.messages.MsgError;
+import host.anzo.simon.codec.messages.MsgInvokeBatchReturn;
+import host.anzo.simon.codec.messages.SimonMessageConstants;
+import host.anzo.simon.utils.SimonClassLoaderHelper;
+import host.anzo.simon.utils.Utils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+import org.apache.mina.filter.codec.demux.MessageDecoder;
+
+/**
+ * A {@link MessageDecoder} that decodes {@link MsgInvokeBatchReturn}.
+ */
+@Slf4j
+public class MsgInvokeBatchReturnDecoder extends AbstractMessageDecoder {
+	public MsgInvokeBatchReturnDecoder() {
+		super(SimonMessageConstants.MSG_INVOKE_BATCH_RETURN);
+	}
+
+	@Override
+	protected AbstractMessage decodeBody(IoSession session, IoBuffer in) {
+		MsgInvokeBatchReturn m = new MsgInvokeBatchReturn();
+		try {
+			int count = isV2Frame() ? Utils.getVarInt(in) : in.getInt();
+			if (count < 0 || count > in.remaining()) {
+				throw new BufferDataException("invalid result count " + count);
+			}
+			Object[] returnValues = new Object[count];
+			for (int i = 0; i < count; i++) {
+				returnValues[i] = ValueCodec.readValue(session, in, SimonClassLoaderHelper.getClassLoader(Simon.class));
+			}
+			m.setReturnValues(returnValues);
+		} catch (ClassNotFoundException | BufferDataException e) {
+			MsgError error = new MsgError();
+			error.setErrorMessage("Error while decoding invoke batch return: Not able to read invoke results due to " + e.getClass().getSimpleName());
+			error.setRemoteObjectName(null);
+			error.setThrowable(e);
+			return error;
+		}
+		log.trace("message={}", m);
+		return m;
+	}
+
+	@Override
+	public void finishDecode(IoSession session, ProtocolDecoderOutput out) throws Exception {
+	}
+}
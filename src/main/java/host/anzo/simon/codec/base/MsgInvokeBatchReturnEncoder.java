@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.codec.base;
+
+import host.anzo.simon.codec.messages.MsgInvokeBatchReturn;
+import host.anzo.simon.utils.Utils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.demux.MessageEncoder;
+
+/**
+ * A {@link MessageEncoder} that encodes {@link MsgInvokeBatchReturn}: the
+ * number of results, a varint in v2 frames and an int in v1 frames, followed
+ * by the results.
+ */
+@Slf4j
+public class MsgInvokeBatchReturnEncoder<T extends MsgInvokeBatchReturn> extends AbstractMessageEncoder<T> {
+	@Override
+	protected void encodeBody(IoSession session, T message, IoBuffer out) {
+		encodeBody(session, message, out, false);
+	}
+
+	@Override
+	protected void encodeBody(IoSession session, T message, IoBuffer out, boolean v2Frame) {
+		log.trace("begin. message={}", message);
+
+		Object[] returnValues = message.getReturnValues();
+		if (v2Frame) {
+			Utils.putVarInt(out, returnValues.length);
+		} else {
+			out.putInt(returnValues.length);
+		}
+		for (Object returnValue : returnValues) {
+			ValueCodec.writeValue(session, out, returnValue);
+		}
+
+		log.trace("end");
+	}
+}
@@ -19,13 +19,16 @@
 package host.anzo.simon.codec.base;
 
 import host.anzo.simon.LookupTable;
+import host.anzo.simon.RemoteObjectContainer;
 import host.anzo.simon.Simon;
 import host.anzo.simon.Statics;
 import host.anzo.simon.codec.messages.AbstractMessage;
 import host.anzo.simon.codec.messages.MsgError;
 import host.anzo.simon.codec.messages.MsgInvoke;
 import host.anzo.simon.codec.messages.SimonMessageConstants;
+import host.anzo.simon.exceptions.LookupFailedException;
 import host.anzo.simon.utils.SimonClassLoaderHelper;
+import host.anzo.simon.utils.Utils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
@@ -56,27 +59,46 @@ public class MsgInvokeDecoder extends AbstractMessageDecoder {
 			LookupTable lookupTable = (LookupTable) session.getAttribute(Statics.SESSION_ATTRIBUTE_LOOKUPTABLE);
 
 			log.trace("start pos={} capacity={}", in.position(), in.capacity());
-			remoteObjectName = in.getPrefixedString(Charset.forName("UTF-8").newDecoder());
-			msgInvoke.setRemoteObjectName(remoteObjectName);
-			log.trace("remote object name read ... remoteObjectName={} pos={}", remoteObjectName, in.position());
+			final Method method;
+			int objectId = isV2Frame() ? Utils.getVarInt(in) - 1 : -1;
+			if (objectId >= 0) {
+				final int methodIndex = Utils.getVarInt(in);
+				RemoteObjectContainer container = lookupTable.getRemoteObjectContainer(objectId);
+				if (container == null) {
+					throw new LookupFailedException("No remote object with objectId=" + objectId + " bound");
+				}
+				remoteObjectName = container.getRemoteObjectName();
+				method = container.getMethod(methodIndex);
+				if (method == null) {
+					throw new LookupFailedException("No method with index " + methodIndex + " in remote object '" + remoteObjectName + "'");
+				}
+				msgInvoke.setRemoteObjectName(remoteObjectName);
+				msgInvoke.setObjectId(objectId);
+				msgInvoke.setMethodIndex(methodIndex);
+				log.trace("got objectId={} methodIndex={} ... remoteObjectName={}", objectId, methodIndex, remoteObjectName);
+			} else {
+				remoteObjectName = in.getPrefixedString(Charset.forName("UTF-8").newDecoder());
+				msgInvoke.setRemoteObjectName(remoteObjectName);
+				log.trace("remote object name read ... remoteObjectName={} pos={}", remoteObjectName, in.position());
 
-			final long methodHash = in.getLong();
-			log.trace("got method hash {}", methodHash);
+				final long methodHash = in.getLong();
+				log.trace("got method hash {}", methodHash);
 
-			final Method method = lookupTable.getMethod(msgInvoke.getRemoteObjectName(), methodHash);
-			if (method == null) {
-				return null;
+				method = lookupTable.getMethod(msgInvoke.getRemoteObjectName(), methodHash);
+				if (method == null) {
+					return null;
+				}
 			}
 
 			log.trace("method looked up ... pos={} method=[{}]", in.position(), method);
 
-			int argsLength = in.getInt();
+			int argsLength = isV2Frame() ? Utils.getVarInt(in) : in.getInt();
 			log.trace("args len read read ... pos={}", in.position());
 			log.trace("getting {} args", argsLength);
 			Object[] args = new Object[argsLength];
 			for (int i = 0; i < argsLength; i++) {
 				try {
-					args[i] = in.getObject(SimonClassLoaderHelper.getClassLoader(Simon.class));
+					args[i] = ValueCodec.readValue(session, in, SimonClassLoaderHelper.getClassLoader(Simon.class));
 				} catch (Exception ex) {
 					Exception ex1 = new Exception("Problem reading method argument. Maybe argument isn't serializable?!");
 					ex1.initCause(ex.getCause());
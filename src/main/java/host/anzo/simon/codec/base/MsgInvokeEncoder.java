@@ -40,12 +40,25 @@ import java.nio.charset.Charset;
 public class MsgInvokeEncoder<T extends MsgInvoke> extends AbstractMessageEncoder<T> {
 	@Override
 	protected void encodeBody(IoSession session, T message, IoBuffer out) {
+		encodeBody(session, message, out, false);
+	}
+
+	/**
+	 * Encodes the invoke. In a v2 frame, the remote object and method are
+	 * addressed by object id and method index if the server assigned an id
+	 * to the remote object, otherwise by name and method hash as in v1.
+	 */
+	@Override
+	protected void encodeBody(IoSession session, T message, IoBuffer out, boolean v2Frame) {
 
 		log.trace("begin. message={}", message);
 		try {
 
-			out.putPrefixedString(message.getRemoteObjectName(), Charset.forName("UTF-8").newEncoder());
-			out.putLong(Utils.computeMethodHash(message.getMethod()));
+			long methodHash = Utils.computeMethodHash(message.getMethod());
+			if (!v2Frame || !RemoteTargetTable.putTarget(session, out, message.getRemoteObjectName(), methodHash)) {
+				out.putPrefixedString(message.getRemoteObjectName(), Charset.forName("UTF-8").newEncoder());
+				out.putLong(methodHash);
+			}
 
 			int argsLen = 0;
 
@@ -55,11 +68,15 @@ public class MsgInvokeEncoder<T extends MsgInvoke> extends AbstractMessageEncode
 
 			log.trace("argsLength={}", argsLen);
 
-			out.putInt(argsLen);
+			if (v2Frame) {
+				Utils.putVarInt(out, argsLen);
+			} else {
+				out.putInt(argsLen);
+			}
 
 			for (int i = 0; i < argsLen; i++) {
 				log.trace("args[{}]={}", i, message.getArguments()[i]);
-				out.putObject(message.getArguments()[i]);
+				ValueCodec.writeValue(session, out, message.getArguments()[i]);
 			}
 		} catch (Exception e) {
 
@@ -45,7 +45,7 @@ public class MsgInvokeReturnDecoder extends AbstractMessageDecoder {
 	protected AbstractMessage decodeBody(IoSession session, IoBuffer in) {
 		MsgInvokeReturn m = new MsgInvokeReturn();
 		try {
-			Object returnValue = in.getObject(SimonClassLoaderHelper.getClassLoader(Simon.class));
+			Object returnValue = ValueCodec.readValue(session, in, SimonClassLoaderHelper.getClassLoader(Simon.class));
 			m.setReturnValue(returnValue);
 		} catch (ClassNotFoundException e) {
 			MsgError error = new MsgError();
@@ -35,7 +35,7 @@ public class MsgInvokeReturnEncoder<T extends MsgInvokeReturn> extends AbstractM
 	protected void encodeBody(IoSession session, T message, IoBuffer out) {
 		log.trace("begin. message={}", message);
 
-		out.putObject(message.getReturnValue());
+		ValueCodec.writeValue(session, out, message.getReturnValue());
 
 		/*
 		 * There is no need to write the message.getErrorMsg() string back to the client
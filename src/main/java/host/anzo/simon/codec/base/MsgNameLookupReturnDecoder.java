@@ -59,6 +59,13 @@ public class MsgNameLookupReturnDecoder extends AbstractMessageDecoder {
 			}
 			m.setErrorMsg(in.getPrefixedString(Charset.forName("UTF-8").newDecoder()));
 			m.setInterfaces(interfaces);
+			if (isV2Frame()) {
+				int objectId = RemoteTargetTable.getObjectId(in);
+				if (objectId >= 0) {
+					m.setObjectId(objectId);
+					m.setMethodHashes(RemoteTargetTable.getMethodHashes(in));
+				}
+			}
 		} catch (CharacterCodingException e) {
 			MsgError error = new MsgError();
 			error.setErrorMessage("Error while decoding name lookup return: Not able to read interface names due to CharacterCodingException");
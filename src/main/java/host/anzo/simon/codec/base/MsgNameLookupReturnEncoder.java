@@ -75,4 +75,12 @@ public class MsgNameLookupReturnEncoder<T extends MsgNameLookupReturn> extends A
 
 		log.trace("finished");
 	}
+
+	@Override
+	protected void encodeBody(IoSession session, T message, IoBuffer out, boolean v2Frame) {
+		encodeBody(session, message, out);
+		if (v2Frame) {
+			RemoteTargetTable.putObjectId(out, message.getObjectId(), message.getMethodHashes());
+		}
+	}
 }
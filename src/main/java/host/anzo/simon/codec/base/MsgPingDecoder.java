@@ -48,6 +48,7 @@ public class MsgPingDecoder extends AbstractMessageDecoder {
 			log.trace("got {}", Utils.longToHexString(x));
 		MsgPing ping = new MsgPing();
 		ping.setSequence(getCurrentSequence());
+		ping.setCapabilities(x);
 		log.trace("end");
 		return ping;
 	}
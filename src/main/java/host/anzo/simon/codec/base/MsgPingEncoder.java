@@ -34,7 +34,7 @@ public class MsgPingEncoder<T extends MsgPing> extends AbstractMessageEncoder<T>
 	@Override
 	protected void encodeBody(IoSession session, T message, IoBuffer out) {
 		log.trace("begin. message=" + message);
-		out.put((byte) 0xff);
+		out.put(message.getCapabilities());
 		log.trace("end");
 	}
 }
\ No newline at end of file
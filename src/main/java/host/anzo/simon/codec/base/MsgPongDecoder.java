@@ -47,6 +47,7 @@ public class MsgPongDecoder extends AbstractMessageDecoder {
 			log.trace("got {}", Utils.longToHexString(x));
 		MsgPong pong = new MsgPong();
 		pong.setSequence(getCurrentSequence());
+		pong.setCapabilities(x);
 		log.trace("end");
 		return pong;
 	}
@@ -35,7 +35,7 @@ public class MsgPongEncoder<T extends MsgPong> extends AbstractMessageEncoder<T>
 	protected void encodeBody(IoSession session, T message, IoBuffer out) {
 
 		log.trace("begin. message=" + message);
-		out.put((byte) 0xff);
+		out.put(message.getCapabilities());
 		log.trace("end");
 	}
 }
\ No newline at end of file
@@ -55,7 +55,8 @@ public class MsgRawChannelDataDecoder extends AbstractMessageDecoder {
 
 		byte[] b = new byte[dataSize];
 		in.get(b);
-		message.setData(ByteBuffer.allocate(dataSize).put(b));
+		// positioned at the end like a filled buffer, the receiver flips it
+		message.setData(ByteBuffer.wrap(b).position(dataSize));
 		log.trace("message={}", message);
 
 		return message;
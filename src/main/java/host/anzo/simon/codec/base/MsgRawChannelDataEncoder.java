@@ -48,4 +48,11 @@ public class MsgRawChannelDataEncoder<T extends MsgRawChannelData> extends Abstr
 		out.put(bb); // raw data
 		log.trace("end");
 	}
+
+	@Override
+	protected int getBodySizeHint(T message) {
+		ByteBuffer bb = message.getData();
+		// token plus data, see the flip in encodeBody()
+		return 4 + (bb.position() > 0 ? bb.position() : bb.limit());
+	}
 }
\ No newline at end of file
@@ -29,6 +29,9 @@ import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolDecoderOutput;
 import org.apache.mina.filter.codec.demux.MessageDecoder;
 
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+
 /**
  * A {@link MessageDecoder} that decodes {@link MsgRawChannelData}.
  *
@@ -36,6 +39,12 @@ import org.apache.mina.filter.codec.demux.MessageDecoder;
  */
 @Slf4j
 public class MsgRawChannelDataReturnDecoder extends AbstractMessageDecoder {
+	/**
+	 * the first body byte of a return which is followed by an error message,
+	 * only sent to peers with {@link SimonMessageConstants#CAPABILITY_RAW_CHANNEL_WINDOW}
+	 */
+	static final byte RAW_CHANNEL_DATA_FAILED = 0x00;
+
 	public static class RawChannelState {
 		public int msgSize;
 	}
@@ -53,6 +62,13 @@ public class MsgRawChannelDataReturnDecoder extends AbstractMessageDecoder {
 		}
 		MsgRawChannelDataReturn msg = new MsgRawChannelDataReturn();
 		msg.setSequence(getCurrentSequence());
+		if (x == RAW_CHANNEL_DATA_FAILED) {
+			try {
+				msg.setErrorMsg(in.getPrefixedString(Charset.forName("UTF-8").newDecoder()));
+			} catch (CharacterCodingException e) {
+				msg.setErrorMsg("writing raw channel data failed, the error message is not readable");
+			}
+		}
 		log.trace("end");
 		return msg;
 	}
@@ -19,11 +19,16 @@
 package host.anzo.simon.codec.base;
 
 import host.anzo.simon.codec.messages.MsgRawChannelDataReturn;
+import host.anzo.simon.codec.messages.SimonMessageConstants;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.demux.MessageEncoder;
 
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
 /**
  * A {@link MessageEncoder} that encodes {@link MsgRawChannelDataReturn}.
  *
@@ -34,7 +39,18 @@ public class MsgRawChannelDataReturnEncoder<T extends MsgRawChannelDataReturn> e
 	@Override
 	protected void encodeBody(IoSession session, T message, IoBuffer out) {
 		log.trace("begin. message=" + message);
-		out.put((byte) 0xff);
+		if (message.hasError() && ProtocolCapabilities.has(session, SimonMessageConstants.CAPABILITY_RAW_CHANNEL_WINDOW)) {
+			out.put(MsgRawChannelDataReturnDecoder.RAW_CHANNEL_DATA_FAILED);
+			try {
+				// replaces malformed characters, so that the message is always complete
+				out.putPrefixedString(message.getErrorMsg(), Charset.forName("UTF-8").newEncoder()
+						.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE));
+			} catch (CharacterCodingException ex) {
+				log.warn("Failed to transfer raw channel error. error={}", ex.getMessage());
+			}
+		} else {
+			out.put((byte) 0xff);
+		}
 		log.trace("end");
 	}
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.codec.base;
+
+import host.anzo.simon.codec.messages.SimonMessageConstants;
+import org.apache.mina.core.session.IoSession;
+
+/**
+ * Holds the protocol capabilities negotiated for a session by the handshake
+ * ping and pong. Until the handshake has completed, and for peers without
+ * handshake support, no capability is set and the session uses the v1
+ * protocol.
+ */
+public final class ProtocolCapabilities {
+
+	/**
+	 * the capabilities supported by this SIMON version
+	 */
+	public static final byte LOCAL = SimonMessageConstants.CAPABILITY_V2_FRAMES | SimonMessageConstants.CAPABILITY_INLINE_VALUES
+			| SimonMessageConstants.CAPABILITY_INVOKE_BATCH | SimonMessageConstants.CAPABILITY_COMPRESSED_FRAMES
+			| SimonMessageConstants.CAPABILITY_CACHE_INVALIDATE | SimonMessageConstants.CAPABILITY_RAW_CHANNEL_WINDOW;
+
+	private static final String SESSION_ATTRIBUTE_CAPABILITIES = ProtocolCapabilities.class.getName();
+
+	private ProtocolCapabilities() {
+	}
+
+	/**
+	 * Stores the capabilities both sides support, based on the capabilities
+	 * the peer announced
+	 *
+	 * @param session            the session
+	 * @param remoteCapabilities the capabilities of the peer, or
+	 *                           {@link SimonMessageConstants#PING_NO_HANDSHAKE} if it doesn't support the handshake
+	 * @return the negotiated capabilities
+	 */
+	public static byte negotiate(IoSession session, byte remoteCapabilities) {
+		byte negotiated = remoteCapabilities == SimonMessageConstants.PING_NO_HANDSHAKE ? 0 : (byte) (remoteCapabilities & LOCAL);
+		session.setAttribute(SESSION_ATTRIBUTE_CAPABILITIES, negotiated);
+		return negotiated;
+	}
+
+	/**
+	 * Returns whether the given capability has been negotiated for the session
+	 *
+	 * @param session    the session
+	 * @param capability one of the <code>CAPABILITY_*</code> constants of {@link SimonMessageConstants}
+	 * @return true, if both sides support the capability
+	 */
+	public static boolean has(IoSession session, byte capability) {
+		Byte negotiated = (Byte) session.getAttribute(SESSION_ATTRIBUTE_CAPABILITIES);
+		return negotiated != null && (negotiated & capability) != 0;
+	}
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.codec.base;
+
+import host.anzo.simon.codec.messages.SimonMessageConstants;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.file.FileRegion;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.ssl.SslFilter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A complete {@link SimonMessageConstants#MSG_RAW_CHANNEL_DATA} frame whose
+ * data is a region of a file. The frame is written to the socket as one
+ * {@link FileRegion}, bypassing the codec: the header is written first, then
+ * the file region is transferred with {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+ * so the data is not copied into the heap. Header and data are a single
+ * write, so no other frame can get between them.
+ */
+public final class RawChannelFileRegion implements FileRegion {
+
+	private final FramedFileChannel channel;
+	private long position;
+
+	/**
+	 * Creates the frame
+	 *
+	 * @param session      the session the frame is written to
+	 * @param sequence     the sequence of the message
+	 * @param channelToken the token of the raw channel
+	 * @param file         the file to send data from
+	 * @param filePosition the position of the data in the file
+	 * @param count        the number of bytes to send
+	 */
+	public RawChannelFileRegion(IoSession session, int sequence, int channelToken, FileChannel file, long filePosition, int count) {
+		if (count < 0 || count > Integer.MAX_VALUE - 4) {
+			throw new IllegalArgumentException("count out of range: " + count);
+		}
+		boolean v2Frame = ProtocolCapabilities.has(session, SimonMessageConstants.CAPABILITY_V2_FRAMES);
+		int bodySize = 4 + count; // integer(4byte) -> token value, followed by the data
+		// not taken from the buffer pool, as nothing frees it once the region is written
+		IoBuffer header = IoBuffer.wrap(ByteBuffer.allocate(AbstractMessageEncoder.getHeaderLength(sequence, bodySize, v2Frame) + 4));
+		AbstractMessageEncoder.putHeader(header, SimonMessageConstants.MSG_RAW_CHANNEL_DATA, sequence, bodySize, v2Frame);
+		header.putInt(channelToken);
+		this.channel = new FramedFileChannel(header.flip().buf(), file, filePosition, count);
+	}
+
+	/**
+	 * Checks whether frames with file regions can be written to a session:
+	 * the transport has to support them, and no filter may need the data in
+	 * the heap, as SSL does for encryption
+	 *
+	 * @param session the session
+	 * @return true, if file regions can be written
+	 */
+	public static boolean isSupported(IoSession session) {
+		return session.getTransportMetadata().getEnvelopeTypes().contains(FileRegion.class)
+				&& !session.getFilterChain().contains(SslFilter.class);
+	}
+
+	@Override
+	public FileChannel getFileChannel() {
+		return channel;
+	}
+
+	@Override
+	public long getPosition() {
+		return position;
+	}
+
+	@Override
+	public void update(long amount) {
+		position += amount;
+	}
+
+	@Override
+	public long getRemainingBytes() {
+		return channel.length - position;
+	}
+
+	@Override
+	public long getWrittenBytes() {
+		return position;
+	}
+
+	@Override
+	public String getFilename() {
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return "RawChannelFileRegion{length=" + channel.length + ", written=" + position + "}";
+	}
+
+	/**
+	 * Presents the frame header followed by the file region as one read-only
+	 * file. The transport sends it with {@link #transferTo(long, long, WritableByteChannel)},
+	 * filters which need the data in the heap, like MINA's
+	 * <code>FileRegionWriteFilter</code>, read it with {@link #read(ByteBuffer, long)}.
+	 */
+	private static final class FramedFileChannel extends FileChannel {
+		private final ByteBuffer header;
+		private final FileChannel file;
+		private final long filePosition;
+		private final long length;
+		/**
+		 * the position of the relative read operations
+		 */
+		private long position;
+
+		private FramedFileChannel(ByteBuffer header, FileChannel file, long filePosition, int count) {
+			this.header = header;
+			this.file = file;
+			this.filePosition = filePosition;
+			this.length = header.remaining() + (long) count;
+		}
+
+		@Override
+		public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+			long transferred = 0;
+			int headerLength = header.limit();
+			if (position < headerLength) {
+				ByteBuffer remainingHeader = header.duplicate().position((int) position);
+				if (count < remainingHeader.remaining()) {
+					remainingHeader.limit((int) (position + count));
+				}
+				transferred = target.write(remainingHeader);
+				if (remainingHeader.hasRemaining()) {
+					// the socket buffer is full
+					return transferred;
+				}
+			}
+			long dataPosition = position + transferred - headerLength;
+			long dataCount = Math.min(count - transferred, length - headerLength - dataPosition);
+			if (dataCount > 0) {
+				transferred += file.transferTo(filePosition + dataPosition, dataCount, target);
+			}
+			return transferred;
+		}
+
+		@Override
+		public int read(ByteBuffer dst, long position) throws IOException {
+			if (position < 0) {
+				throw new IllegalArgumentException("negative position: " + position);
+			}
+			if (position >= length) {
+				return -1;
+			}
+			int read = 0;
+			int headerLength = header.limit();
+			if (position < headerLength) {
+				ByteBuffer remainingHeader = header.duplicate().position((int) position);
+				if (dst.remaining() < remainingHeader.remaining()) {
+					remainingHeader.limit((int) position + dst.remaining());
+				}
+				read = remainingHeader.remaining();
+				dst.put(remainingHeader);
+			}
+			long dataPosition = position + read - headerLength;
+			int dataCount = (int) Math.min(dst.remaining(), length - headerLength - dataPosition);
+			if (dataCount > 0) {
+				ByteBuffer data = dst.slice().limit(dataCount);
+				int fileRead = file.read(data, filePosition + dataPosition);
+				if (fileRead > 0) {
+					dst.position(dst.position() + fileRead);
+					read += fileRead;
+				} else if (read == 0) {
+					throw new EOFException("file has been truncated while sending");
+				}
+			}
+			return read;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			int read = read(dst, position);
+			if (read > 0) {
+				position += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+			long total = 0;
+			for (int i = offset; i < offset + length; i++) {
+				if (!dsts[i].hasRemaining()) {
+					continue;
+				}
+				int read = read(dsts[i]);
+				if (read < 0) {
+					return total == 0 ? -1 : total;
+				}
+				total += read;
+				if (dsts[i].hasRemaining()) {
+					break;
+				}
+			}
+			return total;
+		}
+
+		@Override
+		public long size() {
+			return length;
+		}
+
+		@Override
+		public long position() {
+			return position;
+		}
+
+		@Override
+		public FileChannel position(long newPosition) {
+			if (newPosition < 0) {
+				throw new IllegalArgumentException("negative position: " + newPosition);
+			}
+			position = newPosition;
+			return this;
+		}
+
+		@Override
+		public void force(boolean metaData) {
+			// nothing is written
+		}
+
+		@Override
+		public int write(ByteBuffer src) {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public long write(ByteBuffer[] srcs, int offset, int length) {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public int write(ByteBuffer src, long position) {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public FileChannel truncate(long size) {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public long transferFrom(ReadableByteChannel src, long position, long count) {
+			throw new NonWritableChannelException();
+		}
+
+		/**
+		 * Not supported, the frame is not a region of one file
+		 */
+		@Override
+		public MappedByteBuffer map(MapMode mode, long position, long size) {
+			throw new UnsupportedOperationException("a framed file region cannot be mapped");
+		}
+
+		/**
+		 * Not supported, lock the underlying file instead
+		 */
+		@Override
+		public FileLock lock(long position, long size, boolean shared) {
+			throw new UnsupportedOperationException("a framed file region cannot be locked");
+		}
+
+		/**
+		 * Not supported, lock the underlying file instead
+		 */
+		@Override
+		public FileLock tryLock(long position, long size, boolean shared) {
+			throw new UnsupportedOperationException("a framed file region cannot be locked");
+		}
+
+		@Override
+		protected void implCloseChannel() {
+			// the file is closed by its owner
+		}
+	}
+}
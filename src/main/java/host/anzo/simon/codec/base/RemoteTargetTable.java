@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.codec.base;
+
+import host.anzo.simon.utils.Utils;
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the object ids and method hashes of the remote objects looked up on
+ * a session, as announced by the server in the lookup returns of v2 frames.
+ * Invokes of remote objects in this table are sent with object id and method
+ * index instead of the remote object name and method hash.
+ * <p>
+ * Remote objects without an id, like callbacks, are invoked by name.
+ */
+public final class RemoteTargetTable {
+
+	private static final String SESSION_ATTRIBUTE_TARGETS = RemoteTargetTable.class.getName();
+
+	/**
+	 * the id of a remote object and its sorted method hashes; a method is addressed by the index of its hash
+	 */
+	private record Target(int objectId, long[] methodHashes) {
+	}
+
+	private final Map<String, Target> targets = new ConcurrentHashMap<>();
+
+	private RemoteTargetTable() {
+	}
+
+	/**
+	 * Registers the object id of a looked up remote object
+	 *
+	 * @param session          the session the lookup was made on
+	 * @param remoteObjectName the name of the remote object
+	 * @param objectId         the object id, -1 if the server didn't assign one
+	 * @param methodHashes     the sorted method hashes of the remote object
+	 */
+	public static void register(IoSession session, String remoteObjectName, int objectId, long[] methodHashes) {
+		if (objectId < 0 || methodHashes == null || remoteObjectName == null) {
+			return;
+		}
+		RemoteTargetTable table = (RemoteTargetTable) session.getAttribute(SESSION_ATTRIBUTE_TARGETS);
+		if (table == null) {
+			table = new RemoteTargetTable();
+			RemoteTargetTable existingTable = (RemoteTargetTable) session.setAttributeIfAbsent(SESSION_ATTRIBUTE_TARGETS, table);
+			if (existingTable != null) {
+				table = existingTable;
+			}
+		}
+		table.targets.put(remoteObjectName, new Target(objectId, methodHashes));
+	}
+
+	/**
+	 * Writes the object id and method index of the invoked method, if known.
+	 * Writes varint <code>objectId + 1</code> followed by the varint method
+	 * index, or a single 0 if the remote object or method has no id.
+	 *
+	 * @return true, if the ids have been written
+	 */
+	static boolean putTarget(IoSession session, IoBuffer out, String remoteObjectName, long methodHash) {
+		RemoteTargetTable table = (RemoteTargetTable) session.getAttribute(SESSION_ATTRIBUTE_TARGETS);
+		Target target = table != null && remoteObjectName != null ? table.targets.get(remoteObjectName) : null;
+		int methodIndex = target != null ? Arrays.binarySearch(target.methodHashes(), methodHash) : -1;
+		if (methodIndex < 0) {
+			out.put((byte) 0);
+			return false;
+		}
+		Utils.putVarInt(out, target.objectId() + 1);
+		Utils.putVarInt(out, methodIndex);
+		return true;
+	}
+
+	/**
+	 * Writes the object id and method hashes of a lookup return: varint
+	 * <code>objectId + 1</code>, 0 if there is no id, followed by the varint
+	 * number of hashes and the hashes.
+	 */
+	static void putObjectId(IoBuffer out, int objectId, long[] methodHashes) {
+		if (objectId < 0 || methodHashes == null) {
+			out.put((byte) 0);
+			return;
+		}
+		Utils.putVarInt(out, objectId + 1);
+		Utils.putVarInt(out, methodHashes.length);
+		for (long methodHash : methodHashes) {
+			out.putLong(methodHash);
+		}
+	}
+
+	/**
+	 * Reads the object id written by {@link #putObjectId(IoBuffer, int, long[])}
+	 *
+	 * @return the object id, -1 if there is none
+	 */
+	static int getObjectId(IoBuffer in) {
+		return Utils.getVarInt(in) - 1;
+	}
+
+	/**
+	 * Reads the method hashes following an object id other than -1
+	 */
+	static long[] getMethodHashes(IoBuffer in) {
+		int count = Utils.getVarInt(in);
+		if (count < 0 || count > in.remaining() / Long.BYTES) {
+			throw new BufferDataException("invalid method hash count " + count);
+		}
+		long[] methodHashes = new long[count];
+		for (int i = 0; i < count; i++) {
+			methodHashes[i] = in.getLong();
+		}
+		return methodHashes;
+	}
+}
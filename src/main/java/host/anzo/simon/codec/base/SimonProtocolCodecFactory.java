@@ -19,17 +19,69 @@
 package host.anzo.simon.codec.base;
 
 import host.anzo.simon.codec.messages.*;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolDecoder;
 import org.apache.mina.filter.codec.demux.DemuxingProtocolCodecFactory;
+import org.apache.mina.filter.codec.demux.MessageDecoder;
+import org.apache.mina.filter.codec.demux.MessageDecoderFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A {@link ProtocolCodecFactory} that provides a protocol codec for
  * Simon Standard protocol. If one wants to create his own protocol, the new factory
  * has to extend this method and override the setup() method explicitly!
+ * <p>
+ * Incoming frames are decoded by a {@link SimonProtocolDecoder}, which
+ * dispatches by message type to the registered decoders. Only if a decoder
+ * is registered which doesn't extend {@link AbstractMessageDecoder}, MINA's
+ * demuxing decoder is used instead.
  *
  * @author ACHR
  */
+@Slf4j
 public class SimonProtocolCodecFactory extends DemuxingProtocolCodecFactory {
+
+	private final List<MessageDecoderFactory> decoderFactories = new CopyOnWriteArrayList<>();
+
+	@Override
+	public void addMessageDecoder(Class<? extends MessageDecoder> decoderClass) {
+		super.addMessageDecoder(decoderClass);
+		decoderFactories.add(() -> decoderClass.getDeclaredConstructor().newInstance());
+	}
+
+	@Override
+	public void addMessageDecoder(MessageDecoder decoder) {
+		super.addMessageDecoder(decoder);
+		decoderFactories.add(() -> decoder);
+	}
+
+	@Override
+	public void addMessageDecoder(MessageDecoderFactory factory) {
+		super.addMessageDecoder(factory);
+		decoderFactories.add(factory);
+	}
+
+	@Override
+	public ProtocolDecoder getDecoder(IoSession session) throws Exception {
+		AbstractMessageDecoder[] decoders = new AbstractMessageDecoder[SimonProtocolDecoder.MSG_TYPE_MASK + 1];
+		for (MessageDecoderFactory factory : decoderFactories) {
+			MessageDecoder decoder = factory.getDecoder();
+			if (!(decoder instanceof AbstractMessageDecoder messageDecoder)) {
+				log.debug("{} doesn't extend {}, using demuxing decoder", decoder.getClass().getName(), AbstractMessageDecoder.class.getSimpleName());
+				return super.getDecoder(session);
+			}
+			int index = messageDecoder.getMsgType() & SimonProtocolDecoder.MSG_TYPE_MASK;
+			// like the demuxing decoder, the first decoder registered for a type wins
+			if (decoders[index] == null) {
+				decoders[index] = messageDecoder;
+			}
+		}
+		return new SimonProtocolDecoder(decoders);
+	}
 	/**
 	 * Sets up the factory, either in server, or in client mode
 	 *
@@ -39,25 +91,25 @@ public class SimonProtocolCodecFactory extends DemuxingProtocolCodecFactory {
 		if (isServer) { // **** SERVER ****
 
 			// incoming service lookup
-			super.addMessageDecoder(MsgNameLookupDecoder.class);
+			addMessageDecoder(MsgNameLookupDecoder.class);
 			// outgoing service lookup return
-			super.addMessageEncoder(MsgNameLookupReturn.class, MsgNameLookupReturnEncoder.class);
+			addMessageEncoder(MsgNameLookupReturn.class, MsgNameLookupReturnEncoder.class);
 
 			// incoming interface lookup
-			super.addMessageDecoder(MsgInterfaceLookupDecoder.class);
+			addMessageDecoder(MsgInterfaceLookupDecoder.class);
 			// outgoing interface lookup return
-			super.addMessageEncoder(MsgInterfaceLookupReturn.class, MsgInterfaceLookupReturnEncoder.class);
+			addMessageEncoder(MsgInterfaceLookupReturn.class, MsgInterfaceLookupReturnEncoder.class);
 		} else // **** CLIENT ****
 		{
 			// outgoing service lookup
-			super.addMessageEncoder(MsgNameLookup.class, MsgNameLookupEncoder.class);
+			addMessageEncoder(MsgNameLookup.class, MsgNameLookupEncoder.class);
 			// incoming service lookup return
-			super.addMessageDecoder(MsgNameLookupReturnDecoder.class);
+			addMessageDecoder(MsgNameLookupReturnDecoder.class);
 
 			// outgoing interface lookup
-			super.addMessageEncoder(MsgInterfaceLookup.class, MsgInterfaceLookupEncoder.class);
+			addMessageEncoder(MsgInterfaceLookup.class, MsgInterfaceLookupEncoder.class);
 			// incoming interface lookup return
-			super.addMessageDecoder(MsgInterfaceLookupReturnDecoder.class);
+			addMessageDecoder(MsgInterfaceLookupReturnDecoder.class);
 		}
 
 		/* *****************************************
@@ -69,56 +121,66 @@ public class SimonProtocolCodecFactory extends DemuxingProtocolCodecFactory {
 		 */
 
 		// outgoing invoke
-		super.addMessageEncoder(MsgInvoke.class, MsgInvokeEncoder.class);
+		addMessageEncoder(MsgInvoke.class, MsgInvokeEncoder.class);
 		// incoming invoke return
-		super.addMessageDecoder(MsgInvokeReturnDecoder.class);
+		addMessageDecoder(MsgInvokeReturnDecoder.class);
 
 		// incoming invoke
-		super.addMessageDecoder(MsgInvokeDecoder.class);
+		addMessageDecoder(MsgInvokeDecoder.class);
 		// outgoing invoke return
-		super.addMessageEncoder(MsgInvokeReturn.class, MsgInvokeReturnEncoder.class);
+		addMessageEncoder(MsgInvokeReturn.class, MsgInvokeReturnEncoder.class);
+
+		// outgoing invoke batch
+		addMessageEncoder(MsgInvokeBatch.class, MsgInvokeBatchEncoder.class);
+		// incoming invoke batch return
+		addMessageDecoder(MsgInvokeBatchReturnDecoder.class);
+
+		// incoming invoke batch
+		addMessageDecoder(MsgInvokeBatchDecoder.class);
+		// outgoing invoke batch return
+		addMessageEncoder(MsgInvokeBatchReturn.class, MsgInvokeBatchReturnEncoder.class);
 
 		/*
 		 * "toString()" handling
 		 */
 
 		// outgoing toString
-		super.addMessageEncoder(MsgToString.class, MsgToStringEncoder.class);
+		addMessageEncoder(MsgToString.class, MsgToStringEncoder.class);
 		// incoming toString return
-		super.addMessageDecoder(MsgToStringReturnDecoder.class);
+		addMessageDecoder(MsgToStringReturnDecoder.class);
 
 		// incoming toString
-		super.addMessageDecoder(MsgToStringDecoder.class);
+		addMessageDecoder(MsgToStringDecoder.class);
 		// outgoing toString return
-		super.addMessageEncoder(MsgToStringReturn.class, MsgToStringReturnEncoder.class);
+		addMessageEncoder(MsgToStringReturn.class, MsgToStringReturnEncoder.class);
 
 		/*
 		 * "hashCode()" handling
 		 */
 
 		// outgoing hashCode
-		super.addMessageEncoder(MsgHashCode.class, MsgHashCodeEncoder.class);
+		addMessageEncoder(MsgHashCode.class, MsgHashCodeEncoder.class);
 		// incoming hashCode return
-		super.addMessageDecoder(MsgHashCodeReturnDecoder.class);
+		addMessageDecoder(MsgHashCodeReturnDecoder.class);
 
 		// incoming hashCode
-		super.addMessageDecoder(MsgHashCodeDecoder.class);
+		addMessageDecoder(MsgHashCodeDecoder.class);
 		// outgoing hashCode return
-		super.addMessageEncoder(MsgHashCodeReturn.class, MsgHashCodeReturnEncoder.class);
+		addMessageEncoder(MsgHashCodeReturn.class, MsgHashCodeReturnEncoder.class);
 
 		/*
 		 * "equals()" handling
 		 */
 
 		// outgoing equals
-		super.addMessageEncoder(MsgEquals.class, MsgEqualsEncoder.class);
+		addMessageEncoder(MsgEquals.class, MsgEqualsEncoder.class);
 		// incoming equals return
-		super.addMessageDecoder(MsgEqualsReturnDecoder.class);
+		addMessageDecoder(MsgEqualsReturnDecoder.class);
 
 		// incoming equals
-		super.addMessageDecoder(MsgEqualsDecoder.class);
+		addMessageDecoder(MsgEqualsDecoder.class);
 		// outgoing equals return
-		super.addMessageEncoder(MsgEqualsReturn.class, MsgEqualsReturnEncoder.class);
+		addMessageEncoder(MsgEqualsReturn.class, MsgEqualsReturnEncoder.class);
 
 
 		/*
@@ -126,56 +188,56 @@ public class SimonProtocolCodecFactory extends DemuxingProtocolCodecFactory {
 		 */
 
 		// outgoing open channel
-		super.addMessageEncoder(MsgOpenRawChannel.class, MsgOpenRawChannelEncoder.class);
+		addMessageEncoder(MsgOpenRawChannel.class, MsgOpenRawChannelEncoder.class);
 		// incoming open channel return
-		super.addMessageDecoder(MsgOpenRawChannelReturnDecoder.class);
+		addMessageDecoder(MsgOpenRawChannelReturnDecoder.class);
 
 		// incoming open channel
-		super.addMessageDecoder(MsgOpenRawChannelDecoder.class);
+		addMessageDecoder(MsgOpenRawChannelDecoder.class);
 		// outgoing open channel return
-		super.addMessageEncoder(MsgOpenRawChannelReturn.class, MsgOpenRawChannelReturnEncoder.class);
+		addMessageEncoder(MsgOpenRawChannelReturn.class, MsgOpenRawChannelReturnEncoder.class);
 
 		/*
 		 * close raw channel handling
 		 */
 
 		// outgoing close channel
-		super.addMessageEncoder(MsgCloseRawChannel.class, MsgCloseRawChannelEncoder.class);
+		addMessageEncoder(MsgCloseRawChannel.class, MsgCloseRawChannelEncoder.class);
 		// incoming close channel return
-		super.addMessageDecoder(MsgCloseRawChannelReturnDecoder.class);
+		addMessageDecoder(MsgCloseRawChannelReturnDecoder.class);
 
 		// incoming close channel
-		super.addMessageDecoder(MsgCloseRawChannelDecoder.class);
+		addMessageDecoder(MsgCloseRawChannelDecoder.class);
 		// outgoing close channel return
-		super.addMessageEncoder(MsgCloseRawChannelReturn.class, MsgCloseRawChannelReturnEncoder.class);
+		addMessageEncoder(MsgCloseRawChannelReturn.class, MsgCloseRawChannelReturnEncoder.class);
 
 		/*
 		 * raw channel data handling
 		 */
 
 		// outgoing channel data
-		super.addMessageEncoder(MsgRawChannelData.class, MsgRawChannelDataEncoder.class);
+		addMessageEncoder(MsgRawChannelData.class, MsgRawChannelDataEncoder.class);
 		// incoming channel data
-		super.addMessageDecoder(MsgRawChannelDataDecoder.class);
+		addMessageDecoder(MsgRawChannelDataDecoder.class);
 
 		// outgoing channel data return
-		super.addMessageEncoder(MsgRawChannelDataReturn.class, MsgRawChannelDataReturnEncoder.class);
+		addMessageEncoder(MsgRawChannelDataReturn.class, MsgRawChannelDataReturnEncoder.class);
 		// incoming channel data return
-		super.addMessageDecoder(MsgRawChannelDataReturnDecoder.class);
+		addMessageDecoder(MsgRawChannelDataReturnDecoder.class);
 
 		/*
 		 * ping/pong handling
 		 */
 
 		// outgoing ping
-		super.addMessageEncoder(MsgPing.class, MsgPingEncoder.class);
+		addMessageEncoder(MsgPing.class, MsgPingEncoder.class);
 		// incoming ping
-		super.addMessageDecoder(MsgPingDecoder.class);
+		addMessageDecoder(MsgPingDecoder.class);
 
 		// outgoing pong
-		super.addMessageEncoder(MsgPong.class, MsgPongEncoder.class);
+		addMessageEncoder(MsgPong.class, MsgPongEncoder.class);
 		// incoming pong
-		super.addMessageDecoder(MsgPongDecoder.class);
+		addMessageDecoder(MsgPongDecoder.class);
 
 
 		/*
@@ -183,18 +245,27 @@ public class SimonProtocolCodecFactory extends DemuxingProtocolCodecFactory {
 		 */
 
 		// outgoing error
-		super.addMessageEncoder(MsgError.class, MsgErrorEncoder.class);
+		addMessageEncoder(MsgError.class, MsgErrorEncoder.class);
 		// incoming error
-		super.addMessageDecoder(MsgErrorDecoder.class);
+		addMessageDecoder(MsgErrorDecoder.class);
 
 		/*
 		 * DGC handling
 		 */
 
 		// outgoing release ref
-		super.addMessageEncoder(MsgReleaseRef.class, MsgReleaseRefEncoder.class);
+		addMessageEncoder(MsgReleaseRef.class, MsgReleaseRefEncoder.class);
 		// incoming release ref
-		super.addMessageDecoder(MsgReleaseRefDecoder.class);
+		addMessageDecoder(MsgReleaseRefDecoder.class);
+
+		/*
+		 * result cache handling
+		 */
+
+		// outgoing cache invalidate
+		addMessageEncoder(MsgCacheInvalidate.class, MsgCacheInvalidateEncoder.class);
+		// incoming cache invalidate
+		addMessageDecoder(MsgCacheInvalidateDecoder.class);
 	}
 }
 
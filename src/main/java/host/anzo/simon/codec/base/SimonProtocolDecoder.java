@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.codec.base;
+
+import host.anzo.simon.codec.messages.SimonMessageConstants;
+import host.anzo.simon.compression.FrameCompression;
+import host.anzo.simon.utils.Utils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.CumulativeProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolDecoderException;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+
+/**
+ * Decodes SIMON frames. The header of each frame is read once, and the body
+ * is handed to the {@link AbstractMessageDecoder} registered for the message
+ * type, looked up in a table indexed by the type byte. This replaces asking
+ * each decoder in turn whether it is able to decode the frame, as MINA's
+ * demuxing decoder does.
+ * <p>
+ * All frames which are completely available in the read buffer are decoded
+ * in one pass. An instance holds the decoding state of one session.
+ */
+@Slf4j
+class SimonProtocolDecoder extends CumulativeProtocolDecoder {
+
+	/**
+	 * the bits of the type byte which hold the message type, the others are
+	 * frame flags: {@link SimonMessageConstants#FLAG_V2_FRAME} and {@link FrameCompression#FLAG_COMPRESSED}
+	 */
+	static final int MSG_TYPE_MASK = 0x3F;
+
+	private final AbstractMessageDecoder[] decoders;
+
+	/**
+	 * Creates a decoder
+	 *
+	 * @param decoders the message decoders, indexed by message type
+	 */
+	SimonProtocolDecoder(AbstractMessageDecoder[] decoders) {
+		this.decoders = decoders;
+	}
+
+	@Override
+	protected boolean doDecode(IoSession session, IoBuffer in, ProtocolDecoderOutput out) throws Exception {
+		while (in.hasRemaining()) {
+			int start = in.position();
+			byte type = in.get();
+			boolean v2Frame = (type & SimonMessageConstants.FLAG_V2_FRAME) != 0;
+
+			// Wait until the whole header is available
+			int sequence;
+			int bodysize;
+			if (v2Frame) {
+				if (varIntEnd(in, varIntEnd(in, in.position())) < 0) {
+					log.trace("v2 header not received completely. Right now we have {} bytes", in.limit() - start);
+					in.position(start);
+					return false;
+				}
+				sequence = Utils.getVarInt(in);
+				bodysize = Utils.getVarInt(in);
+			} else {
+				if (in.remaining() < SimonMessageConstants.HEADER_LEN - SimonMessageConstants.TYPE_LEN) {
+					log.trace("Header not received completely. Right now we have {} of {} bytes", in.limit() - start, SimonMessageConstants.HEADER_LEN);
+					in.position(start);
+					return false;
+				}
+				sequence = in.getInt();
+				bodysize = in.getInt();
+			}
+
+			int index = type & MSG_TYPE_MASK;
+			AbstractMessageDecoder decoder = index < decoders.length ? decoders[index] : null;
+			if (decoder == null) {
+				throw new ProtocolDecoderException("No message decoder found for message type " + Utils.longToHexString(type & 0xFF) + " with sequence " + sequence);
+			}
+			if (bodysize < 0) {
+				throw new ProtocolDecoderException("Invalid body size " + bodysize + " of message type " + Utils.longToHexString(type & 0xFF) + " with sequence " + sequence);
+			}
+
+			// Wait until the whole body is available
+			if (in.remaining() < bodysize) {
+				log.trace("Message type [{}] with sequence [{}] needs [{}] bytes. Right now we only have [{}]. Waiting for more ...", index, sequence, bodysize, in.remaining());
+				in.position(start);
+				return false;
+			}
+
+			// Decode the body within its bounds, a decoder which reads less doesn't shift the next frame
+			int limit = in.limit();
+			int end = in.position() + bodysize;
+			in.limit(end);
+			try {
+				if ((type & FrameCompression.FLAG_COMPRESSED) != 0) {
+					IoBuffer body = FrameCompression.decompress(session, in);
+					try {
+						out.write(decoder.decodeFrame(session, body, sequence, body.remaining(), v2Frame));
+					} finally {
+						body.free();
+					}
+				} else {
+					out.write(decoder.decodeFrame(session, in, sequence, bodysize, v2Frame));
+				}
+			} finally {
+				in.limit(limit);
+				in.position(end);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the position behind the varint starting at the given position
+	 *
+	 * @return the end position, or -1 if the varint is not yet received completely
+	 */
+	private static int varIntEnd(IoBuffer in, int position) {
+		if (position < 0) {
+			return -1;
+		}
+		for (int i = position; i < in.limit(); i++) {
+			if (in.get(i) >= 0) {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+}
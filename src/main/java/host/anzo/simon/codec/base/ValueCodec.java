@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.codec.base;
+
+import host.anzo.simon.Statics;
+import host.anzo.simon.codec.messages.SimonMessageConstants;
+import host.anzo.simon.serialization.JavaSerializer;
+import host.anzo.simon.serialization.SimonSerializer;
+import host.anzo.simon.utils.Utils;
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes and reads the values of remote calls. Primitive wrappers, Strings,
+ * <code>byte[]</code> and {@link ByteBuffer} are written inline with a type
+ * tag, all other values with the {@link SimonSerializer} attached to the
+ * session, falling back to {@link JavaSerializer} if there is none. Values
+ * are only written inline if the peer announced
+ * {@link SimonMessageConstants#CAPABILITY_INLINE_VALUES}, inline values are
+ * always read.
+ * <p>
+ * Inline tags have the highest bit set. Serializers never start a value with
+ * such a byte: Java serialization starts with a non-negative int length
+ * prefix, and the tags of
+ * {@link host.anzo.simon.serialization.CompactSerializer} are below 0x80.
+ */
+public final class ValueCodec {
+
+	private static final byte INLINE_NULL = (byte) 0x80;
+	private static final byte INLINE_TRUE = (byte) 0x81;
+	private static final byte INLINE_FALSE = (byte) 0x82;
+	private static final byte INLINE_BYTE = (byte) 0x83;
+	private static final byte INLINE_SHORT = (byte) 0x84;
+	private static final byte INLINE_CHAR = (byte) 0x85;
+	private static final byte INLINE_INT = (byte) 0x86;
+	private static final byte INLINE_LONG = (byte) 0x87;
+	private static final byte INLINE_FLOAT = (byte) 0x88;
+	private static final byte INLINE_DOUBLE = (byte) 0x89;
+	private static final byte INLINE_ASCII_STRING = (byte) 0x8A;
+	private static final byte INLINE_UTF8_STRING = (byte) 0x8B;
+	private static final byte INLINE_BYTE_ARRAY = (byte) 0x8C;
+	private static final byte INLINE_BYTE_BUFFER = (byte) 0x8D;
+
+	private ValueCodec() {
+	}
+
+	/**
+	 * Returns the serializer used for the given session
+	 *
+	 * @param session the session
+	 * @return the serializer, never null
+	 */
+	static SimonSerializer getSerializer(IoSession session) {
+		SimonSerializer serializer = (SimonSerializer) session.getAttribute(Statics.SESSION_ATTRIBUTE_SERIALIZER);
+		return serializer != null ? serializer : JavaSerializer.INSTANCE;
+	}
+
+	/**
+	 * Returns whether the given value can be transferred as argument or
+	 * result of a remote call on the given session
+	 *
+	 * @param session the session
+	 * @param value   the value
+	 * @return true, if the value is written inline or the session's serializer can write it
+	 */
+	public static boolean isTransferable(IoSession session, Object value) {
+		if (value instanceof ByteBuffer) {
+			return isWritingInline(session);
+		}
+		return getSerializer(session).canWrite(value);
+	}
+
+	/**
+	 * Returns whether values are written inline on the given session
+	 *
+	 * @param session the session
+	 * @return true, if the peer announced {@link SimonMessageConstants#CAPABILITY_INLINE_VALUES}
+	 */
+	private static boolean isWritingInline(IoSession session) {
+		return ProtocolCapabilities.has(session, SimonMessageConstants.CAPABILITY_INLINE_VALUES);
+	}
+
+	/**
+	 * Writes a value
+	 *
+	 * @throws BufferDataException if the value cannot be written
+	 */
+	static void writeValue(IoSession session, IoBuffer out, Object value) {
+		if (isWritingInline(session) && writeInline(out, value)) {
+			return;
+		}
+		try {
+			getSerializer(session).writeObject(out, value);
+		} catch (IOException e) {
+			throw new BufferDataException(e);
+		}
+	}
+
+	/**
+	 * Reads a value
+	 *
+	 * @param classLoader the classloader to resolve classes with, null for the context classloader
+	 * @throws ClassNotFoundException if a class of the value cannot be found
+	 * @throws BufferDataException    if the data cannot be read
+	 */
+	static Object readValue(IoSession session, IoBuffer in, ClassLoader classLoader) throws ClassNotFoundException {
+		if (in.get(in.position()) < 0) {
+			return readInline(in);
+		}
+		try {
+			return getSerializer(session).readObject(in, classLoader);
+		} catch (IOException e) {
+			throw new BufferDataException(e);
+		}
+	}
+
+	private static boolean writeInline(IoBuffer out, Object value) {
+		if (value == null) {
+			out.put(INLINE_NULL);
+			return true;
+		}
+		Class<?> type = value.getClass();
+		if (type == Integer.class) {
+			out.put(INLINE_INT);
+			Utils.putVarLong(out, Utils.zigZag((Integer) value));
+		} else if (type == Long.class) {
+			out.put(INLINE_LONG);
+			Utils.putVarLong(out, Utils.zigZag((Long) value));
+		} else if (type == String.class) {
+			writeString(out, (String) value);
+		} else if (type == Boolean.class) {
+			out.put((Boolean) value ? INLINE_TRUE : INLINE_FALSE);
+		} else if (type == Double.class) {
+			out.put(INLINE_DOUBLE);
+			out.putDouble((Double) value);
+		} else if (type == Float.class) {
+			out.put(INLINE_FLOAT);
+			out.putFloat((Float) value);
+		} else if (type == byte[].class) {
+			byte[] bytes = (byte[]) value;
+			out.put(INLINE_BYTE_ARRAY);
+			Utils.putVarInt(out, bytes.length);
+			out.put(bytes);
+		} else if (type == Byte.class) {
+			out.put(INLINE_BYTE);
+			out.put((Byte) value);
+		} else if (type == Short.class) {
+			out.put(INLINE_SHORT);
+			out.putShort((Short) value);
+		} else if (type == Character.class) {
+			out.put(INLINE_CHAR);
+			out.putChar((Character) value);
+		} else if (value instanceof ByteBuffer byteBuffer) {
+			// the remaining bytes are written, the buffer's position is left untouched
+			int position = byteBuffer.position();
+			out.put(INLINE_BYTE_BUFFER);
+			Utils.putVarInt(out, byteBuffer.remaining());
+			out.put(byteBuffer);
+			byteBuffer.position(position);
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	private static void writeString(IoBuffer out, String s) {
+		int length = s.length();
+		boolean ascii = true;
+		for (int i = 0; i < length; i++) {
+			if (s.charAt(i) >= 0x80) {
+				ascii = false;
+				break;
+			}
+		}
+		if (ascii) {
+			// one byte per char, no encoder and no intermediate array involved
+			out.put(INLINE_ASCII_STRING);
+			Utils.putVarInt(out, length);
+			out.expand(length);
+			for (int i = 0; i < length; i++) {
+				out.put((byte) s.charAt(i));
+			}
+		} else {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			out.put(INLINE_UTF8_STRING);
+			Utils.putVarInt(out, bytes.length);
+			out.put(bytes);
+		}
+	}
+
+	private static Object readInline(IoBuffer in) {
+		byte tag = in.get();
+		switch (tag) {
+			case INLINE_NULL:
+				return null;
+			case INLINE_TRUE:
+				return Boolean.TRUE;
+			case INLINE_FALSE:
+				return Boolean.FALSE;
+			case INLINE_BYTE:
+				return in.get();
+			case INLINE_SHORT:
+				return in.getShort();
+			case INLINE_CHAR:
+				return in.getChar();
+			case INLINE_INT:
+				return (int) Utils.unZigZag(Utils.getVarLong(in));
+			case INLINE_LONG:
+				return Utils.unZigZag(Utils.getVarLong(in));
+			case INLINE_FLOAT:
+				return in.getFloat();
+			case INLINE_DOUBLE:
+				return in.getDouble();
+			case INLINE_ASCII_STRING:
+				return readString(in, StandardCharsets.ISO_8859_1);
+			case INLINE_UTF8_STRING:
+				return readString(in, StandardCharsets.UTF_8);
+			case INLINE_BYTE_ARRAY: {
+				byte[] bytes = new byte[readLength(in)];
+				in.get(bytes);
+				return bytes;
+			}
+			case INLINE_BYTE_BUFFER: {
+				byte[] bytes = new byte[readLength(in)];
+				in.get(bytes);
+				return ByteBuffer.wrap(bytes);
+			}
+			default:
+				throw new BufferDataException("unknown inline value tag " + tag);
+		}
+	}
+
+	private static String readString(IoBuffer in, Charset charset) {
+		int length = readLength(in);
+		if (in.hasArray()) {
+			// decode straight from the backing array; ISO-8859-1 is a plain copy for ASCII data
+			String s = new String(in.array(), in.arrayOffset() + in.position(), length, charset);
+			in.skip(length);
+			return s;
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, charset);
+	}
+
+	private static int readLength(IoBuffer in) {
+		int length = Utils.getVarInt(in);
+		if (length < 0 || length > in.remaining()) {
+			throw new BufferDataException("invalid length " + length + ", remaining " + in.remaining());
+		}
+		return length;
+	}
+}
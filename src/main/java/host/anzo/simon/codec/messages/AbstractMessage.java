@@ -105,4 +105,15 @@ public abstract class AbstractMessage implements Serializable {
 	public void setSequence(int sequence) {
 		this.sequence = sequence;
 	}
+
+	/**
+	 * Returns the remote interface this message belongs to. Selects the
+	 * preset dictionary the message is compressed with, see
+	 * {@link host.anzo.simon.compression.FrameCompression#setDictionary(Class, byte[])}.
+	 *
+	 * @return the interface, or null if the message belongs to none
+	 */
+	public Class<?> getRemoteInterface() {
+		return null;
+	}
 }
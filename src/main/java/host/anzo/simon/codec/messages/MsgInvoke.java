@@ -32,6 +32,14 @@ public class MsgInvoke extends AbstractMessage {
 	private String remoteObjectName;
 	private Method method;
 	private Object[] args;
+	/**
+	 * the object id of the remote object assigned by the remote side, -1 if unknown
+	 */
+	private int objectId = -1;
+	/**
+	 * the index of the method in the remote object's method table, -1 if unknown
+	 */
+	private int methodIndex = -1;
 
 	public MsgInvoke() {
 		super(SimonMessageConstants.MSG_INVOKE);
@@ -63,7 +71,28 @@ public class MsgInvoke extends AbstractMessage {
 		return method;
 	}
 
+	@Override
+	public Class<?> getRemoteInterface() {
+		return method != null ? method.getDeclaringClass() : null;
+	}
+
 	public Object[] getArguments() {
 		return args;
 	}
+
+	public int getObjectId() {
+		return objectId;
+	}
+
+	public void setObjectId(int objectId) {
+		this.objectId = objectId;
+	}
+
+	public int getMethodIndex() {
+		return methodIndex;
+	}
+
+	public void setMethodIndex(int methodIndex) {
+		this.methodIndex = methodIndex;
+	}
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.codec.messages;
+
+import java.lang.reflect.Method;
+
+/**
+ * <code>INVOKE BATCH</code> message: several invocations of methods of the
+ * same remote object, answered by one {@link MsgInvokeBatchReturn}
+ */
+public class MsgInvokeBatch extends AbstractMessage {
+
+	private static final long serialVersionUID = 1L;
+
+	private String remoteObjectName;
+	/**
+	 * the invoked methods. On the receiving side, a method which could not be resolved is null.
+	 */
+	private Method[] methods;
+	private Object[][] args;
+	/**
+	 * true, if the invocations may run in parallel
+	 */
+	private boolean parallel;
+
+	public MsgInvokeBatch() {
+		super(SimonMessageConstants.MSG_INVOKE_BATCH);
+	}
+
+	public String getRemoteObjectName() {
+		return remoteObjectName;
+	}
+
+	public void setRemoteObjectName(String remoteObjectName) {
+		this.remoteObjectName = remoteObjectName;
+	}
+
+	public Method[] getMethods() {
+		return methods;
+	}
+
+	public void setMethods(Method[] methods) {
+		this.methods = methods;
+	}
+
+	public Object[][] getArguments() {
+		return args;
+	}
+
+	public void setArguments(Object[][] args) {
+		this.args = args;
+	}
+
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	@Override
+	public Class<?> getRemoteInterface() {
+		return methods != null && methods.length > 0 && methods[0] != null ? methods[0].getDeclaringClass() : null;
+	}
+
+	/**
+	 * @return the number of invocations in this batch
+	 */
+	public int getCallCount() {
+		return methods == null ? 0 : methods.length;
+	}
+
+	@Override
+	public String toString() {
+		// it is a good practice to create toString() method on message classes.
+		return getSequence() + ":MsgInvokeBatch(ron=" + remoteObjectName + "|calls=" + getCallCount() + "|parallel=" + parallel + ")";
+	}
+}
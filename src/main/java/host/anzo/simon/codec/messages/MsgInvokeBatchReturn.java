@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.codec.messages;
+
+import java.util.Arrays;
+
+/**
+ * <code>INVOKE BATCH RETURN</code> message: the results of the invocations
+ * of a {@link MsgInvokeBatch}, in the order of the invocations. A call which
+ * threw an exception has the exception as its result.
+ */
+public class MsgInvokeBatchReturn extends AbstractMessage {
+
+	private static final long serialVersionUID = 1L;
+
+	private Object[] returnValues;
+	/**
+	 * the interface of the invoked method, not transferred
+	 */
+	private transient Class<?> remoteInterface;
+
+	public MsgInvokeBatchReturn() {
+		super(SimonMessageConstants.MSG_INVOKE_BATCH_RETURN);
+	}
+
+	public Object[] getReturnValues() {
+		return returnValues;
+	}
+
+	public void setReturnValues(Object[] returnValues) {
+		this.returnValues = returnValues;
+	}
+
+	@Override
+	public Class<?> getRemoteInterface() {
+		return remoteInterface;
+	}
+
+	public void setRemoteInterface(Class<?> remoteInterface) {
+		this.remoteInterface = remoteInterface;
+	}
+
+	@Override
+	public String toString() {
+		// it is a good practice to create toString() method on message classes.
+		return getSequence() + ":MsgInvokeBatchReturn(" + Arrays.toString(returnValues) + ')';
+	}
+}
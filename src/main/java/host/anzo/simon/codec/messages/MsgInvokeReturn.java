@@ -29,6 +29,10 @@ public class MsgInvokeReturn extends AbstractMessage {
 	private static final long serialVersionUID = 1L;
 
 	private Object returnValue;
+	/**
+	 * the interface of the invoked method, not transferred
+	 */
+	private transient Class<?> remoteInterface;
 
 	public MsgInvokeReturn() {
 		super(SimonMessageConstants.MSG_INVOKE_RETURN);
@@ -42,6 +46,15 @@ public class MsgInvokeReturn extends AbstractMessage {
 		this.returnValue = returnValue;
 	}
 
+	@Override
+	public Class<?> getRemoteInterface() {
+		return remoteInterface;
+	}
+
+	public void setRemoteInterface(Class<?> remoteInterface) {
+		this.remoteInterface = remoteInterface;
+	}
+
 	@Override
 	public String toString() {
 		// it is a good practice to create toString() method on message classes.
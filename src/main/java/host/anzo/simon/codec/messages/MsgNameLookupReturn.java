@@ -31,6 +31,14 @@ public class MsgNameLookupReturn extends AbstractMessage {
 	private static final long serialVersionUID = 1L;
 	private String[] interfaces;
 	private String errorMsg = Statics.NO_ERROR;
+	/**
+	 * the object id assigned by the server, -1 if none
+	 */
+	private int objectId = -1;
+	/**
+	 * the sorted method hashes of the remote object, only set together with the object id
+	 */
+	private long[] methodHashes;
 
 	public MsgNameLookupReturn() {
 		super(SimonMessageConstants.MSG_NAME_LOOKUP_RETURN);
@@ -64,6 +72,22 @@ public class MsgNameLookupReturn extends AbstractMessage {
 		this.interfaces = interfaces;
 	}
 
+	public int getObjectId() {
+		return objectId;
+	}
+
+	public void setObjectId(int objectId) {
+		this.objectId = objectId;
+	}
+
+	public long[] getMethodHashes() {
+		return methodHashes;
+	}
+
+	public void setMethodHashes(long[] methodHashes) {
+		this.methodHashes = methodHashes;
+	}
+
 	@Override
 	public String toString() {
 		return getSequence() + ":MsgNameLookupReturn(interface=" + interfaces + "|errorMsg=" + errorMsg + ")";
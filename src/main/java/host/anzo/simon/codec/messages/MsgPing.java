@@ -27,13 +27,36 @@ public class MsgPing extends AbstractMessage {
 
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * the capabilities of the sender if this is a handshake ping, otherwise
+	 * {@link SimonMessageConstants#PING_NO_HANDSHAKE}
+	 */
+	private byte capabilities = SimonMessageConstants.PING_NO_HANDSHAKE;
+
 	public MsgPing() {
 		super(SimonMessageConstants.MSG_PING);
 	}
 
+	public byte getCapabilities() {
+		return capabilities;
+	}
+
+	public void setCapabilities(byte capabilities) {
+		this.capabilities = capabilities;
+	}
+
+	/**
+	 * Returns whether this ping is part of the protocol handshake
+	 *
+	 * @return true, if the body carries capabilities
+	 */
+	public boolean isHandshake() {
+		return capabilities != SimonMessageConstants.PING_NO_HANDSHAKE;
+	}
+
 	@Override
 	public String toString() {
 		// it is a good practice to create toString() method on message classes.
-		return getSequence() + ":MsgPing()";
+		return getSequence() + ":MsgPing(capabilities=" + capabilities + ")";
 	}
 }
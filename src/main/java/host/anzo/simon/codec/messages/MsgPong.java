@@ -27,13 +27,36 @@ public class MsgPong extends AbstractMessage {
 
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * the capabilities of the sender if this is a handshake pong, otherwise
+	 * {@link SimonMessageConstants#PING_NO_HANDSHAKE}
+	 */
+	private byte capabilities = SimonMessageConstants.PING_NO_HANDSHAKE;
+
 	public MsgPong() {
 		super(SimonMessageConstants.MSG_PONG);
 	}
 
+	public byte getCapabilities() {
+		return capabilities;
+	}
+
+	public void setCapabilities(byte capabilities) {
+		this.capabilities = capabilities;
+	}
+
+	/**
+	 * Returns whether this pong is part of the protocol handshake
+	 *
+	 * @return true, if the body carries capabilities
+	 */
+	public boolean isHandshake() {
+		return capabilities != SimonMessageConstants.PING_NO_HANDSHAKE;
+	}
+
 	@Override
 	public String toString() {
 		// it is a good practice to create toString() method on message classes.
-		return getSequence() + ":MsgPong()";
+		return getSequence() + ":MsgPong(capabilities=" + capabilities + ")";
 	}
 }
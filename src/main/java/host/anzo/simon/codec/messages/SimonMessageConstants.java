@@ -30,6 +30,52 @@ public final class SimonMessageConstants {
 	public static final int BODYSIZE_LEN = 4; // int
 	public static final int HEADER_LEN = TYPE_LEN + SEQUENCE_LEN + BODYSIZE_LEN; // = 9
 
+	/**
+	 * Set in the type byte of a v2 frame. A v2 frame header has a variable
+	 * length int sequence and body size instead of fixed 4 byte ints. Frames
+	 * of both versions can be decoded at any time, v2 frames are only sent to
+	 * peers which announced {@link #CAPABILITY_V2_FRAMES}.
+	 */
+	public static final byte FLAG_V2_FRAME = 0x40;
+	/**
+	 * the maximum length of a v2 frame header: type byte and two 5 byte varints
+	 */
+	public static final int V2_MAX_HEADER_LEN = TYPE_LEN + 5 + 5;
+
+	// ---------------------
+	// capabilities, exchanged in the body byte of the handshake ping and pong
+
+	/**
+	 * body byte of keep alive pings and pongs, and of pongs of peers without
+	 * handshake support
+	 */
+	public static final byte PING_NO_HANDSHAKE = (byte) 0xff;
+	/**
+	 * the peer decodes v2 frames, including object ids and method indices in invokes
+	 */
+	public static final byte CAPABILITY_V2_FRAMES = 0x01;
+	/**
+	 * the peer decodes inline tagged primitive, String and byte[] values
+	 */
+	public static final byte CAPABILITY_INLINE_VALUES = 0x02;
+	/**
+	 * the peer processes {@link #MSG_INVOKE_BATCH}
+	 */
+	public static final byte CAPABILITY_INVOKE_BATCH = 0x04;
+	/**
+	 * the peer decodes frames with compressed body, see {@link host.anzo.simon.compression.FrameCompression}
+	 */
+	public static final byte CAPABILITY_COMPRESSED_FRAMES = 0x08;
+	/**
+	 * the peer processes {@link #MSG_CACHE_INVALIDATE}
+	 */
+	public static final byte CAPABILITY_CACHE_INVALIDATE = 0x10;
+	/**
+	 * the peer processes the {@link #MSG_RAW_CHANNEL_DATA} of a raw channel in
+	 * the order they were received, so that several of them may be in flight
+	 */
+	public static final byte CAPABILITY_RAW_CHANNEL_WINDOW = 0x20;
+
 	// ---------------------
 
 	public static final byte MSG_NAME_LOOKUP = 0x00;
@@ -66,6 +112,11 @@ public final class SimonMessageConstants {
 
 	public static final byte MSG_RELEASE_REF = 0x15;
 
+	public static final byte MSG_INVOKE_BATCH = 0x16;
+	public static final byte MSG_INVOKE_BATCH_RETURN = 0x17;
+
+	public static final byte MSG_CACHE_INVALIDATE = 0x18;
+
 	private SimonMessageConstants() {
 	}
 }
@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.compression;
+
+import host.anzo.simon.utils.Utils;
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the bodies of large frames with {@link Deflater}. Set on a
+ * {@link host.anzo.simon.Registry} or {@link host.anzo.simon.Lookup}, it
+ * compresses the frames sent on their sessions, provided the peer announced
+ * that it decodes compressed frames. Each side decides for its own frames, so
+ * a server may compress its large return values even if its clients don't
+ * compress their requests.
+ * <p>
+ * Bodies of at least the threshold size are compressed. A body which doesn't
+ * shrink by at least 1/16 is sent uncompressed, so data which doesn't
+ * compress costs the attempt but not the inflating on the receiving side.
+ * <p>
+ * Small messages with repetitive content, like the serialized classes of
+ * the same return types, shrink much better with a preset dictionary, see
+ * {@link #setDictionary(Class, byte[])}. Both sides have to set the same
+ * dictionaries.
+ * <p>
+ * A compressed frame has the {@link #FLAG_COMPRESSED} bit set in its type
+ * byte. Its body is the varint size of the original body followed by a zlib
+ * stream, whose header names the preset dictionary by its Adler-32 checksum.
+ */
+public class FrameCompression implements FrameCompressionMBean {
+
+	/**
+	 * Set in the type byte of a frame whose body is compressed
+	 */
+	public static final byte FLAG_COMPRESSED = (byte) 0x80;
+
+	public static final int DEFAULT_THRESHOLD = 1024;
+	public static final int DEFAULT_LEVEL = Deflater.BEST_SPEED;
+
+	/**
+	 * the largest ratio of original to compressed size deflate achieves.
+	 * Bounds the buffer allocated for the announced original size.
+	 */
+	private static final int MAX_DEFLATE_RATIO = 1032;
+
+	/**
+	 * the default of {@link #setMaxDecompressedSize(int)}
+	 */
+	public static final int DEFAULT_MAX_DECOMPRESSED_SIZE = 64 * 1024 * 1024;
+	private static volatile int maxDecompressedSize = DEFAULT_MAX_DECOMPRESSED_SIZE;
+
+	/**
+	 * remote interface -> preset dictionary
+	 */
+	private static final Map<Class<?>, byte[]> dictionaries = new ConcurrentHashMap<>();
+	/**
+	 * Adler-32 checksum of a preset dictionary -> preset dictionary
+	 */
+	private static final Map<Integer, byte[]> dictionariesById = new ConcurrentHashMap<>();
+
+	/**
+	 * idle inflaters, zlib streams are too large to keep one per thread
+	 */
+	private static final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+
+	private final int threshold;
+	private final int level;
+	/**
+	 * idle deflaters of this compression's level
+	 */
+	private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+
+	private final LongAdder compressedFrames = new LongAdder();
+	private final LongAdder skippedFrames = new LongAdder();
+	private final LongAdder originalBytes = new LongAdder();
+	private final LongAdder sentBytes = new LongAdder();
+	private final LongAdder compressNanos = new LongAdder();
+	private final LongAdder decompressedFrames = new LongAdder();
+	private final LongAdder decompressNanos = new LongAdder();
+
+	/**
+	 * Creates a compression with the default threshold and level
+	 */
+	public FrameCompression() {
+		this(DEFAULT_THRESHOLD, DEFAULT_LEVEL);
+	}
+
+	/**
+	 * Creates a compression
+	 *
+	 * @param threshold the body size in bytes from which on a frame is compressed
+	 * @param level     the deflate level, 1 (fastest) to 9 (best compression)
+	 */
+	public FrameCompression(int threshold, int level) {
+		if (threshold < 1) {
+			throw new IllegalArgumentException("threshold must be greater than 0: " + threshold);
+		}
+		if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("level must be in range 1..9: " + level);
+		}
+		this.threshold = threshold;
+		this.level = level;
+
+		Utils.registerMBean(this, "host.anzo.simon:type=" + MBEAN_TYPE + ",instance=" + MBEAN_TYPE + "@" + hashCode());
+	}
+
+	/**
+	 * Sets the preset dictionary for the messages of a remote interface:
+	 * invokes of its methods and their returns. A good dictionary contains
+	 * byte sequences which are common in these messages, f.i. the bodies of
+	 * typical messages concatenated, the most common at the end. Has to be set
+	 * with the same content on both sides before the first message of the
+	 * interface is sent.
+	 *
+	 * @param remoteInterface the interface which declares the invoked methods
+	 * @param dictionary      the dictionary, null to remove it
+	 */
+	public static synchronized void setDictionary(Class<?> remoteInterface, byte[] dictionary) {
+		byte[] previous;
+		if (dictionary == null) {
+			previous = dictionaries.remove(remoteInterface);
+		} else {
+			byte[] copy = dictionary.clone();
+			dictionariesById.put(getDictionaryId(copy), copy);
+			previous = dictionaries.put(remoteInterface, copy);
+		}
+		if (previous != null) {
+			// the checksum of the replaced dictionary is kept while another interface uses the same content
+			int previousId = getDictionaryId(previous);
+			if (dictionaries.values().stream().noneMatch(d -> getDictionaryId(d) == previousId)) {
+				dictionariesById.remove(previousId);
+			}
+		}
+	}
+
+	private static int getDictionaryId(byte[] dictionary) {
+		Adler32 adler = new Adler32();
+		adler.update(dictionary);
+		return (int) adler.getValue();
+	}
+
+	/**
+	 * Sets the largest original size of a compressed frame body which is
+	 * accepted. A frame announcing a larger size is rejected before memory is
+	 * allocated for it, so a peer cannot exhaust the memory with a small frame.
+	 *
+	 * @param maxDecompressedSize the size in bytes, {@link #DEFAULT_MAX_DECOMPRESSED_SIZE} by default
+	 */
+	public static void setMaxDecompressedSize(int maxDecompressedSize) {
+		if (maxDecompressedSize < 1 || maxDecompressedSize == Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("maxDecompressedSize must be in range 1.." + (Integer.MAX_VALUE - 1) + ": " + maxDecompressedSize);
+		}
+		FrameCompression.maxDecompressedSize = maxDecompressedSize;
+	}
+
+	/**
+	 * @return the largest original size of a compressed frame body which is accepted
+	 */
+	public static int getMaxDecompressedSize() {
+		return maxDecompressedSize;
+	}
+
+	/**
+	 * Returns the compression used for the frames sent on the given session
+	 *
+	 * @param session the session
+	 * @return the compression, null if the frames are not compressed
+	 */
+	public static FrameCompression get(IoSession session) {
+		return (FrameCompression) session.getAttribute(FrameCompression.class.getName());
+	}
+
+	/**
+	 * Sets the compression used for the frames sent on the given session
+	 *
+	 * @param session     the session
+	 * @param compression the compression, null if the frames are not compressed
+	 */
+	public static void set(IoSession session, FrameCompression compression) {
+		if (compression == null) {
+			session.removeAttribute(FrameCompression.class.getName());
+		} else {
+			session.setAttribute(FrameCompression.class.getName(), compression);
+		}
+	}
+
+	/**
+	 * Compresses a frame body. For internal use by the encoder.
+	 *
+	 * @param body            the buffer holding the body
+	 * @param start           the position of the body in the buffer
+	 * @param length          the size of the body
+	 * @param headerLen       the space to reserve in front of the compressed body
+	 * @param remoteInterface the interface the message belongs to, selects the preset dictionary, may be null
+	 * @return a buffer holding the compressed body behind the reserved space, with its position at the
+	 * end of the compressed body, or null if the body is below the threshold, above the maximum
+	 * decompressed size or doesn't compress
+	 */
+	public IoBuffer compress(IoBuffer body, int start, int length, int headerLen, Class<?> remoteInterface) {
+		// a body above the maximum is sent uncompressed, as a peer with the same maximum would reject it
+		if (length < threshold || length > maxDecompressedSize) {
+			return null;
+		}
+		long begin = System.nanoTime();
+
+		ByteBuffer in = body.buf().duplicate();
+		in.limit(start + length).position(start);
+
+		// a result which doesn't fit in 15/16 of the original size is dropped
+		int maxLength = length - (length >> 4);
+		IoBuffer out = IoBuffer.allocate(headerLen + maxLength);
+		out.position(headerLen);
+		Utils.putVarInt(out, length);
+		ByteBuffer deflated = out.buf();
+
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			deflater = new Deflater(level);
+		}
+		boolean compressed;
+		try {
+			byte[] dictionary = remoteInterface != null ? dictionaries.get(remoteInterface) : null;
+			if (dictionary != null) {
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(in);
+			deflater.finish();
+			while (!deflater.finished() && deflated.hasRemaining()) {
+				deflater.deflate(deflated);
+			}
+			compressed = deflater.finished();
+		} finally {
+			deflater.reset();
+			deflaters.offer(deflater);
+		}
+
+		compressNanos.add(System.nanoTime() - begin);
+		if (!compressed) {
+			out.free();
+			skippedFrames.increment();
+			originalBytes.add(length);
+			sentBytes.add(length);
+			return null;
+		}
+		out.position(deflated.position());
+		compressedFrames.increment();
+		originalBytes.add(length);
+		sentBytes.add(out.position() - headerLen);
+		return out;
+	}
+
+	/**
+	 * Restores a compressed frame body. For internal use by the decoder.
+	 *
+	 * @param session the session the frame has been received on
+	 * @param in      the buffer holding the compressed body from its position to its limit
+	 * @return a buffer holding the original body from position 0 to its limit
+	 * @throws BufferDataException if the body is corrupt, larger than {@link #getMaxDecompressedSize()} or compressed with an unknown preset dictionary
+	 */
+	public static IoBuffer decompress(IoSession session, IoBuffer in) {
+		long begin = System.nanoTime();
+		int compressedLength = in.remaining();
+		int length = Utils.getVarInt(in);
+		if (length < 0 || length > (long) compressedLength * MAX_DEFLATE_RATIO) {
+			throw new BufferDataException("invalid original size " + length + " of compressed body with " + compressedLength + " bytes");
+		}
+		if (length > maxDecompressedSize) {
+			throw new BufferDataException("original size " + length + " of compressed body exceeds the maximum of " + maxDecompressedSize + " bytes");
+		}
+
+		// one spare byte, so that the inflater never runs out of space before the end of the stream
+		IoBuffer out = IoBuffer.allocate(length + 1);
+		ByteBuffer inflated = out.buf();
+		Inflater inflater = inflaters.poll();
+		if (inflater == null) {
+			inflater = new Inflater();
+		}
+		try {
+			inflater.setInput(in.buf());
+			while (!inflater.finished()) {
+				if (inflater.needsDictionary()) {
+					byte[] dictionary = dictionariesById.get(inflater.getAdler());
+					if (dictionary == null) {
+						throw new BufferDataException("compressed body needs unknown preset dictionary " + Integer.toHexString(inflater.getAdler()));
+					}
+					inflater.setDictionary(dictionary);
+				} else if (inflater.inflate(inflated) == 0 && (inflater.needsInput() || !inflated.hasRemaining())) {
+					throw new BufferDataException("compressed body is truncated or larger than its original size " + length);
+				}
+			}
+			if (inflated.position() != length) {
+				throw new BufferDataException("compressed body doesn't match its original size " + length);
+			}
+		} catch (DataFormatException | BufferDataException e) {
+			out.free();
+			throw e instanceof BufferDataException bde ? bde : new BufferDataException("corrupt compressed body: " + e.getMessage());
+		} finally {
+			inflater.reset();
+			inflaters.offer(inflater);
+		}
+		out.position(0);
+		out.limit(length);
+
+		FrameCompression compression = get(session);
+		if (compression != null) {
+			compression.decompressedFrames.increment();
+			compression.decompressNanos.add(System.nanoTime() - begin);
+		}
+		return out;
+	}
+
+	@Override
+	public int getThreshold() {
+		return threshold;
+	}
+
+	@Override
+	public int getLevel() {
+		return level;
+	}
+
+	@Override
+	public long getCompressedFrameCount() {
+		return compressedFrames.sum();
+	}
+
+	@Override
+	public long getSkippedFrameCount() {
+		return skippedFrames.sum();
+	}
+
+	@Override
+	public long getOriginalBytes() {
+		return originalBytes.sum();
+	}
+
+	@Override
+	public long getSentBytes() {
+		return sentBytes.sum();
+	}
+
+	@Override
+	public double getCompressionRatio() {
+		long original = originalBytes.sum();
+		return original == 0 ? 1.0 : (double) sentBytes.sum() / original;
+	}
+
+	@Override
+	public long getCompressTimeNanos() {
+		return compressNanos.sum();
+	}
+
+	@Override
+	public long getDecompressedFrameCount() {
+		return decompressedFrames.sum();
+	}
+
+	@Override
+	public long getDecompressTimeNanos() {
+		return decompressNanos.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "FrameCompression{threshold=" + threshold + ", level=" + level + ", compressedFrames=" + getCompressedFrameCount()
+				+ ", skippedFrames=" + getSkippedFrameCount() + ", ratio=" + getCompressionRatio() + "}";
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.compression;
+
+/**
+ * JMX Interface for {@link FrameCompression}
+ */
+public interface FrameCompressionMBean {
+	String MBEAN_TYPE = "FrameCompression";
+
+	/**
+	 * @return the body size in bytes from which on a frame is compressed
+	 */
+	int getThreshold();
+
+	/**
+	 * @return the deflate level
+	 */
+	int getLevel();
+
+	/**
+	 * @return the number of frames sent compressed
+	 */
+	long getCompressedFrameCount();
+
+	/**
+	 * @return the number of frames above the threshold which were sent uncompressed because they didn't compress
+	 */
+	long getSkippedFrameCount();
+
+	/**
+	 * @return the body bytes of all frames above the threshold, before compression
+	 */
+	long getOriginalBytes();
+
+	/**
+	 * @return the body bytes sent for all frames above the threshold
+	 */
+	long getSentBytes();
+
+	/**
+	 * Sent bytes divided by original bytes of all frames above the threshold,
+	 * 0.25 means the bodies shrank to a quarter
+	 *
+	 * @return the achieved compression ratio, 1.0 if nothing has been compressed yet
+	 */
+	double getCompressionRatio();
+
+	/**
+	 * Time the sending threads spent compressing, including attempts on data
+	 * which didn't compress. Compressing doesn't block, so this is CPU time.
+	 *
+	 * @return the time in nanoseconds
+	 */
+	long getCompressTimeNanos();
+
+	/**
+	 * @return the number of compressed frames received
+	 */
+	long getDecompressedFrameCount();
+
+	/**
+	 * @return the time in nanoseconds spent restoring received compressed frames
+	 */
+	long getDecompressTimeNanos();
+}
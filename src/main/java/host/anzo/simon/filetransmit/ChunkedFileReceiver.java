@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.filetransmit;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A receiver of chunked transfers, see
+ * {@link DefaultFileSender#sendFileChunked(java.io.File, boolean, int)}. The
+ * chunks are sent over one or more raw channels in parallel, and the
+ * receiver verifies and records each chunk, so an interrupted transfer can
+ * be resumed.
+ */
+public interface ChunkedFileReceiver {
+
+	/**
+	 * The length of the header in front of each chunk: index, length and CRC32C
+	 */
+	int CHUNK_HEADER_LENGTH = 12;
+
+	/**
+	 * Starts or resumes a chunked transfer, whose chunks are sent over one or
+	 * more raw channels, see {@link #requestChunkChannelToken(int)}. An
+	 * interrupted transfer of the same file with the same length and chunk
+	 * size is resumed: the chunks verified before don't need to be sent again
+	 * if their checksums still match, see {@link #getVerifiedChunks(int)}.
+	 *
+	 * @param name              the name of the file
+	 * @param length            the length of the file
+	 * @param chunkSize         the size of the chunks, the last chunk may be smaller
+	 * @param overwriteExisting overwrite an existing file?
+	 * @return the id of the transfer
+	 * @throws IOException if the file exists or can not be written
+	 */
+	int openChunkedTransfer(String name, long length, int chunkSize, boolean overwriteExisting) throws IOException;
+
+	/**
+	 * Returns the chunks which have been received and verified, with the
+	 * CRC32C they were verified with. A chunk whose checksum differs from
+	 * the one of the file being sent holds data of another version of the
+	 * file, and has to be sent again.
+	 *
+	 * @param transferId the id of the transfer
+	 * @return the indices of the verified chunks mapped to their CRC32C
+	 * @throws IOException if the transfer is unknown
+	 */
+	Map<Integer, Integer> getVerifiedChunks(int transferId) throws IOException;
+
+	/**
+	 * Prepares a raw channel for chunks of a transfer. Each chunk is sent
+	 * as a header of {@link #CHUNK_HEADER_LENGTH} bytes, holding the index,
+	 * the length and the CRC32C of the chunk as ints, followed by the data
+	 * of the chunk.
+	 *
+	 * @param transferId the id of the transfer
+	 * @return the token of the raw channel
+	 * @throws IOException if the transfer is unknown
+	 */
+	int requestChunkChannelToken(int transferId) throws IOException;
+
+	/**
+	 * Completes a transfer whose chunks all have been verified
+	 *
+	 * @param transferId the id of the transfer
+	 * @return true, if the file is complete, false if chunks are missing
+	 * @throws IOException if the transfer is unknown or the file can not be completed
+	 */
+	boolean completeChunkedTransfer(int transferId) throws IOException;
+}
@@ -20,17 +20,31 @@ package host.anzo.simon.filetransmit;
 
 import host.anzo.simon.RawChannelDataListener;
 import host.anzo.simon.Simon;
+import host.anzo.simon.exceptions.RawChannelException;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
 
 /**
  * A default implementation to receive files from
@@ -42,22 +56,51 @@ import java.util.List;
  * @since 1.2.0
  */
 @Slf4j
-@host.anzo.simon.annotation.SimonRemote(value = {FileReceiver.class})
-public class DefaultFileReceiver implements FileReceiver {
+@host.anzo.simon.annotation.SimonRemote(value = {FileReceiver.class, ChunkedFileReceiver.class})
+public class DefaultFileReceiver implements FileReceiver, ChunkedFileReceiver {
 	/**
 	 * The logger used for this class
 	 */
 	public List<FileReceiverProgressListener> listeners = Collections.synchronizedList(new ArrayList<>());
 	private File downloadFolder;
 
+	private static final int MANIFEST_MAGIC = 0x53434D32; // "SCM2"
+	private static final int MANIFEST_HEADER_LENGTH = 16;
+
+	/**
+	 * the chunked transfers in progress, guarded by itself
+	 */
+	private final Map<Integer, ChunkedTransfer> transfers = new HashMap<>();
+	private final AtomicInteger transferIds = new AtomicInteger();
+
+	/**
+	 * The default number of received bytes which may wait for the disk per file
+	 */
+	public static final int DEFAULT_WRITE_QUEUE_SIZE = 8 * 1024 * 1024;
+	private volatile int writeQueueSize = DEFAULT_WRITE_QUEUE_SIZE;
+	private volatile FsyncPolicy fsyncPolicy = FsyncPolicy.NONE;
+	private volatile boolean preallocate;
 	/**
-	 * RawChannelDataListener implementation which writes the file data to disk
+	 * runs the background writes of all files, its threads end when they are idle
+	 */
+	private final ExecutorService writerPool = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "DefaultFileReceiver.writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * RawChannelDataListener implementation which writes the file data to
+	 * disk. The data is written by a {@link WriteBehindFileWriter}, so the
+	 * thread which receives it only waits for the disk when the write queue
+	 * is full.
 	 */
 	private class ChannelDataListener implements RawChannelDataListener {
 		private File f;
-		private FileChannel fc;
+		private final WriteBehindFileWriter writer;
 		private final long length;
 		private long bytesRead = 0;
+		private boolean aborted;
 
 		/**
 		 * Create a new data listener instance.
@@ -83,59 +126,308 @@ public class DefaultFileReceiver implements FileReceiver {
 				// try to delete upfront
 				f.delete();
 			}
-			fc = new FileOutputStream(f).getChannel();
+			writer = new WriteBehindFileWriter(f, preallocate ? length : 0, writerPool, fsyncPolicy, writeQueueSize);
 			this.length = length;
 			log.debug("Ready for receiving file {} with size {}", f.getAbsolutePath(), length);
 		}
 
 		@Override
-		public void write(ByteBuffer data) {
+		public void write(ByteBuffer data) throws RawChannelException {
+			if (aborted) {
+				throw new RawChannelException("Receiving of file " + f.getName() + " has been aborted");
+			}
 			try {
 				log.trace("Receiving chunk ...");
-				bytesRead += data.limit();
+				bytesRead += data.remaining();
 
 				// update progress listeners
 				for (FileReceiverProgressListener listener : getListenersCopy()) {
 					listener.inProgress(f, bytesRead, length);
 				}
 
-				fc.write(data);
+				writer.write(data);
 			} catch (IOException ex) {
+				abort(ex);
+				throw new RawChannelException("Receiving of file " + f.getName() + " failed: " + ex.getMessage());
+			}
+		}
+
+		private void abort(IOException ex) {
+			aborted = true;
+			log.warn("Receiving of file {} aborted due to {}", f, ex.toString());
+			for (FileReceiverProgressListener listener : getListenersCopy()) {
+				listener.aborted(f, ex);
+			}
+			writer.abort();
+		}
+
+		@Override
+		public void close() throws RawChannelException {
+			if (aborted) {
+				return;
+			}
+			try {
+				writer.close(bytesRead);
+			} catch (IOException ex) {
+				abort(ex);
+				throw new RawChannelException("Receiving of file " + f.getName() + " failed: " + ex.getMessage());
+			}
+			if (bytesRead != length) {
+				String msg = "Received file " + f + " does not match expected file size. Found: " + bytesRead +
+						". Expected: " + length;
+				for (FileReceiverProgressListener listener : getListenersCopy()) {
+					listener.aborted(f, new IOException(msg));
+				}
+				log.warn(msg);
+			} else {
+				for (FileReceiverProgressListener listener : getListenersCopy()) {
+					listener.completed(f);
+				}
+			}
+			log.debug("Receiving done");
+		}
+	}
+
+	/**
+	 * A chunked transfer. The data is written to a <code>.part</code> file,
+	 * which is renamed when all chunks are verified. The index and the CRC32C
+	 * of each verified chunk are appended to a <code>.manifest</code> file,
+	 * after its data is forced to disk, so an interrupted transfer is resumed
+	 * from the verified chunks. The sender compares the checksums with the
+	 * file it sends, and sends the chunks of a changed file again; the later
+	 * entry of a chunk in the manifest replaces the earlier.
+	 */
+	private class ChunkedTransfer {
+		private final File f;
+		private final File partFile;
+		private final File manifestFile;
+		private final long length;
+		private final int chunkSize;
+		private final int chunkCount;
+		private final FileChannel data;
+		private final FileChannel manifest;
+		/**
+		 * the CRC32C of the verified chunks, guarded by this
+		 */
+		private final int[] checksums;
+		/**
+		 * guarded by this
+		 */
+		private final BitSet verified;
+		private final AtomicLong bytesReceived = new AtomicLong();
+
+		private ChunkedTransfer(File f, long length, int chunkSize) throws IOException {
+			this.f = f;
+			this.partFile = new File(f.getPath() + ".part");
+			this.manifestFile = new File(f.getPath() + ".part.manifest");
+			this.length = length;
+			this.chunkSize = chunkSize;
+			long chunks = (length + chunkSize - 1) / chunkSize;
+			if (chunks > Integer.MAX_VALUE) {
+				throw new IOException("chunk size " + chunkSize + " too small for file " + f + " with size " + length);
+			}
+			this.chunkCount = (int) chunks;
+			this.checksums = new int[chunkCount];
+			this.verified = readManifest();
+			if (verified.isEmpty()) {
+				manifestFile.delete();
+				partFile.delete();
+			}
+			data = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			if (preallocate) {
+				WriteBehindFileWriter.preallocate(data, length);
+			}
+			manifest = FileChannel.open(manifestFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			if (manifest.size() == 0) {
+				ByteBuffer header = ByteBuffer.allocate(MANIFEST_HEADER_LENGTH).putInt(MANIFEST_MAGIC).putLong(length).putInt(chunkSize).flip();
+				while (header.hasRemaining()) {
+					manifest.write(header);
+				}
+			}
+			for (int i = verified.nextSetBit(0); i >= 0; i = verified.nextSetBit(i + 1)) {
+				bytesReceived.addAndGet(getChunkLength(i));
+			}
+			log.debug("Chunked transfer of file {} with size {} in {} chunks, {} verified before", f.getAbsolutePath(), length, chunkCount, verified.cardinality());
+		}
 
-				try {
-					log.warn("Receiving of file {} aborted due to {}", f, ex);
-					for (FileReceiverProgressListener listener : getListenersCopy()) {
-						listener.aborted(f, ex);
+		/**
+		 * Reads the chunks verified by an interrupted transfer of the same file, length and chunk size
+		 */
+		private BitSet readManifest() {
+			BitSet chunks = new BitSet(chunkCount);
+			if (!manifestFile.exists() || !partFile.exists()) {
+				return chunks;
+			}
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile)))) {
+				if (in.readInt() != MANIFEST_MAGIC || in.readLong() != length || in.readInt() != chunkSize) {
+					return chunks;
+				}
+				while (in.available() >= 8) {
+					int index = in.readInt();
+					int checksum = in.readInt();
+					if (index >= 0 && index < chunkCount) {
+						chunks.set(index);
+						checksums[index] = checksum;
 					}
-					fc.close();
-				} catch (IOException ex1) {
 				}
+			} catch (IOException ex) {
+				log.warn("Ignoring unreadable manifest {}: {}", manifestFile, ex.toString());
+				chunks.clear();
+			}
+			return chunks;
+		}
+
+		private int getChunkLength(int index) {
+			return (int) Math.min(chunkSize, length - (long) index * chunkSize);
+		}
+
+		private synchronized Map<Integer, Integer> getVerified() {
+			Map<Integer, Integer> chunks = new HashMap<>();
+			for (int i = verified.nextSetBit(0); i >= 0; i = verified.nextSetBit(i + 1)) {
+				chunks.put(i, checksums[i]);
 			}
+			return chunks;
+		}
+
+		/**
+		 * Called before the data of a chunk is written, which may replace
+		 * the data of a verified chunk
+		 */
+		private synchronized void chunkReceiving(int index) {
+			if (verified.get(index)) {
+				verified.clear(index);
+				bytesReceived.addAndGet(-getChunkLength(index));
+			}
+		}
+
+		private void chunkVerified(int index, int checksum) throws IOException {
+			// the data has to be on disk before the manifest claims it
+			data.force(false);
+			synchronized (this) {
+				if (verified.get(index)) {
+					return;
+				}
+				ByteBuffer entry = ByteBuffer.allocate(8).putInt(index).putInt(checksum).flip();
+				while (entry.hasRemaining()) {
+					manifest.write(entry);
+				}
+				manifest.force(false);
+				verified.set(index);
+				checksums[index] = checksum;
+			}
+			long received = bytesReceived.addAndGet(getChunkLength(index));
+			for (FileReceiverProgressListener listener : getListenersCopy()) {
+				listener.inProgress(f, received, length);
+			}
+		}
+
+		private synchronized boolean complete() throws IOException {
+			if (verified.cardinality() < chunkCount) {
+				return false;
+			}
+			close();
+			Files.move(partFile.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			manifestFile.delete();
+			log.debug("Chunked transfer of file {} done", f);
+			for (FileReceiverProgressListener listener : getListenersCopy()) {
+				listener.completed(f);
+			}
+			return true;
+		}
+
+		private void close() {
+			try {
+				data.close();
+				manifest.close();
+			} catch (IOException ex) {
+				log.warn("Problem closing chunked transfer of file " + f, ex);
+			}
+		}
+	}
+
+	/**
+	 * RawChannelDataListener implementation which receives chunks of a
+	 * chunked transfer, writes them at their position and verifies their
+	 * checksum while they are received
+	 */
+	private static class ChunkChannelListener implements RawChannelDataListener {
+		private final ChunkedTransfer transfer;
+		private final ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_LENGTH);
+		private final CRC32C crc = new CRC32C();
+		private int chunkIndex;
+		private int expectedCrc;
+		private long writePosition;
+		/**
+		 * the number of bytes of the current chunk which are not received yet, 0 while the header is received
+		 */
+		private int remaining;
+
+		private ChunkChannelListener(ChunkedTransfer transfer) {
+			this.transfer = transfer;
 		}
 
 		@Override
-		public void close() {
-			if (fc.isOpen()) {
-
-				try {
-					if (bytesRead != length) {
-						String msg = "Received file " + f + " does not match expected file size. Found: " + bytesRead +
-								". Expected: " + length;
-						for (FileReceiverProgressListener listener : getListenersCopy()) {
-							listener.aborted(f, new IOException(msg));
-						}
-						log.warn(msg);
+		public void write(ByteBuffer data) throws RawChannelException {
+			try {
+				while (data.hasRemaining()) {
+					if (remaining == 0) {
+						readHeader(data);
 					} else {
-						for (FileReceiverProgressListener listener : getListenersCopy()) {
-							listener.completed(f);
+						int count = Math.min(remaining, data.remaining());
+						ByteBuffer part = data.slice().limit(count);
+						crc.update(part.duplicate());
+						while (part.hasRemaining()) {
+							writePosition += transfer.data.write(part, writePosition);
+						}
+						data.position(data.position() + count);
+						remaining -= count;
+						if (remaining == 0) {
+							verifyChunk();
 						}
 					}
-
-					log.debug("Receiving done");
-					fc.close();
-				} catch (IOException ex) {
-					log.warn("Problem closing received file " + f, ex);
 				}
+			} catch (IOException ex) {
+				log.warn("Receiving chunk {} of file {} failed due to {}", chunkIndex, transfer.f, ex.toString());
+				throw new RawChannelException("Receiving chunk " + chunkIndex + " of file " + transfer.f.getName() + " failed: " + ex.getMessage());
+			}
+		}
+
+		private void readHeader(ByteBuffer data) throws IOException {
+			int count = Math.min(header.remaining(), data.remaining());
+			header.put(header.position(), data, data.position(), count);
+			header.position(header.position() + count);
+			data.position(data.position() + count);
+			if (header.hasRemaining()) {
+				return;
+			}
+			header.flip();
+			chunkIndex = header.getInt();
+			int chunkLength = header.getInt();
+			expectedCrc = header.getInt();
+			header.clear();
+			if (chunkIndex < 0 || chunkIndex >= transfer.chunkCount || chunkLength != transfer.getChunkLength(chunkIndex)) {
+				throw new IOException("invalid chunk header: index=" + chunkIndex + " length=" + chunkLength);
+			}
+			writePosition = (long) chunkIndex * transfer.chunkSize;
+			transfer.chunkReceiving(chunkIndex);
+			crc.reset();
+			remaining = chunkLength;
+			if (remaining == 0) {
+				verifyChunk();
+			}
+		}
+
+		private void verifyChunk() throws IOException {
+			if ((int) crc.getValue() != expectedCrc) {
+				throw new IOException("checksum mismatch");
+			}
+			transfer.chunkVerified(chunkIndex, expectedCrc);
+		}
+
+		@Override
+		public void close() {
+			if (remaining != 0 || header.position() != 0) {
+				log.debug("Chunk channel of file {} closed within chunk {}, it is sent again", transfer.f, chunkIndex);
 			}
 		}
 	}
@@ -156,6 +448,61 @@ public class DefaultFileReceiver implements FileReceiver {
 		this.downloadFolder = folder;
 	}
 
+	/**
+	 * Sets the number of received bytes of a file which may wait for the
+	 * disk. When the queue is full, the receiving thread waits and the
+	 * acknowledgement of the data is delayed, which stops the sender.
+	 * Applies to files received after the call.
+	 *
+	 * @param writeQueueSize the size in bytes, {@link #DEFAULT_WRITE_QUEUE_SIZE} by default
+	 */
+	public void setWriteQueueSize(int writeQueueSize) {
+		if (writeQueueSize < 1) {
+			throw new IllegalArgumentException("writeQueueSize must be greater than 0: " + writeQueueSize);
+		}
+		this.writeQueueSize = writeQueueSize;
+	}
+
+	public int getWriteQueueSize() {
+		return writeQueueSize;
+	}
+
+	/**
+	 * Sets when the data of a received file is forced to the device.
+	 * Chunked transfers force each verified chunk regardless, as the
+	 * manifest must not claim data which is not on the device.
+	 * Applies to files received after the call.
+	 *
+	 * @param fsyncPolicy the policy, {@link FsyncPolicy#NONE} by default
+	 */
+	public void setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+		if (fsyncPolicy == null) {
+			throw new IllegalArgumentException("fsyncPolicy must not be null");
+		}
+		this.fsyncPolicy = fsyncPolicy;
+	}
+
+	public FsyncPolicy getFsyncPolicy() {
+		return fsyncPolicy;
+	}
+
+	/**
+	 * Sets whether a received file is extended to its announced length
+	 * before the data arrives, which fails early if the disk is too small
+	 * and lets the file system allocate the file in one go. A file which
+	 * receives less data is truncated when its channel is closed.
+	 * Applies to files received after the call.
+	 *
+	 * @param preallocate true to preallocate, false by default
+	 */
+	public void setPreallocate(boolean preallocate) {
+		this.preallocate = preallocate;
+	}
+
+	public boolean isPreallocate() {
+		return preallocate;
+	}
+
 	/*
 	 * Remote method required by DefaultFileSender
 	 */
@@ -164,6 +511,69 @@ public class DefaultFileReceiver implements FileReceiver {
 		return Simon.prepareRawChannel(new ChannelDataListener(new File(downloadFolder, name), length, overwriteExisting), this);
 	}
 
+	@Override
+	public int openChunkedTransfer(String name, long length, int chunkSize, boolean overwriteExisting) throws IOException {
+		if (length < 0 || chunkSize < 1) {
+			throw new IllegalArgumentException("invalid length " + length + " or chunk size " + chunkSize);
+		}
+		File f = new File(downloadFolder, name);
+		for (FileReceiverProgressListener listener : getListenersCopy()) {
+			listener.started(f, length);
+		}
+		if (f.exists() && !overwriteExisting) {
+			IOException e = new IOException("File " + f + " already exists");
+			for (FileReceiverProgressListener listener : getListenersCopy()) {
+				listener.aborted(f, e);
+			}
+			throw e;
+		}
+		synchronized (transfers) {
+			// a transfer of the same file which has been interrupted is resumed from its manifest
+			transfers.values().removeIf(transfer -> {
+				if (transfer.f.equals(f)) {
+					transfer.close();
+					return true;
+				}
+				return false;
+			});
+			int transferId = transferIds.incrementAndGet();
+			transfers.put(transferId, new ChunkedTransfer(f, length, chunkSize));
+			return transferId;
+		}
+	}
+
+	@Override
+	public Map<Integer, Integer> getVerifiedChunks(int transferId) throws IOException {
+		return getTransfer(transferId).getVerified();
+	}
+
+	@Override
+	public int requestChunkChannelToken(int transferId) throws IOException {
+		return Simon.prepareRawChannel(new ChunkChannelListener(getTransfer(transferId)), this);
+	}
+
+	@Override
+	public boolean completeChunkedTransfer(int transferId) throws IOException {
+		ChunkedTransfer transfer = getTransfer(transferId);
+		if (!transfer.complete()) {
+			return false;
+		}
+		synchronized (transfers) {
+			transfers.remove(transferId);
+		}
+		return true;
+	}
+
+	private ChunkedTransfer getTransfer(int transferId) throws IOException {
+		synchronized (transfers) {
+			ChunkedTransfer transfer = transfers.get(transferId);
+			if (transfer == null) {
+				throw new IOException("Unknown chunked transfer " + transferId);
+			}
+			return transfer;
+		}
+	}
+
 	/**
 	 * Adds a progress listener
 	 *
@@ -26,19 +26,28 @@ package host.anzo.simon.filetransmit;
 
 import host.anzo.simon.RawChannel;
 import host.anzo.simon.Simon;
+import host.anzo.simon.exceptions.RawChannelException;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
 
 /**
  * A default implementation to send files to
@@ -54,10 +63,20 @@ public class DefaultFileSender {
 	/**
 	 * The logger used for this class
 	 */
-	private int txBLockSize = 8 * 1024; // 8k
+	private int txBLockSize = 4 * 1024 * 1024; // 4M
+	/**
+	 * The default size of the chunks of a chunked transfer
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+	/**
+	 * The number of attempts to send a chunk which fails verification
+	 */
+	private static final int MAX_CHUNK_ATTEMPTS = 3;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
 	private AtomicInteger sendId = new AtomicInteger(0);
 	private FileReceiver fileReceiver;
 	private ExecutorService sendPool;
+	private final ExecutorService chunkPool = Executors.newCachedThreadPool();
 	public List<FileSenderProgressListener> listeners = Collections.synchronizedList(new ArrayList<>());
 
 	/**
@@ -66,6 +85,7 @@ public class DefaultFileSender {
 	 */
 	public void close() {
 		sendPool.shutdown();
+		chunkPool.shutdown();
 	}
 
 	/**
@@ -80,7 +100,9 @@ public class DefaultFileSender {
 	 */
 	public boolean closeAndWait(int timeout) throws InterruptedException {
 		sendPool.shutdown();
-		return sendPool.awaitTermination(30 * 1000, TimeUnit.MILLISECONDS);
+		boolean terminated = sendPool.awaitTermination(30 * 1000, TimeUnit.MILLISECONDS);
+		chunkPool.shutdown();
+		return terminated;
 	}
 
 	/**
@@ -115,18 +137,16 @@ public class DefaultFileSender {
 				log.debug("FileReceiver provided token {} for file {}", token, f.getName());
 				rawChannel = Simon.openRawChannel(token, fileReceiver);
 
-				FileChannel fc = new FileInputStream(f).getChannel();
-
-				// we send the file in 512byte packages through the RawChannel
-				ByteBuffer data = ByteBuffer.allocate(getTxBLockSize());
-				while (fc.read(data) != -1) {
-					log.trace("ID={} Sending chunk ...", id);
-					rawChannel.write(data);
-					bytesSent += data.limit();
-					for (FileSenderProgressListener listener : getListenersCopy()) {
-						listener.inProgress(id, f, bytesSent, f.length());
+				try (FileChannel fc = new FileInputStream(f).getChannel()) {
+					// the raw channel sends the file without copying it through the heap, progress is reported per block
+					long sent;
+					while ((sent = rawChannel.transferFrom(fc, bytesSent, getTxBLockSize())) > 0) {
+						log.trace("ID={} Sent chunk ...", id);
+						bytesSent += sent;
+						for (FileSenderProgressListener listener : getListenersCopy()) {
+							listener.inProgress(id, f, bytesSent, f.length());
+						}
 					}
-					data.clear();
 				}
 				for (FileSenderProgressListener listener : getListenersCopy()) {
 					listener.completed(id, f);
@@ -144,6 +164,165 @@ public class DefaultFileSender {
 		}
 	}
 
+	/**
+	 * Chunked file sending is done via ChunkedSendTask which is thrown into the <code>sendPool</code>.
+	 * The chunks are distributed over several raw channels, each sent by a thread of the <code>chunkPool</code>.
+	 */
+	private class ChunkedSendTask implements Runnable {
+
+		private final File f;
+		private final int id;
+		private final boolean overwriteExisting;
+		private final int parallelChannels;
+		private final ChunkedFileReceiver receiver;
+		/**
+		 * the CRC32C of the chunks of the file, valid for the chunks set in <code>checksummed</code>
+		 */
+		private int[] checksums;
+		private final BitSet checksummed = new BitSet();
+
+		private ChunkedSendTask(File f, int id, boolean overwriteExisting, int parallelChannels) {
+			this.receiver = (ChunkedFileReceiver) fileReceiver;
+			this.f = f;
+			this.id = id;
+			this.overwriteExisting = overwriteExisting;
+			this.parallelChannels = parallelChannels;
+		}
+
+		@Override
+		public void run() {
+			try (FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+				long length = fc.size();
+				int chunkSize = getChunkSize();
+				int transferId = receiver.openChunkedTransfer(f.getName(), length, chunkSize, overwriteExisting);
+				log.debug("FileReceiver opened chunked transfer {} for file {}", transferId, f.getName());
+				checksums = new int[(int) ((length + chunkSize - 1) / chunkSize)];
+
+				for (int attempt = 1; ; attempt++) {
+					Map<Integer, Integer> verified = receiver.getVerifiedChunks(transferId);
+					List<Integer> missing = new ArrayList<>();
+					long bytesVerified = 0;
+					for (long position = 0, index = 0; position < length; position += chunkSize, index++) {
+						int chunkLength = (int) Math.min(chunkSize, length - position);
+						// a chunk received from another version of the file is sent again
+						Integer checksum = verified.get((int) index);
+						if (checksum != null && checksum == getChecksum(fc, (int) index, position, chunkLength, new CRC32C())) {
+							bytesVerified += chunkLength;
+						} else {
+							missing.add((int) index);
+						}
+					}
+					if (missing.isEmpty()) {
+						break;
+					}
+					if (attempt > MAX_CHUNK_ATTEMPTS) {
+						throw new IOException(missing.size() + " chunks of file " + f + " failed verification " + MAX_CHUNK_ATTEMPTS + " times");
+					}
+					log.debug("ID={} Sending {} chunks, {} bytes were verified before", id, missing.size(), bytesVerified);
+					sendChunks(fc, transferId, length, chunkSize, missing, new AtomicLong(bytesVerified));
+				}
+
+				if (!receiver.completeChunkedTransfer(transferId)) {
+					throw new IOException("FileReceiver could not complete file " + f);
+				}
+				for (FileSenderProgressListener listener : getListenersCopy()) {
+					listener.completed(id, f);
+				}
+			} catch (Exception ex) {
+				for (FileSenderProgressListener listener : getListenersCopy()) {
+					listener.aborted(id, f, ex);
+				}
+			}
+			log.debug("ID={} Sending done", id);
+		}
+
+		/**
+		 * Returns the CRC32C of a chunk of the file, computed once. The
+		 * checksum is computed from the page cache, so sending the chunk
+		 * afterwards doesn't read it from the disk again.
+		 */
+		private int getChecksum(FileChannel fc, int index, long position, int chunkLength, CRC32C crc) throws IOException {
+			synchronized (checksummed) {
+				if (checksummed.get(index)) {
+					return checksums[index];
+				}
+			}
+			crc.reset();
+			if (chunkLength > 0) {
+				crc.update(fc.map(FileChannel.MapMode.READ_ONLY, position, chunkLength));
+			}
+			int checksum = (int) crc.getValue();
+			synchronized (checksummed) {
+				checksums[index] = checksum;
+				checksummed.set(index);
+			}
+			return checksum;
+		}
+
+		/**
+		 * Sends the given chunks over parallel raw channels. A chunk which is
+		 * rejected by the receiver, f.i. because of a checksum mismatch, is
+		 * left to the next attempt. Other errors abort the transfer, which can
+		 * be resumed by sending the file again.
+		 */
+		private void sendChunks(FileChannel fc, int transferId, long length, int chunkSize, List<Integer> chunks, AtomicLong bytesSent) throws Exception {
+			AtomicInteger next = new AtomicInteger();
+			List<Future<?>> workers = new ArrayList<>();
+			for (int i = 0; i < Math.min(parallelChannels, chunks.size()); i++) {
+				workers.add(chunkPool.submit(() -> {
+					RawChannel rawChannel = Simon.openRawChannel(receiver.requestChunkChannelToken(transferId), receiver);
+					ByteBuffer header = ByteBuffer.allocate(ChunkedFileReceiver.CHUNK_HEADER_LENGTH);
+					CRC32C crc = new CRC32C();
+					try {
+						int chunk;
+						while ((chunk = next.getAndIncrement()) < chunks.size()) {
+							int index = chunks.get(chunk);
+							long position = (long) index * chunkSize;
+							int chunkLength = (int) Math.min(chunkSize, length - position);
+
+							header.clear();
+							header.putInt(index).putInt(chunkLength).putInt(getChecksum(fc, index, position, chunkLength, crc)).flip();
+							log.trace("ID={} Sending chunk {} ...", id, index);
+							rawChannel.write(header);
+							if (rawChannel.transferFrom(fc, position, chunkLength) != chunkLength) {
+								throw new IOException("File " + f + " has been truncated while sending");
+							}
+
+							long sent = bytesSent.addAndGet(chunkLength);
+							for (FileSenderProgressListener listener : getListenersCopy()) {
+								listener.inProgress(id, f, sent, length);
+							}
+						}
+					} catch (Exception ex) {
+						try {
+							rawChannel.close();
+						} catch (Exception closeException) {
+							ex.addSuppressed(closeException);
+						}
+						throw ex;
+					}
+					rawChannel.close();
+					return null;
+				}));
+			}
+			Exception failure = null;
+			for (Future<?> worker : workers) {
+				try {
+					worker.get();
+				} catch (ExecutionException ex) {
+					Throwable cause = ex.getCause();
+					if (!(cause instanceof RawChannelException) && failure == null) {
+						failure = cause instanceof Exception ? (Exception) cause : ex;
+					}
+					log.debug("ID={} Chunk channel failed: {}", id, cause.toString());
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
 	/**
 	 * Creates a file sender and connects it to the given file receiver. Files will be sent sequentially.
 	 *
@@ -166,7 +345,9 @@ public class DefaultFileSender {
 	}
 
 	/**
-	 * Set the block size for writing data
+	 * Set the block size for writing data. The progress listeners are
+	 * notified after each block. The data is sent in smaller frames,
+	 * see {@link RawChannel#transferFrom(FileChannel, long, long)}.
 	 *
 	 * @param blockSize number of bytes to write in one block
 	 */
@@ -218,6 +399,62 @@ public class DefaultFileSender {
 		return id;
 	}
 
+	/**
+	 * Set the size of the chunks of chunked transfers
+	 *
+	 * @param chunkSize number of bytes in one chunk, default is {@link #DEFAULT_CHUNK_SIZE}
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must be greater than 0: " + chunkSize);
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Gets the size of the chunks of chunked transfers
+	 *
+	 * @return number of bytes in one chunk
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Send local file to connected file receiver in chunks, which are sent
+	 * in parallel over several raw channels. The receiver verifies the
+	 * CRC32C of each chunk and records the verified chunks, so if the
+	 * transfer is aborted, f.i. by a lost connection, sending the file again
+	 * resumes it: only the chunks which haven't been verified are sent.
+	 * The receiver has to implement {@link ChunkedFileReceiver}, like {@link DefaultFileReceiver}.
+	 *
+	 * @param f                 the file to send.
+	 * @param overwriteExisting if true, any existing file with same name will be overwritten on target
+	 * @param parallelChannels  the number of raw channels to send chunks over at the same time
+	 * @return a generated ID for the file. Can be used to identify the file in progress listener.
+	 * @throws UnsupportedOperationException if the receiver doesn't implement {@link ChunkedFileReceiver}
+	 * @see DefaultFileSender#sendFile(File)
+	 */
+	public int sendFileChunked(File f, boolean overwriteExisting, int parallelChannels) {
+		if (parallelChannels < 1) {
+			throw new IllegalArgumentException("parallelChannels must be greater than 0: " + parallelChannels);
+		}
+		if (!(fileReceiver instanceof ChunkedFileReceiver)) {
+			throw new UnsupportedOperationException("FileReceiver " + fileReceiver + " does not implement " + ChunkedFileReceiver.class.getSimpleName());
+		}
+		int id = sendId.getAndIncrement();
+
+		if (id == Integer.MAX_VALUE) {
+			sendId.set(0);
+			id = 0;
+		}
+		for (FileSenderProgressListener listener : getListenersCopy()) {
+			listener.started(id, f, f.length());
+		}
+		sendPool.execute(new ChunkedSendTask(f, id, overwriteExisting, parallelChannels));
+		return id;
+	}
+
 	/**
 	 * Adds a progress listener
 	 *
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.filetransmit;
+
+/**
+ * Defines when received file data is forced to the storage device, see
+ * {@link DefaultFileReceiver#setFsyncPolicy(FsyncPolicy)}. Forcing makes the
+ * data survive a crash of the operating system, but costs a round trip to
+ * the device.
+ */
+public final class FsyncPolicy {
+
+	/**
+	 * the data is never forced, the operating system writes it when it likes
+	 */
+	public static final FsyncPolicy NONE = new FsyncPolicy(0, false);
+	/**
+	 * the data is forced once, when the file is complete
+	 */
+	public static final FsyncPolicy ON_CLOSE = new FsyncPolicy(0, true);
+
+	/**
+	 * the number of bytes after which the data is forced, 0 to not force while receiving
+	 */
+	private final long interval;
+	private final boolean onClose;
+
+	private FsyncPolicy(long interval, boolean onClose) {
+		this.interval = interval;
+		this.onClose = onClose;
+	}
+
+	/**
+	 * Creates a policy which forces the data each time the given number of
+	 * megabytes has been written, and when the file is complete
+	 *
+	 * @param megabytes the number of megabytes between two forces
+	 * @return the policy
+	 */
+	public static FsyncPolicy everyMegabytes(int megabytes) {
+		if (megabytes < 1) {
+			throw new IllegalArgumentException("megabytes must be greater than 0: " + megabytes);
+		}
+		return new FsyncPolicy(megabytes * 1024L * 1024L, true);
+	}
+
+	/**
+	 * @return the number of bytes after which the data is forced, 0 if it is not forced while receiving
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return true, if the data is forced when the file is complete
+	 */
+	public boolean isOnClose() {
+		return onClose;
+	}
+
+	@Override
+	public String toString() {
+		return this == NONE ? "FsyncPolicy{NONE}" : this == ON_CLOSE ? "FsyncPolicy{ON_CLOSE}" : "FsyncPolicy{interval=" + interval + ", onClose=" + onClose + "}";
+	}
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.filetransmit;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes the data of a file on a background thread, so the thread which
+ * receives the data doesn't wait for the disk. The received buffers are
+ * queued without copying until the given number of bytes is queued; then
+ * {@link #write(ByteBuffer)} blocks until the background thread has caught
+ * up. For a raw channel this delays the acknowledgement of the data, so the
+ * sender stops when its window is full.
+ * <p>
+ * The queue is drained by a task of the given executor, which is only
+ * submitted while there is data to write, so an idle file holds no thread.
+ * An error of a background write is reported by the next call.
+ */
+@Slf4j
+class WriteBehindFileWriter {
+
+	private final File file;
+	private final FileChannel fc;
+	private final Executor executor;
+	private final FsyncPolicy fsyncPolicy;
+	private final long maxQueuedBytes;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	/**
+	 * signalled when data has been written
+	 */
+	private final Condition written = lock.newCondition();
+	/**
+	 * the buffers which are not written yet, guarded by lock
+	 */
+	private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+	/**
+	 * guarded by lock
+	 */
+	private long queuedBytes;
+	/**
+	 * true while a drain task is submitted or running, guarded by lock
+	 */
+	private boolean draining;
+	/**
+	 * the first error of a background write, guarded by lock
+	 */
+	private IOException failure;
+
+	/**
+	 * the position of the next write, only used by the drain task
+	 */
+	private long position;
+	/**
+	 * the number of bytes written since the data was forced, only used by the drain task
+	 */
+	private long unforcedBytes;
+
+	/**
+	 * Creates the writer and opens the file, an existing file is truncated
+	 *
+	 * @param file           the file
+	 * @param preallocate    the length to which the file is extended upfront, 0 to grow the file while writing
+	 * @param executor       the executor which runs the background writes
+	 * @param fsyncPolicy    defines when the data is forced to the device
+	 * @param maxQueuedBytes the number of queued bytes at which {@link #write(ByteBuffer)} blocks
+	 * @throws IOException if the file can not be opened or extended
+	 */
+	WriteBehindFileWriter(File file, long preallocate, Executor executor, FsyncPolicy fsyncPolicy, long maxQueuedBytes) throws IOException {
+		this.file = file;
+		this.executor = executor;
+		this.fsyncPolicy = fsyncPolicy;
+		this.maxQueuedBytes = maxQueuedBytes;
+		this.fc = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		if (preallocate > 0) {
+			try {
+				preallocate(fc, preallocate);
+			} catch (IOException ex) {
+				fc.close();
+				throw ex;
+			}
+		}
+	}
+
+	/**
+	 * Extends a file to the given length, so that the file system can
+	 * allocate its blocks in one go instead of growing the file with each
+	 * write. Java has no portable way to reserve the blocks, so file systems
+	 * which support sparse files may still allocate them on write.
+	 *
+	 * @param fc     the file
+	 * @param length the length
+	 * @throws IOException if the file can not be extended, e.g. because the disk is too small
+	 */
+	static void preallocate(FileChannel fc, long length) throws IOException {
+		if (fc.size() < length) {
+			fc.write(ByteBuffer.allocate(1), length - 1);
+		}
+	}
+
+	/**
+	 * Queues data to be written after the data queued before. The buffer is
+	 * kept until it is written and must not be changed by the caller.
+	 *
+	 * @param data the data
+	 * @throws IOException if a background write has failed, or the thread has been interrupted
+	 */
+	void write(ByteBuffer data) throws IOException {
+		if (!data.hasRemaining()) {
+			return;
+		}
+		lock.lock();
+		try {
+			while (failure == null && queuedBytes >= maxQueuedBytes) {
+				awaitWritten();
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			queue.add(data);
+			queuedBytes += data.remaining();
+			if (!draining) {
+				draining = true;
+				executor.execute(this::drain);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the queued buffers until the queue is empty
+	 */
+	private void drain() {
+		while (true) {
+			ByteBuffer data;
+			lock.lock();
+			try {
+				data = queue.peek();
+				if (data == null || failure != null) {
+					draining = false;
+					written.signalAll();
+					return;
+				}
+			} finally {
+				lock.unlock();
+			}
+
+			int length = data.remaining();
+			IOException error = null;
+			try {
+				while (data.hasRemaining()) {
+					position += fc.write(data, position);
+				}
+				unforcedBytes += length;
+				if (fsyncPolicy.getInterval() > 0 && unforcedBytes >= fsyncPolicy.getInterval()) {
+					fc.force(false);
+					unforcedBytes = 0;
+				}
+			} catch (IOException ex) {
+				error = ex;
+			}
+
+			lock.lock();
+			try {
+				if (error != null) {
+					// after an abort the write fails because the file has been closed, that's expected
+					if (failure == null) {
+						log.warn("Writing to file {} failed due to {}", file, error.toString());
+					} else {
+						log.debug("Writing to file {} failed after the writer has been aborted: {}", file, error.toString());
+					}
+				}
+				// the queue is empty if the writer has been aborted meanwhile
+				if (queue.peek() == data) {
+					queue.poll();
+					queuedBytes -= length;
+				}
+				if (error != null && failure == null) {
+					failure = error;
+				}
+				written.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Waits until all queued data is written, forces it to the device if the
+	 * fsync policy asks for it, and closes the file
+	 *
+	 * @param length the length to which the file is truncated, e.g. if less data than preallocated was received
+	 * @throws IOException if a write has failed, or the thread has been interrupted
+	 */
+	void close(long length) throws IOException {
+		try {
+			lock.lock();
+			try {
+				while (draining) {
+					awaitWritten();
+				}
+				if (failure != null) {
+					throw failure;
+				}
+			} finally {
+				lock.unlock();
+			}
+			if (fc.size() > length) {
+				fc.truncate(length);
+			}
+			if (fsyncPolicy.isOnClose()) {
+				fc.force(true);
+			}
+		} finally {
+			abort();
+		}
+	}
+
+	/**
+	 * Closes the file without waiting for the queued data. Writes which
+	 * have not started yet are dropped.
+	 */
+	void abort() {
+		lock.lock();
+		try {
+			if (failure == null) {
+				failure = new IOException("File " + file + " has been closed");
+			}
+			queue.clear();
+			queuedBytes = 0;
+			written.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			fc.close();
+		} catch (IOException ex) {
+			log.warn("Problem closing file " + file, ex);
+		}
+	}
+
+	private void awaitWritten() throws InterruptedIOException {
+		try {
+			written.await();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for writes to file " + file);
+		}
+	}
+}
@@ -0,0 +1,446 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.io;
+
+import host.anzo.simon.utils.Utils;
+import org.apache.mina.core.buffer.AbstractIoBuffer;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.buffer.IoBufferAllocator;
+import org.apache.mina.core.buffer.matcher.ClassNameMatcher;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An {@link IoBufferAllocator} which recycles the buffers MINA frees after
+ * writing and decoding, instead of allocating a new buffer for each message.
+ * <p>
+ * Buffers are pooled in power of two size classes from 64 bytes up to a
+ * maximum capacity; larger buffers are allocated and dropped as usual. Each
+ * size class is split into stripes, so that threads mostly work on their own
+ * stripe. As buffers are usually allocated by the thread which encodes a
+ * message and freed by the I/O thread which wrote it, a thread whose stripe
+ * is empty or full moves on to the other stripes of the size class.
+ * <p>
+ * Only buffers allocated by this allocator are recycled, never buffers
+ * wrapped around a foreign {@link ByteBuffer}, and never a buffer of which a
+ * duplicate, slice or read only view has been taken, as the view could still
+ * be in use.
+ * <p>
+ * Like {@link AcceptAllBufferAllocator}, all buffers accept every class name
+ * when deserializing objects. Install it with {@link host.anzo.simon.Simon#setBufferAllocator(IoBufferAllocator)}.
+ */
+public class PooledBufferAllocator implements IoBufferAllocator, PooledBufferAllocatorMBean {
+
+	public static final int DEFAULT_MAX_POOLED_CAPACITY = 64 * 1024;
+	public static final int DEFAULT_MAX_BUFFERS_PER_SIZE_CLASS = 256;
+
+	private static final List<ClassNameMatcher> allowMatcher = Collections.singletonList(className -> true);
+
+	/**
+	 * log2 of the smallest size class
+	 */
+	private static final int MIN_SHIFT = 6;
+
+	private final boolean direct;
+	private final int maxPooledCapacity;
+	private final SizeClass[] sizeClasses;
+	private final int stripeMask;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder unpooled = new LongAdder();
+	private final LongAdder drops = new LongAdder();
+
+	/**
+	 * Creates a pool of heap buffers with the default limits
+	 */
+	public PooledBufferAllocator() {
+		this(false, DEFAULT_MAX_POOLED_CAPACITY, DEFAULT_MAX_BUFFERS_PER_SIZE_CLASS);
+	}
+
+	/**
+	 * Creates a pool
+	 *
+	 * @param direct                 true, if all buffers are allocated in direct memory, false for heap buffers
+	 * @param maxPooledCapacity      the largest capacity which is pooled, rounded up to a power of two
+	 * @param maxBuffersPerSizeClass the maximum number of buffers held per size class
+	 */
+	public PooledBufferAllocator(boolean direct, int maxPooledCapacity, int maxBuffersPerSizeClass) {
+		if (maxPooledCapacity < (1 << MIN_SHIFT) || maxPooledCapacity > (1 << 30)) {
+			throw new IllegalArgumentException("maxPooledCapacity must be in range " + (1 << MIN_SHIFT) + "..2^30: " + maxPooledCapacity);
+		}
+		if (maxBuffersPerSizeClass < 1) {
+			throw new IllegalArgumentException("maxBuffersPerSizeClass must be greater than 0: " + maxBuffersPerSizeClass);
+		}
+		this.direct = direct;
+		this.maxPooledCapacity = normalizeCapacity(maxPooledCapacity);
+
+		int stripes = 1;
+		while (stripes < Math.min(16, Runtime.getRuntime().availableProcessors())) {
+			stripes <<= 1;
+		}
+		this.stripeMask = stripes - 1;
+		int buffersPerStripe = Math.max(1, maxBuffersPerSizeClass / stripes);
+
+		int classCount = Integer.numberOfTrailingZeros(this.maxPooledCapacity) - MIN_SHIFT + 1;
+		this.sizeClasses = new SizeClass[classCount];
+		for (int i = 0; i < classCount; i++) {
+			sizeClasses[i] = new SizeClass(1 << (i + MIN_SHIFT), stripes, buffersPerStripe);
+		}
+
+		Utils.registerMBean(this, "host.anzo.simon:type=" + MBEAN_TYPE + ",instance=" + MBEAN_TYPE + "@" + hashCode());
+	}
+
+	@Override
+	public IoBuffer allocate(int capacity, boolean direct) {
+		PooledBuffer buffer = new PooledBuffer(allocateNioBuffer(capacity, direct), true);
+		buffer.limit(capacity);
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer of the size class of the given capacity. The caller
+	 * owns the returned buffer; it is only returned to the pool when it
+	 * becomes the content of a pooled {@link IoBuffer} which is freed.
+	 */
+	@Override
+	public ByteBuffer allocateNioBuffer(int capacity, boolean direct) {
+		int actualCapacity = normalizeCapacity(capacity);
+		if (actualCapacity > maxPooledCapacity) {
+			unpooled.increment();
+			return newNioBuffer(actualCapacity);
+		}
+		ByteBuffer buf = sizeClass(actualCapacity).poll(stripe());
+		if (buf == null) {
+			misses.increment();
+			return newNioBuffer(actualCapacity);
+		}
+		hits.increment();
+		buf.clear();
+		return buf;
+	}
+
+	@Override
+	public IoBuffer wrap(ByteBuffer nioBuffer) {
+		return new PooledBuffer(nioBuffer, false);
+	}
+
+	/**
+	 * Drops all pooled buffers, once this allocator has been replaced.
+	 * Every new {@link IoBuffer} re-installs its allocator through
+	 * {@link IoBuffer#setAllocator(IoBufferAllocator)}, which disposes the
+	 * previous one, so this is also called while the pool is still in use.
+	 */
+	@Override
+	public void dispose() {
+		if (IoBuffer.getAllocator() == this) {
+			return;
+		}
+		for (SizeClass sizeClass : sizeClasses) {
+			sizeClass.clear();
+		}
+	}
+
+	/**
+	 * Rounds the capacity up to its size class, a power of two of at least 64
+	 */
+	private static int normalizeCapacity(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("capacity must not be negative: " + capacity);
+		}
+		if (capacity <= (1 << MIN_SHIFT)) {
+			return 1 << MIN_SHIFT;
+		}
+		int normalized = Integer.highestOneBit(capacity - 1) << 1;
+		return normalized < 0 ? Integer.MAX_VALUE : normalized;
+	}
+
+	private ByteBuffer newNioBuffer(int capacity) {
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	private SizeClass sizeClass(int capacity) {
+		return sizeClasses[Integer.numberOfTrailingZeros(capacity) - MIN_SHIFT];
+	}
+
+	private int stripe() {
+		return (int) Thread.currentThread().getId() & stripeMask;
+	}
+
+	/**
+	 * Returns a buffer to its size class
+	 */
+	private void release(ByteBuffer buf) {
+		int capacity = buf.capacity();
+		if (buf.isReadOnly() || buf.isDirect() != direct || Integer.bitCount(capacity) != 1 ||
+				capacity < (1 << MIN_SHIFT) || capacity > maxPooledCapacity) {
+			return;
+		}
+		if (!sizeClass(capacity).offer(stripe(), buf)) {
+			drops.increment();
+		}
+	}
+
+	@Override
+	public boolean isDirect() {
+		return direct;
+	}
+
+	@Override
+	public int getMaxPooledCapacity() {
+		return maxPooledCapacity;
+	}
+
+	@Override
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	@Override
+	public long getUnpooledCount() {
+		return unpooled.sum();
+	}
+
+	@Override
+	public long getDropCount() {
+		return drops.sum();
+	}
+
+	@Override
+	public int getPooledBufferCount() {
+		int count = 0;
+		for (SizeClass sizeClass : sizeClasses) {
+			count += sizeClass.size();
+		}
+		return count;
+	}
+
+	@Override
+	public long getPooledBytes() {
+		long bytes = 0;
+		for (SizeClass sizeClass : sizeClasses) {
+			bytes += (long) sizeClass.size() * sizeClass.capacity;
+		}
+		return bytes;
+	}
+
+	@Override
+	public String[] getSizeClassOccupancy() {
+		String[] occupancy = new String[sizeClasses.length];
+		for (int i = 0; i < sizeClasses.length; i++) {
+			occupancy[i] = sizeClasses[i].capacity + "=" + sizeClasses[i].size();
+		}
+		return occupancy;
+	}
+
+	@Override
+	public String toString() {
+		return "PooledBufferAllocator{direct=" + direct + ", maxPooledCapacity=" + maxPooledCapacity + ", hits=" +
+				getHitCount() + ", misses=" + getMissCount() + ", unpooled=" + getUnpooledCount() + ", drops=" +
+				getDropCount() + ", pooledBuffers=" + getPooledBufferCount() + "}";
+	}
+
+	/**
+	 * The pooled buffers of one capacity
+	 */
+	private static final class SizeClass {
+		private final int capacity;
+		private final Stripe[] stripes;
+
+		private SizeClass(int capacity, int stripeCount, int buffersPerStripe) {
+			this.capacity = capacity;
+			this.stripes = new Stripe[stripeCount];
+			for (int i = 0; i < stripeCount; i++) {
+				stripes[i] = new Stripe(buffersPerStripe);
+			}
+		}
+
+		private ByteBuffer poll(int stripe) {
+			for (int i = 0; i < stripes.length; i++) {
+				ByteBuffer buf = stripes[(stripe + i) & (stripes.length - 1)].poll();
+				if (buf != null) {
+					return buf;
+				}
+			}
+			return null;
+		}
+
+		private boolean offer(int stripe, ByteBuffer buf) {
+			for (int i = 0; i < stripes.length; i++) {
+				if (stripes[(stripe + i) & (stripes.length - 1)].offer(buf)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private int size() {
+			int size = 0;
+			for (Stripe stripe : stripes) {
+				size += stripe.size();
+			}
+			return size;
+		}
+
+		private void clear() {
+			for (Stripe stripe : stripes) {
+				stripe.clear();
+			}
+		}
+	}
+
+	/**
+	 * A bounded stack of buffers. The lock is held for a few instructions
+	 * only and is rarely contended, as each thread starts at its own stripe.
+	 */
+	private static final class Stripe {
+		private final ByteBuffer[] buffers;
+		private int size;
+
+		private Stripe(int capacity) {
+			this.buffers = new ByteBuffer[capacity];
+		}
+
+		private synchronized ByteBuffer poll() {
+			if (size == 0) {
+				return null;
+			}
+			ByteBuffer buf = buffers[--size];
+			buffers[size] = null;
+			return buf;
+		}
+
+		private synchronized boolean offer(ByteBuffer buf) {
+			if (size == buffers.length) {
+				return false;
+			}
+			buffers[size++] = buf;
+			return true;
+		}
+
+		private synchronized int size() {
+			return size;
+		}
+
+		private synchronized void clear() {
+			while (size > 0) {
+				buffers[--size] = null;
+			}
+		}
+	}
+
+	private final class PooledBuffer extends AbstractIoBuffer {
+		private ByteBuffer buf;
+		/**
+		 * true, if <code>buf</code> has been taken from this allocator and goes back to the pool when freed
+		 */
+		private boolean pooled;
+		/**
+		 * true, if a derived buffer shares the content of this buffer
+		 */
+		private boolean shared;
+
+		private PooledBuffer(ByteBuffer buf, boolean pooled) {
+			super(PooledBufferAllocator.this, buf.capacity());
+			this.buf = buf;
+			this.pooled = pooled;
+			buf.order(ByteOrder.BIG_ENDIAN);
+			setMatchers(allowMatcher);
+		}
+
+		private PooledBuffer(PooledBuffer parent, ByteBuffer buf) {
+			super(parent);
+			this.buf = buf;
+			this.pooled = false;
+			setMatchers(allowMatcher);
+		}
+
+		@Override
+		public ByteBuffer buf() {
+			if (buf == null) {
+				throw new IllegalStateException("Buffer has been freed already.");
+			}
+			return buf;
+		}
+
+		/**
+		 * Called when the buffer is expanded, the new content has been allocated by {@link #allocateNioBuffer(int, boolean)}
+		 */
+		@Override
+		protected void buf(ByteBuffer newBuf) {
+			ByteBuffer oldBuf = this.buf;
+			this.buf = newBuf;
+			if (pooled && !shared) {
+				release(oldBuf);
+			}
+			this.pooled = true;
+		}
+
+		@Override
+		protected IoBuffer duplicate0() {
+			shared = true;
+			return new PooledBuffer(this, buf().duplicate());
+		}
+
+		@Override
+		protected IoBuffer slice0() {
+			shared = true;
+			return new PooledBuffer(this, buf().slice());
+		}
+
+		@Override
+		protected IoBuffer asReadOnlyBuffer0() {
+			shared = true;
+			return new PooledBuffer(this, buf().asReadOnlyBuffer());
+		}
+
+		@Override
+		public byte[] array() {
+			return buf().array();
+		}
+
+		@Override
+		public int arrayOffset() {
+			return buf().arrayOffset();
+		}
+
+		@Override
+		public boolean hasArray() {
+			return buf().hasArray();
+		}
+
+		@Override
+		public void free() {
+			ByteBuffer oldBuf = buf;
+			buf = null;
+			if (oldBuf != null && pooled && !shared && !isDerived()) {
+				release(oldBuf);
+			}
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.io;
+
+/**
+ * JMX Interface for {@link PooledBufferAllocator}
+ */
+public interface PooledBufferAllocatorMBean {
+	String MBEAN_TYPE = "BufferPool";
+
+	/**
+	 * @return true, if the pool hands out direct buffers
+	 */
+	boolean isDirect();
+
+	/**
+	 * @return the largest capacity which is pooled
+	 */
+	int getMaxPooledCapacity();
+
+	/**
+	 * @return the number of allocations served from the pool
+	 */
+	long getHitCount();
+
+	/**
+	 * @return the number of allocations of a pooled size class which found the pool empty
+	 */
+	long getMissCount();
+
+	/**
+	 * @return the number of allocations larger than the largest pooled capacity
+	 */
+	long getUnpooledCount();
+
+	/**
+	 * @return the number of freed buffers which were dropped because their pool was full
+	 */
+	long getDropCount();
+
+	/**
+	 * @return the number of buffers currently held by the pool
+	 */
+	int getPooledBufferCount();
+
+	/**
+	 * @return the number of bytes currently held by the pool
+	 */
+	long getPooledBytes();
+
+	/**
+	 * Number of buffers held per size class, starting with the smallest class
+	 *
+	 * @return "capacity=count" for each size class
+	 */
+	String[] getSizeClassOccupancy();
+}
@@ -0,0 +1,848 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.serialization;
+
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static host.anzo.simon.utils.Utils.getVarInt;
+import static host.anzo.simon.utils.Utils.getVarLong;
+import static host.anzo.simon.utils.Utils.putVarInt;
+import static host.anzo.simon.utils.Utils.putVarLong;
+import static host.anzo.simon.utils.Utils.unZigZag;
+import static host.anzo.simon.utils.Utils.zigZag;
+
+/**
+ * A compact binary serializer. Each value is written as a one byte tag
+ * followed by its data, without the class descriptors and stream headers of
+ * Java serialization:
+ * <ul>
+ * <li>null, primitive wrappers, Strings and primitive arrays</li>
+ * <li>object arrays, {@link ArrayList}, {@link LinkedList}, {@link HashSet},
+ * {@link LinkedHashSet}, {@link HashMap} and {@link LinkedHashMap}</li>
+ * <li>enums and serializable records</li>
+ * <li>classes registered with {@link #register(Class)}, which need not be
+ * serializable. Their non-static, non-transient fields are accessed through
+ * method handles, created once at registration. A registered class needs a
+ * no-argument constructor, unless it is an enum or record.</li>
+ * </ul>
+ * All other values are written with Java serialization. Shared references
+ * and cycles are preserved within one value, except for references into and
+ * out of values written with Java serialization.
+ * <p>
+ * Registered classes are identified by their registration index, so both
+ * sides of a connection must register the same classes in the same order,
+ * before the first call is made.
+ */
+public class CompactSerializer implements SimonSerializer {
+
+	// all tags are below 0x80
+	static final byte TAG_NULL = 0x00;
+	static final byte TAG_TRUE = 0x01;
+	static final byte TAG_FALSE = 0x02;
+	static final byte TAG_BYTE = 0x03;
+	static final byte TAG_SHORT = 0x04;
+	static final byte TAG_CHAR = 0x05;
+	static final byte TAG_INT = 0x06;
+	static final byte TAG_LONG = 0x07;
+	static final byte TAG_FLOAT = 0x08;
+	static final byte TAG_DOUBLE = 0x09;
+	static final byte TAG_STRING = 0x0A;
+	static final byte TAG_BOOLEAN_ARRAY = 0x0B;
+	static final byte TAG_BYTE_ARRAY = 0x0C;
+	static final byte TAG_SHORT_ARRAY = 0x0D;
+	static final byte TAG_CHAR_ARRAY = 0x0E;
+	static final byte TAG_INT_ARRAY = 0x0F;
+	static final byte TAG_LONG_ARRAY = 0x10;
+	static final byte TAG_FLOAT_ARRAY = 0x11;
+	static final byte TAG_DOUBLE_ARRAY = 0x12;
+	static final byte TAG_OBJECT_ARRAY = 0x13;
+	static final byte TAG_ARRAY_LIST = 0x14;
+	static final byte TAG_LINKED_LIST = 0x15;
+	static final byte TAG_HASH_SET = 0x16;
+	static final byte TAG_LINKED_HASH_SET = 0x17;
+	static final byte TAG_HASH_MAP = 0x18;
+	static final byte TAG_LINKED_HASH_MAP = 0x19;
+	static final byte TAG_ENUM = 0x1A;
+	static final byte TAG_RECORD = 0x1B;
+	static final byte TAG_REGISTERED = 0x1C;
+	static final byte TAG_REFERENCE = 0x1D;
+	static final byte TAG_JAVA = 0x1E;
+
+	/**
+	 * registration index -> class
+	 */
+	private volatile ClassInfo[] registered = new ClassInfo[0];
+	/**
+	 * class -> registration
+	 */
+	private final Map<Class<?>, ClassInfo> registeredByClass = new ConcurrentHashMap<>();
+
+	/**
+	 * serializable records which are not registered, resolved on first use
+	 */
+	private static final ClassValue<ClassInfo> RECORD_INFOS = new ClassValue<>() {
+		@Override
+		protected ClassInfo computeValue(Class<?> type) {
+			try {
+				return ClassInfo.forRecord(type, -1);
+			} catch (IllegalArgumentException e) {
+				// records with custom serialization are written with Java serialization
+				return null;
+			}
+		}
+	};
+
+	/**
+	 * Registers a class for compact serialization. Registering a class twice
+	 * has no effect.
+	 *
+	 * @param type the class, an enum, a record or a class with a no-argument constructor
+	 * @return this serializer
+	 * @throws IllegalArgumentException if the class cannot be accessed or
+	 *                                  instantiated
+	 */
+	public synchronized CompactSerializer register(Class<?> type) {
+		if (registeredByClass.containsKey(type)) {
+			return this;
+		}
+		int id = registered.length;
+		ClassInfo info;
+		if (type.isEnum()) {
+			info = ClassInfo.forEnum(type, id);
+		} else if (type.isRecord()) {
+			info = ClassInfo.forRecord(type, id);
+		} else {
+			info = ClassInfo.forBean(type, id);
+		}
+		ClassInfo[] newRegistered = Arrays.copyOf(registered, id + 1);
+		newRegistered[id] = info;
+		registeredByClass.put(type, info);
+		registered = newRegistered;
+		return this;
+	}
+
+	@Override
+	public void writeObject(IoBuffer out, Object object) throws IOException {
+		writeValue(new WriteContext(), out, object);
+	}
+
+	@Override
+	public Object readObject(IoBuffer in, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+		return readValue(new ReadContext(classLoader), in);
+	}
+
+	@Override
+	public boolean canWrite(Object object) {
+		return SimonSerializer.super.canWrite(object) || registeredByClass.containsKey(object.getClass());
+	}
+
+	private void writeValue(WriteContext ctx, IoBuffer out, Object o) throws IOException {
+		if (o == null) {
+			out.put(TAG_NULL);
+			return;
+		}
+		Class<?> type = o.getClass();
+		if (type == String.class) {
+			out.put(TAG_STRING);
+			putString(out, (String) o);
+		} else if (type == Integer.class) {
+			out.put(TAG_INT);
+			putVarLong(out, zigZag((Integer) o));
+		} else if (type == Long.class) {
+			out.put(TAG_LONG);
+			putVarLong(out, zigZag((Long) o));
+		} else if (type == Boolean.class) {
+			out.put((Boolean) o ? TAG_TRUE : TAG_FALSE);
+		} else if (type == Double.class) {
+			out.put(TAG_DOUBLE);
+			out.putDouble((Double) o);
+		} else if (type == Float.class) {
+			out.put(TAG_FLOAT);
+			out.putFloat((Float) o);
+		} else if (type == Byte.class) {
+			out.put(TAG_BYTE);
+			out.put((Byte) o);
+		} else if (type == Short.class) {
+			out.put(TAG_SHORT);
+			out.putShort((Short) o);
+		} else if (type == Character.class) {
+			out.put(TAG_CHAR);
+			out.putChar((Character) o);
+		} else if (o instanceof Enum<?> e) {
+			writeEnum(ctx, out, e);
+		} else {
+			Integer handle = ctx.handles.get(o);
+			if (handle != null) {
+				out.put(TAG_REFERENCE);
+				putVarInt(out, handle);
+			} else if (type.isArray()) {
+				writeArray(ctx, out, o, type);
+			} else {
+				writeObjectValue(ctx, out, o, type);
+			}
+		}
+	}
+
+	private void writeEnum(WriteContext ctx, IoBuffer out, Enum<?> e) throws IOException {
+		Class<?> enumType = e.getDeclaringClass();
+		ClassInfo info = registeredByClass.get(enumType);
+		if (info != null) {
+			out.put(TAG_REGISTERED);
+			putVarInt(out, info.id);
+		} else {
+			out.put(TAG_ENUM);
+			writeClass(ctx, out, enumType);
+		}
+		putString(out, e.name());
+	}
+
+	private void writeArray(WriteContext ctx, IoBuffer out, Object array, Class<?> type) throws IOException {
+		ctx.addHandle(array);
+		Class<?> componentType = type.getComponentType();
+		if (!componentType.isPrimitive()) {
+			Object[] a = (Object[]) array;
+			out.put(TAG_OBJECT_ARRAY);
+			writeClass(ctx, out, componentType);
+			putVarInt(out, a.length);
+			for (Object element : a) {
+				writeValue(ctx, out, element);
+			}
+		} else if (componentType == byte.class) {
+			byte[] a = (byte[]) array;
+			out.put(TAG_BYTE_ARRAY);
+			putVarInt(out, a.length);
+			out.put(a);
+		} else if (componentType == int.class) {
+			int[] a = (int[]) array;
+			out.put(TAG_INT_ARRAY);
+			putVarInt(out, a.length);
+			for (int v : a) {
+				putVarLong(out, zigZag(v));
+			}
+		} else if (componentType == long.class) {
+			long[] a = (long[]) array;
+			out.put(TAG_LONG_ARRAY);
+			putVarInt(out, a.length);
+			for (long v : a) {
+				putVarLong(out, zigZag(v));
+			}
+		} else if (componentType == double.class) {
+			double[] a = (double[]) array;
+			out.put(TAG_DOUBLE_ARRAY);
+			putVarInt(out, a.length);
+			for (double v : a) {
+				out.putDouble(v);
+			}
+		} else if (componentType == float.class) {
+			float[] a = (float[]) array;
+			out.put(TAG_FLOAT_ARRAY);
+			putVarInt(out, a.length);
+			for (float v : a) {
+				out.putFloat(v);
+			}
+		} else if (componentType == boolean.class) {
+			boolean[] a = (boolean[]) array;
+			out.put(TAG_BOOLEAN_ARRAY);
+			putVarInt(out, a.length);
+			for (boolean v : a) {
+				out.put(v ? (byte) 1 : (byte) 0);
+			}
+		} else if (componentType == short.class) {
+			short[] a = (short[]) array;
+			out.put(TAG_SHORT_ARRAY);
+			putVarInt(out, a.length);
+			for (short v : a) {
+				out.putShort(v);
+			}
+		} else {
+			char[] a = (char[]) array;
+			out.put(TAG_CHAR_ARRAY);
+			putVarInt(out, a.length);
+			for (char v : a) {
+				out.putChar(v);
+			}
+		}
+	}
+
+	private void writeObjectValue(WriteContext ctx, IoBuffer out, Object o, Class<?> type) throws IOException {
+		ClassInfo info = registeredByClass.get(type);
+		if (info != null) {
+			out.put(TAG_REGISTERED);
+			putVarInt(out, info.id);
+			writeFields(ctx, out, o, info);
+		} else if (type == ArrayList.class || type == LinkedList.class) {
+			ctx.addHandle(o);
+			out.put(type == ArrayList.class ? TAG_ARRAY_LIST : TAG_LINKED_LIST);
+			writeElements(ctx, out, (Collection<?>) o);
+		} else if (type == HashSet.class || type == LinkedHashSet.class) {
+			ctx.addHandle(o);
+			out.put(type == HashSet.class ? TAG_HASH_SET : TAG_LINKED_HASH_SET);
+			writeElements(ctx, out, (Collection<?>) o);
+		} else if (type == HashMap.class || type == LinkedHashMap.class) {
+			ctx.addHandle(o);
+			out.put(type == HashMap.class ? TAG_HASH_MAP : TAG_LINKED_HASH_MAP);
+			Map<?, ?> map = (Map<?, ?>) o;
+			putVarInt(out, map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				writeValue(ctx, out, entry.getKey());
+				writeValue(ctx, out, entry.getValue());
+			}
+		} else if (type.isRecord() && o instanceof Serializable && (info = RECORD_INFOS.get(type)) != null) {
+			out.put(TAG_RECORD);
+			writeClass(ctx, out, type);
+			writeFields(ctx, out, o, info);
+		} else {
+			ctx.addHandle(o);
+			out.put(TAG_JAVA);
+			try {
+				out.putObject(o);
+			} catch (BufferDataException e) {
+				if (e.getCause() instanceof IOException ioe) {
+					throw ioe;
+				}
+				throw e;
+			}
+		}
+	}
+
+	private void writeElements(WriteContext ctx, IoBuffer out, Collection<?> collection) throws IOException {
+		putVarInt(out, collection.size());
+		for (Object element : collection) {
+			writeValue(ctx, out, element);
+		}
+	}
+
+	private void writeFields(WriteContext ctx, IoBuffer out, Object o, ClassInfo info) throws IOException {
+		if (info.kind == ClassInfo.KIND_RECORD) {
+			// a record is created after its components are read, so it cannot be referenced by them
+			if (!ctx.recordsInProgress.add(o)) {
+				throw new NotSerializableException("cyclic reference to record " + info.type.getName());
+			}
+		} else {
+			ctx.addHandle(o);
+		}
+		for (int i = 0; i < info.getters.length; i++) {
+			Object value;
+			try {
+				value = info.getters[i].invokeExact(o);
+			} catch (Throwable t) {
+				throw new InvalidClassException(info.type.getName(), "cannot read field " + info.names[i] + ": " + t);
+			}
+			Class<?> fieldType = info.fieldTypes[i];
+			if (fieldType.isPrimitive()) {
+				writePrimitive(out, fieldType, value);
+			} else {
+				writeValue(ctx, out, value);
+			}
+		}
+		if (info.kind == ClassInfo.KIND_RECORD) {
+			ctx.recordsInProgress.remove(o);
+			ctx.addHandle(o);
+		}
+	}
+
+	private static void writePrimitive(IoBuffer out, Class<?> type, Object value) {
+		if (type == int.class) {
+			putVarLong(out, zigZag((Integer) value));
+		} else if (type == long.class) {
+			putVarLong(out, zigZag((Long) value));
+		} else if (type == boolean.class) {
+			out.put((Boolean) value ? (byte) 1 : (byte) 0);
+		} else if (type == double.class) {
+			out.putDouble((Double) value);
+		} else if (type == float.class) {
+			out.putFloat((Float) value);
+		} else if (type == byte.class) {
+			out.put((Byte) value);
+		} else if (type == short.class) {
+			out.putShort((Short) value);
+		} else {
+			out.putChar((Character) value);
+		}
+	}
+
+	private static void writeClass(WriteContext ctx, IoBuffer out, Class<?> type) {
+		Integer index = ctx.classes.get(type);
+		if (index != null) {
+			putVarInt(out, index + 1);
+		} else {
+			putVarInt(out, 0);
+			putString(out, type.getName());
+			ctx.classes.put(type, ctx.classes.size());
+		}
+	}
+
+	private Object readValue(ReadContext ctx, IoBuffer in) throws IOException, ClassNotFoundException {
+		byte tag = in.get();
+		switch (tag) {
+			case TAG_NULL:
+				return null;
+			case TAG_TRUE:
+				return Boolean.TRUE;
+			case TAG_FALSE:
+				return Boolean.FALSE;
+			case TAG_BYTE:
+				return in.get();
+			case TAG_SHORT:
+				return in.getShort();
+			case TAG_CHAR:
+				return in.getChar();
+			case TAG_INT:
+				return (int) unZigZag(getVarLong(in));
+			case TAG_LONG:
+				return unZigZag(getVarLong(in));
+			case TAG_FLOAT:
+				return in.getFloat();
+			case TAG_DOUBLE:
+				return in.getDouble();
+			case TAG_STRING:
+				return getString(in);
+			case TAG_BOOLEAN_ARRAY: {
+				boolean[] a = new boolean[getLength(in, 1)];
+				ctx.handles.add(a);
+				for (int i = 0; i < a.length; i++) {
+					a[i] = in.get() != 0;
+				}
+				return a;
+			}
+			case TAG_BYTE_ARRAY: {
+				byte[] a = new byte[getLength(in, 1)];
+				ctx.handles.add(a);
+				in.get(a);
+				return a;
+			}
+			case TAG_SHORT_ARRAY: {
+				short[] a = new short[getLength(in, 2)];
+				ctx.handles.add(a);
+				for (int i = 0; i < a.length; i++) {
+					a[i] = in.getShort();
+				}
+				return a;
+			}
+			case TAG_CHAR_ARRAY: {
+				char[] a = new char[getLength(in, 2)];
+				ctx.handles.add(a);
+				for (int i = 0; i < a.length; i++) {
+					a[i] = in.getChar();
+				}
+				return a;
+			}
+			case TAG_INT_ARRAY: {
+				int[] a = new int[getLength(in, 1)];
+				ctx.handles.add(a);
+				for (int i = 0; i < a.length; i++) {
+					a[i] = (int) unZigZag(getVarLong(in));
+				}
+				return a;
+			}
+			case TAG_LONG_ARRAY: {
+				long[] a = new long[getLength(in, 1)];
+				ctx.handles.add(a);
+				for (int i = 0; i < a.length; i++) {
+					a[i] = unZigZag(getVarLong(in));
+				}
+				return a;
+			}
+			case TAG_FLOAT_ARRAY: {
+				float[] a = new float[getLength(in, 4)];
+				ctx.handles.add(a);
+				for (int i = 0; i < a.length; i++) {
+					a[i] = in.getFloat();
+				}
+				return a;
+			}
+			case TAG_DOUBLE_ARRAY: {
+				double[] a = new double[getLength(in, 8)];
+				ctx.handles.add(a);
+				for (int i = 0; i < a.length; i++) {
+					a[i] = in.getDouble();
+				}
+				return a;
+			}
+			case TAG_OBJECT_ARRAY: {
+				Class<?> componentType = readClass(ctx, in);
+				Object[] a = (Object[]) Array.newInstance(componentType, getLength(in, 1));
+				ctx.handles.add(a);
+				for (int i = 0; i < a.length; i++) {
+					a[i] = readValue(ctx, in);
+				}
+				return a;
+			}
+			case TAG_ARRAY_LIST: {
+				int size = getLength(in, 1);
+				return readElements(ctx, in, new ArrayList<>(size), size);
+			}
+			case TAG_LINKED_LIST:
+				return readElements(ctx, in, new LinkedList<>(), getLength(in, 1));
+			case TAG_HASH_SET: {
+				int size = getLength(in, 1);
+				return readElements(ctx, in, new HashSet<>(mapCapacity(size)), size);
+			}
+			case TAG_LINKED_HASH_SET: {
+				int size = getLength(in, 1);
+				return readElements(ctx, in, new LinkedHashSet<>(mapCapacity(size)), size);
+			}
+			case TAG_HASH_MAP: {
+				int size = getLength(in, 2);
+				return readEntries(ctx, in, new HashMap<>(mapCapacity(size)), size);
+			}
+			case TAG_LINKED_HASH_MAP: {
+				int size = getLength(in, 2);
+				return readEntries(ctx, in, new LinkedHashMap<>(mapCapacity(size)), size);
+			}
+			case TAG_ENUM: {
+				Class<?> type = readClass(ctx, in);
+				if (!type.isEnum()) {
+					throw new InvalidClassException(type.getName(), "not an enum");
+				}
+				return readEnum(type, in);
+			}
+			case TAG_RECORD: {
+				Class<?> type = readClass(ctx, in);
+				ClassInfo info = type.isRecord() && Serializable.class.isAssignableFrom(type) ? RECORD_INFOS.get(type) : null;
+				if (info == null) {
+					throw new InvalidClassException(type.getName(), "not a serializable record");
+				}
+				return readFields(ctx, in, info);
+			}
+			case TAG_REGISTERED: {
+				int id = getVarInt(in);
+				ClassInfo[] infos = registered;
+				if (id < 0 || id >= infos.length) {
+					throw new StreamCorruptedException("unknown registered class id " + id + ", classes must be registered in the same order on both sides");
+				}
+				ClassInfo info = infos[id];
+				if (info.kind == ClassInfo.KIND_ENUM) {
+					return readEnum(info.type, in);
+				}
+				return readFields(ctx, in, info);
+			}
+			case TAG_REFERENCE: {
+				int handle = getVarInt(in);
+				if (handle < 0 || handle >= ctx.handles.size()) {
+					throw new StreamCorruptedException("invalid reference " + handle);
+				}
+				return ctx.handles.get(handle);
+			}
+			case TAG_JAVA: {
+				Object o = ctx.classLoader == null ? in.getObject() : in.getObject(ctx.classLoader);
+				ctx.handles.add(o);
+				return o;
+			}
+			default:
+				throw new StreamCorruptedException("invalid tag " + tag);
+		}
+	}
+
+	private Collection<Object> readElements(ReadContext ctx, IoBuffer in, Collection<Object> collection, int size) throws IOException, ClassNotFoundException {
+		ctx.handles.add(collection);
+		for (int i = 0; i < size; i++) {
+			collection.add(readValue(ctx, in));
+		}
+		return collection;
+	}
+
+	private Map<Object, Object> readEntries(ReadContext ctx, IoBuffer in, Map<Object, Object> map, int size) throws IOException, ClassNotFoundException {
+		ctx.handles.add(map);
+		for (int i = 0; i < size; i++) {
+			Object key = readValue(ctx, in);
+			map.put(key, readValue(ctx, in));
+		}
+		return map;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static Object readEnum(Class<?> type, IoBuffer in) throws IOException {
+		String name = getString(in);
+		try {
+			return Enum.valueOf((Class) type, name);
+		} catch (IllegalArgumentException e) {
+			throw new InvalidClassException(type.getName(), "unknown enum constant " + name);
+		}
+	}
+
+	private Object readFields(ReadContext ctx, IoBuffer in, ClassInfo info) throws IOException, ClassNotFoundException {
+		Object[] values = new Object[info.fieldTypes.length];
+		Object instance = null;
+		if (info.kind == ClassInfo.KIND_BEAN) {
+			try {
+				instance = info.constructor.invoke();
+			} catch (Throwable t) {
+				throw new InvalidClassException(info.type.getName(), "cannot instantiate: " + t);
+			}
+			ctx.handles.add(instance);
+		}
+		for (int i = 0; i < values.length; i++) {
+			Class<?> fieldType = info.fieldTypes[i];
+			values[i] = fieldType.isPrimitive() ? readPrimitive(in, fieldType) : readValue(ctx, in);
+		}
+		try {
+			if (info.kind == ClassInfo.KIND_RECORD) {
+				instance = info.constructor.invokeExact(values);
+				ctx.handles.add(instance);
+			} else {
+				for (int i = 0; i < values.length; i++) {
+					info.setters[i].invokeExact(instance, values[i]);
+				}
+			}
+		} catch (Throwable t) {
+			throw new InvalidClassException(info.type.getName(), "cannot set fields: " + t);
+		}
+		return instance;
+	}
+
+	private static Object readPrimitive(IoBuffer in, Class<?> type) {
+		if (type == int.class) {
+			return (int) unZigZag(getVarLong(in));
+		} else if (type == long.class) {
+			return unZigZag(getVarLong(in));
+		} else if (type == boolean.class) {
+			return in.get() != 0;
+		} else if (type == double.class) {
+			return in.getDouble();
+		} else if (type == float.class) {
+			return in.getFloat();
+		} else if (type == byte.class) {
+			return in.get();
+		} else if (type == short.class) {
+			return in.getShort();
+		} else {
+			return in.getChar();
+		}
+	}
+
+	private static Class<?> readClass(ReadContext ctx, IoBuffer in) throws IOException, ClassNotFoundException {
+		int index = getVarInt(in);
+		if (index > 0) {
+			if (index > ctx.classes.size()) {
+				throw new StreamCorruptedException("invalid class reference " + index);
+			}
+			return ctx.classes.get(index - 1);
+		}
+		String name = getString(in);
+		ClassLoader classLoader = ctx.classLoader != null ? ctx.classLoader : Thread.currentThread().getContextClassLoader();
+		Class<?> type = Class.forName(name, false, classLoader);
+		ctx.classes.add(type);
+		return type;
+	}
+
+	/**
+	 * Reads a length and checks it against the remaining bytes, so that corrupt
+	 * data cannot allocate huge arrays
+	 */
+	private static int getLength(IoBuffer in, int minBytesPerElement) throws StreamCorruptedException {
+		int length = getVarInt(in);
+		if (length < 0 || (long) length * minBytesPerElement > in.remaining()) {
+			throw new StreamCorruptedException("invalid length " + length + ", remaining " + in.remaining());
+		}
+		return length;
+	}
+
+	private static int mapCapacity(int size) {
+		return (int) (size / 0.75f) + 1;
+	}
+
+	private static void putString(IoBuffer out, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		putVarInt(out, bytes.length);
+		out.put(bytes);
+	}
+
+	private static String getString(IoBuffer in) throws StreamCorruptedException {
+		int length = getLength(in, 1);
+		String s;
+		if (in.hasArray()) {
+			s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+			in.skip(length);
+		} else {
+			byte[] bytes = new byte[length];
+			in.get(bytes);
+			s = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return s;
+	}
+
+	@Override
+	public String toString() {
+		return "CompactSerializer[registered=" + registered.length + "]";
+	}
+
+	/**
+	 * The state of writing one value
+	 */
+	private static final class WriteContext {
+		private final Map<Object, Integer> handles = new IdentityHashMap<>();
+		private final Set<Object> recordsInProgress = Collections.newSetFromMap(new IdentityHashMap<>());
+		private final Map<Class<?>, Integer> classes = new HashMap<>();
+
+		private void addHandle(Object o) {
+			handles.put(o, handles.size());
+		}
+	}
+
+	/**
+	 * The state of reading one value
+	 */
+	private static final class ReadContext {
+		private final ClassLoader classLoader;
+		private final List<Object> handles = new ArrayList<>();
+		private final List<Class<?>> classes = new ArrayList<>();
+
+		private ReadContext(ClassLoader classLoader) {
+			this.classLoader = classLoader;
+		}
+	}
+
+	/**
+	 * The accessors of a registered class or a record
+	 */
+	private static final class ClassInfo {
+		private static final int KIND_ENUM = 0;
+		private static final int KIND_RECORD = 1;
+		private static final int KIND_BEAN = 2;
+
+		private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+		private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+		private final Class<?> type;
+		private final int id;
+		private final int kind;
+		private final String[] names;
+		private final Class<?>[] fieldTypes;
+		private final MethodHandle[] getters;
+		private final MethodHandle[] setters;
+		/**
+		 * () -> Object for beans, (Object[]) -> Object for records
+		 */
+		private final MethodHandle constructor;
+
+		private ClassInfo(Class<?> type, int id, int kind, String[] names, Class<?>[] fieldTypes, MethodHandle[] getters, MethodHandle[] setters, MethodHandle constructor) {
+			this.type = type;
+			this.id = id;
+			this.kind = kind;
+			this.names = names;
+			this.fieldTypes = fieldTypes;
+			this.getters = getters;
+			this.setters = setters;
+			this.constructor = constructor;
+		}
+
+		private static ClassInfo forEnum(Class<?> type, int id) {
+			return new ClassInfo(type, id, KIND_ENUM, new String[0], new Class<?>[0], new MethodHandle[0], new MethodHandle[0], null);
+		}
+
+		private static ClassInfo forRecord(Class<?> type, int id) {
+			if (hasCustomSerialization(type)) {
+				throw new IllegalArgumentException("record " + type.getName() + " declares writeReplace() or readResolve()");
+			}
+			RecordComponent[] components = type.getRecordComponents();
+			String[] names = new String[components.length];
+			Class<?>[] fieldTypes = new Class<?>[components.length];
+			MethodHandle[] getters = new MethodHandle[components.length];
+			try {
+				MethodHandles.Lookup lookup = MethodHandles.lookup();
+				for (int i = 0; i < components.length; i++) {
+					names[i] = components[i].getName();
+					fieldTypes[i] = components[i].getType();
+					Method accessor = components[i].getAccessor();
+					accessor.setAccessible(true);
+					getters[i] = lookup.unreflect(accessor).asType(GETTER_TYPE);
+				}
+				Constructor<?> canonical = type.getDeclaredConstructor(fieldTypes);
+				canonical.setAccessible(true);
+				MethodHandle constructor = lookup.unreflectConstructor(canonical)
+						.asSpreader(Object[].class, components.length)
+						.asType(MethodType.methodType(Object.class, Object[].class));
+				return new ClassInfo(type, id, KIND_RECORD, names, fieldTypes, getters, null, constructor);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				throw new IllegalArgumentException("cannot access record " + type.getName(), e);
+			}
+		}
+
+		private static ClassInfo forBean(Class<?> type, int id) {
+			if (type.isInterface() || Modifier.isAbstract(type.getModifiers()) || type.isArray() || type.isPrimitive()) {
+				throw new IllegalArgumentException("cannot register " + type.getName() + ", it is not instantiable");
+			}
+			List<Field> fields = new ArrayList<>();
+			for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					int modifiers = field.getModifiers();
+					if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+						fields.add(field);
+					}
+				}
+			}
+			// a stable order that does not depend on the order reflection reports the fields
+			fields.sort(Comparator.comparing((Field f) -> f.getDeclaringClass().getName()).thenComparing(Field::getName));
+
+			String[] names = new String[fields.size()];
+			Class<?>[] fieldTypes = new Class<?>[fields.size()];
+			MethodHandle[] getters = new MethodHandle[fields.size()];
+			MethodHandle[] setters = new MethodHandle[fields.size()];
+			try {
+				MethodHandles.Lookup lookup = MethodHandles.lookup();
+				for (int i = 0; i < names.length; i++) {
+					Field field = fields.get(i);
+					field.setAccessible(true);
+					names[i] = field.getName();
+					fieldTypes[i] = field.getType();
+					getters[i] = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+					setters[i] = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+				}
+				Constructor<?> noArgs = type.getDeclaredConstructor();
+				noArgs.setAccessible(true);
+				MethodHandle constructor = lookup.unreflectConstructor(noArgs).asType(MethodType.methodType(Object.class));
+				return new ClassInfo(type, id, KIND_BEAN, names, fieldTypes, getters, setters, constructor);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				throw new IllegalArgumentException("cannot access " + type.getName() + ", it needs a no-argument constructor and accessible fields", e);
+			}
+		}
+
+		private static boolean hasCustomSerialization(Class<?> type) {
+			for (String name : new String[]{"writeReplace", "readResolve"}) {
+				try {
+					type.getDeclaredMethod(name);
+					return true;
+				} catch (NoSuchMethodException e) {
+					// not declared
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.serialization;
+
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
+
+import java.io.IOException;
+
+/**
+ * The default serializer, which uses Java serialization via
+ * {@link IoBuffer#putObject(Object)} and {@link IoBuffer#getObject(ClassLoader)}.
+ * This is wire compatible with SIMON versions that had no serializer
+ * selection.
+ */
+public final class JavaSerializer implements SimonSerializer {
+
+	/**
+	 * the shared instance
+	 */
+	public static final JavaSerializer INSTANCE = new JavaSerializer();
+
+	private JavaSerializer() {
+	}
+
+	@Override
+	public void writeObject(IoBuffer out, Object object) throws IOException {
+		try {
+			out.putObject(object);
+		} catch (BufferDataException e) {
+			if (e.getCause() instanceof IOException ioe) {
+				throw ioe;
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public Object readObject(IoBuffer in, ClassLoader classLoader) throws ClassNotFoundException {
+		return classLoader == null ? in.getObject() : in.getObject(classLoader);
+	}
+
+	@Override
+	public String toString() {
+		return "JavaSerializer";
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2008 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of SIMON.
+ *
+ *   SIMON is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   SIMON is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with SIMON.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package host.anzo.simon.serialization;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Writes and reads the values transferred with remote calls: method
+ * arguments, return values, objects passed to <code>equals()</code> and
+ * errors. Both sides of a connection have to use the same serializer.
+ * <p>
+ * Implementations are shared by all sessions of a registry or lookup and
+ * therefore must be thread safe.
+ *
+ * @see JavaSerializer
+ * @see CompactSerializer
+ */
+public interface SimonSerializer {
+
+	/**
+	 * Writes the given value to the buffer
+	 *
+	 * @param out    the buffer to write to, auto expanding
+	 * @param object the value to write, may be null
+	 * @throws IOException if the value cannot be written, f.i. because it is not serializable
+	 */
+	void writeObject(IoBuffer out, Object object) throws IOException;
+
+	/**
+	 * Reads a value which has been written by {@link #writeObject(IoBuffer, Object)}
+	 *
+	 * @param in          the buffer to read from
+	 * @param classLoader the classloader used to resolve classes, null for the
+	 *                    context classloader of the current thread
+	 * @return the value, may be null
+	 * @throws IOException            if the data is corrupt
+	 * @throws ClassNotFoundException if a class of the value cannot be found
+	 */
+	Object readObject(IoBuffer in, ClassLoader classLoader) throws IOException, ClassNotFoundException;
+
+	/**
+	 * Returns whether the given value can be written by this serializer. Used
+	 * to reject values early with a meaningful error. The default accepts
+	 * null and all {@link Serializable} values.
+	 *
+	 * @param object the value
+	 * @return true, if the value can be written
+	 */
+	default boolean canWrite(Object object) {
+		return object == null || object instanceof Serializable;
+	}
+}
@@ -12,6 +12,8 @@ import host.anzo.simon.annotation.SimonRemote;
 import host.anzo.simon.codec.base.SimonProtocolCodecFactory;
 import host.anzo.simon.exceptions.IllegalRemoteObjectException;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.mina.core.buffer.BufferDataException;
+import org.apache.mina.core.buffer.IoBuffer;
 import org.jetbrains.annotations.NotNull;
 import org.xml.sax.SAXException;
 
@@ -187,6 +189,104 @@ public class Utils {
 		}
 	}
 
+	/**
+	 * Writes an unsigned variable length int: 7 bits per byte, the highest
+	 * bit indicates that another byte follows. Values below 128 take one byte.
+	 *
+	 * @param out the buffer to write to
+	 * @param v   the value, treated as unsigned
+	 */
+	public static void putVarInt(IoBuffer out, int v) {
+		while ((v & ~0x7F) != 0) {
+			out.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.put((byte) v);
+	}
+
+	/**
+	 * Returns the number of bytes {@link #putVarInt(IoBuffer, int)} writes for the given value
+	 *
+	 * @param v the value, treated as unsigned
+	 * @return 1 to 5
+	 */
+	public static int varIntSize(int v) {
+		return (31 - Integer.numberOfLeadingZeros(v | 1)) / 7 + 1;
+	}
+
+	/**
+	 * Writes an unsigned variable length long, see {@link #putVarInt(IoBuffer, int)}
+	 *
+	 * @param out the buffer to write to
+	 * @param v   the value, treated as unsigned
+	 */
+	public static void putVarLong(IoBuffer out, long v) {
+		while ((v & ~0x7FL) != 0) {
+			out.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.put((byte) v);
+	}
+
+	/**
+	 * Reads a variable length int written by {@link #putVarInt(IoBuffer, int)}
+	 *
+	 * @param in the buffer to read from
+	 * @return the value
+	 * @throws BufferDataException if the value is longer than 5 bytes
+	 */
+	public static int getVarInt(IoBuffer in) {
+		int result = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = in.get();
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new BufferDataException("malformed varint");
+	}
+
+	/**
+	 * Reads a variable length long written by {@link #putVarLong(IoBuffer, long)}
+	 *
+	 * @param in the buffer to read from
+	 * @return the value
+	 * @throws BufferDataException if the value is longer than 10 bytes
+	 */
+	public static long getVarLong(IoBuffer in) {
+		long result = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			byte b = in.get();
+			result |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new BufferDataException("malformed varint");
+	}
+
+	/**
+	 * Maps signed to unsigned values so that small negative values get a
+	 * short variable length encoding: 0, -1, 1, -2, ... become 0, 1, 2, 3, ...
+	 *
+	 * @param v the signed value
+	 * @return the zigzag encoded value
+	 */
+	public static long zigZag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	/**
+	 * Reverses {@link #zigZag(long)}
+	 *
+	 * @param v the zigzag encoded value
+	 * @return the signed value
+	 */
+	public static long unZigZag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
 	/**
 	 * Method that returns an Class array containing all remote interfaces of
 	 * a given class